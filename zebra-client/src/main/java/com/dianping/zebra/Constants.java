@@ -87,6 +87,8 @@ public final class Constants {
 
 	public static final String ROUTER_STRATEGY_REGION_AWARE_ROUTER = "RegionAwareRouter"; // 同区域权重路由
 
+	public static final String ROUTER_STRATEGY_LATENCY_AWARE_ROUTER = "LatencyAwareRouter"; // 机房优先, 机房内按延迟路由
+
 	// app
 	public static final String APP_NO_NAME = "noname";
 
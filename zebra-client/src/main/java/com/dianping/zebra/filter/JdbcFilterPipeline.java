@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.filter;
+
+import java.beans.PropertyChangeEvent;
+import java.lang.reflect.Method;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+import com.dianping.zebra.group.config.datasource.entity.DataSourceConfig;
+import com.dianping.zebra.group.datasources.FailOverDataSource;
+import com.dianping.zebra.group.jdbc.GroupConnection;
+import com.dianping.zebra.group.jdbc.GroupDataSource;
+import com.dianping.zebra.shard.jdbc.ShardDataSource;
+import com.dianping.zebra.shard.jdbc.ShardResultSet;
+import com.dianping.zebra.shard.jdbc.ShardStatement;
+import com.dianping.zebra.shard.router.RouterResult;
+import com.dianping.zebra.single.jdbc.SingleConnection;
+import com.dianping.zebra.single.jdbc.SingleDataSource;
+import com.dianping.zebra.single.jdbc.SingleResultSet;
+import com.dianping.zebra.single.jdbc.SingleStatement;
+
+/**
+ * <p>
+ * 预编译的不可变filter链，在数据源初始化以及刷新时构建，之后在所有调用间共享
+ * </p>
+ * 对每个拦截点预先计算出真正覆盖了该方法的filter，继承自<tt>DefaultJdbcFilter</tt>而没有覆盖的filter只是把调用原样传给下一个，
+ * 直接跳过。某个拦截点没有filter时<tt>filters(List, Hook)</tt>返回空列表，调用方不再创建<tt>DefaultJdbcFilterChain</tt>。
+ * 实现了<tt>ConditionalFilter</tt>的filter只在<tt>isActive</tt>返回<tt>true</tt>时加入对应拦截点。
+ */
+public final class JdbcFilterPipeline extends AbstractList<JdbcFilter> implements RandomAccess {
+
+	public static final JdbcFilterPipeline EMPTY = new JdbcFilterPipeline(new JdbcFilter[0]);
+
+	private final JdbcFilter[] filters;
+
+	private final List<List<JdbcFilter>> hookFilters;
+
+	// 不含ConditionalFilter的filter，所有ConditionalFilter都不生效时使用
+	private final List<List<JdbcFilter>> staticHookFilters;
+
+	private final ConditionalFilter[][] conditionalFilters;
+
+	private JdbcFilterPipeline(JdbcFilter[] filters) {
+		this.filters = filters;
+
+		Hook[] hooks = Hook.values();
+		List<List<JdbcFilter>> hookFilters = new ArrayList<List<JdbcFilter>>(hooks.length);
+		List<List<JdbcFilter>> staticHookFilters = new ArrayList<List<JdbcFilter>>(hooks.length);
+		this.conditionalFilters = new ConditionalFilter[hooks.length][];
+		for (Hook hook : hooks) {
+			List<JdbcFilter> overridden = new ArrayList<JdbcFilter>(filters.length);
+			List<JdbcFilter> staticOverridden = new ArrayList<JdbcFilter>(filters.length);
+			List<ConditionalFilter> conditional = new ArrayList<ConditionalFilter>();
+			for (JdbcFilter filter : filters) {
+				if (hook.isOverriddenBy(filter)) {
+					overridden.add(filter);
+					if (filter instanceof ConditionalFilter) {
+						conditional.add((ConditionalFilter) filter);
+					} else {
+						staticOverridden.add(filter);
+					}
+				}
+			}
+			hookFilters.add(unmodifiable(overridden));
+			staticHookFilters.add(conditional.isEmpty() ? hookFilters.get(hook.ordinal()) : unmodifiable(staticOverridden));
+			this.conditionalFilters[hook.ordinal()] = conditional.toArray(new ConditionalFilter[conditional.size()]);
+		}
+		this.hookFilters = hookFilters;
+		this.staticHookFilters = staticHookFilters;
+	}
+
+	private static List<JdbcFilter> unmodifiable(List<JdbcFilter> filters) {
+		return filters.isEmpty() ? Collections.<JdbcFilter> emptyList() : Collections.unmodifiableList(filters);
+	}
+
+	/**
+	 * 按给定顺序构建filter链，已经是<tt>JdbcFilterPipeline</tt>时直接返回
+	 */
+	public static JdbcFilterPipeline compile(List<JdbcFilter> filters) {
+		if (filters instanceof JdbcFilterPipeline) {
+			return (JdbcFilterPipeline) filters;
+		}
+		if (filters == null || filters.isEmpty()) {
+			return EMPTY;
+		}
+
+		return new JdbcFilterPipeline(filters.toArray(new JdbcFilter[filters.size()]));
+	}
+
+	/**
+	 * 返回需要在拦截点<tt>hook</tt>上执行的filter，不是预编译的列表时原样返回
+	 */
+	public static List<JdbcFilter> filters(List<JdbcFilter> filters, Hook hook) {
+		if (filters instanceof JdbcFilterPipeline) {
+			return ((JdbcFilterPipeline) filters).getFilters(hook);
+		}
+
+		return filters == null ? Collections.<JdbcFilter> emptyList() : filters;
+	}
+
+	public List<JdbcFilter> getFilters(Hook hook) {
+		int index = hook.ordinal();
+		for (ConditionalFilter filter : conditionalFilters[index]) {
+			if (filter.isActive(hook)) {
+				return hookFilters.get(index);
+			}
+		}
+
+		return staticHookFilters.get(index);
+	}
+
+	@Override
+	public JdbcFilter get(int index) {
+		return filters[index];
+	}
+
+	@Override
+	public int size() {
+		return filters.length;
+	}
+
+	/**
+	 * <p>
+	 * 是否拦截取决于运行时状态的filter
+	 * </p>
+	 * 例如只在配置了限流时才需要拦截每次执行。不生效时该filter不会出现在对应拦截点的链上，生效时按编译时的顺序执行。
+	 */
+	public interface ConditionalFilter {
+
+		boolean isActive(Hook hook);
+	}
+
+	public enum Hook {
+		INIT_GROUP_DATASOURCE("initGroupDataSource", GroupDataSource.class, JdbcFilter.class),
+
+		REFRESH_GROUP_DATASOURCE("refreshGroupDataSource", GroupDataSource.class, String.class, JdbcFilter.class),
+
+		GET_GROUP_CONNECTION("getGroupConnection", GroupDataSource.class, JdbcFilter.class),
+
+		FIND_MASTER_FAILOVER_DATASOURCE("findMasterFailOverDataSource", FailOverDataSource.MasterDataSourceMonitor.class,
+		      JdbcFilter.class),
+
+		CLOSE_GROUP_CONNECTION("closeGroupConnection", GroupConnection.class, JdbcFilter.class),
+
+		CLOSE_GROUP_DATASOURCE("closeGroupDataSource", GroupDataSource.class, JdbcFilter.class),
+
+		SWITCH_FAILOVER_DATASOURCE("switchFailOverDataSource", FailOverDataSource.class, JdbcFilter.class),
+
+		INIT_SINGLE_DATASOURCE("initSingleDataSource", SingleDataSource.class, JdbcFilter.class),
+
+		GET_SINGLE_CONNECTION("getSingleConnection", SingleDataSource.class, JdbcFilter.class),
+
+		PROCESS_SQL("processSQL", DataSourceConfig.class, SQLProcessContext.class, JdbcFilter.class),
+
+		EXECUTE_SINGLE_STATEMENT("executeSingleStatement", SingleStatement.class, SingleConnection.class, String.class,
+		      List.class, boolean.class, boolean.class, Object.class, JdbcFilter.class),
+
+		CLOSE_SINGLE_CONNECTION("closeSingleConnection", SingleConnection.class, JdbcFilter.class),
+
+		CLOSE_SINGLE_DATASOURCE("closeSingleDataSource", SingleDataSource.class, JdbcFilter.class),
+
+		CLOSE_SINGLE_RESULTSET("closeSingleResultSet", SingleResultSet.class, JdbcFilter.class),
+
+		INIT_SHARD_DATASOURCE("initShardDataSource", ShardDataSource.class, JdbcFilter.class),
+
+		EXECUTE_SHARD_QUERY("executeShardQuery", ShardStatement.class, String.class, JdbcFilter.class),
+
+		EXECUTE_SHARD_UPDATE("executeShardUpdate", ShardStatement.class, String.class, int.class, int[].class,
+		      String[].class, JdbcFilter.class),
+
+		SHARD_ROUTING("shardRouting", RouterResult.class, JdbcFilter.class),
+
+		SHARD_MERGE("shardMerge", ShardResultSet.class, JdbcFilter.class),
+
+		CONFIG_CHANGED("configChanged", PropertyChangeEvent.class, JdbcFilter.class);
+
+		private final String methodName;
+
+		private final Class<?>[] parameterTypes;
+
+		Hook(String methodName, Class<?>... parameterTypes) {
+			this.methodName = methodName;
+			this.parameterTypes = parameterTypes;
+		}
+
+		boolean isOverriddenBy(JdbcFilter filter) {
+			try {
+				Method method = filter.getClass().getMethod(methodName, parameterTypes);
+				return method.getDeclaringClass() != DefaultJdbcFilter.class;
+			} catch (NoSuchMethodException e) {
+				return true;
+			}
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.filter.stat;
+
+import com.dianping.zebra.util.StripedCounter;
+
+/**
+ * 一个数据源获取连接的耗时统计，包含在连接池里排队的时间；次数累计，耗时分位数只反映最近一到两分钟
+ */
+public class DataSourceStat implements DataSourceStatMBean {
+
+	private final String dataSourceId;
+
+	private final RollingLatencyHistogram connectionTime = new RollingLatencyHistogram();
+
+	private final StripedCounter connectionCount = new StripedCounter();
+
+	private final StripedCounter connectionErrorCount = new StripedCounter();
+
+	public DataSourceStat(String dataSourceId) {
+		this.dataSourceId = dataSourceId;
+	}
+
+	public void recordConnection(long micros, boolean success) {
+		connectionTime.record(micros);
+		connectionCount.increment();
+		if (!success) {
+			connectionErrorCount.increment();
+		}
+	}
+
+	@Override
+	public String getDataSourceId() {
+		return dataSourceId;
+	}
+
+	@Override
+	public long getConnectionCount() {
+		return connectionCount.sum();
+	}
+
+	@Override
+	public long getConnectionErrorCount() {
+		return connectionErrorCount.sum();
+	}
+
+	@Override
+	public double getConnectionMeanMicros() {
+		return connectionTime.getMean();
+	}
+
+	@Override
+	public long getConnectionMaxMicros() {
+		return connectionTime.getMax();
+	}
+
+	@Override
+	public long getConnectionP50Micros() {
+		return connectionTime.getValueAtPercentile(50);
+	}
+
+	@Override
+	public long getConnectionP99Micros() {
+		return connectionTime.getValueAtPercentile(99);
+	}
+
+	@Override
+	public long getConnectionP999Micros() {
+		return connectionTime.getValueAtPercentile(99.9);
+	}
+
+	@Override
+	public void resetStats() {
+		connectionTime.reset();
+		connectionCount.reset();
+		connectionErrorCount.reset();
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.filter.stat;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.dianping.zebra.util.StripedCounter;
+
+/**
+ * <p>
+ * 无锁的对数线性直方图，记录单位为微秒
+ * </p>
+ * 和HdrHistogram一样，每个2的幂区间再线性分成16个桶，相对误差不超过1/16；超过2^41微秒的值记在最后一个桶里。
+ * 桶按线程id分成几组，每组是一段连续的计数，不同线程记录时不争用同一个计数；读取时把各组对应的桶相加。
+ * 记录时只算出桶的下标，做两次原子累加，不分配对象。分位数按桶的上界返回，读取时不停止记录，结果是近似值。
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private static final int MAX_EXPONENT = 40;
+
+	private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+	static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+	// 每组桶约5KB，组数不超过4，每条SQL的统计不会太大
+	private static final int STRIPES = Integer.highestOneBit(Math.max(Math.min(Runtime.getRuntime()
+	      .availableProcessors(), 4), 1));
+
+	private final AtomicLongArray buckets = new AtomicLongArray(STRIPES * BUCKETS);
+
+	private final StripedCounter sum = new StripedCounter();
+
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long value) {
+		long v = value < 0 ? 0 : Math.min(value, MAX_VALUE);
+
+		int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+		buckets.incrementAndGet(stripe * BUCKETS + bucketIndex(v));
+		sum.add(v);
+
+		long current = max.get();
+		while (v > current && !max.compareAndSet(current, v)) {
+			current = max.get();
+		}
+	}
+
+	static int bucketIndex(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	static long lowerBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+
+		int exponent = (index >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+		return (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << (exponent - SUB_BUCKET_BITS);
+	}
+
+	static long upperBound(int index) {
+		return index + 1 < BUCKETS ? lowerBound(index + 1) - 1 : MAX_VALUE;
+	}
+
+	/**
+	 * 各组桶相加后的计数，下标和<tt>bucketIndex</tt>一致
+	 */
+	long[] getCounts() {
+		long[] counts = new long[BUCKETS];
+		addCountsTo(counts);
+		return counts;
+	}
+
+	void addCountsTo(long[] counts) {
+		for (int stripe = 0; stripe < STRIPES; stripe++) {
+			int offset = stripe * BUCKETS;
+			for (int i = 0; i < BUCKETS; i++) {
+				counts[i] += buckets.get(offset + i);
+			}
+		}
+	}
+
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < buckets.length(); i++) {
+			count += buckets.get(i);
+		}
+		return count;
+	}
+
+	long getSum() {
+		return sum.sum();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long count = getCount();
+		return count == 0 ? 0 : (double) sum.sum() / count;
+	}
+
+	/**
+	 * @param percentile
+	 *           0到100之间，比如<tt>99.9</tt>
+	 * @return 没有记录时返回0
+	 */
+	public long getValueAtPercentile(double percentile) {
+		return valueAtPercentile(getCounts(), percentile, max.get());
+	}
+
+	static long valueAtPercentile(long[] counts, double percentile, long max) {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(upperBound(i), max);
+			}
+		}
+		return max;
+	}
+
+	public void reset() {
+		for (int i = 0; i < buckets.length(); i++) {
+			buckets.set(i, 0);
+		}
+		sum.reset();
+		max.set(0);
+	}
+}
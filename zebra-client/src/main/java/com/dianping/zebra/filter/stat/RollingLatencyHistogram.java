@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.filter.stat;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>
+ * 只统计最近一段时间的延迟直方图
+ * </p>
+ * 时间按<tt>intervalMillis</tt>切分，只保留当前和上一个区间的<tt>LatencyHistogram</tt>，读取的分位数、均值、最大值和吞吐量
+ * 覆盖最近一到两个区间。区间到期时由记录或者读取的线程换上新的直方图，上一个区间直接丢弃，不需要后台线程。
+ */
+public class RollingLatencyHistogram {
+
+	public static final long DEFAULT_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+	private final long intervalMillis;
+
+	private final AtomicReference<Window> window = new AtomicReference<Window>();
+
+	public RollingLatencyHistogram() {
+		this(DEFAULT_INTERVAL_MILLIS);
+	}
+
+	public RollingLatencyHistogram(long intervalMillis) {
+		this.intervalMillis = Math.max(intervalMillis, 1);
+		this.window.set(new Window(null, new Interval(currentTimeMillis())));
+	}
+
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	public void record(long value) {
+		advance(currentTimeMillis()).current.histogram.record(value);
+	}
+
+	private Window advance(long now) {
+		while (true) {
+			Window w = window.get();
+			long elapsed = now - w.current.startMillis;
+			if (elapsed < intervalMillis) {
+				return w;
+			}
+
+			Window next;
+			if (elapsed < 2 * intervalMillis) {
+				next = new Window(w.current, new Interval(w.current.startMillis + intervalMillis));
+			} else {
+				// 两个区间都已过期
+				next = new Window(null, new Interval(now));
+			}
+			if (window.compareAndSet(w, next)) {
+				return next;
+			}
+		}
+	}
+
+	public long getCount() {
+		Window w = advance(currentTimeMillis());
+		long count = w.current.histogram.getCount();
+		if (w.previous != null) {
+			count += w.previous.histogram.getCount();
+		}
+		return count;
+	}
+
+	public double getMean() {
+		Window w = advance(currentTimeMillis());
+		long count = w.current.histogram.getCount();
+		long sum = w.current.histogram.getSum();
+		if (w.previous != null) {
+			count += w.previous.histogram.getCount();
+			sum += w.previous.histogram.getSum();
+		}
+		return count == 0 ? 0 : (double) sum / count;
+	}
+
+	public long getMax() {
+		Window w = advance(currentTimeMillis());
+		long max = w.current.histogram.getMax();
+		if (w.previous != null) {
+			max = Math.max(max, w.previous.histogram.getMax());
+		}
+		return max;
+	}
+
+	/**
+	 * @param percentile
+	 *           0到100之间，比如<tt>99.9</tt>
+	 * @return 窗口内没有记录时返回0
+	 */
+	public long getValueAtPercentile(double percentile) {
+		Window w = advance(currentTimeMillis());
+		long[] counts = w.current.histogram.getCounts();
+		long max = w.current.histogram.getMax();
+		if (w.previous != null) {
+			w.previous.histogram.addCountsTo(counts);
+			max = Math.max(max, w.previous.histogram.getMax());
+		}
+		return LatencyHistogram.valueAtPercentile(counts, percentile, max);
+	}
+
+	/**
+	 * 窗口内的每秒记录次数
+	 */
+	public double getThroughput() {
+		long now = currentTimeMillis();
+		Window w = advance(now);
+		long count = w.current.histogram.getCount();
+		long startMillis = w.current.startMillis;
+		if (w.previous != null) {
+			count += w.previous.histogram.getCount();
+			startMillis = w.previous.startMillis;
+		}
+		return count * 1000.0 / Math.max(now - startMillis, 1);
+	}
+
+	public void reset() {
+		window.set(new Window(null, new Interval(currentTimeMillis())));
+	}
+
+	private static final class Interval {
+		final long startMillis;
+
+		final LatencyHistogram histogram = new LatencyHistogram();
+
+		Interval(long startMillis) {
+			this.startMillis = startMillis;
+		}
+	}
+
+	private static final class Window {
+		final Interval previous;
+
+		final Interval current;
+
+		Window(Interval previous, Interval current) {
+			this.previous = previous;
+			this.current = current;
+		}
+	}
+}
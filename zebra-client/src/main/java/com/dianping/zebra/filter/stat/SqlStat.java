@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.filter.stat;
+
+import com.dianping.zebra.util.StripedCounter;
+
+/**
+ * <p>
+ * 一个数据源上一条SQL的执行统计
+ * </p>
+ * SQL按<tt>DaoContextHolder</tt>里的SQL名字区分；执行时间包含失败的执行，行数是查询读到的行数加上更新影响的行数。
+ * 次数和行数从创建或者上次重置开始累计，耗时分位数和吞吐量只反映最近一到两分钟。
+ */
+public class SqlStat implements SqlStatMBean {
+
+	private final String dataSourceId;
+
+	private final String sql;
+
+	private final RollingLatencyHistogram executeTime = new RollingLatencyHistogram();
+
+	private final StripedCounter executeCount = new StripedCounter();
+
+	private final StripedCounter errorCount = new StripedCounter();
+
+	private final StripedCounter rowCount = new StripedCounter();
+
+	public SqlStat(String dataSourceId, String sql) {
+		this.dataSourceId = dataSourceId;
+		this.sql = sql;
+	}
+
+	public void recordExecute(long micros, boolean success) {
+		executeTime.record(micros);
+		executeCount.increment();
+		if (!success) {
+			errorCount.increment();
+		}
+	}
+
+	public void recordRows(long rows) {
+		if (rows > 0) {
+			rowCount.add(rows);
+		}
+	}
+
+	@Override
+	public String getDataSourceId() {
+		return dataSourceId;
+	}
+
+	@Override
+	public String getSql() {
+		return sql;
+	}
+
+	@Override
+	public long getExecuteCount() {
+		return executeCount.sum();
+	}
+
+	@Override
+	public long getErrorCount() {
+		return errorCount.sum();
+	}
+
+	@Override
+	public long getRowCount() {
+		return rowCount.sum();
+	}
+
+	/**
+	 * 最近一到两分钟的每秒执行次数
+	 */
+	@Override
+	public double getThroughput() {
+		return executeTime.getThroughput();
+	}
+
+	@Override
+	public double getExecuteMeanMicros() {
+		return executeTime.getMean();
+	}
+
+	@Override
+	public long getExecuteMaxMicros() {
+		return executeTime.getMax();
+	}
+
+	@Override
+	public long getExecuteP50Micros() {
+		return executeTime.getValueAtPercentile(50);
+	}
+
+	@Override
+	public long getExecuteP99Micros() {
+		return executeTime.getValueAtPercentile(99);
+	}
+
+	@Override
+	public long getExecuteP999Micros() {
+		return executeTime.getValueAtPercentile(99.9);
+	}
+
+	@Override
+	public void resetStats() {
+		executeTime.reset();
+		executeCount.reset();
+		errorCount.reset();
+		rowCount.reset();
+	}
+}
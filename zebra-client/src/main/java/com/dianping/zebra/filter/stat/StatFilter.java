@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.filter.stat;
+
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.dianping.zebra.filter.DefaultJdbcFilter;
+import com.dianping.zebra.filter.JdbcFilter;
+import com.dianping.zebra.group.util.DaoContextHolder;
+import com.dianping.zebra.group.util.SqlAliasManager;
+import com.dianping.zebra.log.Logger;
+import com.dianping.zebra.log.LoggerFactory;
+import com.dianping.zebra.single.jdbc.SingleConnection;
+import com.dianping.zebra.single.jdbc.SingleDataSource;
+import com.dianping.zebra.single.jdbc.SingleResultSet;
+import com.dianping.zebra.single.jdbc.SingleStatement;
+import com.dianping.zebra.util.StringUtils;
+
+/**
+ * <p>
+ * 进程内的SQL耗时统计，通过JMX暴露
+ * </p>
+ * 按数据源记录获取连接的耗时，按数据源和SQL名字记录执行耗时、失败次数和行数。没有SQL名字时使用<tt>SqlAliasManager</tt>里的别名，
+ * 每个数据源最多统计<tt>MAX_SQL_STAT_SIZE</tt>条SQL，其余的合并到<tt>other</tt>。每个统计对象第一次出现时注册为
+ * <tt>com.dianping.zebra:type=SqlStat</tt>或者<tt>com.dianping.zebra:type=DataSourceStat</tt>的MBean。
+ */
+public class StatFilter extends DefaultJdbcFilter {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(StatFilter.class);
+
+	private static final String MBEAN_DOMAIN = "com.dianping.zebra";
+
+	private static final int MAX_SQL_STAT_SIZE = 1000;
+
+	private static final String MORE_SQL_NAME = "other";
+
+	private static final String RESULT_SET_STAT_KEY = StatFilter.class.getName();
+
+	private final ConcurrentMap<String, DataSourceStat> dataSourceStats = new ConcurrentHashMap<String, DataSourceStat>();
+
+	private final ConcurrentMap<String, ConcurrentMap<String, SqlStat>> sqlStats = new ConcurrentHashMap<String, ConcurrentMap<String, SqlStat>>();
+
+	@Override
+	public int getOrder() {
+		return MAX_ORDER;
+	}
+
+	@Override
+	public SingleConnection getSingleConnection(SingleDataSource source, JdbcFilter chain) throws SQLException {
+		DataSourceStat stat = findOrCreateDataSourceStat(String.valueOf(source.getId()));
+		long start = System.nanoTime();
+		boolean success = false;
+
+		try {
+			SingleConnection conn = chain.getSingleConnection(source, chain);
+			success = true;
+			return conn;
+		} finally {
+			stat.recordConnection((System.nanoTime() - start) / 1000, success);
+		}
+	}
+
+	@Override
+	public <T> T executeSingleStatement(SingleStatement source, SingleConnection conn, String sql,
+	      List<String> batchedSql, boolean isBatched, boolean autoCommit, Object params, JdbcFilter chain)
+	      throws SQLException {
+		SqlStat stat = findOrCreateSqlStat(String.valueOf(conn.getDataSourceId()), getSqlName());
+		long start = System.nanoTime();
+		boolean success = false;
+
+		try {
+			T result = chain.executeSingleStatement(source, conn, sql, batchedSql, isBatched, autoCommit, params, chain);
+			success = true;
+
+			if (result instanceof SingleResultSet) {
+				((SingleResultSet) result).setAttribute(RESULT_SET_STAT_KEY, stat);
+			} else if (result instanceof Integer) {
+				stat.recordRows((Integer) result);
+			} else if (result instanceof int[]) {
+				for (int rows : (int[]) result) {
+					stat.recordRows(rows);
+				}
+			}
+			return result;
+		} finally {
+			stat.recordExecute((System.nanoTime() - start) / 1000, success);
+		}
+	}
+
+	@Override
+	public void closeSingleResultSet(SingleResultSet source, JdbcFilter chain) throws SQLException {
+		Object stat = source.getAttribute(RESULT_SET_STAT_KEY);
+		if (stat instanceof SqlStat) {
+			source.setAttribute(RESULT_SET_STAT_KEY, null);
+			((SqlStat) stat).recordRows(source.getRowCount());
+		}
+
+		chain.closeSingleResultSet(source, chain);
+	}
+
+	public DataSourceStat getDataSourceStat(String dsId) {
+		return dataSourceStats.get(dsId);
+	}
+
+	public SqlStat getSqlStat(String dsId, String sqlName) {
+		ConcurrentMap<String, SqlStat> stats = sqlStats.get(dsId);
+		return stats == null ? null : stats.get(sqlName);
+	}
+
+	private String getSqlName() {
+		String sqlName = DaoContextHolder.getSqlName();
+		if (StringUtils.isBlank(sqlName)) {
+			sqlName = SqlAliasManager.getSqlAlias();
+		}
+
+		return StringUtils.isBlank(sqlName) ? MORE_SQL_NAME : sqlName;
+	}
+
+	private DataSourceStat findOrCreateDataSourceStat(String dsId) {
+		DataSourceStat stat = dataSourceStats.get(dsId);
+		if (stat == null) {
+			DataSourceStat newStat = new DataSourceStat(dsId);
+			stat = dataSourceStats.putIfAbsent(dsId, newStat);
+			if (stat == null) {
+				stat = newStat;
+				registerMBean(stat, MBEAN_DOMAIN + ":type=DataSourceStat,datasource=" + ObjectName.quote(dsId));
+			}
+		}
+
+		return stat;
+	}
+
+	private SqlStat findOrCreateSqlStat(String dsId, String sqlName) {
+		ConcurrentMap<String, SqlStat> stats = sqlStats.get(dsId);
+		if (stats == null) {
+			ConcurrentMap<String, SqlStat> newStats = new ConcurrentHashMap<String, SqlStat>();
+			stats = sqlStats.putIfAbsent(dsId, newStats);
+			if (stats == null) {
+				stats = newStats;
+			}
+		}
+
+		SqlStat stat = stats.get(sqlName);
+		if (stat == null) {
+			if (stats.size() >= MAX_SQL_STAT_SIZE) {
+				sqlName = MORE_SQL_NAME;
+				stat = stats.get(sqlName);
+				if (stat != null) {
+					return stat;
+				}
+			}
+
+			SqlStat newStat = new SqlStat(dsId, sqlName);
+			stat = stats.putIfAbsent(sqlName, newStat);
+			if (stat == null) {
+				stat = newStat;
+				registerMBean(stat, MBEAN_DOMAIN + ":type=SqlStat,datasource=" + ObjectName.quote(dsId) + ",sql="
+				      + ObjectName.quote(sqlName));
+			}
+		}
+
+		return stat;
+	}
+
+	private void registerMBean(Object mbean, String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(name);
+
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+			server.registerMBean(mbean, objectName);
+		} catch (Exception e) {
+			LOGGER.warn("register stat mbean [" + name + "] failed.", e);
+		}
+	}
+}
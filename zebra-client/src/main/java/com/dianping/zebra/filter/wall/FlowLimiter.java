@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.filter.wall;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.dianping.zebra.group.config.system.entity.SqlFlowControl;
+
+/**
+ * <p>
+ * 单个SQL或者数据源的限流器：令牌桶限制QPS，计数器限制并发执行数
+ * </p>
+ * 令牌桶按GCRA实现，只维护一个理论到达时间，桶容量为1秒的令牌，只用CAS不加锁；并发数由<tt>Semaphore</tt>控制。
+ * 配置了<tt>queue-timeout</tt>时，拿不到令牌或者并发已满的请求最多等待这么久，超时后拒绝，已经拿到的令牌归还。
+ */
+public class FlowLimiter {
+
+	private final int qps;
+
+	private final int maxConcurrency;
+
+	private final long queueTimeoutNanos;
+
+	private final long intervalNanos;
+
+	private final long burstNanos;
+
+	private final AtomicLong theoreticalArrivalNanos;
+
+	private final Semaphore concurrency;
+
+	public FlowLimiter(int qps, int maxConcurrency, int queueTimeoutMillis) {
+		this.qps = Math.max(qps, 0);
+		this.maxConcurrency = Math.max(maxConcurrency, 0);
+		this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(queueTimeoutMillis, 0));
+		this.intervalNanos = this.qps > 0 ? TimeUnit.SECONDS.toNanos(1) / this.qps : 0;
+		this.burstNanos = this.qps > 0 ? intervalNanos * (this.qps - 1) : 0;
+		this.theoreticalArrivalNanos = new AtomicLong(System.nanoTime());
+		this.concurrency = new Semaphore(this.maxConcurrency);
+	}
+
+	/**
+	 * 配置里没有QPS和并发限制时返回<tt>null</tt>
+	 */
+	public static FlowLimiter create(SqlFlowControl config) {
+		if (config.getQps() <= 0 && config.getMaxConcurrency() <= 0) {
+			return null;
+		}
+
+		return new FlowLimiter(config.getQps(), config.getMaxConcurrency(), config.getQueueTimeout());
+	}
+
+	/**
+	 * 申请一次执行，返回<tt>true</tt>时执行结束后必须调用<tt>release</tt>
+	 */
+	public boolean acquire() {
+		long deadline = System.nanoTime() + queueTimeoutNanos;
+
+		if (!acquireToken(deadline)) {
+			return false;
+		}
+
+		if (!acquireConcurrency(deadline)) {
+			refundToken();
+			return false;
+		}
+
+		return true;
+	}
+
+	public void release() {
+		release(true);
+	}
+
+	/**
+	 * @param executed
+	 *           拿到许可后是否真正执行了，没有执行时归还令牌
+	 */
+	public void release(boolean executed) {
+		if (maxConcurrency > 0) {
+			concurrency.release();
+		}
+		if (!executed) {
+			refundToken();
+		}
+	}
+
+	private boolean acquireToken(long deadline) {
+		if (qps <= 0) {
+			return true;
+		}
+
+		while (true) {
+			long now = System.nanoTime();
+			long tat = theoreticalArrivalNanos.get();
+			long allowAt = tat - burstNanos;
+			long waitNanos = allowAt - now;
+
+			if (waitNanos > deadline - now) {
+				return false;
+			}
+
+			if (theoreticalArrivalNanos.compareAndSet(tat, Math.max(tat, now) + intervalNanos)) {
+				if (waitNanos > 0) {
+					LockSupport.parkNanos(waitNanos);
+				}
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * 令牌被拿走但没有执行时归还，理论到达时间回退一个间隔
+	 */
+	private void refundToken() {
+		if (qps > 0) {
+			theoreticalArrivalNanos.addAndGet(-intervalNanos);
+		}
+	}
+
+	private boolean acquireConcurrency(long deadline) {
+		if (maxConcurrency <= 0) {
+			return true;
+		}
+
+		if (concurrency.tryAcquire()) {
+			return true;
+		}
+
+		long waitNanos = deadline - System.nanoTime();
+		if (waitNanos <= 0) {
+			return false;
+		}
+
+		try {
+			return concurrency.tryAcquire(waitNanos, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * 配置没有变化时沿用原来的限流器，保留正在执行的计数
+	 */
+	public boolean sameConfig(SqlFlowControl config) {
+		return qps == Math.max(config.getQps(), 0) && maxConcurrency == Math.max(config.getMaxConcurrency(), 0)
+		      && queueTimeoutNanos == TimeUnit.MILLISECONDS.toNanos(Math.max(config.getQueueTimeout(), 0));
+	}
+
+	public int getConcurrency() {
+		return maxConcurrency - concurrency.availablePermits();
+	}
+
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	public int getQps() {
+		return qps;
+	}
+}
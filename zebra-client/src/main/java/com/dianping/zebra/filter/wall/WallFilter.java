@@ -22,14 +22,19 @@ import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.security.NoSuchAlgorithmException;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 import com.dianping.zebra.config.ConfigService;
 import com.dianping.zebra.config.ConfigServiceFactory;
 import com.dianping.zebra.filter.DefaultJdbcFilter;
 import com.dianping.zebra.filter.JdbcFilter;
+import com.dianping.zebra.filter.JdbcFilterPipeline;
+import com.dianping.zebra.filter.JdbcFilterPipeline.Hook;
 import com.dianping.zebra.filter.SQLProcessContext;
 import com.dianping.zebra.group.config.SystemConfigManager;
 import com.dianping.zebra.group.config.SystemConfigManagerFactory;
@@ -38,9 +43,19 @@ import com.dianping.zebra.group.config.system.entity.SqlFlowControl;
 import com.dianping.zebra.group.util.DaoContextHolder;
 import com.dianping.zebra.log.Logger;
 import com.dianping.zebra.log.LoggerFactory;
+import com.dianping.zebra.single.jdbc.SingleConnection;
+import com.dianping.zebra.single.jdbc.SingleStatement;
 import com.dianping.zebra.util.StringUtils;
 
-public class WallFilter extends DefaultJdbcFilter {
+/**
+ * <p>
+ * SQL黑名单和限流
+ * </p>
+ * <tt>sql-flow-control</tt>的<tt>allow-percent</tt>在预编译时按比例拒绝；<tt>qps</tt>和<tt>max-concurrency</tt>在每次执行时生效，
+ * <tt>sql-id</tt>可以是SQL的id，也可以是数据源的id，后者限制该数据源上的所有SQL。配置变化时重建限流器，配置没变的沿用原来的计数。
+ * 没有配置限流器时不拦截执行。
+ */
+public class WallFilter extends DefaultJdbcFilter implements JdbcFilterPipeline.ConditionalFilter {
 
 	protected static final Logger logger = LoggerFactory.getLogger(WallFilter.class);
 
@@ -50,26 +65,27 @@ public class WallFilter extends DefaultJdbcFilter {
 
 	private Map<String, String> sqlIDCache = new ConcurrentHashMap<String, String>(1024);
 
-	private Map<String, SqlFlowControl> flowControl;
+	private volatile Map<String, SqlFlowControl> flowControl;
 
-	private SystemConfigManager systemConfigManager;
+	private volatile Map<String, FlowLimiter> flowLimiters = Collections.emptyMap();
 
-	private Random random;
+	private SystemConfigManager systemConfigManager;
 
 	protected void checkFlowControl(String id) throws SQLException {
-		if (StringUtils.isNotBlank(id) && flowControl.containsKey(id)) {
-			if (generateFlowPercent() >= flowControl.get(id).getAllowPercent()) {
+		SqlFlowControl config = StringUtils.isNotBlank(id) ? flowControl.get(id) : null;
+		if (config != null) {
+			if (generateFlowPercent() >= config.getAllowPercent()) {
 				throw new SQLException("The SQL is in the blacklist. Please contact with dba!", "SQL.Blacklist");
 			}
 		}
 	}
 
 	protected int generateFlowPercent() {
-		return random.nextInt(100);
+		return ThreadLocalRandom.current().nextInt(100);
 	}
 
 	protected String generateId(String dsId, String sqlAlias) throws NoSuchAlgorithmException {
-		String token = String.format("/*%s*/%s", dsId, sqlAlias);
+		String token = "/*" + dsId + "*/" + sqlAlias;
 		String resultId = sqlIDCache.get(token);
 
 		if (resultId != null) {
@@ -89,28 +105,94 @@ public class WallFilter extends DefaultJdbcFilter {
 		return MIN_ORDER;
 	}
 
+	@Override
+	public boolean isActive(Hook hook) {
+		return hook != Hook.EXECUTE_SINGLE_STATEMENT || !flowLimiters.isEmpty();
+	}
+
 	@Override
 	public void init() {
 		super.init();
-		this.random = new Random();
 		this.initFlowControl();
 	}
 
 	private void initFlowControl() {
 		ConfigService configService = ConfigServiceFactory.getConfigService(configManagerType, configs);
 		this.systemConfigManager = SystemConfigManagerFactory.getConfigManger(configManagerType, configService);
-		this.flowControl = this.systemConfigManager.getSqlFlowControlMap();
+		this.refreshFlowControl(this.systemConfigManager.getSqlFlowControlMap());
 
 		this.systemConfigManager.addListerner(new PropertyChangeListener() {
 			@Override
 			public void propertyChange(PropertyChangeEvent propertyChangeEvent) {
-				synchronized (flowControl) {
-					flowControl = systemConfigManager.getSqlFlowControlMap();
-				}
+				refreshFlowControl(systemConfigManager.getSqlFlowControlMap());
 			}
 		});
 	}
 
+	synchronized void refreshFlowControl(Map<String, SqlFlowControl> newFlowControl) {
+		Map<String, FlowLimiter> oldLimiters = this.flowLimiters;
+		Map<String, FlowLimiter> newLimiters = new HashMap<String, FlowLimiter>();
+
+		for (SqlFlowControl config : newFlowControl.values()) {
+			FlowLimiter limiter = oldLimiters.get(config.getSqlId());
+			if (limiter == null || !limiter.sameConfig(config)) {
+				limiter = FlowLimiter.create(config);
+			}
+			if (limiter != null) {
+				newLimiters.put(config.getSqlId(), limiter);
+			}
+		}
+
+		this.flowControl = newFlowControl;
+		this.flowLimiters = newLimiters.isEmpty() ? Collections.<String, FlowLimiter> emptyMap() : newLimiters;
+	}
+
+	@Override
+	public <T> T executeSingleStatement(SingleStatement source, SingleConnection conn, String sql,
+	      List<String> batchedSql, boolean isBatched, boolean autoCommit, Object params, JdbcFilter chain)
+	      throws SQLException {
+		Map<String, FlowLimiter> limiters = this.flowLimiters;
+		if (limiters.isEmpty()) {
+			return chain.executeSingleStatement(source, conn, sql, batchedSql, isBatched, autoCommit, params, chain);
+		}
+
+		String dsId = conn.getDataSourceId();
+		String sqlAlias = DaoContextHolder.getSqlName();
+		FlowLimiter sqlLimiter = null;
+		if (dsId != null && StringUtils.isNotBlank(sqlAlias)) {
+			try {
+				sqlLimiter = limiters.get(generateId(dsId, sqlAlias));
+			} catch (NoSuchAlgorithmException ignore) {
+			}
+		}
+		FlowLimiter dsLimiter = dsId != null ? limiters.get(dsId) : null;
+
+		acquire(sqlLimiter);
+		boolean executed = false;
+		try {
+			acquire(dsLimiter);
+			executed = true;
+			try {
+				return chain.executeSingleStatement(source, conn, sql, batchedSql, isBatched, autoCommit, params, chain);
+			} finally {
+				if (dsLimiter != null) {
+					dsLimiter.release();
+				}
+			}
+		} finally {
+			// 数据源限流拒绝时SQL没有执行，归还SQL限流器的令牌
+			if (sqlLimiter != null) {
+				sqlLimiter.release(executed);
+			}
+		}
+	}
+
+	private void acquire(FlowLimiter limiter) throws SQLException {
+		if (limiter != null && !limiter.acquire()) {
+			throw new SQLException("The SQL is limited by flow control. Please contact with dba!", "SQL.FlowControl");
+		}
+	}
+
 	@Override
 	public String processSQL(DataSourceConfig dsConfig, SQLProcessContext ctx, JdbcFilter chain) throws SQLException {
 		String sql = chain.processSQL(dsConfig, ctx, chain);
@@ -135,4 +217,8 @@ public class WallFilter extends DefaultJdbcFilter {
 	public Map<String, SqlFlowControl> getFlowControl() {
 		return flowControl;
 	}
+
+	public Map<String, FlowLimiter> getFlowLimiters() {
+		return flowLimiters;
+	}
 }
\ No newline at end of file
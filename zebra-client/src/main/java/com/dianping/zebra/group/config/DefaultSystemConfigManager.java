@@ -115,8 +115,9 @@ public class DefaultSystemConfigManager extends AbstractConfigManager implements
 
 							if ("_global_".equalsIgnoreCase(app) || appName.equalsIgnoreCase(app)) {
 								tempConfig.add(sqlFlowControl);
-								logger.info(String.format("get new flow control [ %s : %d ]", sqlFlowControl.getSqlId(),
-								      sqlFlowControl.getAllowPercent()));
+								logger.info(String.format("get new flow control [ %s : %d, qps %d, max-concurrency %d ]",
+								      sqlFlowControl.getSqlId(), sqlFlowControl.getAllowPercent(), sqlFlowControl.getQps(),
+								      sqlFlowControl.getMaxConcurrency()));
 							}
 						}
 					}
@@ -26,8 +26,14 @@ public class Constants {
 
    public static final String ATTR_IP_PREFIX = "ip-prefix";
 
+   public static final String ATTR_MAX_CONCURRENCY = "max-concurrency";
+
    public static final String ATTR_NAME = "name";
 
+   public static final String ATTR_QPS = "qps";
+
+   public static final String ATTR_QUEUE_TIMEOUT = "queue-timeout";
+
    public static final String ATTR_SQL_ID = "sql-id";
 
    public static final String ELEMENT_RETRY_TIMES = "retry-times";
@@ -31,6 +31,12 @@ public class SqlFlowControl extends BaseEntity<SqlFlowControl> {
 
    private String m_app;
 
+   private int m_qps;
+
+   private int m_maxConcurrency;
+
+   private int m_queueTimeout;
+
    public SqlFlowControl() {
    }
 
@@ -63,6 +69,18 @@ public class SqlFlowControl extends BaseEntity<SqlFlowControl> {
       return m_app;
    }
 
+   public int getMaxConcurrency() {
+      return m_maxConcurrency;
+   }
+
+   public int getQps() {
+      return m_qps;
+   }
+
+   public int getQueueTimeout() {
+      return m_queueTimeout;
+   }
+
    public String getSqlId() {
       return m_sqlId;
    }
@@ -85,6 +103,12 @@ public class SqlFlowControl extends BaseEntity<SqlFlowControl> {
       if (other.getApp() != null) {
          m_app = other.getApp();
       }
+
+      m_qps = other.getQps();
+
+      m_maxConcurrency = other.getMaxConcurrency();
+
+      m_queueTimeout = other.getQueueTimeout();
    }
 
    public SqlFlowControl setAllowPercent(int allowPercent) {
@@ -97,6 +121,21 @@ public class SqlFlowControl extends BaseEntity<SqlFlowControl> {
       return this;
    }
 
+   public SqlFlowControl setMaxConcurrency(int maxConcurrency) {
+      m_maxConcurrency = maxConcurrency;
+      return this;
+   }
+
+   public SqlFlowControl setQps(int qps) {
+      m_qps = qps;
+      return this;
+   }
+
+   public SqlFlowControl setQueueTimeout(int queueTimeout) {
+      m_queueTimeout = queueTimeout;
+      return this;
+   }
+
    public SqlFlowControl setSqlId(String sqlId) {
       m_sqlId = sqlId;
       return this;
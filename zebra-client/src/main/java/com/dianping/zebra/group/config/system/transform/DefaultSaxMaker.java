@@ -20,6 +20,9 @@ package com.dianping.zebra.group.config.system.transform;
 
 import static com.dianping.zebra.group.config.system.Constants.ATTR_ALLOW_PERCENT;
 import static com.dianping.zebra.group.config.system.Constants.ATTR_APP;
+import static com.dianping.zebra.group.config.system.Constants.ATTR_MAX_CONCURRENCY;
+import static com.dianping.zebra.group.config.system.Constants.ATTR_QPS;
+import static com.dianping.zebra.group.config.system.Constants.ATTR_QUEUE_TIMEOUT;
 import static com.dianping.zebra.group.config.system.Constants.ATTR_SQL_ID;
 
 import org.xml.sax.Attributes;
@@ -34,6 +37,9 @@ public class DefaultSaxMaker implements IMaker<Attributes> {
 		String sqlId = attributes.getValue(ATTR_SQL_ID);
 		String allowPercent = attributes.getValue(ATTR_ALLOW_PERCENT);
 		String app = attributes.getValue(ATTR_APP);
+		String qps = attributes.getValue(ATTR_QPS);
+		String maxConcurrency = attributes.getValue(ATTR_MAX_CONCURRENCY);
+		String queueTimeout = attributes.getValue(ATTR_QUEUE_TIMEOUT);
 		SqlFlowControl sqlFlowControl = new SqlFlowControl(sqlId);
 
 		if (allowPercent != null) {
@@ -44,6 +50,18 @@ public class DefaultSaxMaker implements IMaker<Attributes> {
 			sqlFlowControl.setApp(app);
 		}
 
+		if (qps != null) {
+			sqlFlowControl.setQps(convert(Integer.class, qps, 0));
+		}
+
+		if (maxConcurrency != null) {
+			sqlFlowControl.setMaxConcurrency(convert(Integer.class, maxConcurrency, 0));
+		}
+
+		if (queueTimeout != null) {
+			sqlFlowControl.setQueueTimeout(convert(Integer.class, queueTimeout, 0));
+		}
+
 		return sqlFlowControl;
 	}
 
@@ -20,6 +20,9 @@ package com.dianping.zebra.group.config.system.transform;
 
 import static com.dianping.zebra.group.config.system.Constants.ATTR_ALLOW_PERCENT;
 import static com.dianping.zebra.group.config.system.Constants.ATTR_APP;
+import static com.dianping.zebra.group.config.system.Constants.ATTR_MAX_CONCURRENCY;
+import static com.dianping.zebra.group.config.system.Constants.ATTR_QPS;
+import static com.dianping.zebra.group.config.system.Constants.ATTR_QUEUE_TIMEOUT;
 import static com.dianping.zebra.group.config.system.Constants.ATTR_SQL_ID;
 import static com.dianping.zebra.group.config.system.Constants.ELEMENT_RETRY_TIMES;
 import static com.dianping.zebra.group.config.system.Constants.ENTITY_SQL_FLOW_CONTROL;
@@ -211,7 +214,13 @@ public class DefaultXmlBuilder implements IVisitor {
 	@Override
 	public void visitSqlFlowControl(SqlFlowControl sqlFlowControl) {
 		startTag(ENTITY_SQL_FLOW_CONTROL, true, null, ATTR_SQL_ID, sqlFlowControl.getSqlId(), ATTR_ALLOW_PERCENT,
-		      sqlFlowControl.getAllowPercent(), ATTR_APP, sqlFlowControl.getApp());
+		      sqlFlowControl.getAllowPercent(), ATTR_APP, sqlFlowControl.getApp(), ATTR_QPS,
+		      positiveOrNull(sqlFlowControl.getQps()), ATTR_MAX_CONCURRENCY, positiveOrNull(sqlFlowControl.getMaxConcurrency()),
+		      ATTR_QUEUE_TIMEOUT, positiveOrNull(sqlFlowControl.getQueueTimeout()));
+	}
+
+	private Integer positiveOrNull(int value) {
+		return value > 0 ? value : null;
 	}
 
 	@Override
@@ -30,6 +30,8 @@ import com.dianping.zebra.exception.ZebraConfigException;
 import com.dianping.zebra.filter.JdbcFilter;
 import com.dianping.zebra.group.config.datasource.entity.DataSourceConfig;
 import com.dianping.zebra.group.monitor.SingleDataSourceMBean;
+import com.dianping.zebra.log.Logger;
+import com.dianping.zebra.log.LoggerFactory;
 import com.dianping.zebra.single.jdbc.AbstractDataSource;
 import com.dianping.zebra.single.jdbc.SingleDataSource;
 import com.dianping.zebra.single.manager.SingleDataSourceManager;
@@ -41,6 +43,8 @@ import com.dianping.zebra.util.JdbcDriverClassHelper;
  *           2. if cannot find any master database in the refresh phase, set master to null to help MHA switch.
  */
 public class FailOverDataSource extends AbstractDataSource {
+	private static final Logger LOGGER = LoggerFactory.getLogger(FailOverDataSource.class);
+
 	private Map<String, DataSourceConfig> configs;
 
 	private volatile SingleDataSource master;
@@ -92,11 +96,17 @@ public class FailOverDataSource extends AbstractDataSource {
 		}
 	}
 
-	public synchronized void refresh(Map<String, DataSourceConfig> newFailoverConfig) {
+	/**
+	 * 刷新主库配置，新主库预热后再切换，旧主库在借出的连接归还后关闭
+	 *
+	 * @return 新主库预热的连接数
+	 */
+	public synchronized int refresh(Map<String, DataSourceConfig> newFailoverConfig) {
 		if (this.configs.toString().equals(newFailoverConfig.toString())) {
-			return;
+			return 0;
 		}
 
+		int warmUpConnections = 0;
 		if (newFailoverConfig.isEmpty()) {
 			this.dataSourceManager.destoryDataSource(this.master);
 			this.master = null;
@@ -105,6 +115,11 @@ public class FailOverDataSource extends AbstractDataSource {
 			SingleDataSource newMaster = null;
 			for (DataSourceConfig config : newFailoverConfig.values()) {
 				newMaster = this.dataSourceManager.createDataSource(config, this.filters);
+				try {
+					warmUpConnections = newMaster.warmUp();
+				} catch (SQLException e) {
+					LOGGER.warn(String.format("fail to warm up dataSource [%s]", newMaster.getId()), e);
+				}
 
 				// switch first
 				SingleDataSource oldMaster = master;
@@ -116,6 +131,8 @@ public class FailOverDataSource extends AbstractDataSource {
 				break;
 			}
 		}
+
+		return warmUpConnections;
 	}
 
 	@Override
@@ -185,6 +202,13 @@ public class FailOverDataSource extends AbstractDataSource {
 	public static class MasterDataSourceMonitor {
 	}
 
+	public void warmUp() throws SQLException {
+		SingleDataSource current = master;
+		if (current != null) {
+			current.warmUp();
+		}
+	}
+
 	@Override
 	public void close() throws SQLException {
 		if (master != null) {
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.group.datasources;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.dianping.zebra.group.util.DaoContextHolder;
+import com.dianping.zebra.util.StringUtils;
+
+/**
+ * <p>
+ * 从库对冲读配置
+ * </p>
+ * 从库查询在<tt>getDelayMillis()</tt>内没有返回时，向另一个从库发出同样的查询，使用先返回的结果并取消另一个。
+ * <tt>delayMillis</tt>大于0时使用固定延迟，否则使用最近<tt>SAMPLE_SIZE</tt>次从库查询耗时的p95；样本不足时不对冲。
+ * 配置了<tt>sqlNames</tt>时只对这些SQL（<tt>DaoContextHolder.getSqlName()</tt>）对冲。
+ * 对冲查询由<tt>getScheduler()</tt>在延迟到期时提交到最多<tt>MAX_HEDGE_THREADS</tt>个线程的线程池，线程池已满时不对冲。
+ */
+public class HedgedReadPolicy {
+
+	public static final int SAMPLE_SIZE = 256;
+
+	public static final int MIN_SAMPLES = 20;
+
+	public static final int MAX_HEDGE_THREADS = 64;
+
+	private static final double PERCENTILE = 0.95;
+
+	private static final long REFRESH_INTERVAL_MILLIS = 1000;
+
+	private static ScheduledExecutorService scheduler;
+
+	private static ExecutorService executor;
+
+	private final long delayMillis;
+
+	private final Set<String> sqlNames;
+
+	private final AtomicLongArray samples = new AtomicLongArray(SAMPLE_SIZE);
+
+	private final AtomicInteger sampleCount = new AtomicInteger();
+
+	private volatile long percentileMillis = -1;
+
+	private volatile long lastRefreshTime;
+
+	public HedgedReadPolicy(long delayMillis, String sqlNames) {
+		this.delayMillis = delayMillis;
+
+		if (StringUtils.isBlank(sqlNames)) {
+			this.sqlNames = Collections.emptySet();
+		} else {
+			Set<String> names = new HashSet<String>();
+			for (String name : Arrays.asList(sqlNames.split(","))) {
+				if (StringUtils.isNotBlank(name)) {
+					names.add(name.trim());
+				}
+			}
+			this.sqlNames = names;
+		}
+	}
+
+	public boolean shouldHedge() {
+		if (sqlNames.isEmpty()) {
+			return true;
+		}
+
+		String sqlName = DaoContextHolder.getSqlName();
+		return sqlName != null && sqlNames.contains(sqlName);
+	}
+
+	/**
+	 * 对冲延迟（毫秒），小于0表示不对冲
+	 */
+	public long getDelayMillis() {
+		if (delayMillis > 0) {
+			return delayMillis;
+		}
+
+		long now = System.currentTimeMillis();
+		if (now - lastRefreshTime >= REFRESH_INTERVAL_MILLIS) {
+			lastRefreshTime = now;
+			percentileMillis = computePercentile();
+		}
+		return percentileMillis;
+	}
+
+	public void record(long costMillis) {
+		int index = sampleCount.getAndIncrement();
+		samples.set((index & Integer.MAX_VALUE) % SAMPLE_SIZE, costMillis);
+	}
+
+	private long computePercentile() {
+		int count = Math.min(sampleCount.get() & Integer.MAX_VALUE, SAMPLE_SIZE);
+		if (count < MIN_SAMPLES) {
+			return -1;
+		}
+
+		long[] values = new long[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = samples.get(i);
+		}
+		Arrays.sort(values);
+		return Math.max(values[(int) Math.ceil(count * PERCENTILE) - 1], 1);
+	}
+
+	public static synchronized ScheduledExecutorService getScheduler() {
+		if (scheduler == null) {
+			ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(1,
+			      new DaemonThreadFactory("Dal-HedgedRead-Scheduler-"));
+			scheduledExecutor.setRemoveOnCancelPolicy(true);
+			scheduler = scheduledExecutor;
+		}
+		return scheduler;
+	}
+
+	public static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			ThreadPoolExecutor threadPool = new ThreadPoolExecutor(MAX_HEDGE_THREADS, MAX_HEDGE_THREADS, 60L,
+			      TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new DaemonThreadFactory("Dal-HedgedRead-"));
+			threadPool.allowCoreThreadTimeOut(true);
+			executor = threadPool;
+		}
+		return executor;
+	}
+
+	private static class DaemonThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		private final String prefix;
+
+		DaemonThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, prefix + threadNumber.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
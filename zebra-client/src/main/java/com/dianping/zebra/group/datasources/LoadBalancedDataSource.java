@@ -50,21 +50,23 @@ public class LoadBalancedDataSource extends AbstractDataSource {
 
 	private SingleDataSourceManager dataSourceManager;
 
-	private Map<String, SingleDataSource> dataSources;
+	private volatile Snapshot snapshot;
 
 	private Map<String, DataSourceConfig> loadBalancedConfigMap;
 
-	private volatile DataSourceRouter router;
-
 	private SystemConfig systemConfig;
 
 	private ConfigService configService;
 
 	private volatile String routerStrategy;
 
+	private volatile ReplicationLagMonitor replicationLagMonitor;
+
+	private volatile HedgedReadPolicy hedgedReadPolicy;
+
 	public LoadBalancedDataSource(Map<String, DataSourceConfig> loadBalancedConfigMap, List<JdbcFilter> filters,
 	      SystemConfig systemConfig, String configManagerType, ConfigService configService, String routerStrategy) {
-		this.dataSources = new HashMap<String, SingleDataSource>();
+		this.snapshot = new Snapshot(new HashMap<String, SingleDataSource>(), null);
 		this.loadBalancedConfigMap = loadBalancedConfigMap;
 		this.filters = filters;
 		this.configManagerType = configManagerType;
@@ -74,11 +76,27 @@ public class LoadBalancedDataSource extends AbstractDataSource {
 	}
 
 	public void close() throws SQLException {
-		if (dataSources != null) {
-			for (SingleDataSource ds : dataSources.values()) {
-				dataSourceManager.destoryDataSource(ds);
+		if (replicationLagMonitor != null) {
+			replicationLagMonitor.stop();
+		}
+
+		for (SingleDataSource ds : snapshot.dataSources.values()) {
+			dataSourceManager.destoryDataSource(ds);
+		}
+	}
+
+	public void warmUp() throws SQLException {
+		List<SQLException> exps = new ArrayList<SQLException>();
+
+		for (SingleDataSource ds : snapshot.dataSources.values()) {
+			try {
+				ds.warmUp();
+			} catch (SQLException e) {
+				exps.add(e);
 			}
 		}
+
+		JDBCUtils.throwSQLExceptionIfNeeded(exps);
 	}
 
 	@Override
@@ -88,10 +106,34 @@ public class LoadBalancedDataSource extends AbstractDataSource {
 
 	@Override
 	public Connection getConnection(String username, String password) throws SQLException {
+		return getConnection(Collections.<String> emptySet());
+	}
+
+	/**
+	 * 获取连接，不从<tt>excludeDataSourceIds</tt>中的DataSource获取
+	 */
+	public Connection getConnection(Set<String> excludeDataSourceIds) throws SQLException {
+		while (true) {
+			Snapshot current = this.snapshot;
+			try {
+				return acquireConnection(current, excludeDataSourceIds);
+			} catch (SQLException e) {
+				// 获取期间发生了刷新，选中的数据源可能已被移除，用新的视图重试
+				if (this.snapshot == current) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * 整个获取过程只使用同一份数据源和路由视图
+	 */
+	private Connection acquireConnection(Snapshot snapshot, Set<String> excludeDataSourceIds) throws SQLException {
 		RouterContext context = new RouterContext();
 
-		for (SingleDataSource dataSource : this.dataSources.values()) {
-			if (dataSource.isDown() || dataSource.isClosed()) {
+		for (SingleDataSource dataSource : snapshot.dataSources.values()) {
+			if (dataSource.isDown() || dataSource.isClosed() || excludeDataSourceIds.contains(dataSource.getId())) {
 				context.addExcludeTarget(dataSource.getId());
 			}
 		}
@@ -99,11 +141,10 @@ public class LoadBalancedDataSource extends AbstractDataSource {
 			LOGGER.info("excludeTargets：" + context.getExcludeTargets().toString());
 		}
 
-		RouterTarget target = this.router.select(context);
+		RouterTarget target = selectWithReplicationLag(snapshot.router, context);
 
 		if (target != null) {
 			int tmpRetryTimes = -1;
-			Set<RouterTarget> excludeTargets = new HashSet<RouterTarget>();
 			List<SQLException> exceptions = new ArrayList<SQLException>();
 
 			while (tmpRetryTimes++ < this.systemConfig.getRetryTimes()) {
@@ -111,17 +152,16 @@ public class LoadBalancedDataSource extends AbstractDataSource {
 					if (tmpRetryTimes > 0) {
 						SqlAliasManager.setRetrySqlAlias();
 					}
-					SingleDataSource targetDataSource = this.dataSources.get(target.getId());
+					SingleDataSource targetDataSource = snapshot.dataSources.get(target.getId());
 					if (targetDataSource == null) {
-						throw new ZebraException("can't get SingleDataSource by dsId:" + target.getId() + ",a config "
-						      + "refresh event may have occurred");
+						throw new SQLException("can't get SingleDataSource by dsId:" + target.getId());
 					}
 					return targetDataSource.getConnection();
 				} catch (SQLException e) {
 					exceptions.add(e);
-					excludeTargets.add(target);
-					context = new RouterContext(excludeTargets);
-					target = router.select(context);
+					// 重试时保留调用方和不可用数据源的排除，避免对冲查询落回主查询所在的从库；同样避开延迟过大的从库
+					context.addExcludeTarget(target.getId());
+					target = selectWithReplicationLag(snapshot.router, context);
 					if (target == null) {
 						break;
 					}
@@ -138,9 +178,58 @@ public class LoadBalancedDataSource extends AbstractDataSource {
 		throw new SQLException("Can not acquire connection");
 	}
 
+	private RouterTarget selectWithReplicationLag(DataSourceRouter router, RouterContext context) {
+		if (replicationLagMonitor != null) {
+			Set<String> laggingDataSources = replicationLagMonitor.getLaggingDataSources();
+
+			if (!laggingDataSources.isEmpty()) {
+				RouterContext lagContext = new RouterContext(new HashSet<RouterTarget>(context.getExcludeTargets()));
+				for (String dsId : laggingDataSources) {
+					lagContext.addExcludeTarget(dsId);
+				}
+
+				RouterTarget target = router.select(lagContext);
+				if (target != null) {
+					return target;
+				}
+			}
+		}
+
+		return router.select(context);
+	}
+
+	Map<String, SingleDataSource> getDataSources() {
+		return this.snapshot.dataSources;
+	}
+
+	public ReplicationLagMonitor getReplicationLagMonitor() {
+		return this.replicationLagMonitor;
+	}
+
+	public synchronized void startReplicationLagMonitor(long thresholdMillis, long intervalMillis,
+	      ReplicationLagMonitor.LagDetector detector) {
+		if (this.replicationLagMonitor != null) {
+			this.replicationLagMonitor.stop();
+		}
+
+		this.replicationLagMonitor = new ReplicationLagMonitor(this, thresholdMillis, intervalMillis, detector);
+		this.replicationLagMonitor.start();
+	}
+
+	/**
+	 * 只有一个从库时无法对冲，返回null
+	 */
+	public HedgedReadPolicy getHedgedReadPolicy() {
+		return this.snapshot.dataSources.size() > 1 ? this.hedgedReadPolicy : null;
+	}
+
+	public void setHedgedReadPolicy(HedgedReadPolicy hedgedReadPolicy) {
+		this.hedgedReadPolicy = hedgedReadPolicy;
+	}
+
 	public Map<String, SingleDataSourceMBean> getCurrentDataSourceMBean() {
 		Map<String, SingleDataSourceMBean> beans = new HashMap<String, SingleDataSourceMBean>();
-		beans.putAll(dataSources);
+		beans.putAll(snapshot.dataSources);
 		return beans;
 	}
 
@@ -151,12 +240,14 @@ public class LoadBalancedDataSource extends AbstractDataSource {
 			checkConfig(config);
 		}
 
+		Map<String, SingleDataSource> dataSources = new HashMap<String, SingleDataSource>();
 		for (DataSourceConfig config : loadBalancedConfigMap.values()) {
 			SingleDataSource dataSource = dataSourceManager.createDataSource(config, this.filters);
-			this.dataSources.put(config.getId(), dataSource);
+			dataSources.put(config.getId(), dataSource);
 		}
 
-		this.router = new BackupDataSourceRouter(loadBalancedConfigMap, configManagerType, configService, routerStrategy);
+		this.snapshot = new Snapshot(dataSources, new BackupDataSourceRouter(loadBalancedConfigMap, configManagerType,
+		      configService, routerStrategy));
 	}
 
 	private void checkConfig(DataSourceConfig config) {
@@ -180,19 +271,30 @@ public class LoadBalancedDataSource extends AbstractDataSource {
 	}
 
 	public synchronized void buildRouter(String routerStrategy) {
-		this.router = new BackupDataSourceRouter(loadBalancedConfigMap, configManagerType, configService, routerStrategy);
+		this.snapshot = new Snapshot(snapshot.dataSources, new BackupDataSourceRouter(loadBalancedConfigMap,
+		      configManagerType, configService, routerStrategy));
 		this.routerStrategy = routerStrategy;
 	}
 
-	public synchronized void refresh(Map<String, DataSourceConfig> newLoadBalancedConfigMap)
+	/**
+	 * <p>
+	 * 刷新从库配置
+	 * </p>
+	 * 新数据源在切换前完成预热；数据源和路由作为一份视图一次性发布，获取连接时只读取一次视图，
+	 * 路由选中的数据源一定在同一视图中。被移除的数据源在借出的连接归还后关闭。
+	 *
+	 * @return 新数据源预热的连接数
+	 */
+	public synchronized int refresh(Map<String, DataSourceConfig> newLoadBalancedConfigMap)
 	      throws SlaveDsDisConnectedException {
 		if (loadBalancedConfigMap.toString().equals(newLoadBalancedConfigMap.toString())) {
-			return;
+			return 0;
 		}
 
 		Map<String, DataSourceConfig> needCreateDataSourceConfigs = new HashMap<String, DataSourceConfig>();
 		Map<String, SingleDataSource> needRemoveDataSources = new HashMap<String, SingleDataSource>();
 		Map<String, SingleDataSource> noChangeDataSources = new HashMap<String, SingleDataSource>();
+		Map<String, SingleDataSource> dataSources = snapshot.dataSources;
 
 		for (Map.Entry<String, DataSourceConfig> oldEntry : loadBalancedConfigMap.entrySet()) {
 			String oldDataSourceId = oldEntry.getKey();
@@ -241,19 +343,45 @@ public class LoadBalancedDataSource extends AbstractDataSource {
 			throw new ZebraException(e);
 		}
 
+		// warm up before switch
+		int warmUpConnections = 0;
+		for (SingleDataSource dataSource : newDataSources.values()) {
+			try {
+				warmUpConnections += dataSource.warmUp();
+			} catch (SQLException e) {
+				LOGGER.warn(String.format("fail to warm up dataSource [%s]", dataSource.getId()), e);
+			}
+		}
+
 		// switch first
 		Map<String, SingleDataSource> targetDataSourceMap = new HashMap<String, SingleDataSource>();
 		targetDataSourceMap.putAll(newDataSources);
 		targetDataSourceMap.putAll(noChangeDataSources);
 
-		this.dataSources = targetDataSourceMap;
 		this.loadBalancedConfigMap = newLoadBalancedConfigMap;
-		this.router = new BackupDataSourceRouter(loadBalancedConfigMap, configManagerType, configService, routerStrategy);
+		this.snapshot = new Snapshot(targetDataSourceMap, new BackupDataSourceRouter(loadBalancedConfigMap,
+		      configManagerType, configService, routerStrategy));
 
 		// close after
 		for (Map.Entry<String, SingleDataSource> entry : needRemoveDataSources.entrySet()) {
 			SingleDataSource dataSource = entry.getValue();
 			dataSourceManager.destoryDataSource(dataSource);
 		}
+
+		return warmUpConnections;
+	}
+
+	/**
+	 * 数据源和路由的不可变视图，刷新时整体替换
+	 */
+	private static final class Snapshot {
+		final Map<String, SingleDataSource> dataSources;
+
+		final DataSourceRouter router;
+
+		Snapshot(Map<String, SingleDataSource> dataSources, DataSourceRouter router) {
+			this.dataSources = Collections.unmodifiableMap(dataSources);
+			this.router = router;
+		}
 	}
 }
@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.group.datasources;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.dianping.zebra.log.Logger;
+import com.dianping.zebra.log.LoggerFactory;
+import com.dianping.zebra.single.jdbc.SingleDataSource;
+import com.dianping.zebra.util.JDBCUtils;
+import com.dianping.zebra.util.StringUtils;
+
+/**
+ * <p>
+ * 从库复制延迟监控，定时采样<tt>LoadBalancedDataSource</tt>中每个从库的延迟
+ * </p>
+ * 延迟超过阈值或者复制已经停止的从库在选择读库时被排除；所有从库都超过阈值时不排除，避免读请求全部失败。
+ * 默认通过<tt>SHOW SLAVE STATUS</tt>的<tt>Seconds_Behind_Master</tt>采样，配置了心跳SQL时在从库上用<tt>NOW(3)</tt>减去心跳时间作为延迟。
+ * 无法采样（没有权限、不是从库等）时不排除该从库。<br>
+ * 每个监控使用自己的调度线程，采样直接从连接池借连接并设置查询超时，一个从库卡住不会拖慢其他分组，也不会触发熔断。
+ */
+public class ReplicationLagMonitor {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ReplicationLagMonitor.class);
+
+	public static final long UNKNOWN_LAG = -1;
+
+	public static final long REPLICATION_STOPPED = Long.MAX_VALUE;
+
+	private static final AtomicInteger MONITOR_NUMBER = new AtomicInteger(1);
+
+	private final LoadBalancedDataSource loadBalancedDataSource;
+
+	private final long thresholdMillis;
+
+	private final long intervalMillis;
+
+	private final LagDetector detector;
+
+	private final int queryTimeoutSeconds;
+
+	private volatile Map<String, Long> lags = Collections.emptyMap();
+
+	private volatile Set<String> laggingDataSources = Collections.emptySet();
+
+	private ScheduledExecutorService scheduler;
+
+	public ReplicationLagMonitor(LoadBalancedDataSource loadBalancedDataSource, long thresholdMillis,
+	      long intervalMillis, LagDetector detector) {
+		this.loadBalancedDataSource = loadBalancedDataSource;
+		this.thresholdMillis = thresholdMillis;
+		this.intervalMillis = intervalMillis;
+		this.detector = detector;
+		this.queryTimeoutSeconds = (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(intervalMillis + 999));
+	}
+
+	public static LagDetector createDetector(String heartbeatSql) {
+		if (StringUtils.isBlank(heartbeatSql)) {
+			return new SlaveStatusLagDetector();
+		} else {
+			return new HeartbeatLagDetector(heartbeatSql);
+		}
+	}
+
+	public synchronized void start() {
+		if (scheduler == null) {
+			scheduler = createScheduler();
+			scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						check();
+					} catch (Throwable t) {
+						LOGGER.warn("fail to check replication lag", t);
+					}
+				}
+			}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	public synchronized void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	public void check() {
+		Map<String, Long> newLags = new HashMap<String, Long>();
+		Set<String> newLaggingDataSources = new HashSet<String>();
+
+		for (SingleDataSource dataSource : loadBalancedDataSource.getDataSources().values()) {
+			if (dataSource.isDown() || dataSource.isClosed()) {
+				continue;
+			}
+
+			long lag = sample(dataSource);
+			newLags.put(dataSource.getId(), lag);
+			if (lag > thresholdMillis) {
+				newLaggingDataSources.add(dataSource.getId());
+			}
+		}
+
+		if (!newLaggingDataSources.equals(laggingDataSources)) {
+			LOGGER.info(String.format("replication lag exceeds %dms: %s, lags: %s", thresholdMillis,
+			      newLaggingDataSources, newLags));
+		}
+
+		this.lags = newLags;
+		this.laggingDataSources = newLaggingDataSources.isEmpty() ? Collections.<String> emptySet() : Collections
+		      .unmodifiableSet(newLaggingDataSources);
+	}
+
+	private long sample(SingleDataSource dataSource) {
+		Connection conn = null;
+		try {
+			conn = dataSource.getRawConnection();
+			return detector.getLagMillis(conn, queryTimeoutSeconds);
+		} catch (SQLException e) {
+			LOGGER.warn(String.format("fail to sample replication lag of dataSource [%s]", dataSource.getId()), e);
+			return UNKNOWN_LAG;
+		} finally {
+			JDBCUtils.closeAll(null, conn);
+		}
+	}
+
+	public long getLagMillis(String dsId) {
+		Long lag = lags.get(dsId);
+		return lag == null ? UNKNOWN_LAG : lag;
+	}
+
+	public Set<String> getLaggingDataSources() {
+		return laggingDataSources;
+	}
+
+	public long getThresholdMillis() {
+		return thresholdMillis;
+	}
+
+	public int getQueryTimeoutSeconds() {
+		return queryTimeoutSeconds;
+	}
+
+	private static ScheduledExecutorService createScheduler() {
+		final String name = "Dal-ReplicationLagMonitor-" + MONITOR_NUMBER.getAndIncrement();
+		return new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * 复制延迟采样，返回毫秒数；复制停止时返回<tt>REPLICATION_STOPPED</tt>，无法判断时返回<tt>UNKNOWN_LAG</tt>
+	 */
+	public interface LagDetector {
+		long getLagMillis(Connection conn, int queryTimeoutSeconds) throws SQLException;
+	}
+
+	public static class SlaveStatusLagDetector implements LagDetector {
+
+		@Override
+		public long getLagMillis(Connection conn, int queryTimeoutSeconds) throws SQLException {
+			Statement stmt = conn.createStatement();
+			try {
+				stmt.setQueryTimeout(queryTimeoutSeconds);
+				ResultSet rs = stmt.executeQuery("SHOW SLAVE STATUS");
+				if (!rs.next()) {
+					return UNKNOWN_LAG;
+				}
+
+				long seconds = rs.getLong("Seconds_Behind_Master");
+				if (rs.wasNull()) {
+					return REPLICATION_STOPPED;
+				}
+				return seconds * 1000;
+			} finally {
+				stmt.close();
+			}
+		}
+	}
+
+	/**
+	 * 心跳SQL返回主库定时写入的时间，作为标量子查询在从库上与<tt>NOW(3)</tt>相减，延迟完全按数据库时钟计算
+	 */
+	public static class HeartbeatLagDetector implements LagDetector {
+
+		private final String lagSql;
+
+		public HeartbeatLagDetector(String heartbeatSql) {
+			String sql = heartbeatSql.trim();
+			while (sql.endsWith(";")) {
+				sql = sql.substring(0, sql.length() - 1).trim();
+			}
+			this.lagSql = buildLagSql(sql);
+		}
+
+		/**
+		 * 返回以微秒为单位的延迟
+		 */
+		protected String buildLagSql(String heartbeatSql) {
+			return "SELECT TIMESTAMPDIFF(MICROSECOND, (" + heartbeatSql + "), NOW(3))";
+		}
+
+		@Override
+		public long getLagMillis(Connection conn, int queryTimeoutSeconds) throws SQLException {
+			Statement stmt = conn.createStatement();
+			try {
+				stmt.setQueryTimeout(queryTimeoutSeconds);
+				ResultSet rs = stmt.executeQuery(lagSql);
+				if (!rs.next()) {
+					return UNKNOWN_LAG;
+				}
+
+				long lagMicros = rs.getLong(1);
+				if (rs.wasNull()) {
+					return UNKNOWN_LAG;
+				}
+				return Math.max(lagMicros / 1000, 0);
+			} finally {
+				stmt.close();
+			}
+		}
+	}
+}
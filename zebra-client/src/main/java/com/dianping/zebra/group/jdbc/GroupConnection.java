@@ -18,15 +18,17 @@
  */
 package com.dianping.zebra.group.jdbc;
 
-import com.dianping.zebra.Constants;
 import com.dianping.zebra.filter.DefaultJdbcFilterChain;
 import com.dianping.zebra.filter.JdbcFilter;
+import com.dianping.zebra.filter.JdbcFilterPipeline;
+import com.dianping.zebra.filter.JdbcFilterPipeline.Hook;
+import com.dianping.zebra.group.datasources.HedgedReadPolicy;
+import com.dianping.zebra.group.datasources.LoadBalancedDataSource;
 import com.dianping.zebra.group.router.ReadWriteStrategy;
 import com.dianping.zebra.group.router.RouterType;
 import com.dianping.zebra.util.JDBCUtils;
-import com.dianping.zebra.util.SqlType;
+import com.dianping.zebra.util.SqlClassification;
 import com.dianping.zebra.util.SqlUtils;
-import com.dianping.zebra.util.StringUtils;
 
 import javax.sql.DataSource;
 
@@ -57,6 +59,8 @@ public class GroupConnection implements Connection {
 
 	private List<Statement> openedStatements = new ArrayList<Statement>();
 
+	private List<Connection> retiredReadConnections = new ArrayList<Connection>();
+
 	private int transactionIsolation = -1;
 
 	private boolean autoCommit = true;
@@ -123,8 +127,16 @@ public class GroupConnection implements Connection {
 			} catch (SQLException e) {
 				exceptions.add(e);
 			}
+			for (Connection conn : retiredReadConnections) {
+				try {
+					conn.close();
+				} catch (SQLException e) {
+					exceptions.add(e);
+				}
+			}
 		} finally {
 			openedStatements.clear();
+			retiredReadConnections.clear();
 			rConnection = null;
 			wConnection = null;
 		}
@@ -134,8 +146,9 @@ public class GroupConnection implements Connection {
 
 	@Override
 	public void close() throws SQLException {
-		if (filters != null && filters.size() > 0) {
-			JdbcFilter chain = new DefaultJdbcFilterChain(filters) {
+		List<JdbcFilter> hookFilters = JdbcFilterPipeline.filters(filters, Hook.CLOSE_GROUP_CONNECTION);
+		if (hookFilters.size() > 0) {
+			JdbcFilter chain = new DefaultJdbcFilterChain(hookFilters) {
 				@Override
 				public void closeGroupConnection(GroupConnection source, JdbcFilter chain) throws SQLException {
 					if (index < filters.size()) {
@@ -193,41 +206,96 @@ public class GroupConnection implements Connection {
 				if (rConnection == null) {
 					rConnection = readDataSource.getConnection();
 				}
-				if (catalog != null) {
-					rConnection.setCatalog(catalog);
-				}
-				if (schema != null) {
-					rConnection.setSchema(schema);
-				}
+				prepareReadConnection(rConnection);
 			}
 		}
 
 		return rConnection;
 	}
 
+	/**
+	 * 在读连接上应用当前的catalog和schema，对冲查询在自己的连接上执行前也要调用
+	 */
+	void prepareReadConnection(Connection conn) throws SQLException {
+		if (catalog != null) {
+			conn.setCatalog(catalog);
+		}
+		if (schema != null) {
+			conn.setSchema(schema);
+		}
+	}
+
 	Connection getRealConnection(String sql, boolean forceWrite) throws SQLException {
+		return getRealConnection(sql, null, forceWrite);
+	}
+
+	/**
+	 * @param sql
+	 * @param classification
+	 *           已经计算好的SQL分类，为null时根据sql计算
+	 * @param forceWrite
+	 */
+	Connection getRealConnection(String sql, SqlClassification classification, boolean forceWrite)
+	      throws SQLException {
 		if (this.routerType == RouterType.SLAVE_ONLY) {
 			return getReadConnection();
 		} else if (this.routerType == RouterType.MASTER_ONLY) {
 			return getWriteConnection();
 		}
 
-		if (forceWrite) {
+		if (forceWrite || !autoCommit) {
 			return getWriteConnection();
-		} else if (!autoCommit || StringUtils.trimToEmpty(sql).contains(Constants.SQL_FORCE_WRITE_HINT)) {
+		}
+
+		if (classification == null) {
+			classification = SqlUtils.classify(sql);
+		}
+
+		if (classification.isForceWrite()) {
 			return getWriteConnection();
 		} else if (readWriteStrategy != null && readWriteStrategy.shouldReadFromMaster()) {
 			return getWriteConnection();
 		}
 
-		SqlType sqlType = SqlUtils.getSqlType(sql);
-		if (sqlType.isRead()) {
+		if (classification.getSqlType().isRead()) {
 			return getReadConnection();
 		} else {
 			return getWriteConnection();
 		}
 	}
 
+	/**
+	 * 在从库连接上执行的查询需要对冲时返回<tt>HedgedQuery</tt>，否则返回null
+	 */
+	HedgedQuery getHedgedQuery(Connection conn) {
+		if (conn == null || conn != rConnection || !(readDataSource instanceof LoadBalancedDataSource)) {
+			return null;
+		}
+
+		LoadBalancedDataSource loadBalancedDataSource = (LoadBalancedDataSource) readDataSource;
+		HedgedReadPolicy policy = loadBalancedDataSource.getHedgedReadPolicy();
+		if (policy == null || !policy.shouldHedge()) {
+			return null;
+		}
+
+		return new HedgedQuery(this, policy, loadBalancedDataSource);
+	}
+
+	/**
+	 * 对冲查询胜出后改用它的连接读，原读连接上可能还有被取消的查询，在关闭时再关闭。
+	 * 新连接在执行对冲查询前已经通过<tt>prepareReadConnection</tt>设置了catalog和schema
+	 */
+	void replaceReadConnection(Connection oldConnection, Connection newConnection) throws SQLException {
+		synchronized (this) {
+			if (rConnection != oldConnection) {
+				retiredReadConnections.add(newConnection);
+				return;
+			}
+			retiredReadConnections.add(oldConnection);
+			rConnection = newConnection;
+		}
+	}
+
 	@Override
 	public boolean getAutoCommit() throws SQLException {
 		checkClosed();
@@ -47,11 +47,15 @@ import com.dianping.zebra.exception.ZebraException;
 import com.dianping.zebra.filter.DefaultJdbcFilterChain;
 import com.dianping.zebra.filter.FilterManagerFactory;
 import com.dianping.zebra.filter.JdbcFilter;
+import com.dianping.zebra.filter.JdbcFilterPipeline;
+import com.dianping.zebra.filter.JdbcFilterPipeline.Hook;
 import com.dianping.zebra.group.config.datasource.entity.Any;
 import com.dianping.zebra.group.config.datasource.entity.DataSourceConfig;
 import com.dianping.zebra.group.config.datasource.entity.GroupDataSourceConfig;
 import com.dianping.zebra.group.datasources.FailOverDataSource;
 import com.dianping.zebra.group.datasources.LoadBalancedDataSource;
+import com.dianping.zebra.group.datasources.HedgedReadPolicy;
+import com.dianping.zebra.group.datasources.ReplicationLagMonitor;
 import com.dianping.zebra.group.monitor.GroupDataSourceMBean;
 import com.dianping.zebra.group.monitor.SingleDataSourceMBean;
 import com.dianping.zebra.group.router.ReadWriteStrategy;
@@ -93,6 +97,20 @@ public class GroupDataSource extends C3p0DataSourceAdapter implements GroupDataS
 
 	protected RouterType routerType = RouterType.MASTER_SLAVE;
 
+	// replication lag, slaveLagThreshold <= 0 means disabled
+	protected long slaveLagThreshold = 0;
+
+	protected long slaveLagCheckInterval = 1000;
+
+	protected String slaveLagHeartbeatSql;
+
+	// hedged read, hedgedReadDelay <= 0 means p95 of recent slave queries
+	protected boolean hedgedRead = false;
+
+	protected long hedgedReadDelay = 0;
+
+	protected String hedgedReadSqlNames;
+
 	// other
 	protected ReadWriteStrategy readWriteStrategy;
 
@@ -106,6 +124,13 @@ public class GroupDataSource extends C3p0DataSourceAdapter implements GroupDataS
 
 	protected volatile boolean init = false;
 
+	// refresh metrics
+	private volatile long refreshCount = 0;
+
+	private volatile long lastRefreshMillis = 0;
+
+	private volatile int lastRefreshWarmUpConnections = 0;
+
 	public GroupDataSource() {
 	}
 
@@ -249,8 +274,9 @@ public class GroupDataSource extends C3p0DataSourceAdapter implements GroupDataS
 	}
 
 	private void close(final LoadBalancedDataSource read, final FailOverDataSource write) throws SQLException {
-		if (filters != null && filters.size() > 0) {
-			JdbcFilter chain = new DefaultJdbcFilterChain(filters) {
+		List<JdbcFilter> hookFilters = JdbcFilterPipeline.filters(filters, Hook.CLOSE_GROUP_DATASOURCE);
+		if (hookFilters.size() > 0) {
+			JdbcFilter chain = new DefaultJdbcFilterChain(hookFilters) {
 				@Override
 				public void closeGroupDataSource(GroupDataSource source, JdbcFilter chain) throws SQLException {
 					if (index < filters.size()) {
@@ -311,8 +337,9 @@ public class GroupDataSource extends C3p0DataSourceAdapter implements GroupDataS
 
 	@Override
 	public Connection getConnection(final String username, final String password) throws SQLException {
-		if (filters != null && filters.size() > 0) {
-			JdbcFilter chain = new DefaultJdbcFilterChain(filters) {
+		List<JdbcFilter> hookFilters = JdbcFilterPipeline.filters(filters, Hook.GET_GROUP_CONNECTION);
+		if (hookFilters.size() > 0) {
+			JdbcFilter chain = new DefaultJdbcFilterChain(hookFilters) {
 				@Override
 				public GroupConnection getGroupConnection(GroupDataSource source, JdbcFilter chain) throws SQLException {
 					if (index < filters.size()) {
@@ -394,6 +421,41 @@ public class GroupDataSource extends C3p0DataSourceAdapter implements GroupDataS
 		return this.writeDataSource.getCurrentDataSourceMBean();
 	}
 
+	@Override
+	public long getRefreshCount() {
+		return refreshCount;
+	}
+
+	@Override
+	public long getLastRefreshMillis() {
+		return lastRefreshMillis;
+	}
+
+	@Override
+	public int getLastRefreshWarmUpConnections() {
+		return lastRefreshWarmUpConnections;
+	}
+
+	/**
+	 * 预热读库和写库的连接池，需要在<tt>init()</tt>之后调用
+	 */
+	public void warmUp() throws SQLException {
+		List<SQLException> exps = new ArrayList<SQLException>();
+
+		try {
+			this.readDataSource.warmUp();
+		} catch (SQLException e) {
+			exps.add(e);
+		}
+		try {
+			this.writeDataSource.warmUp();
+		} catch (SQLException e) {
+			exps.add(e);
+		}
+
+		JDBCUtils.throwSQLExceptionIfNeeded(exps);
+	}
+
 	public synchronized void init() {
 		if (StringUtils.isBlank(jdbcRef)) {
 			throw new ZebraException("jdbcRef cannot be empty");
@@ -412,8 +474,9 @@ public class GroupDataSource extends C3p0DataSourceAdapter implements GroupDataS
 			this.initConfig();
 			this.initFilters();
 
-			if (filters != null && filters.size() > 0) {
-				JdbcFilter chain = new DefaultJdbcFilterChain(filters) {
+			List<JdbcFilter> hookFilters = JdbcFilterPipeline.filters(filters, Hook.INIT_GROUP_DATASOURCE);
+			if (hookFilters.size() > 0) {
+				JdbcFilter chain = new DefaultJdbcFilterChain(hookFilters) {
 					@Override
 					public void initGroupDataSource(GroupDataSource source, JdbcFilter chain) {
 						if (index < filters.size()) {
@@ -523,6 +586,13 @@ public class GroupDataSource extends C3p0DataSourceAdapter implements GroupDataS
 			      this.filters, systemConfigManager.getSystemConfig(), this.configManagerType, this.configService,
 			      groupConfig.getRouterStrategy());
 			this.readDataSource.init();
+			if (this.slaveLagThreshold > 0) {
+				this.readDataSource.startReplicationLagMonitor(this.slaveLagThreshold, this.slaveLagCheckInterval,
+				      ReplicationLagMonitor.createDetector(this.slaveLagHeartbeatSql));
+			}
+			if (this.hedgedRead) {
+				this.readDataSource.setHedgedReadPolicy(new HedgedReadPolicy(this.hedgedReadDelay, this.hedgedReadSqlNames));
+			}
 			this.writeDataSource = new FailOverDataSource(getFailoverConfig(groupConfig.getDataSourceConfigs()),
 			      this.filters);
 			this.writeDataSource.init();
@@ -537,8 +607,8 @@ public class GroupDataSource extends C3p0DataSourceAdapter implements GroupDataS
 	}
 
 	protected void initFilters() {
-		this.filters = FilterManagerFactory.getFilterManager().loadFilters(this.groupConfig.getFilters(),
-		      configManagerType, serviceConfigs);
+		this.filters = JdbcFilterPipeline.compile(FilterManagerFactory.getFilterManager().loadFilters(
+		      this.groupConfig.getFilters(), configManagerType, serviceConfigs));
 	}
 
 	protected void initInternal() {
@@ -581,8 +651,9 @@ public class GroupDataSource extends C3p0DataSourceAdapter implements GroupDataS
 		SmoothReload sr = new SmoothReload(getMaxWarmupTime());
 		sr.waitForReload();
 
-		if (filters != null && filters.size() > 0) {
-			JdbcFilter chain = new DefaultJdbcFilterChain(filters) {
+		List<JdbcFilter> hookFilters = JdbcFilterPipeline.filters(filters, Hook.REFRESH_GROUP_DATASOURCE);
+		if (hookFilters.size() > 0) {
+			JdbcFilter chain = new DefaultJdbcFilterChain(hookFilters) {
 				@Override
 				public void refreshGroupDataSource(GroupDataSource source, String propertyToChange, JdbcFilter chain) {
 					if (index < filters.size()) {
@@ -600,22 +671,28 @@ public class GroupDataSource extends C3p0DataSourceAdapter implements GroupDataS
 
 	private void refreshInternal(GroupDataSourceConfig groupDataSourceConfig) {
 		LOGGER.info(String.format("start to refresh the GroupDataSource(%s)...", jdbcRef));
+		long start = System.currentTimeMillis();
 
 		try {
 			Map<String, DataSourceConfig> newFailoverConfig = getFailoverConfig(
 			      groupDataSourceConfig.getDataSourceConfigs());
-			this.writeDataSource.refresh(newFailoverConfig);
+			int warmUpConnections = this.writeDataSource.refresh(newFailoverConfig);
 
 			Map<String, DataSourceConfig> newLoadBalancedConfig = getLoadBalancedConfig(
 			      groupDataSourceConfig.getDataSourceConfigs());
-			this.readDataSource.refresh(newLoadBalancedConfig);
+			warmUpConnections += this.readDataSource.refresh(newLoadBalancedConfig);
 
 			this.groupConfig = groupDataSourceConfig;
 
 			initFilters();
 			refreshReadWriteStrategyConfig();
 
-			LOGGER.info(String.format("refresh the GroupDataSources(%s) successfully!", jdbcRef));
+			this.lastRefreshMillis = System.currentTimeMillis() - start;
+			this.lastRefreshWarmUpConnections = warmUpConnections;
+			this.refreshCount++;
+
+			LOGGER.info(String.format("refresh the GroupDataSources(%s) successfully in %d ms, %d connections warmed up!",
+			      jdbcRef, lastRefreshMillis, warmUpConnections));
 		} catch (Throwable e) {
 			// never here
 			LOGGER.error(e.getMessage(), e);
@@ -701,6 +778,45 @@ public class GroupDataSource extends C3p0DataSourceAdapter implements GroupDataS
 		this.routerType = RouterType.getRouterType(routerType);
 	}
 
+	/**
+	 * 从库复制延迟超过该值（毫秒）时不从该从库读，小于等于0时不检测
+	 */
+	public synchronized void setSlaveLagThreshold(long slaveLagThreshold) {
+		this.slaveLagThreshold = slaveLagThreshold;
+	}
+
+	public synchronized void setSlaveLagCheckInterval(long slaveLagCheckInterval) {
+		this.slaveLagCheckInterval = slaveLagCheckInterval;
+	}
+
+	/**
+	 * 返回主库心跳时间的SQL，不配置时使用SHOW SLAVE STATUS
+	 */
+	public synchronized void setSlaveLagHeartbeatSql(String slaveLagHeartbeatSql) {
+		this.slaveLagHeartbeatSql = slaveLagHeartbeatSql;
+	}
+
+	/**
+	 * 从库查询超过对冲延迟没有返回时，向另一个从库发出同样的查询，使用先返回的结果
+	 */
+	public synchronized void setHedgedRead(boolean hedgedRead) {
+		this.hedgedRead = hedgedRead;
+	}
+
+	/**
+	 * 对冲延迟（毫秒），小于等于0时使用最近从库查询耗时的p95
+	 */
+	public synchronized void setHedgedReadDelay(long hedgedReadDelay) {
+		this.hedgedReadDelay = hedgedReadDelay;
+	}
+
+	/**
+	 * 只对这些SQL（逗号分隔的<tt>DaoContextHolder</tt>中的SQL名）对冲，不配置时对所有从库查询对冲
+	 */
+	public synchronized void setHedgedReadSqlNames(String hedgedReadSqlNames) {
+		this.hedgedReadSqlNames = hedgedReadSqlNames;
+	}
+
 	public void setJdbcRefMaxInitialCount(int jdbcRefMaxInitialCount) {
 		this.jdbcRefMaxInitialCount = jdbcRefMaxInitialCount;
 	}
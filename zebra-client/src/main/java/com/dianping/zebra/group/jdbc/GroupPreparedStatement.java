@@ -36,6 +36,7 @@ import java.sql.ResultSetMetaData;
 import java.sql.RowId;
 import java.sql.SQLException;
 import java.sql.SQLXML;
+import java.sql.Statement;
 import java.sql.Time;
 import java.sql.Timestamp;
 import java.util.ArrayList;
@@ -72,8 +73,8 @@ import com.dianping.zebra.group.jdbc.param.StringParamContext;
 import com.dianping.zebra.group.jdbc.param.TimeParamContext;
 import com.dianping.zebra.group.jdbc.param.TimestampParamContext;
 import com.dianping.zebra.group.jdbc.param.URLParamContext;
-import com.dianping.zebra.single.jdbc.SingleConnection;
 import com.dianping.zebra.util.JDBCUtils;
+import com.dianping.zebra.util.SqlClassification;
 import com.dianping.zebra.util.SqlType;
 import com.dianping.zebra.util.SqlUtils;
 
@@ -95,6 +96,8 @@ public class GroupPreparedStatement extends GroupStatement implements PreparedSt
 
 	private String sql;
 
+	private SqlClassification sqlClassification;
+
 	public GroupPreparedStatement(GroupConnection connection, String sql, List<JdbcFilter> filters) {
 		super(connection, filters);
 		this.sql = sql;
@@ -119,6 +122,12 @@ public class GroupPreparedStatement extends GroupStatement implements PreparedSt
 	}
 
 	private PreparedStatement createPreparedStatementInternal(Connection conn, String sql) throws SQLException {
+		PreparedStatement pstmt = newPreparedStatement(conn, sql);
+		setInnerStatement(pstmt);
+		return pstmt;
+	}
+
+	private PreparedStatement newPreparedStatement(Connection conn, String sql) throws SQLException {
 		PreparedStatement pstmt;
 		if (autoGeneratedKeys != -1) {
 			pstmt = conn.prepareStatement(sql, autoGeneratedKeys);
@@ -139,14 +148,19 @@ public class GroupPreparedStatement extends GroupStatement implements PreparedSt
 		pstmt.setFetchSize(fetchSize);
 		pstmt.setMaxRows(maxRows);
 
-		setInnerStatement(pstmt);
-
 		return pstmt;
 	}
 
+	private SqlClassification getSqlClassification() {
+		if (sqlClassification == null) {
+			sqlClassification = SqlUtils.classifyWithCache(sql);
+		}
+		return sqlClassification;
+	}
+
 	@Override
 	public boolean execute() throws SQLException {
-		SqlType sqlType = SqlUtils.getSqlType(sql);
+		SqlType sqlType = getSqlClassification().getSqlType();
 		if (sqlType.isQuery()) {
 			executeQuery();
 			return true;
@@ -191,12 +205,29 @@ public class GroupPreparedStatement extends GroupStatement implements PreparedSt
 		checkClosed();
 		closeCurrentResultSet();
 
-		Connection conn = this.groupConnection.getRealConnection(sql, false);
+		Connection conn = this.groupConnection.getRealConnection(sql, getSqlClassification(), false);
 
 		return executeQueryOnConnection(conn, sql);
 	}
 
-	private ResultSet executeQueryOnConnection(Connection conn, String sql) throws SQLException {
+	private ResultSet executeQueryOnConnection(Connection conn, final String sql) throws SQLException {
+		HedgedQuery hedgedQuery = isReplayable() ? this.groupConnection.getHedgedQuery(conn) : null;
+		if (hedgedQuery != null) {
+			return executeHedgedQuery(hedgedQuery, conn, new HedgedQuery.Callback() {
+				@Override
+				public Statement createStatement(Connection conn) throws SQLException {
+					PreparedStatement pstmt = newPreparedStatement(conn, sql);
+					setParams(pstmt);
+					return pstmt;
+				}
+
+				@Override
+				public ResultSet executeQuery(Statement stmt) throws SQLException {
+					return ((PreparedStatement) stmt).executeQuery();
+				}
+			});
+		}
+
 		PreparedStatement pstmt = createPreparedStatementInternal(conn, sql);
 		setParams(pstmt);
 		this.currentResultSet = new GroupResultSet(pstmt.executeQuery());
@@ -204,6 +235,22 @@ public class GroupPreparedStatement extends GroupStatement implements PreparedSt
 		return this.currentResultSet;
 	}
 
+	/**
+	 * 流类型的参数只能读取一次，不能在两个从库上重复执行
+	 */
+	private boolean isReplayable() {
+		for (ParamContext param : params) {
+			if (param.getValues() != null) {
+				for (Object value : param.getValues()) {
+					if (value instanceof InputStream || value instanceof Reader) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
 	@Override
 	public int executeUpdate() throws SQLException {
 		checkClosed();
@@ -214,9 +261,6 @@ public class GroupPreparedStatement extends GroupStatement implements PreparedSt
 		try {
 			updateCount = executeUpdateOnConnection(conn);
 		} catch (SQLException e) {
-			if (conn instanceof SingleConnection) {
-				((SingleConnection) conn).getDataSource().getPunisher().countAndPunish(e);
-			}
 			JDBCUtils.throwWrappedSQLException(e);
 		}
 		return updateCount;
@@ -27,7 +27,6 @@ import java.util.ArrayList;
 import java.util.List;
 
 import com.dianping.zebra.filter.JdbcFilter;
-import com.dianping.zebra.single.jdbc.SingleConnection;
 import com.dianping.zebra.util.JDBCUtils;
 import com.dianping.zebra.util.SqlType;
 import com.dianping.zebra.util.SqlUtils;
@@ -151,6 +150,12 @@ public class GroupStatement implements Statement {
 	}
 
 	private Statement createInnerStatement(Connection conn, boolean isBatch) throws SQLException {
+		Statement stmt = newInnerStatement(conn, isBatch);
+		setInnerStatement(stmt);
+		return stmt;
+	}
+
+	private Statement newInnerStatement(Connection conn, boolean isBatch) throws SQLException {
 		Statement stmt;
 		if (isBatch) {
 			stmt = conn.createStatement();
@@ -167,7 +172,6 @@ public class GroupStatement implements Statement {
 		stmt.setFetchSize(fetchSize);
 		stmt.setMaxRows(maxRows);
 
-		setInnerStatement(stmt);
 		return stmt;
 	}
 
@@ -251,12 +255,35 @@ public class GroupStatement implements Statement {
 		return executeQueryOnConnection(conn, sql);
 	}
 
-	private ResultSet executeQueryOnConnection(Connection conn, String sql) throws SQLException {
+	private ResultSet executeQueryOnConnection(Connection conn, final String sql) throws SQLException {
+		HedgedQuery hedgedQuery = this.groupConnection.getHedgedQuery(conn);
+		if (hedgedQuery != null) {
+			return executeHedgedQuery(hedgedQuery, conn, new HedgedQuery.Callback() {
+				@Override
+				public Statement createStatement(Connection conn) throws SQLException {
+					return newInnerStatement(conn, false);
+				}
+
+				@Override
+				public ResultSet executeQuery(Statement stmt) throws SQLException {
+					return stmt.executeQuery(sql);
+				}
+			});
+		}
+
 		Statement stmt = createInnerStatement(conn, false);
 		currentResultSet = new GroupResultSet(stmt.executeQuery(sql));
 		return currentResultSet;
 	}
 
+	protected ResultSet executeHedgedQuery(HedgedQuery hedgedQuery, Connection conn, HedgedQuery.Callback callback)
+			throws SQLException {
+		HedgedQuery.Result result = hedgedQuery.execute(conn, callback);
+		setInnerStatement(result.statement);
+		this.currentResultSet = new GroupResultSet(result.resultSet);
+		return this.currentResultSet;
+	}
+
 	@Override
 	public int executeUpdate(String sql) throws SQLException {
 		return executeUpdateInternal(sql, -1, null, null);
@@ -287,9 +314,6 @@ public class GroupStatement implements Statement {
 		try {
 			updateCount = executeUpdateOnConnection(conn, sql, autoGeneratedKeys, columnIndexes, columnNames);
 		} catch (SQLException e) {
-			if (conn instanceof SingleConnection) {
-				((SingleConnection) conn).getDataSource().getPunisher().countAndPunish(e);
-			}
 			JDBCUtils.throwWrappedSQLException(e);
 		}
 
@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.group.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.dianping.zebra.group.datasources.HedgedReadPolicy;
+import com.dianping.zebra.group.datasources.LoadBalancedDataSource;
+import com.dianping.zebra.group.router.LocalContextReadWriteStrategy;
+import com.dianping.zebra.group.router.ZebraForceMasterHelper;
+import com.dianping.zebra.group.util.DaoContextHolder;
+import com.dianping.zebra.log.Logger;
+import com.dianping.zebra.log.LoggerFactory;
+import com.dianping.zebra.single.jdbc.SingleConnection;
+
+/**
+ * <p>
+ * 对冲读：主查询超过对冲延迟没有返回时，从另一个从库执行同样的查询，使用先成功返回的结果
+ * </p>
+ * 主查询在调用线程上执行，超过延迟后才把对冲查询提交到有界的对冲线程池，线程池已满时不对冲。对冲查询先成功时通过
+ * <tt>Statement.cancel</tt>取消主查询，调用线程改用对冲查询的结果，它的连接替换<tt>GroupConnection</tt>的读连接，原读连接在
+ * <tt>GroupConnection</tt>关闭时关闭；主查询先返回时取消对冲查询，对冲查询结束后自行关闭。
+ * 调用线程的<tt>DaoContextHolder</tt>和<tt>ZebraForceMasterHelper</tt>上下文会传递到对冲线程。
+ */
+class HedgedQuery {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(HedgedQuery.class);
+
+	private final GroupConnection groupConnection;
+
+	private final HedgedReadPolicy policy;
+
+	private final LoadBalancedDataSource dataSource;
+
+	HedgedQuery(GroupConnection groupConnection, HedgedReadPolicy policy, LoadBalancedDataSource dataSource) {
+		this.groupConnection = groupConnection;
+		this.policy = policy;
+		this.dataSource = dataSource;
+	}
+
+	Result execute(Connection conn, Callback callback) throws SQLException {
+		long delayMillis = policy.getDelayMillis();
+		Statement stmt = callback.createStatement(conn);
+
+		if (delayMillis < 0) {
+			return new Result(stmt, executePrimary(stmt, callback));
+		}
+
+		Set<String> excludeDataSourceIds = conn instanceof SingleConnection ? Collections
+		      .singleton(((SingleConnection) conn).getDataSourceId()) : Collections.<String> emptySet();
+		final Hedge hedge = new Hedge(callback, excludeDataSourceIds, stmt);
+		ScheduledFuture<?> timer = HedgedReadPolicy.getScheduler().schedule(new Runnable() {
+			@Override
+			public void run() {
+				hedge.launch();
+			}
+		}, delayMillis, TimeUnit.MILLISECONDS);
+
+		ResultSet rs;
+		try {
+			rs = executePrimary(stmt, callback);
+		} catch (SQLException e) {
+			timer.cancel(false);
+			if (!hedge.awaitSuccess()) {
+				throw e;
+			}
+
+			closeQuietly(stmt);
+			groupConnection.replaceReadConnection(conn, hedge.getConnection());
+			return new Result(hedge.getStatement(), hedge.getResultSet());
+		} catch (RuntimeException e) {
+			timer.cancel(false);
+			hedge.abandon();
+			throw e;
+		}
+
+		timer.cancel(false);
+		hedge.abandon();
+		return new Result(stmt, rs);
+	}
+
+	private ResultSet executePrimary(Statement stmt, Callback callback) throws SQLException {
+		long start = System.currentTimeMillis();
+		try {
+			return callback.executeQuery(stmt);
+		} finally {
+			policy.record(System.currentTimeMillis() - start);
+		}
+	}
+
+	private static void cancelQuietly(Statement stmt) {
+		try {
+			stmt.cancel();
+		} catch (Exception e) {
+			LOGGER.warn("fail to cancel hedged read", e);
+		}
+	}
+
+	private static void closeQuietly(AutoCloseable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (Exception ignore) {
+			}
+		}
+	}
+
+	interface Callback {
+
+		Statement createStatement(Connection conn) throws SQLException;
+
+		ResultSet executeQuery(Statement stmt) throws SQLException;
+	}
+
+	static class Result {
+
+		final Statement statement;
+
+		final ResultSet resultSet;
+
+		Result(Statement statement, ResultSet resultSet) {
+			this.statement = statement;
+			this.resultSet = resultSet;
+		}
+	}
+
+	private enum HedgeState {
+		PENDING, RUNNING, DONE, SKIPPED
+	}
+
+	/**
+	 * 在对冲线程上执行的查询，所有状态都在自身的锁内修改
+	 */
+	private class Hedge implements Runnable {
+
+		private final Callback callback;
+
+		private final Set<String> excludeDataSourceIds;
+
+		private final Statement primaryStatement;
+
+		private final String sqlName;
+
+		private final boolean forceMaster;
+
+		private HedgeState state = HedgeState.PENDING;
+
+		private boolean primaryFailed;
+
+		private boolean abandoned;
+
+		private boolean executing;
+
+		private Connection connection;
+
+		private Statement statement;
+
+		private ResultSet resultSet;
+
+		private SQLException error;
+
+		Hedge(Callback callback, Set<String> excludeDataSourceIds, Statement primaryStatement) {
+			this.callback = callback;
+			this.excludeDataSourceIds = excludeDataSourceIds;
+			this.primaryStatement = primaryStatement;
+			this.sqlName = DaoContextHolder.getSqlName();
+			this.forceMaster = LocalContextReadWriteStrategy.getReadFromMaster();
+		}
+
+		/**
+		 * 对冲延迟到期时由定时器调用
+		 */
+		void launch() {
+			synchronized (this) {
+				if (state != HedgeState.PENDING) {
+					return;
+				}
+				state = HedgeState.RUNNING;
+			}
+
+			try {
+				HedgedReadPolicy.getExecutor().execute(this);
+			} catch (RejectedExecutionException e) {
+				LOGGER.warn("hedged read executor is full, skip hedging");
+				synchronized (this) {
+					state = HedgeState.SKIPPED;
+					notifyAll();
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			if (sqlName != null) {
+				DaoContextHolder.setSqlName(sqlName);
+			} else {
+				DaoContextHolder.clearSqlName();
+			}
+			if (forceMaster) {
+				ZebraForceMasterHelper.forceMasterInLocalContext();
+			} else {
+				ZebraForceMasterHelper.clearLocalContext();
+			}
+
+			try {
+				Connection conn = dataSource.getConnection(excludeDataSourceIds);
+				synchronized (this) {
+					connection = conn;
+				}
+				groupConnection.prepareReadConnection(conn);
+				Statement stmt = callback.createStatement(conn);
+				synchronized (this) {
+					statement = stmt;
+					if (abandoned) {
+						return;
+					}
+					executing = true;
+				}
+
+				ResultSet rs = callback.executeQuery(stmt);
+				boolean cancelPrimary;
+				synchronized (this) {
+					resultSet = rs;
+					cancelPrimary = !abandoned && !primaryFailed;
+				}
+				if (cancelPrimary) {
+					cancelQuietly(primaryStatement);
+				}
+			} catch (SQLException e) {
+				synchronized (this) {
+					error = e;
+				}
+			} catch (RuntimeException e) {
+				synchronized (this) {
+					error = new SQLException(e);
+				}
+			} finally {
+				synchronized (this) {
+					executing = false;
+					state = HedgeState.DONE;
+					if (abandoned) {
+						release();
+					}
+					notifyAll();
+				}
+
+				DaoContextHolder.clearSqlName();
+				ZebraForceMasterHelper.clearLocalContext();
+			}
+		}
+
+		/**
+		 * 主查询失败后调用：还没有发出对冲时不再发出，已经发出时等待它结束，返回对冲查询是否成功
+		 */
+		synchronized boolean awaitSuccess() {
+			primaryFailed = true;
+			if (state == HedgeState.PENDING) {
+				state = HedgeState.SKIPPED;
+				return false;
+			}
+
+			while (state == HedgeState.RUNNING) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					abandon();
+					return false;
+				}
+			}
+
+			if (state == HedgeState.DONE && error == null && resultSet != null) {
+				return true;
+			}
+			abandon();
+			return false;
+		}
+
+		/**
+		 * 放弃对冲：还没有发出时不再发出，正在执行时取消，已经结束时立即释放，否则结束后释放
+		 */
+		synchronized void abandon() {
+			abandoned = true;
+			if (state == HedgeState.PENDING) {
+				state = HedgeState.SKIPPED;
+			} else if (state == HedgeState.DONE) {
+				release();
+			} else if (executing) {
+				cancelQuietly(statement);
+			}
+		}
+
+		private void release() {
+			closeQuietly(resultSet);
+			closeQuietly(statement);
+			closeQuietly(connection);
+			resultSet = null;
+			statement = null;
+			connection = null;
+		}
+
+		synchronized Connection getConnection() {
+			return connection;
+		}
+
+		synchronized Statement getStatement() {
+			return statement;
+		}
+
+		synchronized ResultSet getResultSet() {
+			return resultSet;
+		}
+	}
+}
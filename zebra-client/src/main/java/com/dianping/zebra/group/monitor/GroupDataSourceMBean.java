@@ -29,4 +29,19 @@ public interface GroupDataSourceMBean {
 	public SingleDataSourceMBean getWriteSingleDataSourceMBean();
 
 	public GroupDataSourceConfig getConfig();
+
+	/**
+	 * 配置刷新的次数
+	 */
+	public long getRefreshCount();
+
+	/**
+	 * 最近一次配置刷新从开始创建新数据源到切换完成的耗时（毫秒），不包括<tt>SmoothReload</tt>的随机等待
+	 */
+	public long getLastRefreshMillis();
+
+	/**
+	 * 最近一次配置刷新时新数据源预热建立的连接数，即切换对数据库造成的新建连接冲击
+	 */
+	public int getLastRefreshWarmUpConnections();
 }
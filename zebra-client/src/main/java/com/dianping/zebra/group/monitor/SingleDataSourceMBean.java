@@ -36,4 +36,6 @@ public interface SingleDataSourceMBean {
 	public int getNumBusyConnection();
 
 	public int getNumIdleConnection();
+
+	public int getInFlightConnections();
 }
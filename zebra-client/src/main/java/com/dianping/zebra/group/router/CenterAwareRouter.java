@@ -36,10 +36,18 @@ public class CenterAwareRouter implements DataSourceRouter {
 
 	private DataSourceRouter localCenterRouter;
 
-	private List<WeightDataSourceRouter> priorityCenterIdcAwareRouters = new ArrayList<WeightDataSourceRouter>();
+	private List<DataSourceRouter> priorityCenterIdcAwareRouters = new ArrayList<DataSourceRouter>();
+
+	private final boolean latencyAware;
 
 	protected CenterAwareRouter(Map<String, DataSourceConfig> dataSourceConfigs, String configManagerType, ConfigService configService,
 	      boolean idcAware) {
+		this(dataSourceConfigs, configManagerType, configService, idcAware, false);
+	}
+
+	protected CenterAwareRouter(Map<String, DataSourceConfig> dataSourceConfigs, String configManagerType, ConfigService configService,
+	      boolean idcAware, boolean latencyAware) {
+		this.latencyAware = latencyAware;
 		this.regionManager = ZebraRegionManagerLoader.getRegionManager(configManagerType, configService);
 		Map<String, DataSourceConfig> localIdcSourceConfigs = new HashMap<String, DataSourceConfig>();
 		Map<String, DataSourceConfig> localCenterSourceConfigs = new HashMap<String, DataSourceConfig>();
@@ -85,7 +93,8 @@ public class CenterAwareRouter implements DataSourceRouter {
 		if (idcAware) {
 			localCenterSourceConfigs.putAll(localIdcSourceConfigs);
 			if (localCenterSourceConfigs.size() > 0) {
-				this.localCenterRouter = new IdcAwareRouter(localCenterSourceConfigs, configManagerType, configService);
+				this.localCenterRouter = new IdcAwareRouter(localCenterSourceConfigs, configManagerType, configService,
+				      latencyAware);
 			}
 		} else {
 			String localCenter = regionManager.getLocalCenter();
@@ -104,7 +113,7 @@ public class CenterAwareRouter implements DataSourceRouter {
 			} else {
 				// 在中心内
 				localCenterSourceConfigs.putAll(localIdcSourceConfigs);
-				this.localCenterRouter = new WeightDataSourceRouter(localCenterSourceConfigs);
+				this.localCenterRouter = newRouter(localCenterSourceConfigs);
 			}
 		}
 
@@ -112,7 +121,7 @@ public class CenterAwareRouter implements DataSourceRouter {
 		if (remoteCenterSourceConfigs.size() > 0) {
 			List<CenterDsConfigWrapper> centerDsConfigWrappers = sortByCenterPriority(remoteCenterSourceConfigs);
 			for (CenterDsConfigWrapper wrapper : centerDsConfigWrappers) {
-				priorityCenterIdcAwareRouters.add(new WeightDataSourceRouter(wrapper.getCenterSourceConfigs()));
+				priorityCenterIdcAwareRouters.add(newRouter(wrapper.getCenterSourceConfigs()));
 			}
 		}
 	}
@@ -128,8 +137,8 @@ public class CenterAwareRouter implements DataSourceRouter {
 		}
 
 		if (routerTarget == null) {
-			for (WeightDataSourceRouter weightDataSourceRouter : priorityCenterIdcAwareRouters) {
-				routerTarget = weightDataSourceRouter.select(routerContext);
+			for (DataSourceRouter centerRouter : priorityCenterIdcAwareRouters) {
+				routerTarget = centerRouter.select(routerContext);
 				if (routerTarget != null) {
 					return routerTarget;
 				}
@@ -144,6 +153,14 @@ public class CenterAwareRouter implements DataSourceRouter {
 		return "center-aware";
 	}
 
+	private DataSourceRouter newRouter(Map<String, DataSourceConfig> dataSourceConfigs) {
+		if (latencyAware) {
+			return new LatencyAwareRouter(dataSourceConfigs);
+		} else {
+			return new WeightDataSourceRouter(dataSourceConfigs);
+		}
+	}
+
 	private List<CenterDsConfigWrapper> sortByCenterPriority(
 	      Map<String, Map<String, DataSourceConfig>> otherCenterSourceConfigs) {
 		List<CenterDsConfigWrapper> sortedList = new ArrayList<CenterDsConfigWrapper>();
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.group.router;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * 单个DataSource的延迟统计，供<tt>LatencyAwareRouter</tt>选择从库
+ * </p>
+ * 记录执行中的语句数以及按时间衰减的峰值EWMA延迟：新样本大于当前值时直接取新样本，否则按距上次采样的时间加权平均。
+ * 长时间没有样本时延迟逐渐衰减到0，慢的从库在恢复后可以重新拿到流量。并发更新时允许丢失个别样本。<br>
+ * 失败的语句只在耗时超过当前延迟时计入，快速失败不会让出错的从库看起来更快。
+ * <tt>SingleDataSource</tt>通过<tt>acquire</tt>和<tt>release</tt>引用统计，最后一个引用释放时从全局表中移除。
+ * 路由每次选择时按id查询，不持有统计对象，数据源刷新后看到的总是新的统计。
+ */
+public class DataSourceLatencyStats {
+
+	private static final ConcurrentMap<String, DataSourceLatencyStats> STATS = new ConcurrentHashMap<String, DataSourceLatencyStats>();
+
+	static final long DECAY_NANOS = 10 * 1000L * 1000L * 1000L;
+
+	private final String dsId;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	// 只在STATS上加锁时修改
+	private int references;
+
+	private volatile double ewmaNanos;
+
+	private volatile long lastUpdateNanos = System.nanoTime();
+
+	DataSourceLatencyStats(String dsId) {
+		this.dsId = dsId;
+	}
+
+	/**
+	 * 只查询不创建，没有<tt>SingleDataSource</tt>引用该id时返回null
+	 */
+	public static DataSourceLatencyStats getStats(String dsId) {
+		return STATS.get(dsId);
+	}
+
+	/**
+	 * 获取统计并增加引用，不再使用时调用<tt>release</tt>
+	 */
+	public static DataSourceLatencyStats acquire(String dsId) {
+		synchronized (STATS) {
+			DataSourceLatencyStats stats = STATS.get(dsId);
+			if (stats == null) {
+				stats = new DataSourceLatencyStats(dsId);
+				STATS.put(dsId, stats);
+			}
+			stats.references++;
+			return stats;
+		}
+	}
+
+	public void release() {
+		synchronized (STATS) {
+			if (references > 0 && --references == 0) {
+				STATS.remove(dsId, this);
+			}
+		}
+	}
+
+	static boolean contains(String dsId) {
+		return STATS.containsKey(dsId);
+	}
+
+	public String getDsId() {
+		return dsId;
+	}
+
+	public void start() {
+		inFlight.incrementAndGet();
+	}
+
+	public void finish(long costNanos) {
+		inFlight.decrementAndGet();
+		record(System.nanoTime(), costNanos);
+	}
+
+	public void finishWithError(long costNanos) {
+		inFlight.decrementAndGet();
+		if (costNanos > ewmaNanos) {
+			record(System.nanoTime(), costNanos);
+		}
+	}
+
+	void record(long now, long costNanos) {
+		double current = ewmaNanos;
+		if (costNanos > current) {
+			ewmaNanos = costNanos;
+		} else {
+			double weight = Math.exp(-(double) Math.max(now - lastUpdateNanos, 0) / DECAY_NANOS);
+			ewmaNanos = current * weight + costNanos * (1 - weight);
+		}
+		lastUpdateNanos = now;
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	public double getEwmaNanos() {
+		return getEwmaNanos(System.nanoTime());
+	}
+
+	double getEwmaNanos(long now) {
+		return ewmaNanos * Math.exp(-(double) Math.max(now - lastUpdateNanos, 0) / DECAY_NANOS);
+	}
+
+	/**
+	 * 负载越高分数越大，没有样本时只看执行中的语句数
+	 */
+	double getScore(long now) {
+		return (getEwmaNanos(now) + 1) * (getInFlight() + 1);
+	}
+}
@@ -35,18 +35,29 @@ public class IdcAwareRouter implements DataSourceRouter {
 
 	private final ZebraRegionManager regionManager;
 
-	private WeightDataSourceRouter localIdcWeightedRouter;
+	private DataSourceRouter localIdcWeightedRouter;
 
-	private WeightDataSourceRouter remoteIdcWeightedRouter;
+	private DataSourceRouter remoteIdcWeightedRouter;
 
 	public IdcAwareRouter(Map<String, DataSourceConfig> dataSourceConfigs, String configManagerType,
 	      ConfigService configService) {
-		this(dataSourceConfigs, NetworkUtils.IpHelper.INSTANCE.getLocalHostAddress(), configManagerType, configService);
+		this(dataSourceConfigs, configManagerType, configService, false);
+	}
+
+	public IdcAwareRouter(Map<String, DataSourceConfig> dataSourceConfigs, String configManagerType,
+	      ConfigService configService, boolean latencyAware) {
+		this(dataSourceConfigs, NetworkUtils.IpHelper.INSTANCE.getLocalHostAddress(), configManagerType, configService,
+		      latencyAware);
 	}
 
 	// for test purpose
 	protected IdcAwareRouter(Map<String, DataSourceConfig> dataSourceConfigs, String localIpAddress,
 	      String configManagerType, ConfigService configService) {
+		this(dataSourceConfigs, localIpAddress, configManagerType, configService, false);
+	}
+
+	protected IdcAwareRouter(Map<String, DataSourceConfig> dataSourceConfigs, String localIpAddress,
+	      String configManagerType, ConfigService configService, boolean latencyAware) {
 		this.regionManager = ZebraRegionManagerLoader.getRegionManager(configManagerType, configService);
 		Map<String, DataSourceConfig> localIdcDataSourceConfigs = new HashMap<String, DataSourceConfig>();
 		Map<String, DataSourceConfig> remoteIdcDataSourceConfigs = new HashMap<String, DataSourceConfig>();
@@ -80,11 +91,13 @@ public class IdcAwareRouter implements DataSourceRouter {
 		}
 
 		if (localIdcDataSourceConfigs.size() > 0) {
-			this.localIdcWeightedRouter = new WeightDataSourceRouter(localIdcDataSourceConfigs);
+			this.localIdcWeightedRouter = latencyAware ? new LatencyAwareRouter(localIdcDataSourceConfigs)
+			      : new WeightDataSourceRouter(localIdcDataSourceConfigs);
 		}
 
 		if (remoteIdcDataSourceConfigs.size() > 0) {
-			this.remoteIdcWeightedRouter = new WeightDataSourceRouter(remoteIdcDataSourceConfigs);
+			this.remoteIdcWeightedRouter = latencyAware ? new LatencyAwareRouter(remoteIdcDataSourceConfigs)
+			      : new WeightDataSourceRouter(remoteIdcDataSourceConfigs);
 		}
 	}
 
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.group.router;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.dianping.zebra.group.config.datasource.entity.DataSourceConfig;
+
+/**
+ * <p>
+ * 按延迟做路由的DataSource选择器，用在机房和中心优先的路由之下，替代<tt>WeightDataSourceRouter</tt>
+ * </p>
+ * 按权重随机选出两个不同的DataSource，取<tt>DataSourceLatencyStats</tt>中负载较低的一个（power of two choices）。
+ * 只有一个DataSource可选时直接返回，权重为0的DataSource不参与选择。统计在每次选择时按id查询，没有统计的DataSource按空闲处理。
+ */
+public class LatencyAwareRouter implements DataSourceRouter {
+
+	private final List<RouterTarget> targets = new ArrayList<RouterTarget>();
+
+	public LatencyAwareRouter(Map<String, DataSourceConfig> dataSourceConfigs) {
+		for (DataSourceConfig config : dataSourceConfigs.values()) {
+			if (config.getWeight() > 0) {
+				targets.add(new RouterTarget(config.getId(), config.getWeight(), 0));
+			}
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "latency-aware";
+	}
+
+	@Override
+	public RouterTarget select(RouterContext routerContext) {
+		Set<RouterTarget> excludeTargets = routerContext.getExcludeTargets();
+		int size = targets.size();
+		int[] candidates = new int[size];
+		int count = 0;
+		int totalWeight = 0;
+
+		for (int i = 0; i < size; i++) {
+			RouterTarget target = targets.get(i);
+			if (excludeTargets == null || !excludeTargets.contains(target)) {
+				candidates[count++] = i;
+				totalWeight += target.getWeight();
+			}
+		}
+
+		if (count == 0) {
+			return null;
+		} else if (count == 1) {
+			return targets.get(candidates[0]);
+		}
+
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int first = pick(candidates, count, totalWeight, -1, random);
+		int second = pick(candidates, count, totalWeight - targets.get(first).getWeight(), first, random);
+
+		long now = System.nanoTime();
+		if (score(targets.get(second), now) < score(targets.get(first), now)) {
+			return targets.get(second);
+		} else {
+			return targets.get(first);
+		}
+	}
+
+	private double score(RouterTarget target, long now) {
+		DataSourceLatencyStats stats = DataSourceLatencyStats.getStats(target.getId());
+		return stats == null ? 1 : stats.getScore(now);
+	}
+
+	private int pick(int[] candidates, int count, int totalWeight, int skip, ThreadLocalRandom random) {
+		int num = random.nextInt(totalWeight);
+		int last = -1;
+		for (int i = 0; i < count; i++) {
+			int index = candidates[i];
+			if (index == skip) {
+				continue;
+			}
+			last = index;
+			num -= targets.get(index).getWeight();
+			if (num < 0) {
+				return index;
+			}
+		}
+		return last;
+	}
+}
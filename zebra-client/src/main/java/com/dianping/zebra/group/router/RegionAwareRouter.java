@@ -83,16 +83,19 @@ public class RegionAwareRouter implements DataSourceRouter {
 				this.remoteRegionRouter = new WeightDataSourceRouter(remoteRegionDataSourceConfigs);
 			}
 		} else {
-			// 区域内使用中心路由或机房路由
+			// 区域内使用中心路由或机房路由, 延迟路由在机房优先的基础上按延迟选择
+			boolean latencyAware = Constants.ROUTER_STRATEGY_LATENCY_AWARE_ROUTER.equals(routerStrategy);
 			boolean idcAware = false;
-			if (Constants.ROUTER_STRATEGY_IDC_AWARE_ROUTER.equals(routerStrategy)) {
+			if (Constants.ROUTER_STRATEGY_IDC_AWARE_ROUTER.equals(routerStrategy) || latencyAware) {
 				idcAware = true;
 			}
 			if (localRegionDataSourceConfigs.size() > 0) {
-				this.localRegionRouter = new CenterAwareRouter(localRegionDataSourceConfigs, configManagerType, configService, idcAware);
+				this.localRegionRouter = new CenterAwareRouter(localRegionDataSourceConfigs, configManagerType, configService, idcAware,
+				      latencyAware);
 			}
 			if (remoteRegionDataSourceConfigs.size() > 0) {
-				this.remoteRegionRouter = new CenterAwareRouter(remoteRegionDataSourceConfigs, configManagerType, configService, idcAware);
+				this.remoteRegionRouter = new CenterAwareRouter(remoteRegionDataSourceConfigs, configManagerType, configService, idcAware,
+				      latencyAware);
 			}
 		}
 	}
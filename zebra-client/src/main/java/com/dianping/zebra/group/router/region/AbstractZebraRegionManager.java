@@ -45,7 +45,7 @@ public abstract class AbstractZebraRegionManager implements ZebraRegionManager {
 
 	protected String routerManagerType;
 
-	protected TrieNode<Integer, String> regionTrie;
+	protected volatile IpPrefixTable regionTable;
 
 	protected ConfigService remoteConfigServce = null;
 
@@ -80,8 +80,8 @@ public abstract class AbstractZebraRegionManager implements ZebraRegionManager {
 		}
 	}
 
-	protected TrieNode<Integer, String> parseRegionConfig(String regionConfig) throws ParseException {
-		TrieNode<Integer, String> rootNode = new TrieNode<Integer, String>();
+	protected IpPrefixTable parseRegionConfig(String regionConfig) throws ParseException {
+		IpPrefixTable.Builder builder = IpPrefixTable.newBuilder();
 		JsonObject jsonObject = new JsonObject(regionConfig);
 		JsonArray jsonArray = jsonObject.getJSONArray("regions");
 		for (Object o : jsonArray.getArrayList()) {
@@ -92,28 +92,19 @@ public abstract class AbstractZebraRegionManager implements ZebraRegionManager {
 				JsonObject idcJsonObject = (JsonObject) idcObject;
 				String iname = idcJsonObject.getString("idc");
 				String desc = idcJsonObject.getString("desc");
+				IpPrefixTable.Entry entry = new IpPrefixTable.Entry(rname, iname, desc);
 
 				JsonArray netJsonArray = (JsonArray) idcJsonObject.get("net");
 				for (Object netObject : netJsonArray.getArrayList()) {
-					String ip = (String) netObject;
-					String[] dots = ip.split("\\.");
-					TrieNode<Integer, String> parentNode = rootNode;
-					for (String dot : dots) {
-						Integer key = Integer.valueOf(dot.trim());
-						TrieNode<Integer, String> node = parentNode.getChild(key);
-						if (node == null) {
-							node = new TrieNode<Integer, String>(key);
-							parentNode.addChild(node);
-						}
-						parentNode = node;
-					}
-					parentNode.setValue(rname);
-					parentNode.setAttribute("idc", iname);
-					parentNode.setAttribute("desc", desc);
+					builder.add((String) netObject, entry);
 				}
 			}
 		}
-		return rootNode;
+		return builder.build();
+	}
+
+	protected void setRegionTable(IpPrefixTable regionTable) {
+		this.regionTable = regionTable;
 	}
 
 	public boolean isInSameCenter(String address1, String address2) {
@@ -193,8 +184,8 @@ public abstract class AbstractZebraRegionManager implements ZebraRegionManager {
 	}
 
 	protected String _getRegion(String address) {
-		TrieNode<Integer, String> node = _getNode(address);
-		return node.getValue();
+		IpPrefixTable.Entry entry = _lookup(address);
+		return entry == null ? null : entry.getRegion();
 	}
 
 	@Override
@@ -221,8 +212,8 @@ public abstract class AbstractZebraRegionManager implements ZebraRegionManager {
 	}
 
 	protected String _getIdc(String address) {
-		TrieNode<Integer, String> node = _getNode(address);
-		return node.getAttribute("idc");
+		IpPrefixTable.Entry entry = _lookup(address);
+		return entry == null ? null : entry.getIdc();
 	}
 
 	@Override
@@ -277,25 +268,13 @@ public abstract class AbstractZebraRegionManager implements ZebraRegionManager {
 		return this.localCenter;
 	}
 
-	private TrieNode<Integer, String> _getNode(String address) {
-		if (regionTrie == null)
+	private IpPrefixTable.Entry _lookup(String address) {
+		IpPrefixTable table = regionTable;
+		if (table == null) {
 			return null;
-		String[] dots = address.split("\\.");
-		TrieNode<Integer, String> parentNode = regionTrie;
-		for (String dot : dots) {
-			try {
-				Integer key = Integer.valueOf(dot.trim());
-				TrieNode<Integer, String> node = parentNode.getChild(key);
-				if (node != null) {
-					parentNode = node;
-				} else {
-					break;
-				}
-			} catch (NumberFormatException nfe) {
-				break;
-			}
 		}
-		return parentNode;
+
+		return table.lookup(address.trim());
 	}
 
 	public boolean isInRegion(String address, String region) {
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.group.router.region;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>
+ * IPv4最长前缀匹配表
+ * </p>
+ * 网段按前缀长度分组，每组是按网络地址排序的<tt>int</tt>数组。查询时从最长的前缀开始，掩码后二分查找，整个过程不分配对象。
+ * 网段支持<tt>192.168</tt>这种按段的前缀（等价于<tt>192.168.0.0/16</tt>）和CIDR两种写法；不是IPv4字面量的地址查不到任何网段。
+ */
+public class IpPrefixTable {
+
+	private static final int IPV4_BITS = 32;
+
+	// 前缀长度从长到短
+	private final int[] prefixLengths;
+
+	private final int[][] networks;
+
+	private final Entry[][] entries;
+
+	private IpPrefixTable(TreeMap<Integer, TreeMap<Integer, Entry>> prefixes) {
+		int size = prefixes.size();
+		this.prefixLengths = new int[size];
+		this.networks = new int[size][];
+		this.entries = new Entry[size][];
+
+		int i = 0;
+		for (Map.Entry<Integer, TreeMap<Integer, Entry>> prefix : prefixes.descendingMap().entrySet()) {
+			TreeMap<Integer, Entry> nets = prefix.getValue();
+			prefixLengths[i] = prefix.getKey();
+			networks[i] = new int[nets.size()];
+			entries[i] = new Entry[nets.size()];
+
+			int j = 0;
+			for (Map.Entry<Integer, Entry> net : nets.entrySet()) {
+				networks[i][j] = net.getKey();
+				entries[i][j] = net.getValue();
+				j++;
+			}
+			i++;
+		}
+	}
+
+	public static Builder newBuilder() {
+		return new Builder();
+	}
+
+	/**
+	 * 查找包含<tt>address</tt>的最长网段，找不到时返回<tt>null</tt>
+	 */
+	public Entry lookup(String address) {
+		long ip = parseIpv4(address, 0, address.length());
+		if (ip < 0) {
+			return null;
+		}
+
+		for (int i = 0; i < prefixLengths.length; i++) {
+			int network = (int) ip & mask(prefixLengths[i]);
+			int index = Arrays.binarySearch(networks[i], network);
+			if (index >= 0) {
+				return entries[i][index];
+			}
+		}
+
+		return null;
+	}
+
+	public int size() {
+		int size = 0;
+		for (int[] nets : networks) {
+			size += nets.length;
+		}
+		return size;
+	}
+
+	private static int mask(int prefixLength) {
+		return prefixLength == 0 ? 0 : -1 << (IPV4_BITS - prefixLength);
+	}
+
+	/**
+	 * 解析<tt>[from, to)</tt>之间的点分地址，不足4段时后面补0
+	 *
+	 * @return 无符号的IPv4地址；格式不对时返回-1
+	 */
+	static long parseIpv4(String address, int from, int to) {
+		long ip = 0;
+		int octets = 0;
+		int octet = -1;
+
+		for (int i = from; i < to; i++) {
+			char c = address.charAt(i);
+			if (c >= '0' && c <= '9') {
+				octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+				if (octet > 255) {
+					return -1;
+				}
+			} else if (c == '.') {
+				if (octet < 0 || ++octets > 3) {
+					return -1;
+				}
+				ip = (ip << 8) | octet;
+				octet = -1;
+			} else {
+				return -1;
+			}
+		}
+
+		if (octet < 0) {
+			return -1;
+		}
+		ip = (ip << 8) | octet;
+		return ip << (8 * (3 - octets));
+	}
+
+	public static class Builder {
+
+		private final TreeMap<Integer, TreeMap<Integer, Entry>> prefixes = new TreeMap<Integer, TreeMap<Integer, Entry>>();
+
+		/**
+		 * 添加网段，同一个网段重复添加时以最后一次为准
+		 *
+		 * @param net
+		 *           <tt>192.168</tt>或者<tt>192.168.0.0/16</tt>
+		 */
+		public Builder add(String net, Entry entry) {
+			String value = net.trim();
+			int slash = value.indexOf('/');
+			int end = slash < 0 ? value.length() : slash;
+
+			long ip = parseIpv4(value, 0, end);
+			if (ip < 0) {
+				throw new IllegalArgumentException("illegal net: " + net);
+			}
+
+			int prefixLength;
+			if (slash < 0) {
+				prefixLength = 8;
+				for (int i = 0; i < end; i++) {
+					if (value.charAt(i) == '.') {
+						prefixLength += 8;
+					}
+				}
+			} else {
+				try {
+					prefixLength = Integer.parseInt(value.substring(slash + 1).trim());
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("illegal net: " + net, e);
+				}
+				if (prefixLength < 0 || prefixLength > IPV4_BITS) {
+					throw new IllegalArgumentException("illegal net: " + net);
+				}
+			}
+
+			TreeMap<Integer, Entry> nets = prefixes.get(prefixLength);
+			if (nets == null) {
+				nets = new TreeMap<Integer, Entry>();
+				prefixes.put(prefixLength, nets);
+			}
+			nets.put((int) ip & mask(prefixLength), entry);
+			return this;
+		}
+
+		public IpPrefixTable build() {
+			return new IpPrefixTable(prefixes);
+		}
+	}
+
+	public static class Entry {
+
+		private final String region;
+
+		private final String idc;
+
+		private final String desc;
+
+		public Entry(String region, String idc, String desc) {
+			this.region = region;
+			this.idc = idc;
+			this.desc = desc;
+		}
+
+		public String getRegion() {
+			return region;
+		}
+
+		public String getIdc() {
+			return idc;
+		}
+
+		public String getDesc() {
+			return desc;
+		}
+	}
+}
@@ -71,12 +71,12 @@ public class LocalRegionManager extends AbstractZebraRegionManager {
 
 			if (regionConfig != null) {
 				try {
-					this.regionTrie = parseRegionConfig(regionConfig);
+					setRegionTable(parseRegionConfig(regionConfig));
 				} catch (Exception e) {
 				}
 			}
-			if (this.regionTrie == null) {
-				this.regionTrie = new TrieNode<Integer, String>();
+			if (this.regionTable == null) {
+				setRegionTable(IpPrefixTable.newBuilder().build());
 			}
 
 			if (this.localAddress == null) {
@@ -40,7 +40,7 @@ public class RemoteRegionManager extends AbstractZebraRegionManager {
 			String regionConfig = getRegionConfig();
 
 			if (StringUtils.isNotBlank(regionConfig)) {
-				parseRegionConfig(regionConfig);
+				setRegionTable(parseRegionConfig(regionConfig));
 			}
 		} catch (Exception e) {
 			new ZebraException("init RemoteRegionManager file", e);
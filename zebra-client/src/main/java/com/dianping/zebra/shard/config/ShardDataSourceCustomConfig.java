@@ -40,6 +40,14 @@ public class ShardDataSourceCustomConfig {
 
 	private String configManagerType;
 
+	// 并行初始化GroupDataSource的线程数，1表示串行初始化
+	private int initConcurrency = 1;
+
+	// 并行初始化的整体超时时间（毫秒）
+	private long initTimeout = 60000L;
+
+	private boolean warmUpPool = false;
+
 	public String getPoolType() {
 		return poolType;
 	}
@@ -103,4 +111,28 @@ public class ShardDataSourceCustomConfig {
 	public void setConfigManagerType(String configManagerType) {
 		this.configManagerType = configManagerType;
 	}
+
+	public int getInitConcurrency() {
+		return initConcurrency;
+	}
+
+	public void setInitConcurrency(int initConcurrency) {
+		this.initConcurrency = initConcurrency;
+	}
+
+	public long getInitTimeout() {
+		return initTimeout;
+	}
+
+	public void setInitTimeout(long initTimeout) {
+		this.initTimeout = initTimeout;
+	}
+
+	public boolean isWarmUpPool() {
+		return warmUpPool;
+	}
+
+	public void setWarmUpPool(boolean warmUpPool) {
+		this.warmUpPool = warmUpPool;
+	}
 }
@@ -27,7 +27,25 @@ import com.dianping.zebra.shard.jdbc.DataSourceRepository;
 
 import javax.sql.DataSource;
 import java.sql.*;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>
+ * 基于数据库号段的id生成器
+ * </p>
+ * 开启<tt>segmentEnabled</tt>后，<tt>nextId(name)</tt>从内存中的号段分配id，不再每次访问数据库。
+ * 每个name持有当前号段和预取的下一个号段，当前号段消耗超过<tt>segmentPrefetchRatio</tt>时由后台线程异步加载下一个号段。
+ * 号段大小根据消耗速度调整：上一个号段在<tt>segmentDuration</tt>内用完则加倍，超过两倍时间才用完则减半，还没有用完过一个号段时不调整。
+ * 不再使用时调用<tt>close</tt>关闭后台加载线程。
+ */
 public class MySqlIdGenerator implements IdGenerator {
 
 	protected static final Logger LOGGER = LoggerFactory.getLogger(MySqlIdGenerator.class);
@@ -36,6 +54,8 @@ public class MySqlIdGenerator implements IdGenerator {
 
 	private static final int MAX_STEP = 100000;
 
+	private static final long CLOSE_TIMEOUT_SECONDS = 5;
+
 	private int maxRetryTimes = 5;
 
 	private int defaultIncreaseStep = 1000;
@@ -58,6 +78,18 @@ public class MySqlIdGenerator implements IdGenerator {
 
 	private volatile String updateSql;
 
+	private volatile boolean segmentEnabled = false;
+
+	private volatile double segmentPrefetchRatio = 0.1;
+
+	private volatile long segmentDuration = 15 * 60 * 1000L;
+
+	private final ConcurrentMap<String, SegmentBuffer> segmentBuffers = new ConcurrentHashMap<String, SegmentBuffer>();
+
+	private volatile ExecutorService segmentLoader;
+
+	private volatile boolean closed = false;
+
 	public MySqlIdGenerator() {
 	}
 
@@ -76,7 +108,171 @@ public class MySqlIdGenerator implements IdGenerator {
 
 	@Override
 	public long nextId(String nameColumn) {
-		return nextBatch(nameColumn, 1).next();
+		if (!segmentEnabled) {
+			return nextBatch(nameColumn, 1).next();
+		}
+
+		if (nameColumn == null) {
+			throw new ShardIdGenException("The value of name column cannot be null in shard id generator");
+		}
+
+		SegmentBuffer buffer = getSegmentBuffer(nameColumn);
+		while (true) {
+			IdRange range = buffer.current;
+			if (range != null) {
+				long id = range.next();
+				if (id >= 0) {
+					if (buffer.next == null && id - range.getMinValue() >= range.size() * segmentPrefetchRatio) {
+						prefetchSegment(buffer);
+					}
+					return id;
+				}
+			}
+
+			switchSegment(buffer, range);
+		}
+	}
+
+	private SegmentBuffer getSegmentBuffer(String nameColumn) {
+		SegmentBuffer buffer = segmentBuffers.get(nameColumn);
+		if (buffer == null) {
+			buffer = new SegmentBuffer(nameColumn, defaultIncreaseStep);
+			SegmentBuffer old = segmentBuffers.putIfAbsent(nameColumn, buffer);
+			if (old != null) {
+				buffer = old;
+			}
+		}
+		return buffer;
+	}
+
+	private void prefetchSegment(final SegmentBuffer buffer) {
+		// 关闭之后不再预取，号段用完时同步加载
+		if (closed || !buffer.loading.compareAndSet(false, true)) {
+			return;
+		}
+
+		try {
+			getSegmentLoader().execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						IdRange range = loadSegment(buffer);
+						synchronized (buffer) {
+							buffer.next = range;
+						}
+					} catch (Throwable t) {
+						LOGGER.warn("Prefetch id segment failed, name = " + buffer.name, t);
+					} finally {
+						synchronized (buffer) {
+							buffer.loading.set(false);
+							buffer.notifyAll();
+						}
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			buffer.loading.set(false);
+		}
+	}
+
+	private void switchSegment(SegmentBuffer buffer, IdRange exhausted) {
+		synchronized (buffer) {
+			if (buffer.current != exhausted) {
+				// 其他线程已经切换了号段
+				return;
+			}
+
+			// 等待正在进行的预取，预取失败时同步加载
+			while (buffer.next == null && buffer.loading.get()) {
+				try {
+					buffer.wait(100);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+
+			long now = System.currentTimeMillis();
+			if (exhausted != null) {
+				// 一个号段从开始使用到用完的时长，作为调整号段大小的依据
+				buffer.lastSegmentDuration = now - buffer.currentStartTime;
+			}
+
+			IdRange next = buffer.next;
+			if (next == null) {
+				next = loadSegment(buffer);
+			}
+
+			buffer.next = null;
+			buffer.current = next;
+			buffer.currentStartTime = now;
+		}
+	}
+
+	private IdRange loadSegment(SegmentBuffer buffer) {
+		int step = buffer.step;
+		long elapsed = buffer.lastSegmentDuration;
+
+		if (elapsed >= 0 && elapsed < segmentDuration) {
+			step = Math.min(step * 2, MAX_STEP);
+		} else if (elapsed >= segmentDuration * 2) {
+			step = Math.max(step / 2, defaultIncreaseStep);
+		}
+
+		IdRange range = nextBatch(buffer.name, step);
+		buffer.step = step;
+		// 每个号段的用时只用来调整一次
+		buffer.lastSegmentDuration = -1;
+
+		return range;
+	}
+
+	/**
+	 * 关闭后台加载号段的线程并等待正在进行的预取结束，关闭之后仍然可以分配id，只是号段改为同步加载
+	 */
+	public void close() {
+		closed = true;
+
+		ExecutorService loader;
+		synchronized (this) {
+			loader = segmentLoader;
+		}
+
+		if (loader != null) {
+			loader.shutdown();
+			try {
+				if (!loader.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+					LOGGER.warn("Prefetch id segment is still running after close, table = " + tableName);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private ExecutorService getSegmentLoader() {
+		if (segmentLoader == null) {
+			synchronized (this) {
+				if (closed) {
+					throw new RejectedExecutionException("Id generator is closed.");
+				}
+				if (segmentLoader == null) {
+					// 空闲时线程自动退出
+					segmentLoader = new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS,
+					      new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						      @Override
+						      public Thread newThread(Runnable r) {
+							      Thread t = new Thread(r);
+							      t.setName("Zebra-IdGen-SegmentLoader-" + tableName);
+							      t.setDaemon(true);
+
+							      return t;
+						      }
+					      });
+				}
+			}
+		}
+		return segmentLoader;
 	}
 
 	@Override
@@ -334,4 +530,57 @@ public class MySqlIdGenerator implements IdGenerator {
 		return updateSql;
 	}
 
+	public boolean isSegmentEnabled() {
+		return segmentEnabled;
+	}
+
+	public void setSegmentEnabled(boolean segmentEnabled) {
+		this.segmentEnabled = segmentEnabled;
+	}
+
+	public double getSegmentPrefetchRatio() {
+		return segmentPrefetchRatio;
+	}
+
+	public void setSegmentPrefetchRatio(double segmentPrefetchRatio) {
+		if (segmentPrefetchRatio < 0) {
+			this.segmentPrefetchRatio = 0;
+		} else if (segmentPrefetchRatio > 1) {
+			this.segmentPrefetchRatio = 1;
+		} else {
+			this.segmentPrefetchRatio = segmentPrefetchRatio;
+		}
+	}
+
+	public long getSegmentDuration() {
+		return segmentDuration;
+	}
+
+	public void setSegmentDuration(long segmentDuration) {
+		this.segmentDuration = segmentDuration;
+	}
+
+	private static class SegmentBuffer {
+
+		private final String name;
+
+		private final AtomicBoolean loading = new AtomicBoolean(false);
+
+		private volatile IdRange current;
+
+		private volatile IdRange next;
+
+		private volatile int step;
+
+		private volatile long currentStartTime;
+
+		// 上一个用完的号段的用时，-1表示还没有用完过号段或者已经用来调整过
+		private volatile long lastSegmentDuration = -1;
+
+		public SegmentBuffer(String name, int step) {
+			this.name = name;
+			this.step = step;
+		}
+	}
+
 }
@@ -18,11 +18,21 @@
  */
 package com.dianping.zebra.shard.idgen.impl;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import com.dianping.zebra.shard.exception.ShardIdGenException;
 import com.dianping.zebra.shard.idgen.IdGenerator;
 import com.dianping.zebra.shard.idgen.IdRange;
 import com.dianping.zebra.shard.idgen.IdTimeService;
 
+/**
+ * <p>
+ * 基于CAS的snowflake id生成器
+ * </p>
+ * 时间戳和序列号打包在一个<tt>AtomicLong</tt>中，分配id只需要一次CAS，不再在同一把锁上排队。<br>
+ * 当前毫秒的序列号用完时借用下一毫秒，时钟回拨时沿用上次的时间戳继续分配；领先真实时间不超过<tt>maxBorrowMillis</tt>，
+ * 超过时序列号耗尽等待时钟追上，时钟回拨则直接抛出异常。<tt>nextBatch</tt>在一次CAS中预留同一毫秒内连续的一段序列号。
+ */
 public class SnowFlakeIdGenerator implements IdGenerator {
 
 	private static final long EPOCH = 1514736000000L; // default start time 2018-01-01 00:00:00.000
@@ -39,11 +49,21 @@ public class SnowFlakeIdGenerator implements IdGenerator {
 
 	private static final long TIMESTAMP_SHIFT_COUNT = SEQUENCE_COUNT + MACHINE_ID_COUNT;
 
+	private static final int MAX_BATCH_SIZE = (int) (SEQUENCE_MASK + 1);
+
+	// 状态中多留一位，保证序列号用完(4096)时不会进位到时间戳
+	private static final long STATE_SHIFT_COUNT = SEQUENCE_COUNT + 1;
+
+	private static final long STATE_SEQUENCE_MASK = (1L << STATE_SHIFT_COUNT) - 1;
+
+	private static final int DEFAULT_BATCH_SIZE = 1000;
+
 	private long machineId;
 
-	private long lastTimestamp;
+	// (lastTimestamp - EPOCH) << STATE_SHIFT_COUNT | 下一个可用的序列号
+	private final AtomicLong state = new AtomicLong();
 
-	private long currentSequence;
+	private volatile long maxBorrowMillis = 5;
 
 	private IdTimeService timeService;
 
@@ -55,47 +75,87 @@ public class SnowFlakeIdGenerator implements IdGenerator {
 	}
 
 	@Override
-	public synchronized long nextId() {
-		long currentMillis = timeService.getCurrentTimeMillis();
-		if (currentMillis == lastTimestamp) {
-			currentSequence = (++currentSequence) & SEQUENCE_MASK;
-			if (currentSequence == 0) {
-				currentMillis = waitToNextMillis(currentMillis);
-			}
-		} else if (currentMillis > lastTimestamp) {
-			currentSequence = 0;
-		} else {
-			throw new ShardIdGenException("Time move backwards, refuse to generate id for "
-					+ (lastTimestamp - currentMillis) + " milliseconds!");
-		}
+	public long nextId() {
+		return reserve(1);
+	}
 
-		lastTimestamp = currentMillis;
+	/**
+	 * 预留同一毫秒内<tt>count</tt>个连续的序列号
+	 *
+	 * @return 预留的第一个序列号对应的id
+	 */
+	private long reserve(int count) {
+		while (true) {
+			long current = state.get();
+			long lastTimestamp = current >>> STATE_SHIFT_COUNT;
+			long nextSequence = current & STATE_SEQUENCE_MASK;
+			long now = timeService.getCurrentTimeMillis() - EPOCH;
+
+			long timestamp;
+			long sequence;
+			if (now > lastTimestamp) {
+				timestamp = now;
+				sequence = 0;
+			} else {
+				if (lastTimestamp - now > maxBorrowMillis) {
+					throw new ShardIdGenException("Time move backwards, refuse to generate id for "
+							+ (lastTimestamp - now) + " milliseconds!");
+				}
+
+				if (nextSequence + count <= MAX_BATCH_SIZE) {
+					timestamp = lastTimestamp;
+					sequence = nextSequence;
+				} else {
+					// 当前毫秒的序列号不够，借用下一毫秒
+					timestamp = lastTimestamp + 1;
+					sequence = 0;
+					if (timestamp - now > maxBorrowMillis) {
+						waitToNextMillis(timestamp - maxBorrowMillis - 1 + EPOCH);
+						continue;
+					}
+				}
+			}
 
-		return ((currentMillis - EPOCH) << TIMESTAMP_SHIFT_COUNT) | (machineId << MACHINE_ID_SHIFT_COUNT)
-				| currentSequence;
+			if (state.compareAndSet(current, (timestamp << STATE_SHIFT_COUNT) | (sequence + count))) {
+				return (timestamp << TIMESTAMP_SHIFT_COUNT) | (machineId << MACHINE_ID_SHIFT_COUNT) | sequence;
+			}
+		}
 	}
 
 	protected long waitToNextMillis(long lastTimestamp) {
 		long timestamp = timeService.getCurrentTimeMillis();
 		while (timestamp <= lastTimestamp) {
+			Thread.yield();
 			timestamp = timeService.getCurrentTimeMillis();
 		}
 		return timestamp;
 	}
 
 	@Override
-	public synchronized long nextId(String nameColumn) {
+	public long nextId(String nameColumn) {
 		throw new ShardIdGenException("SnowFlakeIdGenerator not support nextId with specified column name!");
 	}
 
 	@Override
 	public IdRange nextBatch(String nameColumn) {
-		throw new ShardIdGenException("SnowFlakeIdGenerator not support nextBatch!");
+		return nextBatch(nameColumn, DEFAULT_BATCH_SIZE);
 	}
 
+	/**
+	 * 一次预留<tt>batchSize</tt>个连续的id，<tt>nameColumn</tt>不起作用。
+	 * 同一毫秒内最多只有4096个序列号，<tt>batchSize</tt>超过时按4096处理。
+	 */
 	@Override
 	public IdRange nextBatch(String nameColumn, int batchSize) {
-		throw new ShardIdGenException("SnowFlakeIdGenerator not support nextBatch!");
+		if (batchSize < 1) {
+			batchSize = 1;
+		} else if (batchSize > MAX_BATCH_SIZE) {
+			batchSize = MAX_BATCH_SIZE;
+		}
+
+		long minId = reserve(batchSize);
+
+		return new IdRange(minId, minId + batchSize);
 	}
 
 	public void setMachineId(long machineId) {
@@ -108,4 +168,12 @@ public class SnowFlakeIdGenerator implements IdGenerator {
 	public void setTimeService(IdTimeService timeService) {
 		this.timeService = timeService;
 	}
-}
\ No newline at end of file
+
+	public long getMaxBorrowMillis() {
+		return maxBorrowMillis;
+	}
+
+	public void setMaxBorrowMillis(long maxBorrowMillis) {
+		this.maxBorrowMillis = maxBorrowMillis < 0 ? 0 : maxBorrowMillis;
+	}
+}
@@ -20,17 +20,32 @@ package com.dianping.zebra.shard.jdbc;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.sql.DataSource;
 
 import com.dianping.zebra.Constants;
 import com.dianping.zebra.config.ConfigServiceFactory;
 import com.dianping.zebra.config.ServiceConfigBuilder;
+import com.dianping.zebra.exception.ZebraException;
 import com.dianping.zebra.group.jdbc.GroupDataSource;
+import com.dianping.zebra.log.Logger;
+import com.dianping.zebra.log.LoggerFactory;
 import com.dianping.zebra.shard.config.ShardDataSourceCustomConfig;
 import com.dianping.zebra.shard.router.rule.RouterRule;
 import com.dianping.zebra.shard.router.rule.TableShardRule;
@@ -43,6 +58,8 @@ import com.dianping.zebra.util.JDBCUtils;
 
 public class DataSourceRepository {
 
+	private static final Logger LOGGER = LoggerFactory.getLogger(DataSourceRepository.class);
+
 	private static volatile DataSourceRepository instance = null;
 
 	private Map<String, DataSource> dataSources = new ConcurrentHashMap<String, DataSource>();
@@ -80,39 +97,148 @@ public class DataSourceRepository {
 	}
 
 	public void init(RouterRule routerRule, ShardDataSourceCustomConfig customConfig) {
+		Set<String> jdbcRefs = new LinkedHashSet<String>();
 		for (TableShardRule shardRule : routerRule.getTableShardRules().values()) {
 			for (DimensionRule dimensionRule : shardRule.getDimensionRules()) {
 				for (String jdbcRef : dimensionRule.getAllDBAndTables().keySet()) {
 					if (!dataSources.containsKey(jdbcRef)) {
-						GroupDataSource groupDataSource = new GroupDataSource(jdbcRef);
+						jdbcRefs.add(jdbcRef);
+					}
+				}
+			}
+		}
 
-						groupDataSource.setConfigManagerType(customConfig.getConfigManagerType());
-						groupDataSource.setPoolType(customConfig.getPoolType()); // use default pool
-						groupDataSource.setLazyInit(customConfig.isLazyInit());
+		if (customConfig.getInitConcurrency() <= 1 || jdbcRefs.size() <= 1) {
+			for (String jdbcRef : jdbcRefs) {
+				dataSources.put(jdbcRef, createGroupDataSource(jdbcRef, customConfig));
+			}
+		} else {
+			dataSources.putAll(createGroupDataSourcesInParallel(jdbcRefs, customConfig));
+		}
+	}
 
-						if (customConfig.getExtraJdbcUrlParams() != null) {
-							groupDataSource.setExtraJdbcUrlParams(customConfig.getExtraJdbcUrlParams());
-						}
-						if (customConfig.getDsConfigProperties() != null && !customConfig.getDsConfigProperties().isEmpty()) {
-							groupDataSource.setProperties(customConfig.getDsConfigProperties());
-						}
+	/**
+	 * <p>
+	 * 在有界的初始化线程池中并行创建GroupDataSource
+	 * </p>
+	 * 任意一个初始化失败或整体超过<tt>initTimeout</tt>时，关闭已经创建的GroupDataSource并抛出异常；超时后才完成的GroupDataSource由初始化线程自行关闭。
+	 */
+	private Map<String, GroupDataSource> createGroupDataSourcesInParallel(Set<String> jdbcRefs,
+	      final ShardDataSourceCustomConfig customConfig) {
+		final Map<String, GroupDataSource> created = new HashMap<String, GroupDataSource>();
+		final boolean[] aborted = new boolean[1];
+		int concurrency = Math.min(customConfig.getInitConcurrency(), jdbcRefs.size());
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency, new InitThreadFactory());
+		long start = System.currentTimeMillis();
 
-						if (customConfig.getRouterStrategy() != null) {
-							groupDataSource.setRouterStrategy(customConfig.getRouterStrategy());
-						}
-						if (customConfig.getRouterType() != null) {
-							groupDataSource.setRouterType(customConfig.getRouterType());
-						}
-						if (customConfig.getFilter() != null) {
-							groupDataSource.setFilter(customConfig.getFilter());
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (final String jdbcRef : jdbcRefs) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						synchronized (created) {
+							if (aborted[0]) {
+								return null;
+							}
 						}
 
-						groupDataSource.init();
+						GroupDataSource groupDataSource = createGroupDataSource(jdbcRef, customConfig);
+						synchronized (created) {
+							if (!aborted[0]) {
+								created.put(jdbcRef, groupDataSource);
+								return null;
+							}
+						}
 
-						dataSources.put(jdbcRef, groupDataSource);
+						closeQuietly(groupDataSource);
+						return null;
 					}
-				}
+				}));
+			}
+
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(customConfig.getInitTimeout());
+			for (Future<Void> future : futures) {
+				future.get(Math.max(deadline - System.nanoTime(), 0L), TimeUnit.NANOSECONDS);
+			}
+
+			LOGGER.info(String.format("init %d group dataSources with %d threads in %d milliseconds", created.size(),
+			      concurrency, System.currentTimeMillis() - start));
+			return created;
+		} catch (ExecutionException e) {
+			abort(created, aborted);
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
 			}
+			throw new ZebraException("fail to init group dataSources", cause);
+		} catch (TimeoutException e) {
+			abort(created, aborted);
+			throw new ZebraException(String.format("fail to init group dataSources in %d milliseconds",
+			      customConfig.getInitTimeout()));
+		} catch (InterruptedException e) {
+			abort(created, aborted);
+			Thread.currentThread().interrupt();
+			throw new ZebraException("interrupted while initializing group dataSources", e);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void abort(Map<String, GroupDataSource> created, boolean[] aborted) {
+		synchronized (created) {
+			aborted[0] = true;
+			for (GroupDataSource groupDataSource : created.values()) {
+				closeQuietly(groupDataSource);
+			}
+			created.clear();
+		}
+	}
+
+	private GroupDataSource createGroupDataSource(String jdbcRef, ShardDataSourceCustomConfig customConfig) {
+		GroupDataSource groupDataSource = new GroupDataSource(jdbcRef);
+
+		groupDataSource.setConfigManagerType(customConfig.getConfigManagerType());
+		groupDataSource.setPoolType(customConfig.getPoolType()); // use default pool
+		groupDataSource.setLazyInit(customConfig.isLazyInit());
+
+		if (customConfig.getExtraJdbcUrlParams() != null) {
+			groupDataSource.setExtraJdbcUrlParams(customConfig.getExtraJdbcUrlParams());
+		}
+		if (customConfig.getDsConfigProperties() != null && !customConfig.getDsConfigProperties().isEmpty()) {
+			groupDataSource.setProperties(customConfig.getDsConfigProperties());
+		}
+
+		if (customConfig.getRouterStrategy() != null) {
+			groupDataSource.setRouterStrategy(customConfig.getRouterStrategy());
+		}
+		if (customConfig.getRouterType() != null) {
+			groupDataSource.setRouterType(customConfig.getRouterType());
+		}
+		if (customConfig.getFilter() != null) {
+			groupDataSource.setFilter(customConfig.getFilter());
+		}
+
+		groupDataSource.init();
+
+		if (customConfig.isWarmUpPool()) {
+			try {
+				groupDataSource.warmUp();
+			} catch (SQLException e) {
+				LOGGER.warn(String.format("fail to warm up group dataSource [%s]", jdbcRef), e);
+			}
+		}
+
+		return groupDataSource;
+	}
+
+	private static void closeQuietly(GroupDataSource groupDataSource) {
+		try {
+			groupDataSource.close();
+		} catch (SQLException e) {
+			LOGGER.warn("fail to close group dataSource", e);
 		}
 	}
 
@@ -133,4 +259,17 @@ public class DataSourceRepository {
 
 		JDBCUtils.throwSQLExceptionIfNeeded(exps);
 	}
+
+	private static class InitThreadFactory implements ThreadFactory {
+		private AtomicInteger counter = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r);
+			t.setName("Zebra-Shard-Init-" + counter.getAndIncrement());
+			t.setDaemon(true);
+
+			return t;
+		}
+	}
 }
\ No newline at end of file
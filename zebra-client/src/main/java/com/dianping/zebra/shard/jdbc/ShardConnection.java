@@ -31,7 +31,9 @@ import java.util.Map;
 import java.util.Set;
 
 import com.dianping.zebra.filter.JdbcFilter;
+import com.dianping.zebra.shard.jdbc.parallel.ShardSQLExecutor;
 import com.dianping.zebra.shard.jdbc.unsupport.UnsupportedShardConnection;
+import com.dianping.zebra.shard.merge.MergeSpillConfig;
 import com.dianping.zebra.shard.router.ShardRouter;
 import com.dianping.zebra.util.JDBCUtils;
 
@@ -66,6 +68,14 @@ public class ShardConnection extends UnsupportedShardConnection implements Conne
 
 	private int concurrencyLevel = 1; // 单库并发度
 
+	private boolean streamingUnorderedQuery = false;
+
+	private MergeSpillConfig mergeSpillConfig = MergeSpillConfig.DEFAULT;
+
+	private ShardSQLExecutor readExecutor;
+
+	private ShardSQLExecutor writeExecutor;
+
 	public ShardConnection(List<JdbcFilter> filters) {
 		this.filters = filters;
 	}
@@ -176,6 +186,8 @@ public class ShardConnection extends UnsupportedShardConnection implements Conne
 		stmt.setReadOnly(readOnly);
 		stmt.setConnection(this);
 		stmt.setConcurrencyLevel(concurrencyLevel);
+		stmt.setStreamingUnorderedQuery(streamingUnorderedQuery);
+		stmt.setMergeSpillConfig(mergeSpillConfig);
 
 		attachedStatements.add(stmt);
 
@@ -285,6 +297,8 @@ public class ShardConnection extends UnsupportedShardConnection implements Conne
 		stmt.setConnection(this);
 		stmt.setSql(sql);
 		stmt.setConcurrencyLevel(concurrencyLevel);
+		stmt.setStreamingUnorderedQuery(streamingUnorderedQuery);
+		stmt.setMergeSpillConfig(mergeSpillConfig);
 
 		attachedStatements.add(stmt);
 
@@ -392,6 +406,27 @@ public class ShardConnection extends UnsupportedShardConnection implements Conne
 		this.dataSourceRepository = dataSourceRepository;
 	}
 
+	public void setParallelExecutors(ShardSQLExecutor readExecutor, ShardSQLExecutor writeExecutor) {
+		this.readExecutor = readExecutor;
+		this.writeExecutor = writeExecutor;
+	}
+
+	public void setStreamingUnorderedQuery(boolean streamingUnorderedQuery) {
+		this.streamingUnorderedQuery = streamingUnorderedQuery;
+	}
+
+	public void setMergeSpillConfig(MergeSpillConfig mergeSpillConfig) {
+		this.mergeSpillConfig = mergeSpillConfig;
+	}
+
+	/**
+	 * 没有设置时使用全局共享的执行器
+	 */
+	public ShardSQLExecutor getParallelExecutor(boolean isRead) {
+		ShardSQLExecutor executor = isRead ? readExecutor : writeExecutor;
+		return executor != null ? executor : ShardSQLExecutor.getDefaultExecutor(isRead);
+	}
+
 	@Override
 	public void setTransactionIsolation(int level) throws SQLException {
 		checkClosed();
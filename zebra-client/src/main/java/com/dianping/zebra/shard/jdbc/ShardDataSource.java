@@ -20,6 +20,7 @@ package com.dianping.zebra.shard.jdbc;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.List;
 import java.util.Map;
 
 import javax.sql.DataSource;
@@ -30,13 +31,16 @@ import com.dianping.zebra.exception.ZebraException;
 import com.dianping.zebra.filter.DefaultJdbcFilterChain;
 import com.dianping.zebra.filter.FilterManagerFactory;
 import com.dianping.zebra.filter.JdbcFilter;
+import com.dianping.zebra.filter.JdbcFilterPipeline;
+import com.dianping.zebra.filter.JdbcFilterPipeline.Hook;
 import com.dianping.zebra.log.Logger;
 import com.dianping.zebra.log.LoggerFactory;
 
 import com.dianping.zebra.config.ConfigService;
 import com.dianping.zebra.config.ConfigServiceFactory;
 import com.dianping.zebra.shard.config.ShardDataSourceCustomConfig;
-import com.dianping.zebra.shard.jdbc.parallel.SQLThreadPoolExecutor;
+import com.dianping.zebra.shard.jdbc.parallel.ShardSQLExecutor;
+import com.dianping.zebra.shard.merge.MergeSpillConfig;
 import com.dianping.zebra.shard.parser.SQLParser;
 import com.dianping.zebra.shard.router.DefaultShardRouter;
 import com.dianping.zebra.shard.router.RouterBuilder;
@@ -74,8 +78,48 @@ public class ShardDataSource extends ShardDataSourceConfigAdapter {
 
 	private boolean optimizeShardKeyInSql; // 优化shard key的in条件语句
 
+	private long parsedSqlCacheCapacity; // sql解析结果缓存容量，0表示不设置
+
+	private Boolean parsedSqlCacheWeighBySqlLength; // sql解析结果缓存是否按sql长度计算容量，null表示不设置
+
 	private ShardDataSourceCustomConfig shardDataSourceCustomConfig = new ShardDataSourceCustomConfig();
 
+	// parallel executor
+	private boolean readWriteSplitPool = false;
+
+	private int parallelCorePoolSize = 32;
+
+	private int parallelMaxPoolSize = 64;
+
+	private int parallelWorkQueueSize = 500;
+
+	private long parallelExecuteTimeOut = 1000L;
+
+	private int readParallelCorePoolSize = 32;
+
+	private int readParallelMaxPoolSize = 64;
+
+	private int readParallelWorkQueueSize = 500;
+
+	private long readParallelExecuteTimeOut = 1000L;
+
+	private int parallelDatabaseConcurrency = 0; // 单个物理库同时执行的任务数上限，小于等于0时不限制
+
+	private boolean parallelVirtualThreads = false; // JDK 21及以上使用虚拟线程执行，低版本JDK上不生效
+
+	private boolean streamingUnorderedQuery = false; // 无序的多库查询流式读取，读满limit后取消其余的查询
+
+	// merge
+	private long mergeMaxInMemoryBytes = MergeSpillConfig.DEFAULT_MAX_IN_MEMORY_BYTES; // 合并结果时估算的内存上限，超过时溢写到磁盘
+
+	private String mergeSpillDirectory; // 溢写的临时文件目录，为空时使用系统的临时目录
+
+	private MergeSpillConfig mergeSpillConfig = MergeSpillConfig.DEFAULT;
+
+	private ShardSQLExecutor readExecutor;
+
+	private ShardSQLExecutor writeExecutor;
+
 	public void init() {
 		if (StringUtils.isNotBlank(ruleName)) {
 			if (configService == null) {
@@ -97,8 +141,9 @@ public class ShardDataSource extends ShardDataSourceConfigAdapter {
 
 		this.initFilters();
 
-		if (filters != null && filters.size() > 0) {
-			JdbcFilter chain = new DefaultJdbcFilterChain(filters) {
+		List<JdbcFilter> hookFilters = JdbcFilterPipeline.filters(filters, Hook.INIT_SHARD_DATASOURCE);
+		if (hookFilters.size() > 0) {
+			JdbcFilter chain = new DefaultJdbcFilterChain(hookFilters) {
 				@Override
 				public void initShardDataSource(ShardDataSource source, JdbcFilter chain) {
 					if (index < filters.size()) {
@@ -115,7 +160,8 @@ public class ShardDataSource extends ShardDataSourceConfigAdapter {
 	}
 
 	private void initFilters() {
-		this.filters = FilterManagerFactory.getFilterManager().loadFilters("cat", configManagerType, serviceConfigs);
+		this.filters = JdbcFilterPipeline.compile(FilterManagerFactory.getFilterManager().loadFilters("cat",
+		      configManagerType, serviceConfigs));
 	}
 
 	private void initInternal() {
@@ -137,12 +183,26 @@ public class ShardDataSource extends ShardDataSourceConfigAdapter {
 		}
 
 		// init thread pool
-		SQLThreadPoolExecutor.getInstance(false);
-		if (SQLThreadPoolExecutor.readWriteSplitPool) {
-			SQLThreadPoolExecutor.getInstance(true);
+		String executorName = ruleName != null ? ruleName : Integer.toHexString(System.identityHashCode(this));
+		this.writeExecutor = new ShardSQLExecutor("Zebra-Shard-WriteExecutor-" + executorName + "-",
+		      parallelCorePoolSize, parallelMaxPoolSize, parallelWorkQueueSize, parallelExecuteTimeOut, parallelDatabaseConcurrency,
+		      parallelVirtualThreads);
+		if (readWriteSplitPool) {
+			this.readExecutor = new ShardSQLExecutor("Zebra-Shard-ReadExecutor-" + executorName + "-",
+			      readParallelCorePoolSize, readParallelMaxPoolSize, readParallelWorkQueueSize, readParallelExecuteTimeOut,
+			      parallelDatabaseConcurrency, parallelVirtualThreads);
+		} else {
+			this.readExecutor = this.writeExecutor;
 		}
 
-		// init SQL Parser
+		this.mergeSpillConfig = new MergeSpillConfig(mergeMaxInMemoryBytes, mergeSpillDirectory);
+
+		// init SQL Parser，缓存是进程内共享的，没有设置的参数不覆盖已有配置
+		if (parsedSqlCacheCapacity > 0 || parsedSqlCacheWeighBySqlLength != null) {
+			SQLParser.configCache(parsedSqlCacheCapacity > 0 ? parsedSqlCacheCapacity : SQLParser.DEFAULT_CACHE_CAPACITY,
+			      parsedSqlCacheWeighBySqlLength != null ? parsedSqlCacheWeighBySqlLength : SQLParser
+			            .isCacheWeighBySqlLength());
+		}
 		SQLParser.init();
 
 		if (ruleName != null) {
@@ -167,6 +227,9 @@ public class ShardDataSource extends ShardDataSourceConfigAdapter {
 		ShardConnection connection = new ShardConnection(username, password, filters, concurrencyLevel);
 		connection.setRouter(router);
 		connection.setDataSourceRepository(dataSourceRepository);
+		connection.setParallelExecutors(readExecutor, writeExecutor);
+		connection.setStreamingUnorderedQuery(streamingUnorderedQuery);
+		connection.setMergeSpillConfig(mergeSpillConfig);
 
 		return connection;
 	}
@@ -189,6 +252,13 @@ public class ShardDataSource extends ShardDataSourceConfigAdapter {
 
 		closed = true;
 
+		if (writeExecutor != null) {
+			writeExecutor.shutdown();
+		}
+		if (readExecutor != null && readExecutor != writeExecutor) {
+			readExecutor.shutdown();
+		}
+
 		LOGGER.info(String.format("ShardDataSource(%s) successfully closed.", ruleName));
 	}
 
@@ -219,41 +289,74 @@ public class ShardDataSource extends ShardDataSourceConfigAdapter {
 
 	// thread pool read write splitting
 	public void setReadWriteSplitPool(boolean readWriteSplitPool) {
-		SQLThreadPoolExecutor.readWriteSplitPool = readWriteSplitPool;
+		this.readWriteSplitPool = readWriteSplitPool;
 	}
 
 	// write pool
 	public void setParallelCorePoolSize(int parallelCorePoolSize) {
-		SQLThreadPoolExecutor.writeCorePoolSize = parallelCorePoolSize;
+		this.parallelCorePoolSize = parallelCorePoolSize;
 	}
 
 	public void setParallelMaxPoolSize(int parallelMaxPoolSize) {
-		SQLThreadPoolExecutor.writeMaxPoolSize = parallelMaxPoolSize;
+		this.parallelMaxPoolSize = parallelMaxPoolSize;
 	}
 
 	public void setParallelWorkQueueSize(int parallelWorkQueueSize) {
-		SQLThreadPoolExecutor.writeWorkQueueSize = parallelWorkQueueSize;
+		this.parallelWorkQueueSize = parallelWorkQueueSize;
 	}
 
 	public void setParallelExecuteTimeOut(int parallelExecuteTimeOut) {
-		SQLThreadPoolExecutor.writeExecuteTimeOut = parallelExecuteTimeOut;
+		this.parallelExecuteTimeOut = parallelExecuteTimeOut;
 	}
 
 	// read pool
 	public void setReadParallelCorePoolSize(int parallelCorePoolSize) {
-		SQLThreadPoolExecutor.readCorePoolSize = parallelCorePoolSize;
+		this.readParallelCorePoolSize = parallelCorePoolSize;
 	}
 
 	public void setReadParallelMaxPoolSize(int parallelMaxPoolSize) {
-		SQLThreadPoolExecutor.readMaxPoolSize = parallelMaxPoolSize;
+		this.readParallelMaxPoolSize = parallelMaxPoolSize;
 	}
 
 	public void setReadParallelWorkQueueSize(int parallelWorkQueueSize) {
-		SQLThreadPoolExecutor.readWorkQueueSize = parallelWorkQueueSize;
+		this.readParallelWorkQueueSize = parallelWorkQueueSize;
 	}
 
 	public void setReadParallelExecuteTimeOut(int parallelExecuteTimeOut) {
-		SQLThreadPoolExecutor.readExecuteTimeOut = parallelExecuteTimeOut;
+		this.readParallelExecuteTimeOut = parallelExecuteTimeOut;
+	}
+
+	public void setParallelDatabaseConcurrency(int parallelDatabaseConcurrency) {
+		this.parallelDatabaseConcurrency = parallelDatabaseConcurrency;
+	}
+
+	public void setParallelVirtualThreads(boolean parallelVirtualThreads) {
+		this.parallelVirtualThreads = parallelVirtualThreads;
+	}
+
+	public void setStreamingUnorderedQuery(boolean streamingUnorderedQuery) {
+		this.streamingUnorderedQuery = streamingUnorderedQuery;
+	}
+
+	// merge
+	public void setMergeMaxInMemoryBytes(long mergeMaxInMemoryBytes) {
+		this.mergeMaxInMemoryBytes = mergeMaxInMemoryBytes;
+	}
+
+	public void setMergeSpillDirectory(String mergeSpillDirectory) {
+		this.mergeSpillDirectory = mergeSpillDirectory;
+	}
+
+	// sql parse cache
+	public void setParsedSqlCacheCapacity(long parsedSqlCacheCapacity) {
+		if (parsedSqlCacheCapacity <= 0) {
+			throw new IllegalArgumentException("parsedSqlCacheCapacity must be positive.");
+		}
+		this.parsedSqlCacheCapacity = parsedSqlCacheCapacity;
+	}
+
+	public void setParsedSqlCacheWeighBySqlLength(boolean parsedSqlCacheWeighBySqlLength) {
+		this.parsedSqlCacheWeighBySqlLength = parsedSqlCacheWeighBySqlLength;
 	}
 
 	public void setDefaultDatasource(String defaultDatasource) {
@@ -289,6 +392,22 @@ public class ShardDataSource extends ShardDataSourceConfigAdapter {
 		this.shardDataSourceCustomConfig.setRouterType(routerType);
 	}
 
+	public void setInitConcurrency(int initConcurrency) {
+		if (initConcurrency >= 1) {
+			this.shardDataSourceCustomConfig.setInitConcurrency(initConcurrency);
+		}
+	}
+
+	public void setInitTimeout(long initTimeout) {
+		if (initTimeout > 0) {
+			this.shardDataSourceCustomConfig.setInitTimeout(initTimeout);
+		}
+	}
+
+	public void setWarmUpPool(boolean warmUpPool) {
+		this.shardDataSourceCustomConfig.setWarmUpPool(warmUpPool);
+	}
+
 	public void setConcurrencyLevel(int concurrencyLevel) {
 		if (concurrencyLevel >= 1) {
 			this.concurrencyLevel = concurrencyLevel;
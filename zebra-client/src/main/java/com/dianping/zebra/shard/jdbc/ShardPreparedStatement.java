@@ -23,6 +23,7 @@ import java.io.Reader;
 import java.math.BigDecimal;
 import java.net.URL;
 import java.sql.Array;
+import java.sql.BatchUpdateException;
 import java.sql.Blob;
 import java.sql.Clob;
 import java.sql.Connection;
@@ -38,7 +39,7 @@ import java.sql.Statement;
 import java.sql.Time;
 import java.sql.Timestamp;
 import java.util.*;
-import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
 import com.alibaba.druid.sql.ast.SQLStatement;
@@ -49,6 +50,8 @@ import com.alibaba.druid.sql.ast.statement.SQLSelectStatement;
 import com.alibaba.druid.sql.dialect.mysql.ast.statement.MySqlSelectQueryBlock;
 import com.dianping.zebra.filter.DefaultJdbcFilterChain;
 import com.dianping.zebra.filter.JdbcFilter;
+import com.dianping.zebra.filter.JdbcFilterPipeline;
+import com.dianping.zebra.filter.JdbcFilterPipeline.Hook;
 import com.dianping.zebra.group.jdbc.param.ArrayParamContext;
 import com.dianping.zebra.group.jdbc.param.AsciiParamContext;
 import com.dianping.zebra.group.jdbc.param.BigDecimalParamContext;
@@ -110,6 +113,10 @@ public class ShardPreparedStatement extends UnsupportedShardPreparedStatement im
 
 	private Map<Integer, ParamContext> params = new TreeMap<Integer, ParamContext>();
 
+	private Map<String, Map<String, List<BatchedArgs>>> batchedArgs; // 物理库 -> 物理SQL -> 每次addBatch的参数
+
+	private int batchSize;
+
 	private int concurrencyLevel = 1; // 单库并发度
 
 	protected ShardPreparedStatement(List<JdbcFilter> filters) {
@@ -136,6 +143,219 @@ public class ShardPreparedStatement extends UnsupportedShardPreparedStatement im
 		return stmt;
 	}
 
+	/**
+	 * 每组参数在<tt>addBatch</tt>时完成路由，按照物理库和物理SQL分组，<tt>executeBatch</tt>时每个物理SQL作为一个JDBC批量执行
+	 */
+	@Override
+	public void addBatch() throws SQLException {
+		checkClosed();
+
+		SqlType sqlType = getSqlType(sql);
+		if (sqlType != SqlType.INSERT && sqlType != SqlType.UPDATE && sqlType != SqlType.DELETE
+		      && sqlType != SqlType.REPLACE) {
+			throw new SQLException("only insert, update, delete, replace sql is supported in batch");
+		}
+
+		RouterResult routerTarget = routingAndCheck(sql, getParams());
+		rewriteAndMergeParms(routerTarget.getParams());
+
+		if (batchedArgs == null) {
+			batchedArgs = new LinkedHashMap<String, Map<String, List<BatchedArgs>>>();
+		}
+		for (RouterTarget targetedSql : routerTarget.getSqls()) {
+			Map<String, List<BatchedArgs>> sqlArgs = batchedArgs.get(targetedSql.getDatabaseName());
+			if (sqlArgs == null) {
+				sqlArgs = new LinkedHashMap<String, List<BatchedArgs>>();
+				batchedArgs.put(targetedSql.getDatabaseName(), sqlArgs);
+			}
+
+			int index = 0;
+			for (String executableSql : targetedSql.getSqls()) {
+				List<BatchedArgs> argsList = sqlArgs.get(executableSql);
+				if (argsList == null) {
+					argsList = new ArrayList<BatchedArgs>();
+					sqlArgs.put(executableSql, argsList);
+				}
+				argsList.add(newBatchedArgs(routerTarget, targetedSql, index++));
+			}
+		}
+
+		batchSize++;
+		params.clear();
+	}
+
+	private BatchedArgs newBatchedArgs(RouterResult routerTarget, RouterTarget targetedSql, int index) {
+		BatchedArgs args = new BatchedArgs(batchSize);
+
+		if (routerTarget.isBatchInsert()) {
+			List<Integer> indexMapping = targetedSql.getParamIndexMapping().get(index);
+			for (int i = 0; i < indexMapping.size(); ++i) {
+				args.add(i + 1, params.get(indexMapping.get(i)));
+			}
+		} else if (routerTarget.isOptimizeShardKeyInSql() || routerTarget.isMultiQueries()) {
+			boolean contains = !routerTarget.isOptimizeShardKeyInSql();
+			Set<Integer> paramIndexes = contains ? targetedSql.getVariantRefIndexes(index) : targetedSql
+			      .getSkInIgnoreParams(index);
+			int count = 1;
+			for (Map.Entry<Integer, ParamContext> entry : params.entrySet()) {
+				if (contains == paramIndexes.contains(entry.getKey() - 1)) {
+					args.add(count++, entry.getValue());
+				}
+			}
+		} else {
+			for (Map.Entry<Integer, ParamContext> entry : params.entrySet()) {
+				args.add(entry.getKey(), entry.getValue());
+			}
+		}
+
+		return args;
+	}
+
+	@Override
+	public void clearBatch() throws SQLException {
+		batchedArgs = null;
+		batchSize = 0;
+	}
+
+	/**
+	 * 和<tt>executeUpdate</tt>一样经过<tt>EXECUTE_SHARD_UPDATE</tt>的filter，filter看到的更新行数为所有成功更新行数之和
+	 */
+	@Override
+	public int[] executeBatch() throws SQLException {
+		checkClosed();
+
+		try {
+			if (batchedArgs == null || batchedArgs.isEmpty()) {
+				return new int[0];
+			}
+
+			List<JdbcFilter> hookFilters = JdbcFilterPipeline.filters(filters, Hook.EXECUTE_SHARD_UPDATE);
+			if (hookFilters.size() > 0) {
+				final int[][] updateCounts = new int[1][];
+				JdbcFilter chain = new DefaultJdbcFilterChain(hookFilters) {
+					@Override
+					public int executeShardUpdate(ShardStatement source, String sql, int autoGeneratedKeys,
+					      int[] columnIndexes, String[] columnNames, JdbcFilter chain) throws SQLException {
+						if (index < filters.size()) {
+							return filters.get(index++).executeShardUpdate(source, sql, -1, null, null, chain);
+						} else {
+							updateCounts[0] = ((ShardPreparedStatement) source).executeBatchInternal();
+							return sumUpdateCounts(updateCounts[0]);
+						}
+					}
+				};
+				chain.executeShardUpdate(this, sql, -1, null, null, chain);
+				return updateCounts[0] != null ? updateCounts[0] : new int[0];
+			} else {
+				return executeBatchInternal();
+			}
+		} finally {
+			clearBatch();
+		}
+	}
+
+	private static int sumUpdateCounts(int[] updateCounts) {
+		int sum = 0;
+		for (int count : updateCounts) {
+			if (count > 0) {
+				sum += count;
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * 每个物理库使用一个连接，多个物理库之间并行执行，返回的更新行数按照<tt>addBatch</tt>的顺序排列。
+	 * 任何一个物理库失败时等待其他物理库执行完，抛出带有所有更新行数的<tt>BatchUpdateException</tt>，失败和没有执行的为
+	 * <tt>Statement.EXECUTE_FAILED</tt>
+	 */
+	private int[] executeBatchInternal() throws SQLException {
+		ShardSQLExecutor.Batch<List<int[]>> tasks = connection.getParallelExecutor(false).newBatch();
+		List<List<List<BatchedArgs>>> taskArgs = new ArrayList<List<List<BatchedArgs>>>();
+		List<PreparedStatementExecuteBatchCallable> callables = new ArrayList<PreparedStatementExecuteBatchCallable>();
+
+		for (Map.Entry<String, Map<String, List<BatchedArgs>>> entry : batchedArgs.entrySet()) {
+			Connection conn = connection.getRealConnection(entry.getKey(), autoCommit);
+			List<PreparedStatement> stmtList = new ArrayList<PreparedStatement>();
+			List<List<BatchedArgs>> argsLists = new ArrayList<List<BatchedArgs>>();
+
+			for (Map.Entry<String, List<BatchedArgs>> sqlArgs : entry.getValue().entrySet()) {
+				PreparedStatement stmt = createPrepareStatement(conn, sqlArgs.getKey());
+				actualStatements.add(stmt);
+				for (BatchedArgs args : sqlArgs.getValue()) {
+					args.setParams(stmt);
+					stmt.addBatch();
+				}
+				stmtList.add(stmt);
+				argsLists.add(sqlArgs.getValue());
+			}
+
+			PreparedStatementExecuteBatchCallable callable = new PreparedStatementExecuteBatchCallable(stmtList,
+			      DaoContextHolder.getSqlName());
+			tasks.add(entry.getKey(), callable);
+			taskArgs.add(argsLists);
+			callables.add(callable);
+		}
+
+		SQLException error = null;
+		Future<List<int[]>> future;
+		while ((future = tasks.take()) != null) {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				if (error == null) {
+					error = e.getCause() instanceof SQLException ? (SQLException) e.getCause() : new SQLException(
+					      e.getCause());
+				}
+			} catch (Exception e) {
+				// normally can't be here
+				tasks.cancel();
+				throw new SQLException(e);
+			}
+		}
+
+		int[] updateCounts = new int[batchSize];
+		for (int i = 0; i < callables.size(); i++) {
+			PreparedStatementExecuteBatchCallable callable = callables.get(i);
+			List<int[]> results = callable.getResults();
+			List<List<BatchedArgs>> argsLists = taskArgs.get(i);
+			for (int j = 0; j < argsLists.size(); j++) {
+				List<BatchedArgs> argsList = argsLists.get(j);
+				int[] counts = j < results.size() ? results.get(j) : new int[0];
+				// 成功的批量驱动可以不返回每行的结果，失败的批量缺少的结果视为失败
+				int missing = callable.isFailed() && j >= results.size() - 1 ? Statement.EXECUTE_FAILED
+				      : Statement.SUCCESS_NO_INFO;
+				for (int k = 0; k < argsList.size(); k++) {
+					int batchIndex = argsList.get(k).batchIndex;
+					int count = k < counts.length ? counts[k] : missing;
+					updateCounts[batchIndex] = mergeUpdateCount(updateCounts[batchIndex], count);
+				}
+			}
+		}
+
+		this.results = null;
+		this.updateCount = -1;
+
+		if (error != null) {
+			throw new BatchUpdateException(error.getMessage(), error.getSQLState(), error.getErrorCode(),
+			      updateCounts, error);
+		}
+		return updateCounts;
+	}
+
+	/**
+	 * 一组参数路由到多个物理SQL时，合并每个物理SQL的更新行数
+	 */
+	private int mergeUpdateCount(int current, int count) {
+		if (current == Statement.EXECUTE_FAILED || count == Statement.EXECUTE_FAILED) {
+			return Statement.EXECUTE_FAILED;
+		}
+		if (current == Statement.SUCCESS_NO_INFO || count == Statement.SUCCESS_NO_INFO) {
+			return Statement.SUCCESS_NO_INFO;
+		}
+		return current + count;
+	}
+
 	@Override
 	public void clearParameters() throws SQLException {
 		params.clear();
@@ -163,8 +383,9 @@ public class ShardPreparedStatement extends UnsupportedShardPreparedStatement im
 	public ResultSet executeQuery() throws SQLException {
 		checkClosed();
 
-		if (filters != null && filters.size() > 0) {
-			JdbcFilter chain = new DefaultJdbcFilterChain(filters) {
+		List<JdbcFilter> hookFilters = JdbcFilterPipeline.filters(filters, Hook.EXECUTE_SHARD_QUERY);
+		if (hookFilters.size() > 0) {
+			JdbcFilter chain = new DefaultJdbcFilterChain(hookFilters) {
 				@Override
 				public ResultSet executeShardQuery(ShardStatement source, String sql, JdbcFilter chain) throws SQLException {
 					if (index < filters.size()) {
@@ -212,13 +433,16 @@ public class ShardPreparedStatement extends UnsupportedShardPreparedStatement im
 	}
 
 	private ResultSet normalSelectExecute(ShardResultSet rs, String sql, RouterResult routerTarget) throws SQLException {
-		List<ResultSet> originalResults = executeQueryByOriginal(routerTarget);
+		boolean streaming = isStreamingQuery(routerTarget);
+		List<ResultSet> originalResults = executeQueryByOriginal(routerTarget, streaming);
 		for (ResultSet result : originalResults) {
 			rs.addResultSet(result);
 		}
+		rs.setInterleaved(streaming);
 
-		if (this.filters != null && this.filters.size() > 0) {
-			JdbcFilter chain = new DefaultJdbcFilterChain(this.filters) {
+		List<JdbcFilter> hookFilters = JdbcFilterPipeline.filters(this.filters, Hook.SHARD_MERGE);
+		if (hookFilters.size() > 0) {
+			JdbcFilter chain = new DefaultJdbcFilterChain(hookFilters) {
 				@Override
 				public void shardMerge(ShardResultSet rs, JdbcFilter chain) throws SQLException {
 					if (index < filters.size()) {
@@ -364,8 +588,9 @@ public class ShardPreparedStatement extends UnsupportedShardPreparedStatement im
 			secondResult.add(shardResultSetMerger.popResultSet(rs, router2.getMergeContext()));
 		}
 
-		if (this.filters != null && this.filters.size() > 0) {
-			JdbcFilter chain = new DefaultJdbcFilterChain(this.filters) {
+		List<JdbcFilter> hookFilters = JdbcFilterPipeline.filters(this.filters, Hook.SHARD_MERGE);
+		if (hookFilters.size() > 0) {
+			JdbcFilter chain = new DefaultJdbcFilterChain(hookFilters) {
 				@Override
 				public void shardMerge(ShardResultSet rs, JdbcFilter chain) throws SQLException {
 					if (index < filters.size()) {
@@ -386,6 +611,10 @@ public class ShardPreparedStatement extends UnsupportedShardPreparedStatement im
 	 * 获得每个分片原始查询结果的List
 	 */
 	private List<ResultSet> executeQueryByOriginal(RouterResult routerTarget) throws SQLException {
+		return executeQueryByOriginal(routerTarget, false);
+	}
+
+	private List<ResultSet> executeQueryByOriginal(RouterResult routerTarget, boolean streaming) throws SQLException {
 		ArrayList<ResultSet> resultList = new ArrayList<ResultSet>();
 
 		if (isSingleTarget(routerTarget)) {
@@ -411,7 +640,7 @@ public class ShardPreparedStatement extends UnsupportedShardPreparedStatement im
 			}
 		} else {
 			// if has multiple sqls,then parallel execute them
-			List<Callable<List<ResultSet>>> tasks = new ArrayList<Callable<List<ResultSet>>>();
+			ShardSQLExecutor.Batch<List<ResultSet>> tasks = connection.getParallelExecutor(true).newBatch();
 
 			int concurrencyLevel = this.concurrencyLevel;
 			if (routerTarget.getConcurrencyLevel() > 0) {
@@ -434,8 +663,11 @@ public class ShardPreparedStatement extends UnsupportedShardPreparedStatement im
 						stmtList.add(stmt);
 						index++;
 					}
-					tasks.add(new PreparedStatementExecuteQueryCallable(stmtList, DaoContextHolder.getSqlName(),
-					      LocalContextReadWriteStrategy.getReadFromMaster()));
+					if (streaming && stmtList.size() == 1) {
+						setStreamingFetchSize(stmtList.get(0));
+					}
+					tasks.add(targetedSql.getDatabaseName(), new PreparedStatementExecuteQueryCallable(stmtList,
+					      DaoContextHolder.getSqlName(), LocalContextReadWriteStrategy.getReadFromMaster()));
 				} else {
 					List<List<PreparedStatement>> stmtLists = new ArrayList<List<PreparedStatement>>(concurrencyLevel);
 					Connection[] connections = new Connection[concurrencyLevel];
@@ -468,14 +700,18 @@ public class ShardPreparedStatement extends UnsupportedShardPreparedStatement im
 					}
 					for (List<PreparedStatement> stmtList : stmtLists) {
 						if (stmtList != null && !stmtList.isEmpty()) {
-							tasks.add(new PreparedStatementExecuteQueryCallable(stmtList, DaoContextHolder.getSqlName(),
-							      LocalContextReadWriteStrategy.getReadFromMaster()));
+							if (streaming && stmtList.size() == 1) {
+								setStreamingFetchSize(stmtList.get(0));
+							}
+							tasks.add(targetedSql.getDatabaseName(), new PreparedStatementExecuteQueryCallable(stmtList,
+							      DaoContextHolder.getSqlName(), LocalContextReadWriteStrategy.getReadFromMaster()));
 						}
 					}
 				}
 			}
 
-			List<Future<List<ResultSet>>> futures = SQLThreadPoolExecutor.getInstance(true).invokeSQLs(tasks);
+			// 流式读取时先返回的库先被读取
+			List<Future<List<ResultSet>>> futures = streaming ? tasks.invokeAllInCompletionOrder() : tasks.invokeAll();
 			for (Future<List<ResultSet>> f : futures) {
 				try {
 					resultList.addAll(f.get());
@@ -493,8 +729,9 @@ public class ShardPreparedStatement extends UnsupportedShardPreparedStatement im
 	public int executeUpdate() throws SQLException {
 		checkClosed();
 
-		if (filters != null && filters.size() > 0) {
-			JdbcFilter chain = new DefaultJdbcFilterChain(filters) {
+		List<JdbcFilter> hookFilters = JdbcFilterPipeline.filters(filters, Hook.EXECUTE_SHARD_UPDATE);
+		if (hookFilters.size() > 0) {
+			JdbcFilter chain = new DefaultJdbcFilterChain(hookFilters) {
 				@Override
 				public int executeShardUpdate(ShardStatement source, String sql, int autoGeneratedKeys,
 				      int[] columnIndexes, String[] columnNames, JdbcFilter chain) throws SQLException {
@@ -552,7 +789,7 @@ public class ShardPreparedStatement extends UnsupportedShardPreparedStatement im
 			}
 		} else {
 			// if has multiple sqls,then parallel execute them
-			List<Callable<UpdateResult>> tasks = new ArrayList<Callable<UpdateResult>>();
+			ShardSQLExecutor.Batch<UpdateResult> tasks = connection.getParallelExecutor(false).newBatch();
 			List<TaskExecuteResult> taskExecuteResults = new ArrayList<TaskExecuteResult>();
 			int concurrencyLevel = this.concurrencyLevel;
 			if (routerTarget.getConcurrencyLevel() > 0) {
@@ -590,7 +827,7 @@ public class ShardPreparedStatement extends UnsupportedShardPreparedStatement im
 						task.setTaskExecuteResult(ter);
 						taskExecuteResults.add(ter);
 					}
-					tasks.add(task);
+					tasks.add(targetedSql.getDatabaseName(), task);
 				} else {
 					int index = 0;
 					List<List<PreparedStatement>> stmtLists = new ArrayList<List<PreparedStatement>>(concurrencyLevel);
@@ -649,7 +886,7 @@ public class ShardPreparedStatement extends UnsupportedShardPreparedStatement im
 								task.setTaskExecuteResult(terArray[i]);
 								taskExecuteResults.add(terArray[i]);
 							}
-							tasks.add(task);
+							tasks.add(targetedSql.getDatabaseName(), task);
 						}
 					}
 				}
@@ -657,7 +894,7 @@ public class ShardPreparedStatement extends UnsupportedShardPreparedStatement im
 
 			List<Future<UpdateResult>> futures = null;
 			try {
-				futures = SQLThreadPoolExecutor.getInstance(false).invokeSQLs(tasks);
+				futures = tasks.invokeAll();
 			} catch (SQLException e) {
 				throw (isBatchInsert ? new SQLException(new ShardBatchInsertException(e.getMessage(), e.getCause(),
 				      taskExecuteResults)) : e);
@@ -1033,4 +1270,33 @@ public class ShardPreparedStatement extends UnsupportedShardPreparedStatement im
 	public void setConcurrencyLevel(int concurrencyLevel) {
 		this.concurrencyLevel = concurrencyLevel;
 	}
+
+	/**
+	 * 一次<tt>addBatch</tt>在某个物理SQL上绑定的参数
+	 */
+	private static class BatchedArgs {
+
+		private final int batchIndex;
+
+		private final List<Integer> paramIndexes = new ArrayList<Integer>();
+
+		private final List<ParamContext> params = new ArrayList<ParamContext>();
+
+		public BatchedArgs(int batchIndex) {
+			this.batchIndex = batchIndex;
+		}
+
+		public void add(int paramIndex, ParamContext param) {
+			paramIndexes.add(paramIndex);
+			params.add(param);
+		}
+
+		public void setParams(PreparedStatement stmt) throws SQLException {
+			for (int i = 0; i < params.size(); i++) {
+				ParamContext param = params.get(i);
+				param.setIndex(paramIndexes.get(i));
+				param.setParam(stmt);
+			}
+		}
+	}
 }
@@ -569,6 +569,9 @@ public class ShardResultSet extends ShardResultSetAdaptor implements ResultSet {
 
 		if (!dataInited) {
 			if (routerTarget != null) {
+				if (statement != null) {
+					dataMerger.setMergeSpillConfig(statement.getMergeSpillConfig());
+				}
 				dataMerger.merge(this, routerTarget, actualResultSets);
 			}
 			dataInited = true;
@@ -23,11 +23,12 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.*;
-import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
 
 import com.dianping.zebra.filter.DefaultJdbcFilterChain;
 import com.dianping.zebra.filter.JdbcFilter;
+import com.dianping.zebra.filter.JdbcFilterPipeline;
+import com.dianping.zebra.filter.JdbcFilterPipeline.Hook;
 import com.dianping.zebra.group.router.LocalContextReadWriteStrategy;
 import com.dianping.zebra.log.Logger;
 import com.dianping.zebra.log.LoggerFactory;
@@ -35,6 +36,7 @@ import com.dianping.zebra.shard.exception.ShardBatchInsertException;
 import com.dianping.zebra.shard.jdbc.parallel.*;
 import com.dianping.zebra.shard.jdbc.unsupport.UnsupportedShardStatement;
 import com.dianping.zebra.shard.merge.MergeContext;
+import com.dianping.zebra.shard.merge.MergeSpillConfig;
 import com.dianping.zebra.shard.merge.RowData;
 import com.dianping.zebra.shard.merge.ShardResultSetMerger;
 import com.dianping.zebra.shard.merge.orderby.OrderByDataMerger;
@@ -89,6 +91,10 @@ public class ShardStatement extends UnsupportedShardStatement implements Stateme
 
 	private int concurrencyLevel = 1; // 单库并发度
 
+	protected boolean streamingUnorderedQuery = false; // 无序的多库查询流式读取，并轮流返回每个库的结果
+
+	protected MergeSpillConfig mergeSpillConfig = MergeSpillConfig.DEFAULT;
+
 	public ShardStatement(List<JdbcFilter> filters) {
 		this.filters = filters;
 	}
@@ -123,8 +129,9 @@ public class ShardStatement extends UnsupportedShardStatement implements Stateme
 	      throws SQLException {
 		checkClosed();
 
-		if (filters != null && filters.size() > 0) {
-			JdbcFilter chain = new DefaultJdbcFilterChain(filters) {
+		List<JdbcFilter> hookFilters = JdbcFilterPipeline.filters(filters, Hook.EXECUTE_SHARD_UPDATE);
+		if (hookFilters.size() > 0) {
+			JdbcFilter chain = new DefaultJdbcFilterChain(hookFilters) {
 				@Override
 				public int executeShardUpdate(ShardStatement source, String sql, int autoGeneratedKeys,
 				      int[] columnIndexes, String[] columnNames, JdbcFilter chain) throws SQLException {
@@ -176,7 +183,7 @@ public class ShardStatement extends UnsupportedShardStatement implements Stateme
 			}
 		} else {
 			// if has multiple sqls, then parallel execute them
-			List<Callable<UpdateResult>> tasks = new ArrayList<Callable<UpdateResult>>();
+			ShardSQLExecutor.Batch<UpdateResult> tasks = connection.getParallelExecutor(false).newBatch();
 			List<TaskExecuteResult> taskExecuteResults = new ArrayList<TaskExecuteResult>();
 			int concurrencyLevel = this.concurrencyLevel;
 			boolean isBatchInsert = routerTarget.isBatchInsert();
@@ -202,7 +209,7 @@ public class ShardStatement extends UnsupportedShardStatement implements Stateme
 						task.setTaskExecuteResult(ter);
 						taskExecuteResults.add(ter);
 					}
-					tasks.add(task);
+					tasks.add(targetedSql.getDatabaseName(), task);
 				} else {
 					int index = 0;
 					List<Map<String, Statement>> stmtSqlMapList = new ArrayList<Map<String, Statement>>(concurrencyLevel);
@@ -252,7 +259,7 @@ public class ShardStatement extends UnsupportedShardStatement implements Stateme
 								task.setTaskExecuteResult(terArray[i]);
 								taskExecuteResults.add(terArray[i]);
 							}
-							tasks.add(task);
+							tasks.add(targetedSql.getDatabaseName(), task);
 						}
 					}
 				}
@@ -260,7 +267,7 @@ public class ShardStatement extends UnsupportedShardStatement implements Stateme
 
 			List<Future<UpdateResult>> futures = null;
 			try {
-				futures = SQLThreadPoolExecutor.getInstance(false).invokeSQLs(tasks);
+				futures = tasks.invokeAll();
 			} catch (SQLException e) {
 				throw (isBatchInsert ? new SQLException(new ShardBatchInsertException(e.getMessage(), e.getCause(),
 				      taskExecuteResults)) : e);
@@ -393,8 +400,9 @@ public class ShardStatement extends UnsupportedShardStatement implements Stateme
 	public ResultSet executeQuery(String sql) throws SQLException {
 		checkClosed();
 
-		if (filters != null && filters.size() > 0) {
-			JdbcFilter chain = new DefaultJdbcFilterChain(filters) {
+		List<JdbcFilter> hookFilters = JdbcFilterPipeline.filters(filters, Hook.EXECUTE_SHARD_QUERY);
+		if (hookFilters.size() > 0) {
+			JdbcFilter chain = new DefaultJdbcFilterChain(hookFilters) {
 				@Override
 				public ResultSet executeShardQuery(ShardStatement source, String sql, JdbcFilter chain) throws SQLException {
 					if (index < filters.size()) {
@@ -442,13 +450,16 @@ public class ShardStatement extends UnsupportedShardStatement implements Stateme
 	}
 
 	private ResultSet normalSelectExecute(ShardResultSet rs, String sql, RouterResult routerTarget) throws SQLException {
-		List<ResultSet> originalResults = executeQueryByOriginal(routerTarget);
+		boolean streaming = isStreamingQuery(routerTarget);
+		List<ResultSet> originalResults = executeQueryByOriginal(routerTarget, streaming);
 		for (ResultSet result : originalResults) {
 			rs.addResultSet(result);
 		}
+		rs.setInterleaved(streaming);
 
-		if (this.filters != null && this.filters.size() > 0) {
-			JdbcFilter chain = new DefaultJdbcFilterChain(this.filters) {
+		List<JdbcFilter> hookFilters = JdbcFilterPipeline.filters(this.filters, Hook.SHARD_MERGE);
+		if (hookFilters.size() > 0) {
+			JdbcFilter chain = new DefaultJdbcFilterChain(hookFilters) {
 				@Override
 				public void shardMerge(ShardResultSet rs, JdbcFilter chain) throws SQLException {
 					if (index < filters.size()) {
@@ -554,8 +565,9 @@ public class ShardStatement extends UnsupportedShardStatement implements Stateme
 			secondResult.add(shardResultSetMerger.popResultSet(rs, router2.getMergeContext()));
 		}
 
-		if (this.filters != null && this.filters.size() > 0) {
-			JdbcFilter chain = new DefaultJdbcFilterChain(this.filters) {
+		List<JdbcFilter> hookFilters = JdbcFilterPipeline.filters(this.filters, Hook.SHARD_MERGE);
+		if (hookFilters.size() > 0) {
+			JdbcFilter chain = new DefaultJdbcFilterChain(hookFilters) {
 				@Override
 				public void shardMerge(ShardResultSet rs, JdbcFilter chain) throws SQLException {
 					if (index < filters.size()) {
@@ -576,6 +588,10 @@ public class ShardStatement extends UnsupportedShardStatement implements Stateme
 	 * 获得每个分片原始查询结果的List
 	 */
 	private List<ResultSet> executeQueryByOriginal(RouterResult routerTarget) throws SQLException {
+		return executeQueryByOriginal(routerTarget, false);
+	}
+
+	private List<ResultSet> executeQueryByOriginal(RouterResult routerTarget, boolean streaming) throws SQLException {
 		ArrayList<ResultSet> resultList = new ArrayList<ResultSet>();
 
 		if (isSingleTarget(routerTarget)) {
@@ -596,7 +612,7 @@ public class ShardStatement extends UnsupportedShardStatement implements Stateme
 			}
 		} else {
 			// if has multiple sqls,then parallel execute them
-			List<Callable<List<ResultSet>>> tasks = new ArrayList<Callable<List<ResultSet>>>();
+			ShardSQLExecutor.Batch<List<ResultSet>> tasks = connection.getParallelExecutor(true).newBatch();
 
 			int concurrencyLevel = this.concurrencyLevel;
 			if (routerTarget.getConcurrencyLevel() > 0) {
@@ -612,8 +628,11 @@ public class ShardStatement extends UnsupportedShardStatement implements Stateme
 						actualStatements.add(stmt);
 						stmtSqlMap.put(executableSql, stmt);
 					}
-					tasks.add(new StatementExecuteQueryCallable(stmtSqlMap, LocalContextReadWriteStrategy
-					      .getReadFromMaster()));
+					if (streaming && stmtSqlMap.size() == 1) {
+						setStreamingFetchSize(stmtSqlMap.values().iterator().next());
+					}
+					tasks.add(targetedSql.getDatabaseName(), new StatementExecuteQueryCallable(stmtSqlMap,
+					      LocalContextReadWriteStrategy.getReadFromMaster()));
 				} else {
 					int count = 0;
 					Connection[] connections = new Connection[concurrencyLevel];
@@ -640,14 +659,18 @@ public class ShardStatement extends UnsupportedShardStatement implements Stateme
 					}
 					for (Map<String, Statement> stmtSqlMap : stmtSqlMapList) {
 						if (stmtSqlMap != null && !stmtSqlMap.isEmpty()) {
-							tasks.add(new StatementExecuteQueryCallable(stmtSqlMap, LocalContextReadWriteStrategy
-							      .getReadFromMaster()));
+							if (streaming && stmtSqlMap.size() == 1) {
+								setStreamingFetchSize(stmtSqlMap.values().iterator().next());
+							}
+							tasks.add(targetedSql.getDatabaseName(), new StatementExecuteQueryCallable(stmtSqlMap,
+							      LocalContextReadWriteStrategy.getReadFromMaster()));
 						}
 					}
 				}
 			}
 
-			List<Future<List<ResultSet>>> futures = SQLThreadPoolExecutor.getInstance(true).invokeSQLs(tasks);
+			// 流式读取时先返回的库先被读取
+			List<Future<List<ResultSet>>> futures = streaming ? tasks.invokeAllInCompletionOrder() : tasks.invokeAll();
 			for (Future<List<ResultSet>> f : futures) {
 				try {
 					resultList.addAll(f.get());
@@ -762,8 +785,9 @@ public class ShardStatement extends UnsupportedShardStatement implements Stateme
 				routerTarget.setParams(params);
 			}
 
-			if (this.filters != null && this.filters.size() > 0) {
-				JdbcFilter chain = new DefaultJdbcFilterChain(this.filters) {
+			List<JdbcFilter> hookFilters = JdbcFilterPipeline.filters(this.filters, Hook.SHARD_ROUTING);
+			if (hookFilters.size() > 0) {
+				JdbcFilter chain = new DefaultJdbcFilterChain(hookFilters) {
 					@Override
 					public void shardRouting(RouterResult rs, JdbcFilter chain) throws SQLException {
 						if (index < filters.size()) {
@@ -777,6 +801,26 @@ public class ShardStatement extends UnsupportedShardStatement implements Stateme
 		}
 	}
 
+	/**
+	 * 开启<tt>streamingUnorderedQuery</tt>时，不需要排序、聚合和去重的多库查询流式读取每个库的结果
+	 */
+	protected boolean isStreamingQuery(RouterResult routerTarget) {
+		return streamingUnorderedQuery && autoCommit && !isSingleTarget(routerTarget)
+		      && routerTarget.getMergeContext().isPassThrough();
+	}
+
+	/**
+	 * MySQL驱动在fetchSize为Integer.MIN_VALUE时逐行读取结果，同一个连接上只能有一个这样的查询
+	 */
+	protected void setStreamingFetchSize(Statement stmt) {
+		try {
+			stmt.setFetchSize(Integer.MIN_VALUE);
+		} catch (SQLException e) {
+			// 不支持流式读取的驱动使用默认的fetchSize
+			LOGGER.debug("driver does not support streaming result set.", e);
+		}
+	}
+
 	protected boolean isSingleTarget(RouterResult rr) {
 		if (rr.getSqls().size() > 1) {
 			return false;
@@ -825,4 +869,16 @@ public class ShardStatement extends UnsupportedShardStatement implements Stateme
 	public void setConcurrencyLevel(int concurrencyLevel) {
 		this.concurrencyLevel = concurrencyLevel;
 	}
+
+	public void setStreamingUnorderedQuery(boolean streamingUnorderedQuery) {
+		this.streamingUnorderedQuery = streamingUnorderedQuery;
+	}
+
+	public MergeSpillConfig getMergeSpillConfig() {
+		return mergeSpillConfig;
+	}
+
+	public void setMergeSpillConfig(MergeSpillConfig mergeSpillConfig) {
+		this.mergeSpillConfig = mergeSpillConfig;
+	}
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.shard.jdbc.parallel;
+
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.dianping.zebra.group.util.DaoContextHolder;
+
+/**
+ * 在同一个物理库上依次执行多个<tt>PreparedStatement</tt>的批量更新，按顺序返回每个批量的更新行数
+ */
+public class PreparedStatementExecuteBatchCallable implements Callable<List<int[]>> {
+
+	private List<PreparedStatement> stmts;
+
+	private String sqlName;
+
+	private final List<int[]> results;
+
+	private volatile boolean failed;
+
+	public PreparedStatementExecuteBatchCallable(List<PreparedStatement> stmts, String sqlName) {
+		super();
+		this.stmts = stmts;
+		this.sqlName = sqlName;
+		this.results = new ArrayList<int[]>(stmts.size());
+	}
+
+	@Override
+	public List<int[]> call() throws Exception {
+		try {
+			DaoContextHolder.setSqlName(sqlName);
+
+			for (PreparedStatement stmt : stmts) {
+				try {
+					results.add(stmt.executeBatch());
+				} catch (BatchUpdateException e) {
+					results.add(e.getUpdateCounts() != null ? e.getUpdateCounts() : new int[0]);
+					failed = true;
+					throw e;
+				} catch (Exception e) {
+					failed = true;
+					throw e;
+				}
+			}
+
+			return results;
+		} finally {
+			DaoContextHolder.clearSqlName();
+		}
+	}
+
+	/**
+	 * 执行失败后用来取得已经执行的批量的更新行数，最后一个为失败批量中驱动返回的部分结果，后面没有执行的批量不在其中
+	 */
+	public List<int[]> getResults() {
+		return results;
+	}
+
+	public boolean isFailed() {
+		return failed;
+	}
+}
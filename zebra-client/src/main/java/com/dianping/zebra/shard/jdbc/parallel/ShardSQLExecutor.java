@@ -0,0 +1,599 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.shard.jdbc.parallel;
+
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.dianping.zebra.group.router.LocalContextReadWriteStrategy;
+import com.dianping.zebra.group.router.ZebraForceMasterHelper;
+import com.dianping.zebra.group.util.DaoContextHolder;
+import com.dianping.zebra.log.Logger;
+import com.dianping.zebra.log.LoggerFactory;
+
+/**
+ * <p>
+ * 单个<tt>ShardDataSource</tt>的并行SQL执行器
+ * </p>
+ * 每次多库查询是一个<tt>Batch</tt>，工作线程在所有未完成的<tt>Batch</tt>之间轮转取任务，大范围扫表不会让其他查询排在它的所有任务之后；
+ * <tt>databaseConcurrency</tt>大于0时限制同一个物理库上同时执行的任务数。等待执行的任务数超过<tt>queueSize</tt>时，新的<tt>Batch</tt>
+ * 最多等待<tt>executeTimeOut</tt>，仍然无法提交时抛出异常。
+ * <p>
+ * <tt>Batch.take()</tt>按完成顺序返回结果，归并可以在第一个分片返回时就开始。
+ * </p>
+ * 只有存在可以执行的任务（所在物理库没有达到并发上限）时才启动新的工作线程，剩下的任务都被并发上限挡住时工作线程等待，
+ * 直到有任务结束或者新的<tt>Batch</tt>提交。
+ * 开启<tt>virtualThreads</tt>并且运行在JDK 21及以上时，每个任务使用一个虚拟线程执行，不再受<tt>maxPoolSize</tt>限制，
+ * 这时通过<tt>databaseConcurrency</tt>限制每个物理库的并发，没有配置时默认为<tt>DEFAULT_VIRTUAL_DATABASE_CONCURRENCY</tt>；
+ * 低版本JDK上退回到平台线程池。
+ * 调用线程的<tt>DaoContextHolder</tt>和<tt>ZebraForceMasterHelper</tt>上下文会传递到执行任务的线程。
+ */
+public class ShardSQLExecutor {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ShardSQLExecutor.class);
+
+	public static final int DEFAULT_VIRTUAL_DATABASE_CONCURRENCY = 16;
+
+	private static volatile ShardSQLExecutor defaultReadExecutor;
+
+	private static volatile ShardSQLExecutor defaultWriteExecutor;
+
+	private final String name;
+
+	private final int poolSize;
+
+	private final int queueSize;
+
+	private final long executeTimeOut;
+
+	private final int databaseConcurrency;
+
+	private final boolean virtualThreads;
+
+	private final ExecutorService workers;
+
+	private final LinkedList<Batch<?>> readyBatches = new LinkedList<Batch<?>>();
+
+	private final Map<String, Integer> runningTasks = new HashMap<String, Integer>();
+
+	// 只在databaseConcurrency大于0时维护，没有物理库的任务记在null下
+	private final Map<String, Integer> pendingTasks = new HashMap<String, Integer>();
+
+	private int pendingTaskCount;
+
+	private int runningTaskCount;
+
+	private int activeWorkerCount;
+
+	private volatile boolean shutdown;
+
+	public ShardSQLExecutor(String name, int corePoolSize, int maxPoolSize, int queueSize, long executeTimeOut,
+	      int databaseConcurrency) {
+		this(name, corePoolSize, maxPoolSize, queueSize, executeTimeOut, databaseConcurrency, false);
+	}
+
+	public ShardSQLExecutor(String name, int corePoolSize, int maxPoolSize, int queueSize, long executeTimeOut,
+	      int databaseConcurrency, boolean virtualThreads) {
+		this.name = name;
+		this.queueSize = Math.max(queueSize, 0);
+		this.executeTimeOut = executeTimeOut;
+
+		ExecutorService virtualThreadExecutor = virtualThreads ? newVirtualThreadExecutor(name) : null;
+		if (virtualThreadExecutor != null) {
+			this.databaseConcurrency = databaseConcurrency > 0 ? databaseConcurrency
+			      : DEFAULT_VIRTUAL_DATABASE_CONCURRENCY;
+			this.virtualThreads = true;
+			this.poolSize = Integer.MAX_VALUE;
+			this.workers = virtualThreadExecutor;
+			return;
+		}
+
+		this.databaseConcurrency = databaseConcurrency;
+		this.virtualThreads = false;
+		this.poolSize = Math.max(maxPoolSize, 1);
+		// 同时提交的Worker不超过poolSize个，刚退出的工作线程还没有回到线程池时新的Worker在队列里等待，只有关闭后才会拒绝
+		ThreadPoolExecutor threadPool = new ThreadPoolExecutor(this.poolSize, this.poolSize, 60L, TimeUnit.SECONDS,
+		      new LinkedBlockingQueue<Runnable>(), new SQLPoolThreadFactory(name));
+		threadPool.allowCoreThreadTimeOut(corePoolSize < this.poolSize);
+		this.workers = threadPool;
+	}
+
+	/**
+	 * 没有通过<tt>ShardDataSource</tt>创建的<tt>ShardConnection</tt>使用的执行器，配置取自<tt>SQLThreadPoolExecutor</tt>
+	 */
+	public static ShardSQLExecutor getDefaultExecutor(boolean isRead) {
+		if (SQLThreadPoolExecutor.readWriteSplitPool && isRead) {
+			if (defaultReadExecutor == null) {
+				synchronized (ShardSQLExecutor.class) {
+					if (defaultReadExecutor == null) {
+						defaultReadExecutor = new ShardSQLExecutor("Zebra-Shard-ReadExecutor-",
+						      SQLThreadPoolExecutor.readCorePoolSize, SQLThreadPoolExecutor.readMaxPoolSize, SQLThreadPoolExecutor.readWorkQueueSize,
+						      SQLThreadPoolExecutor.readExecuteTimeOut, 0);
+					}
+				}
+			}
+			return defaultReadExecutor;
+		} else {
+			if (defaultWriteExecutor == null) {
+				synchronized (ShardSQLExecutor.class) {
+					if (defaultWriteExecutor == null) {
+						defaultWriteExecutor = new ShardSQLExecutor("Zebra-Shard-WriteExecutor-",
+						      SQLThreadPoolExecutor.writeCorePoolSize, SQLThreadPoolExecutor.writeMaxPoolSize, SQLThreadPoolExecutor.writeWorkQueueSize,
+						      SQLThreadPoolExecutor.writeExecuteTimeOut, 0);
+					}
+				}
+			}
+			return defaultWriteExecutor;
+		}
+	}
+
+	/**
+	 * 通过反射创建虚拟线程执行器，JDK不支持虚拟线程时返回null
+	 */
+	private static ExecutorService newVirtualThreadExecutor(String name) {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name, 1L);
+			ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+			Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+
+			return (ExecutorService) newThreadPerTaskExecutor.invoke(null, threadFactory);
+		} catch (NoSuchMethodException e) {
+			LOGGER.info("virtual threads are not supported by current jdk, executor " + name + " uses platform threads.");
+		} catch (Exception e) {
+			LOGGER.warn("fail to create virtual thread executor, executor " + name + " uses platform threads.", e);
+		}
+		return null;
+	}
+
+	public <T> Batch<T> newBatch() {
+		return new Batch<T>();
+	}
+
+	public long getExecuteTimeOut() {
+		return executeTimeOut;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	public synchronized int getPendingTaskCount() {
+		return pendingTaskCount;
+	}
+
+	public int getDatabaseConcurrency() {
+		return databaseConcurrency;
+	}
+
+	synchronized int getActiveWorkerCount() {
+		return activeWorkerCount;
+	}
+
+	public void shutdown() {
+		synchronized (this) {
+			shutdown = true;
+			notifyAll();
+		}
+		workers.shutdown();
+	}
+
+	private synchronized void admit(Batch<?> batch, long deadline) throws SQLException {
+		if (shutdown) {
+			throw new SQLException("executor " + name + " has been shutdown");
+		}
+
+		int size = batch.pendingTasks.size();
+		while (pendingTaskCount > 0 && pendingTaskCount + size > queueSize) {
+			long waitMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			if (waitMillis <= 0) {
+				throw new SQLException(
+				      "Error! Do not have enough thread to execute sql, you have to increase your thread pool maxsize");
+			}
+			try {
+				wait(waitMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException(e);
+			}
+		}
+
+		batch.admitted = true;
+		pendingTaskCount += size;
+		if (databaseConcurrency > 0) {
+			for (Task<?> task : batch.pendingTasks) {
+				increase(pendingTasks, task.database);
+			}
+		}
+		readyBatches.addLast(batch);
+		signal();
+	}
+
+	/**
+	 * 空闲的工作线程不够执行所有可以执行的任务时启动新的工作线程，并唤醒等待中的工作线程
+	 */
+	private void signal() throws SQLException {
+		notifyAll();
+
+		int runnable = getRunnableTaskCount();
+		while (activeWorkerCount < poolSize && activeWorkerCount - runningTaskCount < runnable) {
+			activeWorkerCount++;
+			try {
+				workers.execute(new Worker());
+			} catch (RejectedExecutionException e) {
+				activeWorkerCount--;
+				throw new SQLException("executor " + name + " rejects sql tasks, it may have been shutdown", e);
+			}
+		}
+	}
+
+	/**
+	 * 没有等待执行的任务时返回null，工作线程退出；还有任务但都被并发上限挡住时等待
+	 */
+	private synchronized Task<?> takeNext() {
+		while (true) {
+			for (int i = 0, size = readyBatches.size(); i < size; i++) {
+				Batch<?> batch = readyBatches.removeFirst();
+				Task<?> task = batch.pollRunnable();
+				if (!batch.pendingTasks.isEmpty()) {
+					readyBatches.addLast(batch);
+				}
+				if (task != null) {
+					pendingTaskCount--;
+					runningTaskCount++;
+					if (databaseConcurrency > 0) {
+						decrease(pendingTasks, task.database);
+						if (task.database != null) {
+							increase(runningTasks, task.database);
+						}
+					}
+					notifyAll();
+					return task;
+				}
+			}
+
+			if (pendingTaskCount == 0 || shutdown) {
+				break;
+			}
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		activeWorkerCount--;
+		return null;
+	}
+
+	private synchronized void finish(Task<?> task) {
+		runningTaskCount--;
+		if (databaseConcurrency > 0 && task.database != null) {
+			decrease(runningTasks, task.database);
+		}
+
+		try {
+			signal();
+		} catch (SQLException e) {
+			LOGGER.warn(e.getMessage(), e);
+		}
+	}
+
+	private synchronized void remove(Batch<?> batch) {
+		if (!batch.admitted) {
+			return;
+		}
+		pendingTaskCount -= batch.pendingTasks.size();
+		if (databaseConcurrency > 0) {
+			for (Task<?> task : batch.pendingTasks) {
+				decrease(pendingTasks, task.database);
+			}
+		}
+		batch.pendingTasks.clear();
+		readyBatches.remove(batch);
+		notifyAll();
+	}
+
+	/**
+	 * 按每个物理库剩余的并发数计算现在可以执行的任务数
+	 */
+	private int getRunnableTaskCount() {
+		if (databaseConcurrency <= 0) {
+			return pendingTaskCount;
+		}
+
+		int count = 0;
+		for (Map.Entry<String, Integer> entry : pendingTasks.entrySet()) {
+			if (entry.getKey() == null) {
+				count += entry.getValue();
+			} else {
+				Integer running = runningTasks.get(entry.getKey());
+				count += Math.min(entry.getValue(), databaseConcurrency - (running == null ? 0 : running));
+			}
+		}
+		return count;
+	}
+
+	private static void increase(Map<String, Integer> counts, String database) {
+		Integer count = counts.get(database);
+		counts.put(database, count == null ? 1 : count + 1);
+	}
+
+	private static void decrease(Map<String, Integer> counts, String database) {
+		Integer count = counts.get(database);
+		if (count == null || count <= 1) {
+			counts.remove(database);
+		} else {
+			counts.put(database, count - 1);
+		}
+	}
+
+	private boolean hasCapacity(String database) {
+		if (databaseConcurrency <= 0 || database == null) {
+			return true;
+		}
+		Integer running = runningTasks.get(database);
+		return running == null || running < databaseConcurrency;
+	}
+
+	private class Worker implements Runnable {
+
+		@Override
+		public void run() {
+			Task<?> task;
+			while ((task = takeNext()) != null) {
+				try {
+					task.run();
+				} finally {
+					// 取消任务时的中断不能影响下一个任务
+					Thread.interrupted();
+					finish(task);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 一次多库查询的所有任务
+	 */
+	public class Batch<T> {
+
+		private final List<Task<T>> tasks = new ArrayList<Task<T>>();
+
+		private final LinkedList<Task<T>> pendingTasks = new LinkedList<Task<T>>();
+
+		private final BlockingQueue<Future<T>> completedTasks = new LinkedBlockingQueue<Future<T>>();
+
+		private long deadline;
+
+		private int takenCount;
+
+		private boolean submitted;
+
+		private boolean admitted;
+
+		public Batch<T> add(String database, Callable<T> callable) {
+			Task<T> task = new Task<T>(this, database, callable);
+			tasks.add(task);
+			pendingTasks.add(task);
+			return this;
+		}
+
+		public int size() {
+			return tasks.size();
+		}
+
+		/**
+		 * 提交所有任务，超时时间从提交时开始计算
+		 */
+		public void submit() throws SQLException {
+			if (submitted) {
+				return;
+			}
+			submitted = true;
+			deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(executeTimeOut);
+
+			try {
+				admit(this, deadline);
+			} catch (SQLException e) {
+				cancel();
+				throw e;
+			}
+		}
+
+		/**
+		 * 按完成顺序返回下一个任务，所有任务都已返回时返回null
+		 */
+		public Future<T> take() throws SQLException {
+			submit();
+			if (takenCount >= tasks.size()) {
+				return null;
+			}
+
+			long nanos = deadline - System.nanoTime();
+			Future<T> future = null;
+			try {
+				if (nanos > 0) {
+					future = completedTasks.poll(nanos, TimeUnit.NANOSECONDS);
+				}
+			} catch (InterruptedException e) {
+				cancel();
+				Thread.currentThread().interrupt();
+				throw new SQLException(e);
+			}
+
+			if (future == null) {
+				cancel();
+				throw new SQLException("One of your sql's execution time is beyond " + executeTimeOut + " milliseconds.");
+			}
+
+			takenCount++;
+			return future;
+		}
+
+		/**
+		 * 执行所有任务并等待完成，按添加顺序返回；任何一个任务失败或者超时时取消其他任务
+		 */
+		public List<Future<T>> invokeAll() throws SQLException {
+			invokeAllInCompletionOrder();
+			return new ArrayList<Future<T>>(tasks);
+		}
+
+		/**
+		 * 同<tt>invokeAll()</tt>，按完成顺序返回
+		 */
+		public List<Future<T>> invokeAllInCompletionOrder() throws SQLException {
+			submit();
+
+			List<Future<T>> completed = new ArrayList<Future<T>>(tasks.size());
+			boolean done = false;
+			try {
+				Future<T> future;
+				while ((future = take()) != null) {
+					try {
+						future.get();
+					} catch (CancellationException e) {
+						throw new SQLException(e);
+					} catch (ExecutionException e) {
+						throw new SQLException(e.getCause());
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new SQLException(e);
+					}
+					completed.add(future);
+				}
+				done = true;
+				return completed;
+			} finally {
+				if (!done) {
+					cancel();
+				}
+			}
+		}
+
+		public void cancel() {
+			remove(this);
+			for (Task<T> task : tasks) {
+				task.cancel(true);
+			}
+		}
+
+		private Task<T> pollRunnable() {
+			Iterator<Task<T>> iterator = pendingTasks.iterator();
+			while (iterator.hasNext()) {
+				Task<T> task = iterator.next();
+				if (hasCapacity(task.database)) {
+					iterator.remove();
+					return task;
+				}
+			}
+			return null;
+		}
+	}
+
+	private static class Task<T> extends FutureTask<T> {
+
+		private final Batch<T> batch;
+
+		private final String database;
+
+		private final String sqlName;
+
+		private final boolean forceMaster;
+
+		Task(Batch<T> batch, String database, Callable<T> callable) {
+			super(callable);
+			this.batch = batch;
+			this.database = database;
+			this.sqlName = DaoContextHolder.getSqlName();
+			this.forceMaster = LocalContextReadWriteStrategy.getReadFromMaster();
+		}
+
+		@Override
+		public void run() {
+			if (sqlName != null) {
+				DaoContextHolder.setSqlName(sqlName);
+			} else {
+				DaoContextHolder.clearSqlName();
+			}
+			if (forceMaster) {
+				ZebraForceMasterHelper.forceMasterInLocalContext();
+			} else {
+				ZebraForceMasterHelper.clearLocalContext();
+			}
+
+			try {
+				super.run();
+			} finally {
+				DaoContextHolder.clearSqlName();
+				ZebraForceMasterHelper.clearLocalContext();
+			}
+		}
+
+		@Override
+		protected void done() {
+			batch.completedTasks.add(this);
+		}
+	}
+
+	private static class SQLPoolThreadFactory implements ThreadFactory {
+		private AtomicInteger counter = new AtomicInteger(1);
+
+		private String threadNamePrefix;
+
+		public SQLPoolThreadFactory(String threadNamePrefix) {
+			this.threadNamePrefix = threadNamePrefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r);
+			t.setName(threadNamePrefix + counter.getAndIncrement());
+			t.setDaemon(true);
+
+			return t;
+		}
+	}
+}
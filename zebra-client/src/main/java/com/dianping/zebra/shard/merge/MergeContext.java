@@ -23,6 +23,7 @@ import java.util.*;
 import com.alibaba.druid.sql.ast.SQLObjectImpl;
 import com.alibaba.druid.sql.ast.SQLOrderBy;
 import com.alibaba.druid.sql.dialect.mysql.ast.statement.MySqlSelectQueryBlock;
+import com.dianping.zebra.shard.merge.orderby.OrderByComparator;
 import com.dianping.zebra.shard.router.RouterResult;
 
 public class MergeContext {
@@ -61,6 +62,10 @@ public class MergeContext {
 
 	private boolean canUseSplit = false;
 
+	private volatile OrderByComparator orderByComparator;
+
+	private volatile RowDataMeta rowDataMeta;
+
 	public MergeContext() {
 	}
 
@@ -127,6 +132,7 @@ public class MergeContext {
 
 	public void setColumnNameAliasMapping(Map<String, String> columnNameAliasMapping) {
 		this.columnNameAliasMapping = columnNameAliasMapping;
+		this.orderByComparator = null;
 	}
 
 	public SQLOrderBy getOrderBy() {
@@ -135,6 +141,34 @@ public class MergeContext {
 
 	public void setOrderBy(SQLOrderBy orderBy) {
 		this.orderBy = orderBy;
+		this.orderByComparator = null;
+	}
+
+	/**
+	 * 获取由orderby子句预编译得到的比较器，第一次调用时编译
+	 *
+	 * @return 如果没有orderby子句则返回null
+	 */
+	public OrderByComparator getOrderByComparator() {
+		if (orderBy == null) {
+			return null;
+		}
+
+		OrderByComparator comparator = orderByComparator;
+		if (comparator == null) {
+			comparator = new OrderByComparator(orderBy, columnNameAliasMapping);
+			orderByComparator = comparator;
+		}
+
+		return comparator;
+	}
+
+	public RowDataMeta getRowDataMeta() {
+		return rowDataMeta;
+	}
+
+	public void setRowDataMeta(RowDataMeta rowDataMeta) {
+		this.rowDataMeta = rowDataMeta;
 	}
 
 	public void increJoinCount() {
@@ -213,6 +247,13 @@ public class MergeContext {
 		this.aggregate = aggregate;
 	}
 
+	/**
+	 * 多库结果不需要排序、聚合和去重，可以直接依次返回
+	 */
+	public boolean isPassThrough() {
+		return orderBy == null && !aggregate && !distinct;
+	}
+
 	public boolean isOrderBySplitSql() {
 		return this.getOrderByCount() > 0 && (this.getLimit() != NO_LIMIT || this.offset != NO_OFFSET)
 		      && this.getOffset() != 0 && this.getJoinCount() == 0 && this.getUnionCount() == 0
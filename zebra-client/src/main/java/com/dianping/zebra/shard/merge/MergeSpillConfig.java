@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.shard.merge;
+
+/**
+ * <p>
+ * 合并结果时的内存上限和溢写目录，每个<tt>ShardDataSource</tt>一份
+ * </p>
+ * 内存按<tt>RowData.estimateSize</tt>估算，超过<tt>maxInMemoryBytes</tt>时把数据写到<tt>spillDirectory</tt>下的临时文件，
+ * 没有设置目录时使用系统的临时目录。
+ */
+public class MergeSpillConfig {
+
+	public static final long DEFAULT_MAX_IN_MEMORY_BYTES = 64L * 1024 * 1024;
+
+	public static final MergeSpillConfig DEFAULT = new MergeSpillConfig(DEFAULT_MAX_IN_MEMORY_BYTES, null);
+
+	private final long maxInMemoryBytes;
+
+	private final String spillDirectory;
+
+	public MergeSpillConfig(long maxInMemoryBytes, String spillDirectory) {
+		this.maxInMemoryBytes = maxInMemoryBytes;
+		this.spillDirectory = spillDirectory;
+	}
+
+	public long getMaxInMemoryBytes() {
+		return maxInMemoryBytes;
+	}
+
+	public String getSpillDirectory() {
+		return spillDirectory;
+	}
+}
@@ -19,39 +19,76 @@
 package com.dianping.zebra.shard.merge;
 
 import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 /**
  * 数据行<br>
- * 主要用于内存数据池
+ * 主要用于内存数据池<br>
+ * 列值按照<tt>RowDataMeta</tt>中的槽位(slot)保存，数值、定点数以及日期时间类型的列以<tt>long</tt>保存，
+ * <tt>ColumnData</tt>只在第一次按列读取时创建并缓存
  * 
  * @author Leo Liang
  * 
  */
 public class RowData implements Serializable {
 
-	private static final long			serialVersionUID	= -5705077289803105656L;
+	private static final long	serialVersionUID	= -5705077289803105657L;
 
-	private Map<String, ColumnData>		nameColumnMapping	= new HashMap<String, ColumnData>();
-	private Map<Integer, ColumnData>	indexColumnMapping	= new HashMap<Integer, ColumnData>();
-	private List<ColumnData>			columnDatas			= new ArrayList<ColumnData>();
-	private transient ResultSet			resultSet;
+	private static final long	NANOS_PER_SECOND	= 1000000000L;
 
-	public RowData(ResultSet resultSet) {
+	// 超过这个范围（约1677年到2262年之外）的Timestamp以原始对象保存
+	private static final long	MAX_TIMESTAMP_SECONDS	= Long.MAX_VALUE / NANOS_PER_SECOND - 1;
+
+	private long[]				primitives;
+
+	// 非数值类型的列值，以及聚合后类型发生变化的数值列
+	private Object[]			values;
+
+	private long[]				nulls;
+
+	private transient RowDataMeta	meta;
+
+	private transient ResultSet	resultSet;
+
+	private transient ColumnData[]	columnDatas;
+
+	private transient List<ColumnData>	columnDataList;
+
+	public RowData(ResultSet resultSet, RowDataMeta meta) {
 		this.resultSet = resultSet;
+		this.meta = meta;
+		this.primitives = new long[meta.getColumnCount()];
+		this.nulls = new long[(meta.getColumnCount() + 63) >>> 6];
 	}
 
 	public RowData(RowData row) {
 		this.resultSet = row.resultSet;
-		this.columnDatas = row.columnDatas;
-		this.indexColumnMapping = row.indexColumnMapping;
-		this.nameColumnMapping = row.nameColumnMapping;
+		this.meta = row.meta;
+		this.primitives = row.primitives.clone();
+		this.values = row.values == null ? null : row.values.clone();
+		this.nulls = row.nulls.clone();
+	}
+
+	public RowDataMeta getMeta() {
+		return meta;
+	}
+
+	/**
+	 * 反序列化后需要重新设置列信息
+	 * 
+	 * @param meta
+	 */
+	public void setMeta(RowDataMeta meta) {
+		this.meta = meta;
 	}
 
 	/**
@@ -61,6 +98,14 @@ public class RowData implements Serializable {
 		return resultSet;
 	}
 
+	/**
+	 * @param resultSet
+	 *           the resultSet to set
+	 */
+	public void setResultSet(ResultSet resultSet) {
+		this.resultSet = resultSet;
+	}
+
 	/**
 	 * @return the resultSetType
 	 */
@@ -97,42 +142,375 @@ public class RowData implements Serializable {
 		return resultSet.getConcurrency();
 	}
 
-	public ColumnData get(String colName) throws SQLException {
-		// 因为select * 的时候会根据数据库本身的一些配置导致colName为大写或者小写，所以以下为尝试方法
-		if (nameColumnMapping.containsKey(colName)) {
-			return nameColumnMapping.get(colName);
-		} else if (nameColumnMapping.containsKey(colName.toUpperCase())) {
-			return nameColumnMapping.get(colName.toUpperCase());
-		} else if (nameColumnMapping.containsKey(colName.toLowerCase())) {
-			return nameColumnMapping.get(colName.toLowerCase());
-		} else {
+	public int getColumnCount() {
+		return primitives.length;
+	}
+
+	public int getSlot(String colName) throws SQLException {
+		int slot = meta.getSlot(colName);
+		if (slot < 0) {
 			throw new SQLException("No column named : " + colName);
 		}
+		return slot;
 	}
 
-	public ColumnData get(int index) throws SQLException {
-		if (!indexColumnMapping.containsKey(index)) {
+	public int getSlot(int index) throws SQLException {
+		int slot = meta.getSlot(index);
+		if (slot < 0) {
 			throw new SQLException("No column index : " + index);
 		}
+		return slot;
+	}
+
+	public ColumnData get(String colName) throws SQLException {
+		return getColumnData(getSlot(colName));
+	}
 
-		return indexColumnMapping.get(index);
+	public ColumnData get(int index) throws SQLException {
+		return getColumnData(getSlot(index));
 	}
 
 	public int getIndexByName(String colName) throws SQLException {
-		if (!nameColumnMapping.containsKey(colName)) {
+		int slot = meta.getExactSlot(colName);
+		if (slot < 0) {
 			throw new SQLException("No column named : " + colName);
 		}
-		return nameColumnMapping.get(colName).getColumnIndex();
+		return meta.getColumnIndex(slot);
+	}
+
+	public boolean isWasNull(int index) throws SQLException {
+		return isNullAt(getSlot(index));
+	}
+
+	public boolean isWasNull(String colName) throws SQLException {
+		return isNullAt(getSlot(colName));
+	}
+
+	public Object getValue(int index) throws SQLException {
+		return getValueAt(getSlot(index));
 	}
 
-	public void addColumn(ColumnData col) {
-		columnDatas.add(col);
-		nameColumnMapping.put(col.getColumnName(), col);
-		indexColumnMapping.put(col.getColumnIndex(), col);
+	public Object getValue(String colName) throws SQLException {
+		return getValueAt(getSlot(colName));
 	}
 
+	/**
+	 * 以只读快照的形式返回所有列
+	 * 
+	 * @return
+	 */
 	public List<ColumnData> getColumnDatas() {
-		return columnDatas;
+		List<ColumnData> list = columnDataList;
+		if (list == null) {
+			for (int slot = 0; slot < primitives.length; slot++) {
+				getColumnData(slot);
+			}
+			list = Collections.unmodifiableList(Arrays.asList(columnDatas));
+			columnDataList = list;
+		}
+		return list;
+	}
+
+	public boolean isNullAt(int slot) {
+		return (nulls[slot >>> 6] & (1L << slot)) != 0;
+	}
+
+	/**
+	 * 该槽位的值是否以<tt>long</tt>的形式保存且不为null
+	 * 
+	 * @param slot
+	 * @return
+	 */
+	public byte getKindAt(int slot) {
+		return meta.getKind(slot);
+	}
+
+	/**
+	 * 定点数列的小数位数
+	 * 
+	 * @param slot
+	 * @return
+	 */
+	public int getScaleAt(int slot) {
+		return meta.getScale(slot);
+	}
+
+	public boolean isPrimitiveAt(int slot) {
+		return meta.getKind(slot) != RowDataMeta.KIND_OBJECT && !isNullAt(slot)
+		      && (values == null || values[slot] == null);
+	}
+
+	/**
+	 * 该槽位是否为以<tt>long</tt>保存的整型值
+	 * 
+	 * @param slot
+	 * @return
+	 */
+	public boolean isIntegralAt(int slot) {
+		byte kind = meta.getKind(slot);
+		return (kind == RowDataMeta.KIND_INT || kind == RowDataMeta.KIND_LONG || kind == RowDataMeta.KIND_SHORT || kind == RowDataMeta.KIND_BYTE)
+		      && isPrimitiveAt(slot);
+	}
+
+	/**
+	 * 该槽位是否为以<tt>long</tt>保存的整型或者浮点型值
+	 * 
+	 * @param slot
+	 * @return
+	 */
+	public boolean isNumericAt(int slot) {
+		byte kind = meta.getKind(slot);
+		return kind >= RowDataMeta.KIND_INT && kind <= RowDataMeta.KIND_FLOAT && isPrimitiveAt(slot);
+	}
+
+	/**
+	 * 只有在<tt>isPrimitiveAt</tt>返回true时才有意义，浮点型以<tt>Double.doubleToLongBits</tt>的形式保存
+	 * 
+	 * @param slot
+	 * @return
+	 */
+	public long getPrimitiveAt(int slot) {
+		return primitives[slot];
+	}
+
+	/**
+	 * 只有在<tt>isIntegralAt</tt>返回true时才有意义
+	 * 
+	 * @param slot
+	 * @return
+	 */
+	public long getLongAt(int slot) {
+		return primitives[slot];
+	}
+
+	/**
+	 * 只有在<tt>isNumericAt</tt>返回true时才有意义，整型转换为<tt>double</tt>
+	 * 
+	 * @param slot
+	 * @return
+	 */
+	public double getDoubleAt(int slot) {
+		byte kind = meta.getKind(slot);
+		if (kind == RowDataMeta.KIND_DOUBLE || kind == RowDataMeta.KIND_FLOAT) {
+			return Double.longBitsToDouble(primitives[slot]);
+		}
+		return primitives[slot];
+	}
+
+	public Object getValueAt(int slot) {
+		if (isNullAt(slot)) {
+			return null;
+		}
+		if (values != null && values[slot] != null) {
+			return values[slot];
+		}
+
+		long value = primitives[slot];
+		switch (meta.getKind(slot)) {
+		case RowDataMeta.KIND_INT:
+			return (int) value;
+		case RowDataMeta.KIND_LONG:
+			return value;
+		case RowDataMeta.KIND_SHORT:
+			return (short) value;
+		case RowDataMeta.KIND_BYTE:
+			return (byte) value;
+		case RowDataMeta.KIND_DOUBLE:
+			return Double.longBitsToDouble(value);
+		case RowDataMeta.KIND_FLOAT:
+			return (float) Double.longBitsToDouble(value);
+		case RowDataMeta.KIND_BOOLEAN:
+			return value != 0;
+		case RowDataMeta.KIND_DECIMAL:
+			return BigDecimal.valueOf(value, meta.getScale(slot));
+		case RowDataMeta.KIND_TIMESTAMP:
+			return decodeTimestamp(value);
+		case RowDataMeta.KIND_DATE:
+			return new java.sql.Date(value);
+		case RowDataMeta.KIND_TIME:
+			return new Time(value);
+		default:
+			return null;
+		}
+	}
+
+	public void setNullAt(int slot) {
+		nulls[slot >>> 6] |= (1L << slot);
+		primitives[slot] = 0;
+		if (values != null) {
+			values[slot] = null;
+		}
+		invalidate(slot);
+	}
+
+	public void setPrimitiveAt(int slot, long value) {
+		nulls[slot >>> 6] &= ~(1L << slot);
+		primitives[slot] = value;
+		if (values != null) {
+			values[slot] = null;
+		}
+		invalidate(slot);
+	}
+
+	public void setValueAt(int slot, Object value) {
+		if (value == null) {
+			setNullAt(slot);
+			return;
+		}
+
+		switch (meta.getKind(slot)) {
+		case RowDataMeta.KIND_INT:
+			if (value instanceof Integer) {
+				setPrimitiveAt(slot, (Integer) value);
+				return;
+			}
+			break;
+		case RowDataMeta.KIND_LONG:
+			if (value instanceof Long) {
+				setPrimitiveAt(slot, (Long) value);
+				return;
+			}
+			break;
+		case RowDataMeta.KIND_SHORT:
+			if (value instanceof Short) {
+				setPrimitiveAt(slot, (Short) value);
+				return;
+			}
+			break;
+		case RowDataMeta.KIND_BYTE:
+			if (value instanceof Byte) {
+				setPrimitiveAt(slot, (Byte) value);
+				return;
+			}
+			break;
+		case RowDataMeta.KIND_DOUBLE:
+			if (value instanceof Double) {
+				setPrimitiveAt(slot, Double.doubleToLongBits((Double) value));
+				return;
+			}
+			break;
+		case RowDataMeta.KIND_FLOAT:
+			if (value instanceof Float) {
+				setPrimitiveAt(slot, Double.doubleToLongBits((Float) value));
+				return;
+			}
+			break;
+		case RowDataMeta.KIND_BOOLEAN:
+			if (value instanceof Boolean) {
+				setPrimitiveAt(slot, ((Boolean) value) ? 1 : 0);
+				return;
+			}
+			break;
+		case RowDataMeta.KIND_DECIMAL:
+			if (value instanceof BigDecimal && ((BigDecimal) value).scale() == meta.getScale(slot)) {
+				BigInteger unscaled = ((BigDecimal) value).unscaledValue();
+				if (unscaled.bitLength() < 64) {
+					setPrimitiveAt(slot, unscaled.longValue());
+					return;
+				}
+			}
+			break;
+		case RowDataMeta.KIND_TIMESTAMP:
+			if (value.getClass() == Timestamp.class) {
+				Timestamp timestamp = (Timestamp) value;
+				long seconds = floorDiv(timestamp.getTime(), 1000);
+				if (seconds >= -MAX_TIMESTAMP_SECONDS && seconds <= MAX_TIMESTAMP_SECONDS) {
+					setPrimitiveAt(slot, seconds * NANOS_PER_SECOND + timestamp.getNanos());
+					return;
+				}
+			}
+			break;
+		case RowDataMeta.KIND_DATE:
+			if (value.getClass() == java.sql.Date.class) {
+				setPrimitiveAt(slot, ((java.sql.Date) value).getTime());
+				return;
+			}
+			break;
+		case RowDataMeta.KIND_TIME:
+			if (value.getClass() == Time.class) {
+				setPrimitiveAt(slot, ((Time) value).getTime());
+				return;
+			}
+			break;
+		default:
+			break;
+		}
+
+		// 类型与列信息不一致（比如聚合后类型发生了变化），直接保存对象
+		if (values == null) {
+			values = new Object[primitives.length];
+		}
+		nulls[slot >>> 6] &= ~(1L << slot);
+		primitives[slot] = 0;
+		values[slot] = value;
+		invalidate(slot);
+	}
+
+	private void invalidate(int slot) {
+		if (columnDatas != null) {
+			columnDatas[slot] = null;
+			columnDataList = null;
+		}
+	}
+
+	private static Timestamp decodeTimestamp(long value) {
+		long seconds = floorDiv(value, NANOS_PER_SECOND);
+		Timestamp timestamp = new Timestamp(seconds * 1000);
+		timestamp.setNanos((int) (value - seconds * NANOS_PER_SECOND));
+		return timestamp;
+	}
+
+	private static long floorDiv(long x, long y) {
+		long result = x / y;
+		if ((x % y != 0) && ((x ^ y) < 0)) {
+			result--;
+		}
+		return result;
+	}
+
+	/**
+	 * 估算该行占用的堆内存字节数，用于合并时的内存预算，不要求精确
+	 */
+	public long estimateSize() {
+		int columns = primitives.length;
+		long size = 64 + 8L * columns + 8L * nulls.length;
+
+		if (values != null) {
+			size += 16 + 8L * columns;
+			for (Object value : values) {
+				size += estimateSize(value);
+			}
+		}
+		return size;
+	}
+
+	private static long estimateSize(Object value) {
+		if (value == null) {
+			return 0;
+		} else if (value instanceof String) {
+			return 40 + 2L * ((String) value).length();
+		} else if (value instanceof byte[]) {
+			return 16 + ((byte[]) value).length;
+		} else if (value instanceof BigDecimal) {
+			return 72 + ((BigDecimal) value).unscaledValue().bitLength() / 8;
+		} else {
+			return 32;
+		}
+	}
+
+	private ColumnData getColumnData(int slot) {
+		if (columnDatas == null) {
+			columnDatas = new ColumnData[primitives.length];
+		}
+
+		ColumnData columnData = columnDatas[slot];
+		if (columnData == null) {
+			Object value = getValueAt(slot);
+			columnData = new ColumnData(meta.getColumnIndex(slot), meta.getColumnName(slot), value, value == null ? null
+			      : value.getClass(), null, isNullAt(slot));
+			columnDatas[slot] = columnData;
+		}
+		return columnData;
 	}
 
 	/*
@@ -142,12 +520,51 @@ public class RowData implements Serializable {
 	 */
 	@Override
 	public int hashCode() {
-		final int prime = 31;
 		int result = 1;
-		result = prime * result + ((columnDatas == null) ? 0 : columnDatas.hashCode());
+		for (int slot = 0; slot < primitives.length; slot++) {
+			int hash;
+			if (isNullAt(slot)) {
+				hash = 0;
+			} else if (values != null && values[slot] != null) {
+				hash = values[slot].hashCode();
+			} else {
+				hash = primitiveHashCode(slot);
+			}
+			result = 31 * result + hash;
+		}
 		return result;
 	}
 
+	// 与对应包装类型的hashCode保持一致，保证与equals的语义相同
+	private int primitiveHashCode(int slot) {
+		long value = primitives[slot];
+		switch (meta.getKind(slot)) {
+		case RowDataMeta.KIND_INT:
+		case RowDataMeta.KIND_SHORT:
+		case RowDataMeta.KIND_BYTE:
+			return (int) value;
+		case RowDataMeta.KIND_LONG:
+		case RowDataMeta.KIND_DOUBLE:
+			return (int) (value ^ (value >>> 32));
+		case RowDataMeta.KIND_FLOAT:
+			return Float.floatToIntBits((float) Double.longBitsToDouble(value));
+		case RowDataMeta.KIND_BOOLEAN:
+			return value != 0 ? 1231 : 1237;
+		case RowDataMeta.KIND_TIMESTAMP:
+			long seconds = floorDiv(value, NANOS_PER_SECOND);
+			long millis = seconds * 1000 + (value - seconds * NANOS_PER_SECOND) / 1000000;
+			return (int) (millis ^ (millis >>> 32));
+		case RowDataMeta.KIND_DATE:
+		case RowDataMeta.KIND_TIME:
+			return (int) (value ^ (value >>> 32));
+		case RowDataMeta.KIND_DECIMAL:
+			// 小数位数相同的定点数总是以long保存，不会与以对象保存的值相等，不需要与BigDecimal.hashCode一致
+			return 31 * (int) (value ^ (value >>> 32)) + meta.getScale(slot);
+		default:
+			return 0;
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -162,16 +579,30 @@ public class RowData implements Serializable {
 		if (getClass() != obj.getClass())
 			return false;
 		RowData other = (RowData) obj;
-		if (columnDatas == null) {
-			if (other.columnDatas != null)
-				return false;
-		} else if (!columnDatas.equals(other.columnDatas))
+		if (primitives.length != other.primitives.length)
 			return false;
+		if (!Arrays.equals(nulls, other.nulls))
+			return false;
+		for (int slot = 0; slot < primitives.length; slot++) {
+			if (isPrimitiveAt(slot) && other.isPrimitiveAt(slot)
+			      && meta.getKind(slot) == other.meta.getKind(slot) && meta.getScale(slot) == other.meta.getScale(slot)) {
+				if (primitives[slot] != other.primitives[slot])
+					return false;
+			} else {
+				Object value = getValueAt(slot);
+				Object otherValue = other.getValueAt(slot);
+				if (value == null) {
+					if (otherValue != null)
+						return false;
+				} else if (!value.equals(otherValue))
+					return false;
+			}
+		}
 		return true;
 	}
 
 	@Override
 	public String toString() {
-		return "RowData [columnDatas=" + columnDatas + "]";
+		return "RowData [columnDatas=" + getColumnDatas() + "]";
 	}
 }
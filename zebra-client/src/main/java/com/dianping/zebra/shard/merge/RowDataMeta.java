@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.shard.merge;
+
+import java.math.BigDecimal;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * 同一个<tt>ResultSet</tt>产生的所有<tt>RowData</tt>共享的列信息
+ * </p>
+ * 列名、列下标以及列的存储类型只在<tt>RowDataReader</tt>构造时解析一次，<tt>RowData</tt>中只按槽位(slot)保存列值。
+ * 整型、浮点型、布尔型、定点数以及日期时间类型的列以<tt>long</tt>保存，其余类型的列保存原始对象。
+ * 定点数保存去掉小数点后的值，小数位数取自列信息；<tt>Timestamp</tt>保存距离1970年的纳秒数，<tt>Date</tt>和<tt>Time</tt>保存毫秒数。
+ */
+public final class RowDataMeta {
+
+	public static final byte KIND_OBJECT = 0;
+
+	public static final byte KIND_INT = 1;
+
+	public static final byte KIND_LONG = 2;
+
+	public static final byte KIND_SHORT = 3;
+
+	public static final byte KIND_BYTE = 4;
+
+	public static final byte KIND_DOUBLE = 5;
+
+	public static final byte KIND_FLOAT = 6;
+
+	public static final byte KIND_BOOLEAN = 7;
+
+	public static final byte KIND_DECIMAL = 8;
+
+	public static final byte KIND_TIMESTAMP = 9;
+
+	public static final byte KIND_DATE = 10;
+
+	public static final byte KIND_TIME = 11;
+
+	private final String[] columnNames;
+
+	private final int[] columnIndexes;
+
+	private final byte[] kinds;
+
+	private final int[] scales;
+
+	private final Map<String, Integer> nameSlotMapping;
+
+	private final int[] indexSlotMapping;
+
+	public RowDataMeta(String[] columnNames, int[] columnIndexes, byte[] kinds) {
+		this(columnNames, columnIndexes, kinds, new int[columnNames.length]);
+	}
+
+	public RowDataMeta(String[] columnNames, int[] columnIndexes, byte[] kinds, int[] scales) {
+		this.columnNames = columnNames;
+		this.columnIndexes = columnIndexes;
+		this.kinds = kinds;
+		this.scales = scales;
+		this.nameSlotMapping = new HashMap<String, Integer>();
+
+		int maxColumnIndex = 0;
+		for (int slot = 0; slot < columnNames.length; slot++) {
+			nameSlotMapping.put(columnNames[slot], slot);
+			maxColumnIndex = Math.max(maxColumnIndex, columnIndexes[slot]);
+		}
+
+		this.indexSlotMapping = new int[maxColumnIndex + 1];
+		for (int i = 0; i < indexSlotMapping.length; i++) {
+			indexSlotMapping[i] = -1;
+		}
+		for (int slot = 0; slot < columnIndexes.length; slot++) {
+			indexSlotMapping[columnIndexes[slot]] = slot;
+		}
+	}
+
+	public static byte getKind(ResultSetMetaData metaData, int columnIndex) throws SQLException {
+		String className = metaData.getColumnClassName(columnIndex);
+
+		if (Integer.class.getName().equals(className)) {
+			return KIND_INT;
+		} else if (Long.class.getName().equals(className)) {
+			return KIND_LONG;
+		} else if (Short.class.getName().equals(className)) {
+			return KIND_SHORT;
+		} else if (Byte.class.getName().equals(className)) {
+			return KIND_BYTE;
+		} else if (Double.class.getName().equals(className)) {
+			return KIND_DOUBLE;
+		} else if (Float.class.getName().equals(className)) {
+			return KIND_FLOAT;
+		} else if (Boolean.class.getName().equals(className)) {
+			return KIND_BOOLEAN;
+		} else if (BigDecimal.class.getName().equals(className)) {
+			return KIND_DECIMAL;
+		} else if (Timestamp.class.getName().equals(className)) {
+			return KIND_TIMESTAMP;
+		} else if (java.sql.Date.class.getName().equals(className)) {
+			return KIND_DATE;
+		} else if (Time.class.getName().equals(className)) {
+			return KIND_TIME;
+		} else {
+			return KIND_OBJECT;
+		}
+	}
+
+	/**
+	 * 判断列信息是否与给定的列名、列下标以及存储类型完全一致，一致时多个<tt>ResultSet</tt>可以共享同一个<tt>RowDataMeta</tt>
+	 *
+	 * @param columnNames
+	 * @param columnIndexes
+	 * @param kinds
+	 * @param scales
+	 * @return
+	 */
+	public boolean isSameLayout(String[] columnNames, int[] columnIndexes, byte[] kinds, int[] scales) {
+		return Arrays.equals(this.columnNames, columnNames) && Arrays.equals(this.columnIndexes, columnIndexes)
+		      && Arrays.equals(this.kinds, kinds) && Arrays.equals(this.scales, scales);
+	}
+
+	public int getColumnCount() {
+		return columnNames.length;
+	}
+
+	public String getColumnName(int slot) {
+		return columnNames[slot];
+	}
+
+	public int getColumnIndex(int slot) {
+		return columnIndexes[slot];
+	}
+
+	public byte getKind(int slot) {
+		return kinds[slot];
+	}
+
+	/**
+	 * 定点数列的小数位数，其余类型的列为0
+	 *
+	 * @param slot
+	 * @return
+	 */
+	public int getScale(int slot) {
+		return scales[slot];
+	}
+
+	/**
+	 * 根据列名获取槽位
+	 *
+	 * @param colName
+	 * @return 槽位，如果不存在该列则返回-1
+	 */
+	public int getSlot(String colName) {
+		// 因为select * 的时候会根据数据库本身的一些配置导致colName为大写或者小写，所以以下为尝试方法
+		Integer slot = nameSlotMapping.get(colName);
+		if (slot == null) {
+			slot = nameSlotMapping.get(colName.toUpperCase());
+		}
+		if (slot == null) {
+			slot = nameSlotMapping.get(colName.toLowerCase());
+		}
+
+		return slot == null ? -1 : slot;
+	}
+
+	/**
+	 * 根据列名精确获取槽位，不做大小写尝试
+	 *
+	 * @param colName
+	 * @return 槽位，如果不存在该列则返回-1
+	 */
+	public int getExactSlot(String colName) {
+		Integer slot = nameSlotMapping.get(colName);
+
+		return slot == null ? -1 : slot;
+	}
+
+	/**
+	 * 根据<tt>ResultSet</tt>中的列下标获取槽位
+	 *
+	 * @param columnIndex
+	 * @return 槽位，如果不存在该列则返回-1
+	 */
+	public int getSlot(int columnIndex) {
+		if (columnIndex < 0 || columnIndex >= indexSlotMapping.length) {
+			return -1;
+		}
+
+		return indexSlotMapping[columnIndex];
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.shard.merge;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.alibaba.druid.sql.ast.SQLObjectImpl;
+import com.alibaba.druid.sql.ast.expr.SQLAllColumnExpr;
+import com.alibaba.druid.sql.ast.expr.SQLIdentifierExpr;
+import com.alibaba.druid.sql.ast.expr.SQLPropertyExpr;
+import com.alibaba.druid.sql.ast.statement.SQLSelectItem;
+
+/**
+ * <p>
+ * 把真实<tt>ResultSet</tt>逐行转换成<tt>RowData</tt>，需要读取的列以及列的下标在构造时只解析一次
+ * </p>
+ */
+public class RowDataReader {
+
+	private final ResultSet rs;
+
+	private final RowDataMeta meta;
+
+	private final int[] columnIndexes;
+
+	private final byte[] kinds;
+
+	private final int[] scales;
+
+	public RowDataReader(ResultSet rs, MergeContext mergeContext) throws SQLException {
+		this.rs = rs;
+
+		Map<String, SQLObjectImpl> selectItemMap = resultSetColumnWapper(rs, mergeContext);
+		String[] columnNames = new String[selectItemMap.size()];
+		this.columnIndexes = new int[selectItemMap.size()];
+		this.kinds = new byte[selectItemMap.size()];
+		this.scales = new int[selectItemMap.size()];
+
+		ResultSetMetaData metaData = rs.getMetaData();
+		int i = 0;
+		for (String columnName : selectItemMap.keySet()) {
+			columnNames[i] = columnName;
+			columnIndexes[i] = rs.findColumn(columnName);
+			kinds[i] = RowDataMeta.getKind(metaData, columnIndexes[i]);
+			if (kinds[i] == RowDataMeta.KIND_DECIMAL) {
+				scales[i] = metaData.getScale(columnIndexes[i]);
+			}
+			i++;
+		}
+
+		// 同一个查询的各个ResultSet列信息一致时共享同一个RowDataMeta，便于比较器等按列信息缓存的组件命中缓存
+		RowDataMeta sharedMeta = mergeContext.getRowDataMeta();
+		if (sharedMeta != null && sharedMeta.isSameLayout(columnNames, columnIndexes, kinds, scales)) {
+			this.meta = sharedMeta;
+		} else {
+			this.meta = new RowDataMeta(columnNames, columnIndexes, kinds, scales);
+			mergeContext.setRowDataMeta(meta);
+		}
+	}
+
+	public RowDataMeta getMeta() {
+		return meta;
+	}
+
+	public ResultSet getResultSet() {
+		return rs;
+	}
+
+	/**
+	 * 读取下一行数据
+	 *
+	 * @return 下一行数据，如果<tt>ResultSet</tt>已经读完则返回<tt>null</tt>
+	 * @throws SQLException
+	 */
+	public RowData read() throws SQLException {
+		if (!rs.next()) {
+			return null;
+		}
+
+		RowData row = new RowData(rs, meta);
+		for (int slot = 0; slot < columnIndexes.length; slot++) {
+			int columnIndex = columnIndexes[slot];
+			long value;
+
+			switch (kinds[slot]) {
+			case RowDataMeta.KIND_INT:
+				value = rs.getInt(columnIndex);
+				break;
+			case RowDataMeta.KIND_LONG:
+				value = rs.getLong(columnIndex);
+				break;
+			case RowDataMeta.KIND_SHORT:
+				value = rs.getShort(columnIndex);
+				break;
+			case RowDataMeta.KIND_BYTE:
+				value = rs.getByte(columnIndex);
+				break;
+			case RowDataMeta.KIND_DOUBLE:
+				value = Double.doubleToLongBits(rs.getDouble(columnIndex));
+				break;
+			case RowDataMeta.KIND_FLOAT:
+				value = Double.doubleToLongBits(rs.getFloat(columnIndex));
+				break;
+			case RowDataMeta.KIND_BOOLEAN:
+				value = rs.getBoolean(columnIndex) ? 1 : 0;
+				break;
+			case RowDataMeta.KIND_DECIMAL:
+				// 小数位数与列信息不一致或者超出long的范围时保存原始对象
+				row.setValueAt(slot, rs.getBigDecimal(columnIndex));
+				continue;
+			case RowDataMeta.KIND_TIMESTAMP:
+				row.setValueAt(slot, rs.getTimestamp(columnIndex));
+				continue;
+			case RowDataMeta.KIND_DATE:
+				row.setValueAt(slot, rs.getDate(columnIndex));
+				continue;
+			case RowDataMeta.KIND_TIME:
+				row.setValueAt(slot, rs.getTime(columnIndex));
+				continue;
+			default:
+				row.setValueAt(slot, rs.getObject(columnIndex));
+				if (rs.wasNull()) {
+					row.setNullAt(slot);
+				}
+				continue;
+			}
+
+			if (rs.wasNull()) {
+				row.setNullAt(slot);
+			} else {
+				row.setPrimitiveAt(slot, value);
+			}
+		}
+
+		return row;
+	}
+
+	private static Map<String, SQLObjectImpl> resultSetColumnWapper(ResultSet rs, MergeContext mergeContext)
+			throws SQLException {
+		boolean isSQLAllColumnExpr = false;
+
+		for (SQLObjectImpl item : mergeContext.getSelectItemMap().values()) {
+			if(item instanceof SQLSelectItem) {
+				if (((SQLSelectItem)item).getExpr() instanceof SQLAllColumnExpr) {
+					isSQLAllColumnExpr = true;
+				} else if (((SQLSelectItem)item).getExpr() instanceof SQLPropertyExpr && "*".equals(((SQLPropertyExpr) ((SQLSelectItem)item).getExpr()).getName())) {
+					isSQLAllColumnExpr = true;
+				}
+			}
+			break;
+		}
+
+		if (isSQLAllColumnExpr) {
+			Map<String, SQLObjectImpl> selectItemMap = new HashMap<String, SQLObjectImpl>();
+			final ResultSetMetaData metaData = rs.getMetaData();
+			final int columnCount = metaData.getColumnCount();
+
+			for (int i = 1; i <= columnCount; i++) {
+				String columnLabel = metaData.getColumnLabel(i);
+				SQLIdentifierExpr expr = new SQLIdentifierExpr(columnLabel);
+				SQLSelectItem item = new SQLSelectItem(expr, columnLabel);
+				selectItemMap.put(columnLabel, item);
+			}
+
+			return selectItemMap;
+		} else {
+			return mergeContext.getSelectItemMap();
+		}
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.shard.merge;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import com.dianping.zebra.log.Logger;
+import com.dianping.zebra.log.LoggerFactory;
+
+/**
+ * <p>
+ * 溢写到本地临时文件的一组<tt>RowData</tt>
+ * </p>
+ * 先顺序写入，<tt>finish</tt>之后可以按写入的顺序读回；读回的行需要重新设置<tt>ResultSet</tt>和列信息。
+ */
+public class RowDataSpillFile {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RowDataSpillFile.class);
+
+	private Path path;
+
+	private ObjectOutputStream out;
+
+	private int count;
+
+	public RowDataSpillFile(String directory) throws IOException {
+		this.path = directory == null ? Files.createTempFile("zebra-merge-", ".spill") : Files.createTempFile(
+		      Paths.get(directory), "zebra-merge-", ".spill");
+		this.out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+	}
+
+	public void write(RowData row) throws IOException {
+		out.writeObject(row);
+		// 避免ObjectOutputStream持有所有写出对象的引用
+		out.reset();
+		count++;
+	}
+
+	public void finish() throws IOException {
+		if (out != null) {
+			out.close();
+			out = null;
+		}
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public Reader openReader(ResultSet resultSet, RowDataMeta meta) throws IOException {
+		finish();
+		return new Reader(new ObjectInputStream(new BufferedInputStream(Files.newInputStream(path))), resultSet, meta);
+	}
+
+	public void delete() {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException ignore) {
+			}
+			out = null;
+		}
+
+		if (path != null) {
+			try {
+				Files.deleteIfExists(path);
+			} catch (IOException e) {
+				LOGGER.warn("delete merge spill file failed: " + path, e);
+			}
+			path = null;
+		}
+	}
+
+	public class Reader implements RowDataStream {
+
+		private final ObjectInputStream in;
+
+		private final ResultSet resultSet;
+
+		private final RowDataMeta meta;
+
+		private int read;
+
+		private Reader(ObjectInputStream in, ResultSet resultSet, RowDataMeta meta) {
+			this.in = in;
+			this.resultSet = resultSet;
+			this.meta = meta;
+		}
+
+		@Override
+		public RowData next() throws SQLException {
+			if (read >= count) {
+				return null;
+			}
+
+			try {
+				RowData row = (RowData) in.readObject();
+				row.setResultSet(resultSet);
+				row.setMeta(meta);
+				read++;
+				return row;
+			} catch (IOException e) {
+				throw new SQLException("Load merge data from disk failed.", e);
+			} catch (ClassNotFoundException e) {
+				throw new SQLException("Load merge data from disk failed.", e);
+			}
+		}
+
+		@Override
+		public void close() {
+			try {
+				in.close();
+			} catch (IOException ignore) {
+			}
+		}
+	}
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.shard.merge;
+
+import java.sql.SQLException;
+
+/**
+ * <p>
+ * 逐行产出合并结果的数据流，用于替代一次性物化到内存的<tt>List&lt;RowData&gt;</tt>
+ * </p>
+ */
+public interface RowDataStream {
+
+	/**
+	 * 取出下一行数据
+	 *
+	 * @return 下一行数据，如果没有更多数据则返回<tt>null</tt>
+	 * @throws SQLException
+	 */
+	public RowData next() throws SQLException;
+
+	/**
+	 * 释放数据流占用的资源，比如临时文件
+	 */
+	public void close();
+
+}
@@ -42,6 +42,7 @@ import java.sql.Time;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -54,12 +55,14 @@ import com.dianping.zebra.shard.jdbc.unsupport.UnsupportedShardResultSet;
  * <ol>
  * <li>由若干个<tt>ResultSet</tt>简单串联组成的复合<tt>ResultSet</tt> ，这种情况通常不需要Zebra进行数据处理（没有跨表跨库orderby并且没有跨库跨表聚合函数列存在）。</li>
  * <li>由若干个<tt>ResultSet</tt>中的所有数据经过全局排序以及数据合并（主要针对跨库跨表的全局聚合函数）而得到的 <tt>List</tt>组成。这种情况的数据池称作内存数据池</li>
+ * <li>由若干个已经各自有序的<tt>ResultSet</tt>经过多路归并而逐行得到的<tt>RowDataStream</tt>组成（跨库跨表orderby但没有聚合函数和distinct），这种情况只在内存中保留每个<tt>ResultSet</tt>的当前行。</li>
  * </ol>
  * 在遍历数据的时候，<br>
  * 对于第一种情况，我们只要简单的按照顺序遍历每一个<tt>ResultSet</tt>并且调用具体的<tt>ResultSet</tt>方法即可。<br>
  * 对于第二种情况，我们需要遍历<tt>List</tt>，同时进行必要的数据类型转换。<br>
  * <p/>
  * 数据池支持limit子句的，通过设定对应的<tt>skip</tt>，<tt>max</tt>属性并调用<tt>procLimit</tt> 方法以调整数据池的初始状态。<br>
+ * 第一种情况下设置了<tt>interleaved</tt>时，轮流从每一个<tt>ResultSet</tt>读取一行，读满<tt>max</tt>行后取消并关闭其余的<tt>ResultSet</tt>。<br>
  *
  * @author Leo Liang
  */
@@ -69,6 +72,10 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	protected List<RowData> memoryData;
 
+	protected RowDataStream streamData;
+
+	protected RowData currentRow;
+
 	protected boolean inMemory = false;
 
 	protected int resultSetIndex = 0;
@@ -79,6 +86,10 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	protected int max = MergeContext.NO_LIMIT;
 
+	protected boolean interleaved = false;
+
+	private LinkedList<Integer> activeResultSetIndexes;
+
 	private boolean wasNull = false;
 
 	private ResultSetMetaData memoryResultSetMetaData;			// for getMetaData bug when procLimit return 0 rows
@@ -95,8 +106,14 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 		rowNum++;
 		if (!inMemory) {
 			if (max != MergeContext.NO_LIMIT && rowNum > max) {
+				if (interleaved) {
+					cancelActiveResultSets();
+				}
 				return false;
 			}
+			if (interleaved) {
+				return nextInterleaved();
+			}
 			if (resultSets.size() > 0) {
 				if (resultSetIndex >= resultSets.size()) {
 					return false;
@@ -118,9 +135,64 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 			} else {
 				return false;
 			}
+		} else if (streamData != null) {
+			if (max != MergeContext.NO_LIMIT && rowNum > max) {
+				currentRow = null;
+				return false;
+			}
+			currentRow = streamData.next();
+			return currentRow != null;
 		} else {
-			return rowNum - 1 < memoryData.size();
+			currentRow = rowNum - 1 < memoryData.size() ? memoryData.get(rowNum - 1) : null;
+			return currentRow != null;
+		}
+	}
+
+	private LinkedList<Integer> getActiveResultSetIndexes() {
+		if (activeResultSetIndexes == null) {
+			activeResultSetIndexes = new LinkedList<Integer>();
+			for (int i = 0; i < resultSets.size(); i++) {
+				activeResultSetIndexes.add(i);
+			}
+		}
+		return activeResultSetIndexes;
+	}
+
+	private boolean nextInterleaved() throws SQLException {
+		LinkedList<Integer> activeResultSetIndexes = getActiveResultSetIndexes();
+		while (!activeResultSetIndexes.isEmpty()) {
+			int index = activeResultSetIndexes.removeFirst();
+			if (resultSets.get(index).next()) {
+				activeResultSetIndexes.addLast(index);
+				resultSetIndex = index;
+				return true;
+			}
+		}
+
+		resultSetIndex = resultSets.size();
+		return false;
+	}
+
+	/**
+	 * 已经读满max行，取消还没有读完的查询，避免关闭时继续读取剩余的数据
+	 */
+	private void cancelActiveResultSets() {
+		LinkedList<Integer> activeResultSetIndexes = getActiveResultSetIndexes();
+		for (Integer index : activeResultSetIndexes) {
+			ResultSet rs = resultSets.get(index);
+			try {
+				Statement stmt = rs.getStatement();
+				if (stmt != null) {
+					stmt.cancel();
+				}
+			} catch (SQLException ignore) {
+			}
+			try {
+				rs.close();
+			} catch (SQLException ignore) {
+			}
 		}
+		activeResultSetIndexes.clear();
 	}
 
 	/**
@@ -153,6 +225,14 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 		this.max = max;
 	}
 
+	public boolean isInterleaved() {
+		return interleaved;
+	}
+
+	public void setInterleaved(boolean interleaved) {
+		this.interleaved = interleaved;
+	}
+
 	/**
 	 * 设定内存数据(<tt>List</tt>)
 	 *
@@ -164,6 +244,17 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 		this.memoryData = memoryData;
 	}
 
+	/**
+	 * 设定流式数据，数据在调用<tt>next</tt>时才逐行从<tt>RowDataStream</tt>中取出
+	 *
+	 * @param streamData
+	 *           the streamData to set
+	 */
+	public void setStreamData(RowDataStream streamData) {
+		this.inMemory = true;
+		this.streamData = streamData;
+	}
+
 	/**
 	 * 是否内存数据池
 	 *
@@ -185,7 +276,13 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 	 * @throws java.sql.SQLException
 	 */
 	public void procLimit() throws SQLException {
-		if (inMemory) {
+		if (inMemory && streamData != null) {
+			for (int i = 0; i < skip; i++) {
+				if (streamData.next() == null) {
+					break;
+				}
+			}
+		} else if (inMemory) {
 			int fromIndex = skip == MergeContext.NO_OFFSET ? 0 : skip;
 			if (fromIndex >= memoryData.size()) {
 				if (this.memoryData.size() > 0) {
@@ -200,6 +297,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 			List<RowData> subDataList = memoryData.subList(fromIndex, toIndex);
 
 			this.memoryData = new ArrayList<RowData>(subDataList);
+		} else if (interleaved) {
+			for (int i = 0; i < skip; i++) {
+				if (!nextInterleaved()) {
+					break;
+				}
+			}
 		} else {
 			if (skip > 0) {
 				int rowSkipped = 0;
@@ -227,9 +330,15 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 		if (inMemory && this.memoryData != null) {
 			this.memoryData.clear();
 		}
+		if (this.streamData != null) {
+			this.streamData.close();
+			this.streamData = null;
+		}
+		this.currentRow = null;
 		this.inMemory = false;
 		this.resultSetIndex = 0;
 		this.rowNum = 0;
+		this.activeResultSetIndexes = null;
 	}
 
 	/**
@@ -243,7 +352,7 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public int findColumn(String columnName) throws SQLException {
 		if (inMemory) {
-			return memoryData.get(rowNum - 1).getIndexByName(columnName);
+			return currentRow.getIndexByName(columnName);
 		} else {
 			return resultSets.get(resultSetIndex).findColumn(columnName);
 		}
@@ -251,12 +360,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public Array getArray(int columnIndex) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
+			wasNull = currentRow.isWasNull(columnIndex);
 
 			if (wasNull) {
 				return null;
 			} else {
-				return (Array) memoryData.get(rowNum - 1).get(columnIndex).getValue();
+				return (Array) currentRow.getValue(columnIndex);
 			}
 		} else {
 			return resultSets.get(resultSetIndex).getArray(columnIndex);
@@ -265,12 +374,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public Array getArray(String columnName) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
+			wasNull = currentRow.isWasNull(columnName);
 
 			if (wasNull) {
 				return null;
 			} else {
-				return (Array) memoryData.get(rowNum - 1).get(columnName).getValue();
+				return (Array) currentRow.getValue(columnName);
 			}
 		} else {
 			return resultSets.get(resultSetIndex).getArray(columnName);
@@ -279,12 +388,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public InputStream getAsciiStream(int columnIndex) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
+			wasNull = currentRow.isWasNull(columnIndex);
 
 			if (wasNull) {
 				return null;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnIndex).getValue();
+				Object value = currentRow.getValue(columnIndex);
 				if (value != null) {
 					return new ByteArrayInputStream((byte[]) value);
 				}
@@ -297,12 +406,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public InputStream getAsciiStream(String columnName) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
+			wasNull = currentRow.isWasNull(columnName);
 
 			if (wasNull) {
 				return null;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnName).getValue();
+				Object value = currentRow.getValue(columnName);
 				if (value != null) {
 					return new ByteArrayInputStream((byte[]) value);
 				}
@@ -315,12 +424,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public BigDecimal getBigDecimal(int columnIndex) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
+			wasNull = currentRow.isWasNull(columnIndex);
 
 			if (wasNull) {
 				return null;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnIndex).getValue();
+				Object value = currentRow.getValue(columnIndex);
 				if (value instanceof BigDecimal) {
 					return (BigDecimal) value;
 				} else {
@@ -334,12 +443,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public BigDecimal getBigDecimal(String columnName) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
+			wasNull = currentRow.isWasNull(columnName);
 
 			if (wasNull) {
 				return null;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnName).getValue();
+				Object value = currentRow.getValue(columnName);
 				if (value instanceof BigDecimal) {
 					return (BigDecimal) value;
 				} else {
@@ -354,12 +463,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 	@SuppressWarnings("deprecation")
 	public BigDecimal getBigDecimal(int columnIndex, int scale) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
+			wasNull = currentRow.isWasNull(columnIndex);
 
 			if (wasNull) {
 				return null;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnIndex).getValue();
+				Object value = currentRow.getValue(columnIndex);
 				if (value instanceof BigDecimal) {
 					return ((BigDecimal) value).setScale(scale);
 				} else {
@@ -374,12 +483,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 	@SuppressWarnings("deprecation")
 	public BigDecimal getBigDecimal(String columnName, int scale) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
+			wasNull = currentRow.isWasNull(columnName);
 
 			if (wasNull) {
 				return null;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnName).getValue();
+				Object value = currentRow.getValue(columnName);
 				if (value instanceof BigDecimal) {
 					return ((BigDecimal) value).setScale(scale);
 				} else {
@@ -393,12 +502,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public InputStream getBinaryStream(int columnIndex) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
+			wasNull = currentRow.isWasNull(columnIndex);
 
 			if (wasNull) {
 				return null;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnIndex).getValue();
+				Object value = currentRow.getValue(columnIndex);
 				if (value != null) {
 					return new ByteArrayInputStream((byte[]) value);
 				}
@@ -412,12 +521,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public InputStream getBinaryStream(String columnName) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
+			wasNull = currentRow.isWasNull(columnName);
 
 			if (wasNull) {
 				return null;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnName).getValue();
+				Object value = currentRow.getValue(columnName);
 				if (value != null) {
 					return new ByteArrayInputStream((byte[]) value);
 				}
@@ -431,12 +540,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public Blob getBlob(int columnIndex) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
+			wasNull = currentRow.isWasNull(columnIndex);
 
 			if (wasNull) {
 				return null;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnIndex).getValue();
+				Object value = currentRow.getValue(columnIndex);
 				return new com.dianping.zebra.shard.resultset.Blob((byte[]) value);
 			}
 		} else {
@@ -446,12 +555,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public Blob getBlob(String columnName) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
+			wasNull = currentRow.isWasNull(columnName);
 
 			if (wasNull) {
 				return null;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnName).getValue();
+				Object value = currentRow.getValue(columnName);
 				return new com.dianping.zebra.shard.resultset.Blob((byte[]) value);
 			}
 		} else {
@@ -461,12 +570,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public boolean getBoolean(int columnIndex) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
+			wasNull = currentRow.isWasNull(columnIndex);
 
 			if (wasNull) {
 				return false;
 			} else {
-				Object result = memoryData.get(rowNum - 1).get(columnIndex).getValue();
+				Object result = currentRow.getValue(columnIndex);
 
 				if (result instanceof Boolean) {
 					return (Boolean) result;
@@ -488,12 +597,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public boolean getBoolean(String columnName) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
+			wasNull = currentRow.isWasNull(columnName);
 
 			if (wasNull) {
 				return false;
 			} else {
-				Object result = memoryData.get(rowNum - 1).get(columnName).getValue();
+				Object result = currentRow.getValue(columnName);
 
 				if (result instanceof Boolean) {
 					return (Boolean) result;
@@ -515,12 +624,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public byte getByte(int columnIndex) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
+			wasNull = currentRow.isWasNull(columnIndex);
 
 			if (wasNull) {
 				return 0;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnIndex).getValue();
+				Object value = currentRow.getValue(columnIndex);
 				return Byte.parseByte(value.toString());
 			}
 		} else {
@@ -530,12 +639,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public byte getByte(String columnName) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
+			wasNull = currentRow.isWasNull(columnName);
 
 			if (wasNull) {
 				return 0;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnName).getValue();
+				Object value = currentRow.getValue(columnName);
 				return Byte.parseByte(value.toString());
 			}
 		} else {
@@ -545,12 +654,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public byte[] getBytes(int columnIndex) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
+			wasNull = currentRow.isWasNull(columnIndex);
 
 			if (wasNull) {
 				return null;
 			} else {
-				return (byte[]) memoryData.get(rowNum - 1).get(columnIndex).getValue();
+				return (byte[]) currentRow.getValue(columnIndex);
 			}
 		} else {
 			return resultSets.get(resultSetIndex).getBytes(columnIndex);
@@ -559,12 +668,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public byte[] getBytes(String columnName) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
+			wasNull = currentRow.isWasNull(columnName);
 
 			if (wasNull) {
 				return null;
 			} else {
-				return (byte[]) memoryData.get(rowNum - 1).get(columnName).getValue();
+				return (byte[]) currentRow.getValue(columnName);
 			}
 		} else {
 			return resultSets.get(resultSetIndex).getBytes(columnName);
@@ -573,12 +682,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public Reader getCharacterStream(int columnIndex) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
+			wasNull = currentRow.isWasNull(columnIndex);
 
 			if (wasNull) {
 				return null;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnIndex).getValue();
+				Object value = currentRow.getValue(columnIndex);
 				return new StringReader(value.toString());
 			}
 		} else {
@@ -588,12 +697,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public Reader getCharacterStream(String columnName) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
+			wasNull = currentRow.isWasNull(columnName);
 
 			if (wasNull) {
 				return null;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnName).getValue();
+				Object value = currentRow.getValue(columnName);
 				return new StringReader(value.toString());
 			}
 		} else {
@@ -603,12 +712,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public Clob getClob(int columnIndex) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
+			wasNull = currentRow.isWasNull(columnIndex);
 
 			if (wasNull) {
 				return null;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnIndex).getValue();
+				Object value = currentRow.getValue(columnIndex);
 				return new com.dianping.zebra.shard.resultset.Clob(value.toString());
 			}
 		} else {
@@ -618,12 +727,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public Clob getClob(String columnName) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
+			wasNull = currentRow.isWasNull(columnName);
 
 			if (wasNull) {
 				return null;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnName).getValue();
+				Object value = currentRow.getValue(columnName);
 				return new com.dianping.zebra.shard.resultset.Clob(value.toString());
 			}
 		} else {
@@ -633,7 +742,7 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public int getConcurrency() throws SQLException {
 		if (inMemory) {
-			return memoryData.get(rowNum - 1).getConcurrency();
+			return currentRow.getConcurrency();
 		} else {
 			return resultSets.get(resultSetIndex).getConcurrency();
 		}
@@ -642,7 +751,7 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public String getCursorName() throws SQLException {
 		if (inMemory) {
-			return memoryData.get(rowNum - 1).getCursorName();
+			return currentRow.getCursorName();
 		} else {
 			return resultSets.get(resultSetIndex).getCursorName();
 		}
@@ -650,12 +759,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public Date getDate(int columnIndex) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
+			wasNull = currentRow.isWasNull(columnIndex);
 
 			if (wasNull) {
 				return null;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnIndex).getValue();
+				Object value = currentRow.getValue(columnIndex);
 				if (value instanceof String) {
 					return Date.valueOf(value.toString());
 				} else {
@@ -669,12 +778,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public Date getDate(String columnName) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
+			wasNull = currentRow.isWasNull(columnName);
 
 			if (wasNull) {
 				return null;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnName).getValue();
+				Object value = currentRow.getValue(columnName);
 
 				if (value instanceof String) {
 					return Date.valueOf(value.toString());
@@ -707,12 +816,15 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public double getDouble(int columnIndex) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
+			int slot = currentRow.getSlot(columnIndex);
+			wasNull = currentRow.isNullAt(slot);
 
 			if (wasNull) {
 				return 0;
+			} else if (currentRow.isNumericAt(slot) && currentRow.getKindAt(slot) != RowDataMeta.KIND_FLOAT) {
+				return currentRow.getDoubleAt(slot);
 			} else {
-				Object val = memoryData.get(rowNum - 1).get(columnIndex).getValue();
+				Object val = currentRow.getValueAt(slot);
 				if (val instanceof Double) {
 					return (Double) val;
 				} else {
@@ -726,12 +838,15 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public double getDouble(String columnName) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
+			int slot = currentRow.getSlot(columnName);
+			wasNull = currentRow.isNullAt(slot);
 
 			if (wasNull) {
 				return 0;
+			} else if (currentRow.isNumericAt(slot) && currentRow.getKindAt(slot) != RowDataMeta.KIND_FLOAT) {
+				return currentRow.getDoubleAt(slot);
 			} else {
-				Object val = memoryData.get(rowNum - 1).get(columnName).getValue();
+				Object val = currentRow.getValueAt(slot);
 				if (val instanceof Double) {
 					return (Double) val;
 				} else {
@@ -745,12 +860,17 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public float getFloat(int columnIndex) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
+			int slot = currentRow.getSlot(columnIndex);
+			wasNull = currentRow.isNullAt(slot);
 
 			if (wasNull) {
 				return 0;
+			} else if (currentRow.isIntegralAt(slot)) {
+				return currentRow.getLongAt(slot);
+			} else if (currentRow.isNumericAt(slot) && currentRow.getKindAt(slot) == RowDataMeta.KIND_FLOAT) {
+				return (float) currentRow.getDoubleAt(slot);
 			} else {
-				Object val = memoryData.get(rowNum - 1).get(columnIndex).getValue();
+				Object val = currentRow.getValueAt(slot);
 				if (val instanceof Float) {
 					return (Float) val;
 				} else {
@@ -764,12 +884,17 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public float getFloat(String columnName) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
+			int slot = currentRow.getSlot(columnName);
+			wasNull = currentRow.isNullAt(slot);
 
 			if (wasNull) {
 				return 0;
+			} else if (currentRow.isIntegralAt(slot)) {
+				return currentRow.getLongAt(slot);
+			} else if (currentRow.isNumericAt(slot) && currentRow.getKindAt(slot) == RowDataMeta.KIND_FLOAT) {
+				return (float) currentRow.getDoubleAt(slot);
 			} else {
-				Object val = memoryData.get(rowNum - 1).get(columnName).getValue();
+				Object val = currentRow.getValueAt(slot);
 				if (val instanceof Float) {
 					return (Float) val;
 				} else {
@@ -783,7 +908,7 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public int getHoldability() throws SQLException {
 		if (inMemory) {
-			return memoryData.get(rowNum - 1).getHoldability();
+			return currentRow.getHoldability();
 		} else {
 			return resultSets.get(resultSetIndex).getHoldability();
 		}
@@ -791,12 +916,15 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public int getInt(int columnIndex) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
+			int slot = currentRow.getSlot(columnIndex);
+			wasNull = currentRow.isNullAt(slot);
 
 			if (wasNull) {
 				return 0;
+			} else if (currentRow.isIntegralAt(slot) && (int) currentRow.getPrimitiveAt(slot) == currentRow.getPrimitiveAt(slot)) {
+				return (int) currentRow.getPrimitiveAt(slot);
 			} else {
-				Object val = memoryData.get(rowNum - 1).get(columnIndex).getValue();
+				Object val = currentRow.getValueAt(slot);
 				if (val instanceof Integer) {
 					return (Integer) val;
 				} else if (val instanceof Boolean) {
@@ -812,12 +940,15 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public int getInt(String columnName) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
+			int slot = currentRow.getSlot(columnName);
+			wasNull = currentRow.isNullAt(slot);
 
 			if (wasNull) {
 				return 0;
+			} else if (currentRow.isIntegralAt(slot) && (int) currentRow.getPrimitiveAt(slot) == currentRow.getPrimitiveAt(slot)) {
+				return (int) currentRow.getPrimitiveAt(slot);
 			} else {
-				Object val = memoryData.get(rowNum - 1).get(columnName).getValue();
+				Object val = currentRow.getValueAt(slot);
 				if (val instanceof Integer) {
 					return (Integer) val;
 				} else if (val instanceof Boolean) {
@@ -833,12 +964,15 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public long getLong(int columnIndex) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
+			int slot = currentRow.getSlot(columnIndex);
+			wasNull = currentRow.isNullAt(slot);
 
 			if (wasNull) {
 				return 0;
+			} else if (currentRow.isIntegralAt(slot)) {
+				return currentRow.getPrimitiveAt(slot);
 			} else {
-				Object val = memoryData.get(rowNum - 1).get(columnIndex).getValue();
+				Object val = currentRow.getValueAt(slot);
 				if (val instanceof Long) {
 					return (Long) val;
 				} else if (val instanceof BigInteger) {
@@ -856,12 +990,15 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public long getLong(String columnName) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
+			int slot = currentRow.getSlot(columnName);
+			wasNull = currentRow.isNullAt(slot);
 
 			if (wasNull) {
 				return 0;
+			} else if (currentRow.isIntegralAt(slot)) {
+				return currentRow.getPrimitiveAt(slot);
 			} else {
-				Object val = memoryData.get(rowNum - 1).get(columnName).getValue();
+				Object val = currentRow.getValueAt(slot);
 				if (val instanceof Long) {
 					return (Long) val;
 				} else if (val instanceof BigInteger) {
@@ -879,8 +1016,10 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public ResultSetMetaData getMetaData() throws SQLException {
 		if (inMemory) {
-			if (memoryData.size() > 0) {
-				return memoryData.get(rowNum == 0 ? 0 : rowNum - 1).getResultSetMetaData();
+			if (currentRow != null) {
+				return currentRow.getResultSetMetaData();
+			} else if (memoryData != null && memoryData.size() > 0) {
+				return memoryData.get(0).getResultSetMetaData();
 			} else {
 				if (this.memoryResultSetMetaData != null) {
 					return this.memoryResultSetMetaData;
@@ -895,12 +1034,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public Reader getNCharacterStream(int columnIndex) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
+			wasNull = currentRow.isWasNull(columnIndex);
 
 			if (wasNull) {
 				return null;
 			} else {
-				return (Reader) memoryData.get(rowNum - 1).get(columnIndex).getValue();
+				return (Reader) currentRow.getValue(columnIndex);
 			}
 		} else {
 			return resultSets.get(resultSetIndex).getNCharacterStream(columnIndex);
@@ -909,12 +1048,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public Reader getNCharacterStream(String columnName) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
+			wasNull = currentRow.isWasNull(columnName);
 
 			if (wasNull) {
 				return null;
 			} else {
-				return (Reader) memoryData.get(rowNum - 1).get(columnName).getValue();
+				return (Reader) currentRow.getValue(columnName);
 			}
 		} else {
 			return resultSets.get(resultSetIndex).getNCharacterStream(columnName);
@@ -923,12 +1062,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public NClob getNClob(int columnIndex) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
+			wasNull = currentRow.isWasNull(columnIndex);
 
 			if (wasNull) {
 				return null;
 			} else {
-				return (NClob) memoryData.get(rowNum - 1).get(columnIndex).getValue();
+				return (NClob) currentRow.getValue(columnIndex);
 			}
 		} else {
 			return resultSets.get(resultSetIndex).getNClob(columnIndex);
@@ -937,12 +1076,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public NClob getNClob(String columnName) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
+			wasNull = currentRow.isWasNull(columnName);
 
 			if (wasNull) {
 				return null;
 			} else {
-				return (NClob) memoryData.get(rowNum - 1).get(columnName).getValue();
+				return (NClob) currentRow.getValue(columnName);
 			}
 		} else {
 			return resultSets.get(resultSetIndex).getNClob(columnName);
@@ -951,12 +1090,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public String getNString(int columnIndex) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
+			wasNull = currentRow.isWasNull(columnIndex);
 
 			if (wasNull) {
 				return null;
 			} else {
-				return String.valueOf(memoryData.get(rowNum - 1).get(columnIndex).getValue());
+				return String.valueOf(currentRow.getValue(columnIndex));
 			}
 		} else {
 			return resultSets.get(resultSetIndex).getNString(columnIndex);
@@ -965,12 +1104,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public String getNString(String columnName) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
+			wasNull = currentRow.isWasNull(columnName);
 
 			if (wasNull) {
 				return null;
 			} else {
-				return String.valueOf(memoryData.get(rowNum - 1).get(columnName).getValue());
+				return String.valueOf(currentRow.getValue(columnName));
 			}
 		} else {
 			return resultSets.get(resultSetIndex).getNString(columnName);
@@ -979,8 +1118,8 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public Object getObject(int columnIndex) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
-			return memoryData.get(rowNum - 1).get(columnIndex).getValue();
+			wasNull = currentRow.isWasNull(columnIndex);
+			return currentRow.getValue(columnIndex);
 		} else {
 			return resultSets.get(resultSetIndex).getObject(columnIndex);
 		}
@@ -988,8 +1127,8 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public Object getObject(String columnName) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
-			return memoryData.get(rowNum - 1).get(columnName).getValue();
+			wasNull = currentRow.isWasNull(columnName);
+			return currentRow.getValue(columnName);
 		} else {
 			return resultSets.get(resultSetIndex).getObject(columnName);
 		}
@@ -998,8 +1137,8 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 	public Object getObject(int columnIndex, Map<String, Class<?>> map) throws SQLException {
 		// Mysql Connector-j doesn't use the parameter map at all....
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
-			return memoryData.get(rowNum - 1).get(columnIndex).getValue();
+			wasNull = currentRow.isWasNull(columnIndex);
+			return currentRow.getValue(columnIndex);
 		} else {
 			return resultSets.get(resultSetIndex).getObject(columnIndex);
 		}
@@ -1008,8 +1147,8 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 	public Object getObject(String columnName, Map<String, Class<?>> map) throws SQLException {
 		// Mysql Connector-j doesn't use the parameter map at all....
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
-			return memoryData.get(rowNum - 1).get(columnName).getValue();
+			wasNull = currentRow.isWasNull(columnName);
+			return currentRow.getValue(columnName);
 		} else {
 			return resultSets.get(resultSetIndex).getObject(columnName);
 		}
@@ -1017,12 +1156,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public Ref getRef(int columnIndex) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
+			wasNull = currentRow.isWasNull(columnIndex);
 
 			if (wasNull) {
 				return null;
 			} else {
-				return (Ref) memoryData.get(rowNum - 1).get(columnIndex).getValue();
+				return (Ref) currentRow.getValue(columnIndex);
 			}
 		} else {
 			return resultSets.get(resultSetIndex).getRef(columnIndex);
@@ -1031,8 +1170,8 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public Ref getRef(String columnName) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
-			return (Ref) memoryData.get(rowNum - 1).get(columnName).getValue();
+			wasNull = currentRow.isWasNull(columnName);
+			return (Ref) currentRow.getValue(columnName);
 		} else {
 			return resultSets.get(resultSetIndex).getRef(columnName);
 		}
@@ -1040,12 +1179,13 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public RowId getRowId(int columnIndex) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
+			wasNull = currentRow.isWasNull(columnIndex);
 
 			if (wasNull) {
 				return null;
 			} else {
-				return (RowId) memoryData.get(rowNum - 1).get(columnIndex).getRowId();
+				Object value = currentRow.getValue(columnIndex);
+				return value instanceof RowId ? (RowId) value : null;
 			}
 		} else {
 			return resultSets.get(resultSetIndex).getRowId(columnIndex);
@@ -1054,12 +1194,13 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public RowId getRowId(String columnName) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
+			wasNull = currentRow.isWasNull(columnName);
 
 			if (wasNull) {
 				return null;
 			} else {
-				return (RowId) memoryData.get(rowNum - 1).get(columnName).getRowId();
+				Object value = currentRow.getValue(columnName);
+				return value instanceof RowId ? (RowId) value : null;
 			}
 		} else {
 			return resultSets.get(resultSetIndex).getRowId(columnName);
@@ -1068,12 +1209,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public SQLXML getSQLXML(int columnIndex) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
+			wasNull = currentRow.isWasNull(columnIndex);
 
 			if (wasNull) {
 				return null;
 			} else {
-				return (SQLXML) memoryData.get(rowNum - 1).get(columnIndex).getValue();
+				return (SQLXML) currentRow.getValue(columnIndex);
 			}
 		} else {
 			return resultSets.get(resultSetIndex).getSQLXML(columnIndex);
@@ -1082,12 +1223,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public SQLXML getSQLXML(String columnName) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
+			wasNull = currentRow.isWasNull(columnName);
 
 			if (wasNull) {
 				return null;
 			} else {
-				return (SQLXML) memoryData.get(rowNum - 1).get(columnName).getValue();
+				return (SQLXML) currentRow.getValue(columnName);
 			}
 		} else {
 			return resultSets.get(resultSetIndex).getSQLXML(columnName);
@@ -1096,12 +1237,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public short getShort(int columnIndex) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
+			wasNull = currentRow.isWasNull(columnIndex);
 
 			if (wasNull) {
 				return 0;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnIndex).getValue();
+				Object value = currentRow.getValue(columnIndex);
 				if (value instanceof Short) {
 					return (Short) value;
 				} else {
@@ -1115,12 +1256,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public short getShort(String columnName) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
+			wasNull = currentRow.isWasNull(columnName);
 
 			if (wasNull) {
 				return 0;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnName).getValue();
+				Object value = currentRow.getValue(columnName);
 				if (value instanceof Short) {
 					return (Short) value;
 				} else {
@@ -1134,12 +1275,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public String getString(int columnIndex) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
+			wasNull = currentRow.isWasNull(columnIndex);
 
 			if (wasNull) {
 				return null;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnIndex).getValue();
+				Object value = currentRow.getValue(columnIndex);
 				if (value instanceof String) {
 					return (String) value;
 				} else if (value instanceof byte[]) {
@@ -1155,11 +1296,11 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public String getString(String columnName) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
+			wasNull = currentRow.isWasNull(columnName);
 			if (wasNull) {
 				return null;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnName).getValue();
+				Object value = currentRow.getValue(columnName);
 				if (value instanceof String) {
 					return (String) value;
 				} else if (value instanceof byte[]) {
@@ -1175,12 +1316,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public Time getTime(int columnIndex) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
+			wasNull = currentRow.isWasNull(columnIndex);
 
 			if (wasNull) {
 				return null;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnIndex).getValue();
+				Object value = currentRow.getValue(columnIndex);
 				if (value instanceof Time) {
 					return (Time) value;
 				} else {
@@ -1194,12 +1335,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public Time getTime(String columnName) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
+			wasNull = currentRow.isWasNull(columnName);
 
 			if (wasNull) {
 				return null;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnName).getValue();
+				Object value = currentRow.getValue(columnName);
 				if (value instanceof Time) {
 					return (Time) value;
 				} else {
@@ -1231,12 +1372,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public Timestamp getTimestamp(int columnIndex) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
+			wasNull = currentRow.isWasNull(columnIndex);
 
 			if (wasNull) {
 				return null;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnIndex).getValue();
+				Object value = currentRow.getValue(columnIndex);
 				if (value instanceof Timestamp) {
 					return (Timestamp) value;
 				} else if (value instanceof Date) {
@@ -1254,12 +1395,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public Timestamp getTimestamp(String columnName) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
+			wasNull = currentRow.isWasNull(columnName);
 
 			if (wasNull) {
 				return null;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnName).getValue();
+				Object value = currentRow.getValue(columnName);
 				if (value instanceof Timestamp) {
 					return (Timestamp) value;
 				} else if (value instanceof Date) {
@@ -1295,8 +1436,8 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public int getType() throws SQLException {
 		if (inMemory) {
-			if (rowNum >= 1) {
-				return memoryData.get(rowNum - 1).getResultSetType();
+			if (currentRow != null) {
+				return currentRow.getResultSetType();
 			} else if (memoryData != null && memoryData.size() > 0) {
 				return memoryData.get(0).getResultSetType();
 			} else {
@@ -1312,12 +1453,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public URL getURL(int columnIndex) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
+			wasNull = currentRow.isWasNull(columnIndex);
 
 			if (wasNull) {
 				return null;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnIndex).getValue();
+				Object value = currentRow.getValue(columnIndex);
 				try {
 					return new URL(value.toString());
 				} catch (MalformedURLException mfe) {
@@ -1331,12 +1472,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 
 	public URL getURL(String columnName) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
+			wasNull = currentRow.isWasNull(columnName);
 
 			if (wasNull) {
 				return null;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnName).getValue();
+				Object value = currentRow.getValue(columnName);
 				try {
 					return new URL(value.toString());
 				} catch (MalformedURLException mfe) {
@@ -1351,12 +1492,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 	@SuppressWarnings("deprecation")
 	public InputStream getUnicodeStream(int columnIndex) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnIndex).isWasNull();
+			wasNull = currentRow.isWasNull(columnIndex);
 
 			if (wasNull) {
 				return null;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnIndex).getValue();
+				Object value = currentRow.getValue(columnIndex);
 				if (value != null) {
 					return new ByteArrayInputStream((byte[]) value);
 				}
@@ -1370,12 +1511,12 @@ public class ShardResultSetAdaptor extends UnsupportedShardResultSet implements
 	@SuppressWarnings("deprecation")
 	public InputStream getUnicodeStream(String columnName) throws SQLException {
 		if (inMemory) {
-			wasNull = memoryData.get(rowNum - 1).get(columnName).isWasNull();
+			wasNull = currentRow.isWasNull(columnName);
 
 			if (wasNull) {
 				return null;
 			} else {
-				Object value = memoryData.get(rowNum - 1).get(columnName).getValue();
+				Object value = currentRow.getValue(columnName);
 				if (value != null) {
 					return new ByteArrayInputStream((byte[]) value);
 				}
@@ -19,23 +19,17 @@
 package com.dianping.zebra.shard.merge;
 
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
-import java.sql.RowId;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-
-import com.alibaba.druid.sql.ast.SQLObjectImpl;
-import com.alibaba.druid.sql.ast.expr.SQLAllColumnExpr;
-import com.alibaba.druid.sql.ast.expr.SQLIdentifierExpr;
-import com.alibaba.druid.sql.ast.expr.SQLPropertyExpr;
-import com.alibaba.druid.sql.ast.statement.SQLSelectItem;
+
 import com.dianping.zebra.shard.merge.distinct.DistinctDataMerger;
 import com.dianping.zebra.shard.merge.groupby.GroupByDataMerger;
+import com.dianping.zebra.shard.merge.groupby.GroupByStreamMerger;
+import com.dianping.zebra.shard.merge.orderby.ExternalSortStream;
 import com.dianping.zebra.shard.merge.orderby.OrderByDataMerger;
+import com.dianping.zebra.shard.merge.orderby.OrderByStreamMerger;
+import com.dianping.zebra.shard.merge.orderby.OrderByTopNMerger;
 import com.dianping.zebra.shard.router.RouterResult;
 import com.dianping.zebra.shard.router.RouterResult.RouterTarget;
 
@@ -54,13 +48,20 @@ public class ShardResultSetMerger {
 
 	private OrderByDataMerger orderbyMerger = new OrderByDataMerger();
 
+	private MergeSpillConfig mergeSpillConfig = MergeSpillConfig.DEFAULT;
+
 	/**
 	 * <p>
 	 * 处理步骤：
 	 * <ol>
 	 * <li>如果路由结果中仅包含一个数据源或者路由结果包含多个数据源但是SQL不包含order
 	 * by子句和聚合函数，且没有distinct，则直接把真实ResultSet List进行limit处理后保存于dataPool中。</li>
-	 * <li>非第一种情况，则需要从ResultSet
+	 * <li>如果路由结果包含多个数据源，SQL包含order by子句但不包含聚合函数，且没有distinct和group
+	 * by，则对已经各自有序的真实ResultSet进行多路归并，在遍历时逐行产生数据。</li>
+	 * <li>如果SQL包含group by子句或者聚合函数，且没有distinct，则逐行聚合真实ResultSet中的记录，内存不足时溢写到本地磁盘，再进行排序和limit计算。
+	 * 如果同时包含order by和limit子句，则只用有界堆保留前offset + limit组；只有order by时用外部归并排序，同样在内存不足时溢写到本地磁盘。</li>
+	 * <li>如果SQL包含distinct、order by和limit子句，但不包含group by和聚合函数，则逐行去重并放入大小为offset + limit的有界堆，其余记录直接丢弃。</li>
+	 * <li>非以上情况，则需要从ResultSet
 	 * List中弹出所有记录，进行distinct处理，聚合函数计算，排序，limit计算。并把结果保存于dataPool中。</li>
 	 * </ol>
 	 * </p>
@@ -76,9 +77,40 @@ public class ShardResultSetMerger {
 
 		if (sqls.size() == 1 && sqls.get(0).getSqls().size() == 1) {
 			adaptor.setResultSets(actualResultSets);
-		} else if ((sqls.size() > 1 || sqls.get(0).getSqls().size() > 1) && (mergeContext.getOrderBy() == null)
-				&& !mergeContext.isAggregate() && !mergeContext.isDistinct()) {
+		} else if ((sqls.size() > 1 || sqls.get(0).getSqls().size() > 1) && mergeContext.isPassThrough()) {
+			adaptor.setResultSets(actualResultSets);
+		} else if (isStreamingOrderBy(mergeContext)) {
+			// 每个真实ResultSet已经按照orderby有序，直接多路归并，不需要弹出所有记录
+			adaptor.setResultSets(actualResultSets);
+			adaptor.setStreamData(new OrderByStreamMerger(actualResultSets, mergeContext));
+		} else if (isStreamingGroupBy(mergeContext)) {
+			// 逐行聚合，超过内存限制时溢写到本地磁盘
+			adaptor.setResultSets(actualResultSets);
+			GroupByStreamMerger groupByStream = new GroupByStreamMerger(actualResultSets, mergeContext,
+					mergeSpillConfig);
+
+			if (mergeContext.getOrderBy() != null && isTopN(mergeContext)) {
+				// 聚合后的每一组只保留orderby之后的前offset + limit组
+				List<RowData> topNDatas = topN(groupByStream, mergeContext, false);
+				if (topNDatas.size() == 0) {
+					return;
+				}
+				adaptor.setMemoryData(topNDatas);
+			} else if (mergeContext.getOrderBy() != null) {
+				adaptor.setStreamData(new ExternalSortStream(groupByStream, mergeContext.getOrderByComparator(),
+						mergeSpillConfig));
+			} else {
+				adaptor.setStreamData(groupByStream);
+			}
+		} else if (isStreamingTopN(mergeContext)) {
+			// distinct + orderby + limit，逐行放入有界堆，不需要弹出所有记录
 			adaptor.setResultSets(actualResultSets);
+			List<RowData> topNDatas = topN(new ResultSetsStream(actualResultSets, mergeContext), mergeContext,
+					mergeContext.isDistinct());
+			if (topNDatas.size() == 0) {
+				return;
+			}
+			adaptor.setMemoryData(topNDatas);
 		} else {
 			adaptor.setResultSets(actualResultSets);
 			List<RowData> rowDatas = popResultSets(actualResultSets, mergeContext);
@@ -102,6 +134,48 @@ public class ShardResultSetMerger {
 		}
 	}
 
+	public void setMergeSpillConfig(MergeSpillConfig mergeSpillConfig) {
+		this.mergeSpillConfig = mergeSpillConfig;
+	}
+
+	private boolean isStreamingOrderBy(MergeContext mergeContext) {
+		return mergeContext.getOrderBy() != null && !mergeContext.isAggregate() && !mergeContext.isDistinct()
+				&& mergeContext.getGroupByColumns().isEmpty();
+	}
+
+	private boolean isStreamingGroupBy(MergeContext mergeContext) {
+		return (mergeContext.isAggregate() || !mergeContext.getGroupByColumns().isEmpty()) && !mergeContext.isDistinct();
+	}
+
+	private boolean isTopN(MergeContext mergeContext) {
+		return mergeContext.getLimit() != MergeContext.NO_LIMIT
+				&& (long) getOffset(mergeContext) + mergeContext.getLimit() <= Integer.MAX_VALUE;
+	}
+
+	private boolean isStreamingTopN(MergeContext mergeContext) {
+		return mergeContext.getOrderBy() != null && !mergeContext.isAggregate()
+				&& mergeContext.getGroupByColumns().isEmpty() && isTopN(mergeContext);
+	}
+
+	private int getOffset(MergeContext mergeContext) {
+		return mergeContext.getOffset() == MergeContext.NO_OFFSET ? 0 : Math.max(0, mergeContext.getOffset());
+	}
+
+	private List<RowData> topN(RowDataStream stream, MergeContext mergeContext, boolean distinct) throws SQLException {
+		OrderByTopNMerger topN = new OrderByTopNMerger(getOffset(mergeContext) + mergeContext.getLimit(),
+				mergeContext.getOrderByComparator(), distinct);
+		try {
+			RowData row;
+			while ((row = stream.next()) != null) {
+				topN.offer(row);
+			}
+		} finally {
+			stream.close();
+		}
+
+		return topN.getSortedRows();
+	}
+
 	public void merge(ShardResultSetAdaptor adaptor, List<List<RowData>> firstResult, List<List<RowData>> secondResult,
 			MergeContext context, int offset, int splitOffset, int splitNum, int limit, List<Long> countResult)
 			throws SQLException {
@@ -151,27 +225,10 @@ public class ShardResultSetMerger {
 
 	public List<RowData> popResultSet(ResultSet rs, MergeContext mergeContext) throws SQLException {
 		ArrayList<RowData> rows = new ArrayList<RowData>();
-		Map<String, SQLObjectImpl> selectItemMap = resultSetColumnWapper(rs, mergeContext);
-		while (rs.next()) {
-			RowData row = new RowData(rs);
-
-			for (Entry<String, SQLObjectImpl> col : selectItemMap.entrySet()) {
-				String columnName = col.getKey();
-				int columnIndex = rs.findColumn(columnName);
-				Object value = rs.getObject(columnIndex);
-				boolean wasNull = rs.wasNull();
-				RowId rowId = null;
-				try {
-					rowId = rs.getRowId(columnIndex);
-				} catch (Throwable e) {
-					// ignore
-				}
-
-				ColumnData columnData = new ColumnData(columnIndex, columnName, value,
-						value == null ? null : value.getClass(), rowId, wasNull);
-				row.addColumn(columnData);
-			}
+		RowDataReader reader = new RowDataReader(rs, mergeContext);
 
+		RowData row;
+		while ((row = reader.read()) != null) {
 			rows.add(row);
 		}
 
@@ -193,36 +250,44 @@ public class ShardResultSetMerger {
 		return rows;
 	}
 
-	private Map<String, SQLObjectImpl> resultSetColumnWapper(ResultSet rs, MergeContext mergeContext)
-			throws SQLException {
-		boolean isSQLAllColumnExpr = false;
-
-		for (SQLObjectImpl item : mergeContext.getSelectItemMap().values()) {
-			if(item instanceof SQLSelectItem) {
-				if (((SQLSelectItem)item).getExpr() instanceof SQLAllColumnExpr) {
-					isSQLAllColumnExpr = true;
-				} else if (((SQLSelectItem)item).getExpr() instanceof SQLPropertyExpr && "*".equals(((SQLPropertyExpr) ((SQLSelectItem)item).getExpr()).getName())) {
-					isSQLAllColumnExpr = true;
-				}
-			}
-			break;
-		}
+	/**
+	 * 依次读取每一个真实<tt>ResultSet</tt>
+	 */
+	private static class ResultSetsStream implements RowDataStream {
+
+		private final List<ResultSet> resultSets;
 
-		if (isSQLAllColumnExpr) {
-			Map<String, SQLObjectImpl> selectItemMap = new HashMap<String, SQLObjectImpl>();
-			final ResultSetMetaData metaData = rs.getMetaData();
-			final int columnCount = metaData.getColumnCount();
+		private final MergeContext mergeContext;
 
-			for (int i = 1; i <= columnCount; i++) {
-				String columnLabel = metaData.getColumnLabel(i);
-				SQLIdentifierExpr expr = new SQLIdentifierExpr(columnLabel);
-				SQLSelectItem item = new SQLSelectItem(expr, columnLabel);
-				selectItemMap.put(columnLabel, item);
+		private int resultSetIndex = -1;
+
+		private RowDataReader reader;
+
+		public ResultSetsStream(List<ResultSet> resultSets, MergeContext mergeContext) {
+			this.resultSets = resultSets;
+			this.mergeContext = mergeContext;
+		}
+
+		@Override
+		public RowData next() throws SQLException {
+			while (true) {
+				if (reader != null) {
+					RowData row = reader.read();
+					if (row != null) {
+						return row;
+					}
+				}
+				if (++resultSetIndex >= resultSets.size()) {
+					reader = null;
+					return null;
+				}
+				reader = new RowDataReader(resultSets.get(resultSetIndex), mergeContext);
 			}
+		}
 
-			return selectItemMap;
-		} else {
-			return mergeContext.getSelectItemMap();
+		@Override
+		public void close() {
+			reader = null;
 		}
 	}
 }
@@ -28,10 +28,10 @@ import java.util.Map;
 import com.alibaba.druid.sql.ast.SQLObjectImpl;
 import com.alibaba.druid.sql.ast.expr.SQLAggregateExpr;
 import com.alibaba.druid.sql.ast.statement.SQLSelectItem;
-import com.dianping.zebra.shard.merge.ColumnData;
 import com.dianping.zebra.shard.merge.DataMerger;
 import com.dianping.zebra.shard.merge.MergeContext;
 import com.dianping.zebra.shard.merge.RowData;
+import com.dianping.zebra.shard.merge.RowDataMeta;
 import com.dianping.zebra.shard.merge.groupby.aggregate.AggregateException;
 import com.dianping.zebra.shard.merge.groupby.aggregate.CountAggregator;
 import com.dianping.zebra.shard.merge.groupby.aggregate.MaxAggregator;
@@ -77,28 +77,29 @@ public class GroupByDataMerger implements DataMerger {
 		return processedDatas;
 	}
 
-	private void calAggregateFunctionValue(Map<String, SQLObjectImpl> columnNameFunctionMapping, RowData row,
-	      RowData newRowData, List<Integer> ignoreColumnList) throws SQLException {
+	void calAggregateFunctionValue(Map<String, SQLObjectImpl> columnNameFunctionMapping, RowData row,
+	      RowData newRowData, int[] ignoreSlots) throws SQLException {
+		RowDataMeta meta = row.getMeta();
 		try {
-			for (ColumnData col : row.getColumnDatas()) {
-				if (ignoreColumnList != null && ignoreColumnList.contains(col.getColumnIndex())) {
+			for (int slot = 0; slot < row.getColumnCount(); slot++) {
+				if (ignoreSlots != null && contains(ignoreSlots, slot)) {
 					continue;
 				}
-				SQLObjectImpl columnType = columnNameFunctionMapping.get(col.getColumnName());
+				SQLObjectImpl columnType = columnNameFunctionMapping.get(meta.getColumnName(slot));
 				SQLAggregateExpr aggregateExpr = null;
 				if (columnType instanceof SQLSelectItem) {
 					aggregateExpr = (SQLAggregateExpr) ((SQLSelectItem) columnType)
 					      .getExpr();
 				}
-				Aggregator dataProcessor = aggregateFunctionProcessors.get(aggregateExpr.getMethodName());
+				String methodName = aggregateExpr.getMethodName();
+				Aggregator dataProcessor = aggregateFunctionProcessors.get(methodName);
 				if (dataProcessor != null) {
-					ColumnData oldCol = newRowData.get(col.getColumnIndex());
-					Object value = dataProcessor.process(oldCol.getValue(), col.getValue());
-
-					if (value != null) {
-						oldCol.setWasNull(false);
+					if (aggregatePrimitive(methodName, newRowData, row, slot)) {
+						continue;
 					}
-					oldCol.setValue(value);
+					Object value = dataProcessor.process(newRowData.getValueAt(slot), row.getValueAt(slot));
+
+					newRowData.setValueAt(slot, value);
 				} else {
 					throw new SQLException("Zebra unsupported groupby function exists");
 				}
@@ -108,30 +109,102 @@ public class GroupByDataMerger implements DataMerger {
 		}
 	}
 
-	private void procGroupBy(List<RowData> sourceData, MergeContext mergeContext, List<RowData> processedDatas,
-	      Map<String, SQLObjectImpl> columnNameFunctionMapping) throws SQLException {
-		// 因为group by后面跟的只能是列名，但是如果select中包含别名，则ColumnData中存放的是别名
-		// 所以先获得列名和别名的map
-		Map<String, String> columnNameAliasMapping = mergeContext.getColumnNameAliasMapping();
-
-		List<Integer> groupByColumnIndexes = new ArrayList<Integer>();
-		for (String columnName : mergeContext.getGroupByColumns()) {
-			groupByColumnIndexes.add(sourceData
-			      .get(0)
-			      .get(columnNameAliasMapping.containsKey(columnName) ? columnNameAliasMapping.get(columnName)
-			            : columnName).getColumnIndex());
+	/**
+	 * 两边都是以<tt>long</tt>保存的同类型的值时直接计算，结果与对应的<tt>Aggregator</tt>对包装类型的计算结果一致
+	 * 
+	 * @return 是否已经处理，返回false时交给<tt>Aggregator</tt>处理
+	 */
+	private static boolean aggregatePrimitive(String methodName, RowData target, RowData row, int slot) {
+		if (row.isNullAt(slot)) {
+			return true;
+		}
+		byte kind = row.getKindAt(slot);
+		if (!row.isPrimitiveAt(slot) || kind != target.getKindAt(slot) || row.getScaleAt(slot) != target.getScaleAt(slot)) {
+			return false;
+		}
+		if (target.isNullAt(slot)) {
+			target.setPrimitiveAt(slot, row.getPrimitiveAt(slot));
+			return true;
+		}
+		if (!target.isPrimitiveAt(slot)) {
+			return false;
 		}
 
-		Map<MultiKey, RowData> tmpMap = new LinkedHashMap<MultiKey, RowData>();
-		for (RowData row : sourceData) {
-			List<Object> groupByValues = new ArrayList<Object>(mergeContext.getGroupByColumns().size());
+		boolean sum = "SUM".equals(methodName) || "COUNT".equals(methodName);
+		boolean max = "MAX".equals(methodName);
+		long oldValue = target.getPrimitiveAt(slot);
+		long currentValue = row.getPrimitiveAt(slot);
+
+		switch (kind) {
+		case RowDataMeta.KIND_INT:
+		case RowDataMeta.KIND_LONG:
+			if (sum) {
+				long result = oldValue + currentValue;
+				target.setPrimitiveAt(slot, kind == RowDataMeta.KIND_INT ? (int) result : result);
+			} else {
+				target.setPrimitiveAt(slot, max ? Math.max(oldValue, currentValue) : Math.min(oldValue, currentValue));
+			}
+			return true;
+		case RowDataMeta.KIND_SHORT:
+			// short相加之后为Integer，交给Aggregator处理
+			if (sum) {
+				return false;
+			}
+			target.setPrimitiveAt(slot, max ? Math.max(oldValue, currentValue) : Math.min(oldValue, currentValue));
+			return true;
+		case RowDataMeta.KIND_DOUBLE:
+		case RowDataMeta.KIND_FLOAT:
+			if ("COUNT".equals(methodName)) {
+				return false;
+			}
+			double oldDouble = Double.longBitsToDouble(oldValue);
+			double currentDouble = Double.longBitsToDouble(currentValue);
+			if (sum) {
+				double result = kind == RowDataMeta.KIND_FLOAT ? (float) oldDouble + (float) currentDouble : oldDouble
+				      + currentDouble;
+				target.setPrimitiveAt(slot, Double.doubleToLongBits(result));
+			} else if (max) {
+				target.setPrimitiveAt(slot, oldDouble > currentDouble ? oldValue : currentValue);
+			} else {
+				target.setPrimitiveAt(slot, oldDouble < currentDouble ? oldValue : currentValue);
+			}
+			return true;
+		case RowDataMeta.KIND_DECIMAL:
+			if ("COUNT".equals(methodName)) {
+				return false;
+			}
+			if (sum) {
+				long result = oldValue + currentValue;
+				// 溢出时交给Aggregator用BigDecimal计算
+				if (((oldValue ^ result) & (currentValue ^ result)) < 0) {
+					return false;
+				}
+				target.setPrimitiveAt(slot, result);
+			} else {
+				target.setPrimitiveAt(slot, max ? Math.max(oldValue, currentValue) : Math.min(oldValue, currentValue));
+			}
+			return true;
+		default:
+			return false;
+		}
+	}
 
-			for (Integer groupByColIndex : groupByColumnIndexes) {
-				groupByValues.add(row.get(groupByColIndex).getValue());
+	private static boolean contains(int[] slots, int slot) {
+		for (int s : slots) {
+			if (s == slot) {
+				return true;
 			}
+		}
+		return false;
+	}
 
-			// 多个group by的值作为一个MultiKey用于聚合Map
-			MultiKey multiKey = new MultiKey(groupByValues);
+	private void procGroupBy(List<RowData> sourceData, MergeContext mergeContext, List<RowData> processedDatas,
+	      Map<String, SQLObjectImpl> columnNameFunctionMapping) throws SQLException {
+		int[] groupBySlots = getGroupBySlots(sourceData.get(0), mergeContext);
+
+		Map<MultiKey, RowData> tmpMap = new LinkedHashMap<MultiKey, RowData>();
+		for (RowData row : sourceData) {
+			MultiKey multiKey = getGroupByKey(row, groupBySlots);
 
 			RowData groupByRowData = tmpMap.get(multiKey);
 
@@ -139,7 +212,7 @@ public class GroupByDataMerger implements DataMerger {
 				groupByRowData = new RowData(row);
 				tmpMap.put(multiKey, groupByRowData);
 			} else {
-				calAggregateFunctionValue(columnNameFunctionMapping, row, groupByRowData, groupByColumnIndexes);
+				calAggregateFunctionValue(columnNameFunctionMapping, row, groupByRowData, groupBySlots);
 			}
 		}
 
@@ -147,4 +220,24 @@ public class GroupByDataMerger implements DataMerger {
 			processedDatas.add(entry.getValue());
 		}
 	}
+
+	int[] getGroupBySlots(RowData row, MergeContext mergeContext) throws SQLException {
+		// 因为group by后面跟的只能是列名，但是如果select中包含别名，则RowData中存放的是别名
+		// 所以先获得列名和别名的map
+		Map<String, String> columnNameAliasMapping = mergeContext.getColumnNameAliasMapping();
+
+		int[] groupBySlots = new int[mergeContext.getGroupByColumns().size()];
+		int i = 0;
+		for (String columnName : mergeContext.getGroupByColumns()) {
+			groupBySlots[i++] = row.getSlot(columnNameAliasMapping.containsKey(columnName) ? columnNameAliasMapping
+			      .get(columnName) : columnName);
+		}
+
+		return groupBySlots;
+	}
+
+	MultiKey getGroupByKey(RowData row, int[] groupBySlots) {
+		// 多个group by的值作为一个MultiKey用于聚合Map
+		return new MultiKey(row, groupBySlots);
+	}
 }
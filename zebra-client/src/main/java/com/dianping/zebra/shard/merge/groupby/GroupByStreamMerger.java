@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.shard.merge.groupby;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.dianping.zebra.log.Logger;
+import com.dianping.zebra.log.LoggerFactory;
+import com.dianping.zebra.shard.merge.MergeContext;
+import com.dianping.zebra.shard.merge.MergeSpillConfig;
+import com.dianping.zebra.shard.merge.RowData;
+import com.dianping.zebra.shard.merge.RowDataMeta;
+import com.dianping.zebra.shard.merge.RowDataReader;
+import com.dianping.zebra.shard.merge.RowDataSpillFile;
+import com.dianping.zebra.shard.merge.RowDataStream;
+
+/**
+ * <p>
+ * 流式的group by及聚合函数合并器。<br>
+ * 逐行消费真实<tt>ResultSet</tt>并聚合到内存中的hash表，hash表估算的内存超过<tt>MergeSpillConfig.maxInMemoryBytes</tt>时，
+ * 按照分组的hash值把当前的部分聚合结果写到本地临时文件的若干个分区中。全部数据消费完以后，再逐个分区读回并完成最终的聚合；
+ * 读回的分区仍然超过内存上限时，用下一层的hash把它再拆成若干个分区，直到每个分区都能放进内存。
+ * </p>
+ *
+ * <p>
+ * MAX/MIN/COUNT/SUM的部分聚合结果可以再次用同样的<tt>Aggregator</tt>合并，所以溢写不改变聚合的语义。
+ * 没有发生溢写时，输出顺序与原来的<tt>GroupByDataMerger</tt>一致（分组第一次出现的顺序）。
+ * </p>
+ */
+public class GroupByStreamMerger implements RowDataStream {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(GroupByStreamMerger.class);
+
+	private static final int SPILL_PARTITIONS = 16;
+
+	// 超过这个层数说明分组的hash值完全相同，再拆分也没有用
+	private static final int MAX_SPILL_LEVEL = 8;
+
+	private final List<RowDataReader> readers;
+
+	private final MergeContext mergeContext;
+
+	private final MergeSpillConfig config;
+
+	private final GroupByDataMerger groupByDataMerger = new GroupByDataMerger();
+
+	private final Deque<Partition> pendingPartitions = new ArrayDeque<Partition>();
+
+	private final List<RowDataSpillFile> spillFiles = new ArrayList<RowDataSpillFile>();
+
+	private Map<MultiKey, RowData> groups = new LinkedHashMap<MultiKey, RowData>();
+
+	private int[] groupBySlots;
+
+	private ResultSet resultSet;
+
+	private RowDataMeta meta;
+
+	private int maxSpillLevel = -1;
+
+	private Iterator<RowData> output;
+
+	private boolean consumed = false;
+
+	public GroupByStreamMerger(List<ResultSet> resultSets, MergeContext mergeContext) throws SQLException {
+		this(resultSets, mergeContext, MergeSpillConfig.DEFAULT);
+	}
+
+	public GroupByStreamMerger(List<ResultSet> resultSets, MergeContext mergeContext, MergeSpillConfig config)
+	      throws SQLException {
+		this.mergeContext = mergeContext;
+		this.config = config;
+		this.readers = new ArrayList<RowDataReader>(resultSets.size());
+		for (ResultSet rs : resultSets) {
+			this.readers.add(new RowDataReader(rs, mergeContext));
+		}
+	}
+
+	@Override
+	public RowData next() throws SQLException {
+		if (!consumed) {
+			consumed = true;
+			consume();
+		}
+
+		while (output == null || !output.hasNext()) {
+			Partition partition = pendingPartitions.pollFirst();
+			if (partition == null) {
+				return null;
+			}
+			output = loadPartition(partition);
+		}
+
+		return output.next();
+	}
+
+	public boolean isSpilled() {
+		return maxSpillLevel >= 0;
+	}
+
+	/**
+	 * 发生溢写时最深的拆分层数，第一次溢写为0，没有溢写时为-1
+	 */
+	public int getMaxSpillLevel() {
+		return maxSpillLevel;
+	}
+
+	@Override
+	public void close() {
+		groups.clear();
+		output = null;
+		pendingPartitions.clear();
+
+		for (RowDataSpillFile file : spillFiles) {
+			file.delete();
+		}
+		spillFiles.clear();
+	}
+
+	private void consume() throws SQLException {
+		Partition[] partitions = null;
+		long memoryBytes = 0;
+
+		for (RowDataReader reader : readers) {
+			RowData row;
+			while ((row = reader.read()) != null) {
+				if (aggregate(groups, row)) {
+					memoryBytes += row.estimateSize();
+				}
+
+				if (memoryBytes > config.getMaxInMemoryBytes()) {
+					if (partitions == null) {
+						partitions = new Partition[SPILL_PARTITIONS];
+						LOGGER.info("group by data exceed " + config.getMaxInMemoryBytes() + " bytes, spill to disk.");
+					}
+					spill(groups, partitions, 0);
+					memoryBytes = 0;
+				}
+			}
+		}
+
+		if (partitions != null) {
+			spill(groups, partitions, 0);
+			finish(partitions);
+		} else {
+			output = groups.values().iterator();
+		}
+	}
+
+	/**
+	 * @return 是否产生了新的分组
+	 */
+	private boolean aggregate(Map<MultiKey, RowData> target, RowData row) throws SQLException {
+		if (groupBySlots == null) {
+			groupBySlots = groupByDataMerger.getGroupBySlots(row, mergeContext);
+			resultSet = row.getResultSet();
+			meta = row.getMeta();
+		}
+
+		MultiKey multiKey = groupByDataMerger.getGroupByKey(row, groupBySlots);
+		RowData groupByRowData = target.get(multiKey);
+
+		if (groupByRowData == null) {
+			target.put(multiKey, new RowData(row));
+			return true;
+		} else {
+			groupByDataMerger.calAggregateFunctionValue(mergeContext.getSelectItemMap(), row, groupByRowData,
+			      groupBySlots);
+			return false;
+		}
+	}
+
+	private void spill(Map<MultiKey, RowData> source, Partition[] partitions, int level) throws SQLException {
+		try {
+			for (Map.Entry<MultiKey, RowData> entry : source.entrySet()) {
+				int index = partition(entry.getKey(), level);
+				if (partitions[index] == null) {
+					RowDataSpillFile file = new RowDataSpillFile(config.getSpillDirectory());
+					spillFiles.add(file);
+					partitions[index] = new Partition(file, level);
+				}
+				partitions[index].file.write(entry.getValue());
+			}
+
+			source.clear();
+			maxSpillLevel = Math.max(maxSpillLevel, level);
+		} catch (IOException e) {
+			close();
+			throw new SQLException("Spill group by data to disk failed.", e);
+		}
+	}
+
+	private void finish(Partition[] partitions) throws SQLException {
+		try {
+			// 先处理新拆出来的分区，磁盘上同时存在的临时文件更少
+			for (int i = partitions.length - 1; i >= 0; i--) {
+				if (partitions[i] != null) {
+					partitions[i].file.finish();
+					pendingPartitions.addFirst(partitions[i]);
+				}
+			}
+		} catch (IOException e) {
+			close();
+			throw new SQLException("Spill group by data to disk failed.", e);
+		}
+	}
+
+	private Iterator<RowData> loadPartition(Partition partition) throws SQLException {
+		Map<MultiKey, RowData> partitionGroups = new LinkedHashMap<MultiKey, RowData>();
+		Partition[] children = null;
+		long memoryBytes = 0;
+		RowDataSpillFile.Reader reader = null;
+
+		try {
+			reader = partition.file.openReader(resultSet, meta);
+			RowData row;
+			while ((row = reader.next()) != null) {
+				if (aggregate(partitionGroups, row)) {
+					memoryBytes += row.estimateSize();
+				}
+
+				// 只剩一个分组时再拆分也放不下
+				if (memoryBytes > config.getMaxInMemoryBytes() && partitionGroups.size() > 1) {
+					if (partition.level + 1 > MAX_SPILL_LEVEL) {
+						continue;
+					}
+					if (children == null) {
+						children = new Partition[SPILL_PARTITIONS];
+					}
+					spill(partitionGroups, children, partition.level + 1);
+					memoryBytes = 0;
+				}
+			}
+		} catch (IOException e) {
+			close();
+			throw new SQLException("Load group by data from disk failed.", e);
+		} catch (SQLException e) {
+			close();
+			throw e;
+		} finally {
+			if (reader != null) {
+				reader.close();
+			}
+			partition.file.delete();
+		}
+
+		if (children != null) {
+			spill(partitionGroups, children, partition.level + 1);
+			finish(children);
+			return Collections.<RowData> emptyList().iterator();
+		}
+
+		return partitionGroups.values().iterator();
+	}
+
+	// 每一层使用不同的hash，上一层落到同一个分区的分组在下一层可以被拆开
+	private static int partition(MultiKey key, int level) {
+		int h = key.hashCode() + level * 0x9E3779B9;
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		h ^= h >>> 16;
+		return (h & Integer.MAX_VALUE) % SPILL_PARTITIONS;
+	}
+
+	private static class Partition {
+
+		private final RowDataSpillFile file;
+
+		private final int level;
+
+		private Partition(RowDataSpillFile file, int level) {
+			this.file = file;
+			this.level = level;
+		}
+	}
+}
@@ -16,20 +16,46 @@
 package com.dianping.zebra.shard.merge.groupby;
 
 import java.io.Serializable;
-import java.util.List;
+import java.util.Arrays;
+
+import com.dianping.zebra.shard.merge.RowData;
 
 /**
- * 多个key联合作为Map的key的包装类
+ * 多个key联合作为Map的key的包装类<br>
+ * 以<tt>long</tt>保存的列值直接比较，不需要装箱
  * 
  * @author Leo Liang
  * 
  */
 public class MultiKey implements Serializable {
 	private static final long	serialVersionUID	= -1453476325016376916L;
-	private List<Object>		keys;
 
-	public MultiKey(List<Object> keys) {
-		this.keys = keys;
+	private static final byte	KIND_NULL			= -1;
+
+	private final byte[]		kinds;
+
+	private final long[]		primitives;
+
+	private final Object[]		values;
+
+	public MultiKey(RowData row, int[] slots) {
+		this.kinds = new byte[slots.length];
+		this.primitives = new long[slots.length];
+		this.values = new Object[slots.length];
+
+		for (int i = 0; i < slots.length; i++) {
+			int slot = slots[i];
+			if (row.isNullAt(slot)) {
+				kinds[i] = KIND_NULL;
+			} else if (row.isPrimitiveAt(slot)) {
+				kinds[i] = row.getKindAt(slot);
+				primitives[i] = row.getPrimitiveAt(slot);
+				// 小数位数不同的定点数不相等，小数位数很小，装箱时命中Integer的缓存
+				values[i] = row.getScaleAt(slot);
+			} else {
+				values[i] = row.getValueAt(slot);
+			}
+		}
 	}
 
 	/*
@@ -41,7 +67,9 @@ public class MultiKey implements Serializable {
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + ((keys == null) ? 0 : keys.hashCode());
+		result = prime * result + Arrays.hashCode(kinds);
+		result = prime * result + Arrays.hashCode(primitives);
+		result = prime * result + Arrays.hashCode(values);
 		return result;
 	}
 
@@ -59,12 +87,8 @@ public class MultiKey implements Serializable {
 		if (getClass() != obj.getClass())
 			return false;
 		MultiKey other = (MultiKey) obj;
-		if (keys == null) {
-			if (other.keys != null)
-				return false;
-		} else if (!keys.equals(other.keys))
-			return false;
-		return true;
+		return Arrays.equals(kinds, other.kinds) && Arrays.equals(primitives, other.primitives)
+		      && Arrays.equals(values, other.values);
 	}
 
 }
@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.shard.merge.orderby;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.dianping.zebra.log.Logger;
+import com.dianping.zebra.log.LoggerFactory;
+import com.dianping.zebra.shard.merge.MergeSpillConfig;
+import com.dianping.zebra.shard.merge.RowData;
+import com.dianping.zebra.shard.merge.RowDataMeta;
+import com.dianping.zebra.shard.merge.RowDataSpillFile;
+import com.dianping.zebra.shard.merge.RowDataStream;
+
+/**
+ * <p>
+ * 外部归并排序，用于没有limit的group by + order by
+ * </p>
+ * 逐行读取上游的数据流，估算的内存超过<tt>MergeSpillConfig.maxInMemoryBytes</tt>时把当前的数据排好序写成一个临时文件（run），
+ * 最后对所有run做多路归并，逐行产出；run太多时先分批归并，每次最多同时打开<tt>MAX_MERGE_WAYS</tt>个文件。
+ * 没有发生溢写时直接在内存中排序。相等的行保持上游的顺序，与<tt>Collections.sort</tt>一致。
+ */
+public class ExternalSortStream implements RowDataStream {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ExternalSortStream.class);
+
+	private static final int MAX_MERGE_WAYS = 64;
+
+	private final RowDataStream source;
+
+	private final Comparator<RowData> comparator;
+
+	private final MergeSpillConfig config;
+
+	private final List<RowDataSpillFile> runs = new ArrayList<RowDataSpillFile>();
+
+	private ResultSet resultSet;
+
+	private RowDataMeta meta;
+
+	private Iterator<RowData> memoryOutput;
+
+	private RunMerger merger;
+
+	private boolean sorted = false;
+
+	public ExternalSortStream(RowDataStream source, Comparator<RowData> comparator, MergeSpillConfig config) {
+		this.source = source;
+		this.comparator = comparator;
+		this.config = config;
+	}
+
+	@Override
+	public RowData next() throws SQLException {
+		if (!sorted) {
+			sorted = true;
+			sort();
+		}
+
+		if (merger != null) {
+			return merger.next();
+		}
+		return memoryOutput.hasNext() ? memoryOutput.next() : null;
+	}
+
+	public boolean isSpilled() {
+		return !runs.isEmpty();
+	}
+
+	@Override
+	public void close() {
+		memoryOutput = null;
+		if (merger != null) {
+			merger.close();
+			merger = null;
+		}
+
+		for (RowDataSpillFile run : runs) {
+			run.delete();
+		}
+		source.close();
+	}
+
+	private void sort() throws SQLException {
+		List<RowData> rows = new ArrayList<RowData>();
+		long memoryBytes = 0;
+
+		try {
+			RowData row;
+			while ((row = source.next()) != null) {
+				if (resultSet == null) {
+					resultSet = row.getResultSet();
+					meta = row.getMeta();
+				}
+				rows.add(row);
+				memoryBytes += row.estimateSize();
+
+				if (memoryBytes > config.getMaxInMemoryBytes()) {
+					if (runs.isEmpty()) {
+						LOGGER.info("order by data exceed " + config.getMaxInMemoryBytes() + " bytes, spill to disk.");
+					}
+					runs.add(writeRun(rows));
+					rows.clear();
+					memoryBytes = 0;
+				}
+			}
+
+			if (runs.isEmpty()) {
+				Collections.sort(rows, comparator);
+				memoryOutput = rows.iterator();
+				return;
+			}
+
+			if (!rows.isEmpty()) {
+				runs.add(writeRun(rows));
+				rows.clear();
+			}
+
+			while (runs.size() > MAX_MERGE_WAYS) {
+				// 合并最前面的一批run，放回原来的位置，保证相等的行的顺序不变
+				List<RowDataSpillFile> batch = new ArrayList<RowDataSpillFile>(runs.subList(0, MAX_MERGE_WAYS));
+				RowDataSpillFile merged = mergeRuns(batch);
+				runs.subList(0, MAX_MERGE_WAYS).clear();
+				runs.add(0, merged);
+			}
+
+			merger = new RunMerger(runs);
+		} catch (IOException e) {
+			close();
+			throw new SQLException("Spill order by data to disk failed.", e);
+		} catch (SQLException e) {
+			close();
+			throw e;
+		} finally {
+			source.close();
+		}
+	}
+
+	private RowDataSpillFile writeRun(List<RowData> rows) throws IOException {
+		Collections.sort(rows, comparator);
+
+		RowDataSpillFile run = new RowDataSpillFile(config.getSpillDirectory());
+		try {
+			for (RowData row : rows) {
+				run.write(row);
+			}
+			run.finish();
+		} catch (IOException e) {
+			run.delete();
+			throw e;
+		}
+		return run;
+	}
+
+	private RowDataSpillFile mergeRuns(List<RowDataSpillFile> batch) throws IOException, SQLException {
+		RowDataSpillFile merged = new RowDataSpillFile(config.getSpillDirectory());
+		RunMerger batchMerger = new RunMerger(batch);
+
+		try {
+			RowData row;
+			while ((row = batchMerger.next()) != null) {
+				merged.write(row);
+			}
+			merged.finish();
+		} catch (IOException e) {
+			merged.delete();
+			throw e;
+		} finally {
+			batchMerger.close();
+			for (RowDataSpillFile run : batch) {
+				run.delete();
+			}
+		}
+		return merged;
+	}
+
+	private class RunMerger {
+
+		private final List<RowDataSpillFile.Reader> readers = new ArrayList<RowDataSpillFile.Reader>();
+
+		private final PriorityQueue<Cursor> heap;
+
+		private RunMerger(List<RowDataSpillFile> runs) throws IOException, SQLException {
+			this.heap = new PriorityQueue<Cursor>(Math.max(runs.size(), 1), new Comparator<Cursor>() {
+				@Override
+				public int compare(Cursor o1, Cursor o2) {
+					int result = comparator.compare(o1.row, o2.row);
+					return result != 0 ? result : (o1.index < o2.index ? -1 : (o1.index == o2.index ? 0 : 1));
+				}
+			});
+
+			try {
+				for (int i = 0; i < runs.size(); i++) {
+					RowDataSpillFile.Reader reader = runs.get(i).openReader(resultSet, meta);
+					readers.add(reader);
+
+					RowData row = reader.next();
+					if (row != null) {
+						heap.add(new Cursor(i, reader, row));
+					}
+				}
+			} catch (IOException e) {
+				close();
+				throw e;
+			} catch (SQLException e) {
+				close();
+				throw e;
+			}
+		}
+
+		RowData next() throws SQLException {
+			Cursor cursor = heap.poll();
+			if (cursor == null) {
+				return null;
+			}
+
+			RowData row = cursor.row;
+			cursor.row = cursor.reader.next();
+			if (cursor.row != null) {
+				heap.add(cursor);
+			}
+			return row;
+		}
+
+		void close() {
+			heap.clear();
+			for (RowDataSpillFile.Reader reader : readers) {
+				reader.close();
+			}
+		}
+	}
+
+	private static class Cursor {
+
+		private final int index;
+
+		private final RowDataSpillFile.Reader reader;
+
+		private RowData row;
+
+		private Cursor(int index, RowDataSpillFile.Reader reader, RowData row) {
+			this.index = index;
+			this.reader = reader;
+			this.row = row;
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.shard.merge.orderby;
+
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import com.alibaba.druid.sql.ast.SQLName;
+import com.alibaba.druid.sql.ast.SQLOrderBy;
+import com.alibaba.druid.sql.ast.SQLOrderingSpecification;
+import com.alibaba.druid.sql.ast.statement.SQLSelectOrderByItem;
+import com.dianping.zebra.shard.merge.RowData;
+import com.dianping.zebra.shard.merge.RowDataMeta;
+
+/**
+ * <p>
+ * 由orderby子句预编译得到的比较器，每个查询只编译一次，由<tt>MergeContext</tt>持有
+ * </p>
+ * 别名解析以及排序方向在构造时完成，列的槽位和比较方式按照<tt>RowDataMeta</tt>解析一次，
+ * 之后每次比较只需要按槽位取值并做对应类型的比较。
+ */
+public class OrderByComparator implements Comparator<RowData> {
+
+	private static final byte COMPARE_LONG = 0;
+
+	private static final byte COMPARE_DOUBLE = 1;
+
+	private static final byte COMPARE_OBJECT = 2;
+
+	private final String[] columnLabels;
+
+	private final String[] identifiers;
+
+	private final boolean[] descs;
+
+	private volatile CompiledColumns compiled;
+
+	public OrderByComparator(SQLOrderBy orderBy, Map<String, String> columnNameAliasMapping) {
+		List<SQLSelectOrderByItem> items = orderBy.getItems();
+		this.columnLabels = new String[items.size()];
+		this.identifiers = new String[items.size()];
+		this.descs = new boolean[items.size()];
+
+		for (int i = 0; i < items.size(); i++) {
+			SQLSelectOrderByItem orderByEle = items.get(i);
+			SQLName identifier = (SQLName) orderByEle.getExpr();
+			String columnLabel = columnNameAliasMapping.get(identifier.getSimpleName());
+
+			columnLabels[i] = columnLabel == null ? identifier.getSimpleName() : columnLabel;
+			identifiers[i] = identifier.toString();
+			descs[i] = orderByEle.getType() != null
+			      && !((SQLOrderingSpecification) orderByEle.getType()).name().equals("ASC");
+		}
+	}
+
+	@Override
+	public int compare(RowData o1, RowData o2) {
+		try {
+			CompiledColumns c1 = compile(o1.getMeta());
+			CompiledColumns c2 = o2.getMeta() == c1.meta ? c1 : compile(o2.getMeta());
+
+			for (int i = 0; i < columnLabels.length; i++) {
+				int compareRes = compareColumn(o1, c1, o2, c2, i);
+
+				if (compareRes != 0) {
+					return descs[i] ? (compareRes < 0 ? 1 : -1) : compareRes;
+				}
+			}
+
+			return 0;
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private int compareColumn(RowData o1, CompiledColumns c1, RowData o2, CompiledColumns c2, int i)
+	      throws SQLException {
+		int slot1 = c1.slots[i];
+		int slot2 = c2.slots[i];
+		byte compareType = c1.compareTypes[i];
+
+		if (compareType != COMPARE_OBJECT && compareType == c2.compareTypes[i] && c1.kinds[i] == c2.kinds[i]
+		      && c1.scales[i] == c2.scales[i] && o1.isPrimitiveAt(slot1) && o2.isPrimitiveAt(slot2)) {
+			if (compareType == COMPARE_LONG) {
+				long value1 = o1.getPrimitiveAt(slot1);
+				long value2 = o2.getPrimitiveAt(slot2);
+				return value1 < value2 ? -1 : (value1 == value2 ? 0 : 1);
+			} else {
+				return Double.compare(Double.longBitsToDouble(o1.getPrimitiveAt(slot1)),
+				      Double.longBitsToDouble(o2.getPrimitiveAt(slot2)));
+			}
+		}
+
+		Object value1 = o1.getValueAt(slot1);
+		Object value2 = o2.getValueAt(slot2);
+
+		if (value1 == null || value2 == null) {
+			// 与MySQL保持一致，null小于任何值
+			return value1 == value2 ? 0 : (value1 == null ? -1 : 1);
+		}
+
+		if (value1.getClass() != value2.getClass()) {
+			throw new SQLException("Invalid data");
+		}
+
+		if (!(value1 instanceof Comparable)) {
+			throw new SQLException("Can not orderBy column : " + identifiers[i] + " which isn't comparable.");
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		int compareRes = ((Comparable) value1).compareTo(value2);
+		return compareRes;
+	}
+
+	private CompiledColumns compile(RowDataMeta meta) throws SQLException {
+		CompiledColumns c = compiled;
+		if (c != null && c.meta == meta) {
+			return c;
+		}
+
+		int[] slots = new int[columnLabels.length];
+		byte[] kinds = new byte[columnLabels.length];
+		byte[] compareTypes = new byte[columnLabels.length];
+		int[] scales = new int[columnLabels.length];
+		for (int i = 0; i < columnLabels.length; i++) {
+			slots[i] = meta.getSlot(columnLabels[i]);
+			if (slots[i] < 0) {
+				throw new SQLException("No column named : " + columnLabels[i]);
+			}
+
+			kinds[i] = meta.getKind(slots[i]);
+			scales[i] = meta.getScale(slots[i]);
+			switch (kinds[i]) {
+			case RowDataMeta.KIND_INT:
+			case RowDataMeta.KIND_LONG:
+			case RowDataMeta.KIND_SHORT:
+			case RowDataMeta.KIND_BYTE:
+			case RowDataMeta.KIND_DECIMAL:
+			case RowDataMeta.KIND_TIMESTAMP:
+			case RowDataMeta.KIND_DATE:
+			case RowDataMeta.KIND_TIME:
+				// 定点数在小数位数相同时，日期时间类型按照距离1970年的时长，都可以直接比较long
+				compareTypes[i] = COMPARE_LONG;
+				break;
+			case RowDataMeta.KIND_DOUBLE:
+			case RowDataMeta.KIND_FLOAT:
+				compareTypes[i] = COMPARE_DOUBLE;
+				break;
+			default:
+				// String, 超出long范围的BigDecimal等直接使用其自身的compareTo
+				compareTypes[i] = COMPARE_OBJECT;
+				break;
+			}
+		}
+
+		c = new CompiledColumns(meta, slots, kinds, scales, compareTypes);
+		compiled = c;
+		return c;
+	}
+
+	private static class CompiledColumns {
+
+		private final RowDataMeta meta;
+
+		private final int[] slots;
+
+		private final byte[] kinds;
+
+		private final int[] scales;
+
+		private final byte[] compareTypes;
+
+		public CompiledColumns(RowDataMeta meta, int[] slots, byte[] kinds, int[] scales, byte[] compareTypes) {
+			this.meta = meta;
+			this.slots = slots;
+			this.kinds = kinds;
+			this.scales = scales;
+			this.compareTypes = compareTypes;
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.shard.merge.orderby;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.dianping.zebra.shard.merge.MergeContext;
+import com.dianping.zebra.shard.merge.RowData;
+import com.dianping.zebra.shard.merge.RowDataReader;
+import com.dianping.zebra.shard.merge.RowDataStream;
+
+/**
+ * <p>
+ * 对若干个已经按照orderby各自有序的真实<tt>ResultSet</tt>进行多路归并。<br>
+ * 堆中只保存每个<tt>ResultSet</tt>的当前行，内存占用与分片数成正比，与总行数无关。
+ * </p>
+ */
+public class OrderByStreamMerger implements RowDataStream {
+
+	private final List<RowDataReader> readers;
+
+	private final PriorityQueue<HeadRow> heap;
+
+	private boolean started = false;
+
+	public OrderByStreamMerger(List<ResultSet> resultSets, final MergeContext mergeContext) throws SQLException {
+		this.readers = new ArrayList<RowDataReader>(resultSets.size());
+		for (ResultSet rs : resultSets) {
+			this.readers.add(new RowDataReader(rs, mergeContext));
+		}
+
+		final OrderByComparator comparator = mergeContext.getOrderByComparator();
+		this.heap = new PriorityQueue<HeadRow>(Math.max(1, resultSets.size()), new Comparator<HeadRow>() {
+			@Override
+			public int compare(HeadRow o1, HeadRow o2) {
+				int compareRes = comparator.compare(o1.row, o2.row);
+				// 值相等时按照ResultSet的顺序输出，与全量排序的结果保持一致
+				return compareRes != 0 ? compareRes : o1.readerIndex - o2.readerIndex;
+			}
+		});
+	}
+
+	@Override
+	public RowData next() throws SQLException {
+		if (!started) {
+			started = true;
+			for (int i = 0; i < readers.size(); i++) {
+				RowData row = readers.get(i).read();
+				if (row != null) {
+					heap.add(new HeadRow(i, row));
+				}
+			}
+		}
+
+		HeadRow head = heap.poll();
+		if (head == null) {
+			return null;
+		}
+
+		RowData result = head.row;
+		RowData nextRow = readers.get(head.readerIndex).read();
+		if (nextRow != null) {
+			head.row = nextRow;
+			heap.add(head);
+		}
+
+		return result;
+	}
+
+	@Override
+	public void close() {
+		heap.clear();
+	}
+
+	private static class HeadRow {
+
+		private final int readerIndex;
+
+		private RowData row;
+
+		public HeadRow(int readerIndex, RowData row) {
+			this.readerIndex = readerIndex;
+			this.row = row;
+		}
+	}
+}
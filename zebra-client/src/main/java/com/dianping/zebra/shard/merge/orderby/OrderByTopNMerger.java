@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.shard.merge.orderby;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import com.dianping.zebra.shard.merge.RowData;
+
+/**
+ * <p>
+ * 用于orderby + limit的有界堆，只保留排序后的前<tt>size</tt>行，其余行在到达时直接丢弃。<br>
+ * 内存和比较次数与分页大小(offset + limit)成正比，与扫描的总行数无关。
+ * </p>
+ * 值相等的行按照到达顺序输出，与全量稳定排序的结果保持一致；开启distinct时重复行只保留第一次出现的那一行。
+ */
+public class OrderByTopNMerger {
+
+	private final int size;
+
+	private final Comparator<Entry> entryComparator;
+
+	private final PriorityQueue<Entry> heap;
+
+	private final Set<RowData> distinctRows;
+
+	private long sequence = 0;
+
+	public OrderByTopNMerger(int size, final Comparator<RowData> comparator, boolean distinct) {
+		this.size = size;
+		this.entryComparator = new Comparator<Entry>() {
+			@Override
+			public int compare(Entry o1, Entry o2) {
+				int compareRes = comparator.compare(o1.row, o2.row);
+				if (compareRes != 0) {
+					return compareRes;
+				}
+				return o1.sequence < o2.sequence ? -1 : (o1.sequence == o2.sequence ? 0 : 1);
+			}
+		};
+		// 堆顶为当前保留的行中排在最后的一行
+		this.heap = new PriorityQueue<Entry>(Math.max(1, Math.min(size, 1024)), Collections.reverseOrder(entryComparator));
+		this.distinctRows = distinct ? new HashSet<RowData>() : null;
+	}
+
+	/**
+	 * 尝试放入一行数据
+	 *
+	 * @param row
+	 */
+	public void offer(RowData row) {
+		if (size <= 0) {
+			return;
+		}
+		if (distinctRows != null && distinctRows.contains(row)) {
+			return;
+		}
+
+		Entry entry = new Entry(row, sequence++);
+		if (heap.size() < size) {
+			add(entry);
+		} else if (entryComparator.compare(entry, heap.peek()) < 0) {
+			// 新行排在堆顶之前，替换堆顶；被淘汰的行即使再次出现也一定排在堆顶之后，不会重新进入
+			Entry evicted = heap.poll();
+			if (distinctRows != null) {
+				distinctRows.remove(evicted.row);
+			}
+			add(entry);
+		}
+	}
+
+	private void add(Entry entry) {
+		heap.add(entry);
+		if (distinctRows != null) {
+			distinctRows.add(entry.row);
+		}
+	}
+
+	/**
+	 * @return 按orderby排好序的前<tt>size</tt>行
+	 */
+	public List<RowData> getSortedRows() {
+		List<Entry> entries = new ArrayList<Entry>(heap);
+		Collections.sort(entries, entryComparator);
+
+		List<RowData> rows = new ArrayList<RowData>(entries.size());
+		for (Entry entry : entries) {
+			rows.add(entry.row);
+		}
+
+		return rows;
+	}
+
+	private static class Entry {
+
+		private final RowData row;
+
+		private final long sequence;
+
+		public Entry(RowData row, long sequence) {
+			this.row = row;
+			this.sequence = sequence;
+		}
+	}
+}
@@ -46,31 +46,38 @@ public class DefaultSQLRewrite implements SQLRewrite {
 	// normal sql
 	@Override
 	public String rewrite(SQLParsedResult pr, String logicalTable, String physicalTable) {
-		SQLStatement stmt = pr.getStmt();
-		StringBuilder out = new StringBuilder();
-		Map<String, String> tableMapping = new LinkedHashMap<String, String>(2);
-		tableMapping.put(logicalTable, physicalTable);
-
-		ShardRewriteTableOutputVisitor visitor = new ShardRewriteTableOutputVisitor(out, tableMapping, pr);
-		stmt.accept(visitor);
-
-		return out.toString();
+		return getTemplate(pr, logicalTable).instantiate(physicalTable);
 	}
 
 	// multi queries
 	@Override
 	public String rewrite(SQLParsedResult pr, String logicalTable, String physicalTable,
 	      Set<Integer> allVariantRefIndexes) {
-		SQLStatement stmt = pr.getStmt();
-		StringBuilder out = new StringBuilder();
-		Map<String, String> tableMapping = new LinkedHashMap<String, String>(2);
-		tableMapping.put(logicalTable, physicalTable);
+		SQLRewriteTemplate template = getTemplate(pr, logicalTable);
+		allVariantRefIndexes.addAll(template.getVariantRefIndexes());
 
-		ShardRewriteTableOutputVisitor visitor = new ShardRewriteTableOutputVisitor(out, tableMapping, pr,
-		      allVariantRefIndexes);
-		stmt.accept(visitor);
+		return template.instantiate(physicalTable);
+	}
 
-		return out.toString();
+	// 改写后的SQL只与SQL本身和逻辑表有关，物理表名用占位符代替，同一个逻辑表只需要遍历一次AST
+	private SQLRewriteTemplate getTemplate(SQLParsedResult pr, String logicalTable) {
+		SQLRewriteTemplate template = pr.getRewriteTemplate(logicalTable);
+
+		if (template == null) {
+			StringBuilder out = new StringBuilder();
+			Map<String, String> tableMapping = new LinkedHashMap<String, String>(2);
+			tableMapping.put(logicalTable, SQLRewriteTemplate.TABLE_PLACEHOLDER);
+			Set<Integer> variantRefIndexes = new HashSet<Integer>();
+
+			ShardRewriteTableOutputVisitor visitor = new ShardRewriteTableOutputVisitor(out, tableMapping, pr,
+			      variantRefIndexes);
+			pr.getStmt().accept(visitor);
+
+			template = new SQLRewriteTemplate(out.toString(), variantRefIndexes);
+			pr.putRewriteTemplate(logicalTable, template);
+		}
+
+		return template;
 	}
 
 	// build sql optimize in and batch insert
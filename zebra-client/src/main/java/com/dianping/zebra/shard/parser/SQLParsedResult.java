@@ -18,6 +18,9 @@
  */
 package com.dianping.zebra.shard.parser;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import com.alibaba.druid.sql.ast.SQLStatement;
 import com.dianping.zebra.shard.exception.ShardParseException;
 import com.dianping.zebra.shard.merge.MergeContext;
@@ -34,6 +37,10 @@ public class SQLParsedResult {
 
 	private MergeContext mergeContext;
 
+	// 逻辑表 -> 改写模板
+	private final ConcurrentMap<String, SQLRewriteTemplate> rewriteTemplates = new ConcurrentHashMap<String, SQLRewriteTemplate>(
+	      4);
+
 	public SQLParsedResult() {
 	}
 
@@ -59,4 +66,12 @@ public class SQLParsedResult {
 	public MergeContext getMergeContext() {
 		return mergeContext;
 	}
+
+	public SQLRewriteTemplate getRewriteTemplate(String logicalTable) {
+		return rewriteTemplates.get(logicalTable);
+	}
+
+	public void putRewriteTemplate(String logicalTable, SQLRewriteTemplate template) {
+		rewriteTemplates.put(logicalTable, template);
+	}
 }
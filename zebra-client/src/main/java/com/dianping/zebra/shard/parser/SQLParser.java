@@ -32,15 +32,29 @@ import com.alibaba.druid.sql.parser.Lexer;
 import com.alibaba.druid.sql.parser.SQLStatementParser;
 import com.alibaba.druid.sql.parser.Token;
 import com.alibaba.druid.sql.visitor.SQLASTVisitor;
+import com.dianping.zebra.log.Logger;
+import com.dianping.zebra.log.LoggerFactory;
 import com.dianping.zebra.shard.exception.ShardParseException;
 import com.dianping.zebra.shard.parser.visitor.*;
-import com.dianping.zebra.shard.util.LRUCache;
+import com.dianping.zebra.util.ClockCache;
+import com.dianping.zebra.util.ClockCacheMBean;
 import com.dianping.zebra.util.SqlType;
 
 public class SQLParser {
 
-	private final static Map<String, SQLParsedResult> parsedSqlCache = Collections
-	      .synchronizedMap(new LRUCache<String, SQLParsedResult>(1000));
+	private static final Logger LOGGER = LoggerFactory.getLogger(SQLParser.class);
+
+	public static final long DEFAULT_CACHE_CAPACITY = 1000;
+
+	private static final String CACHE_MBEAN_NAME = "com.dianping.zebra:type=ClockCache,name=SQLParser";
+
+	private static volatile ClockCache<String, SQLParsedResult> parsedSqlCache = createCache(DEFAULT_CACHE_CAPACITY,
+	      false);
+
+	private static boolean cacheWeighBySqlLength = false;
+
+	// 缓存是进程内共享的，第一次配置后只允许扩容
+	private static boolean cacheConfigured = false;
 
 	private static volatile boolean init = false;
 
@@ -51,12 +65,76 @@ public class SQLParser {
 		}
 	}
 
+	/**
+	 * <p>
+	 * 设置进程内共享的解析结果缓存
+	 * </p>
+	 * 第一次配置时按参数重建缓存；之后只有计算方式相同且容量更大时才重建，已缓存的解析结果会被丢弃，
+	 * 容量不大于当前容量的配置不生效，计算方式不同的配置打印警告后忽略。
+	 *
+	 * @param capacity
+	 *           缓存容量，按SQL长度计算权重时为缓存的SQL总字符数，否则为缓存的SQL条数
+	 * @param weighBySqlLength
+	 *           是否按SQL长度计算权重
+	 */
+	public static synchronized void configCache(long capacity, boolean weighBySqlLength) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("parsed sql cache capacity must be positive.");
+		}
+
+		boolean sameWeigher = cacheWeighBySqlLength == weighBySqlLength;
+		if (cacheConfigured && !sameWeigher) {
+			LOGGER.warn(String.format("parsed sql cache is already configured with weighBySqlLength=%s, ignore %s",
+			      cacheWeighBySqlLength, weighBySqlLength));
+			return;
+		}
+		cacheConfigured = true;
+
+		if (sameWeigher && capacity <= parsedSqlCache.getMaxWeight()) {
+			return;
+		}
+
+		parsedSqlCache = createCache(capacity, weighBySqlLength);
+		cacheWeighBySqlLength = weighBySqlLength;
+	}
+
+	public static synchronized boolean isCacheWeighBySqlLength() {
+		return cacheWeighBySqlLength;
+	}
+
+	static synchronized void resetCache() {
+		parsedSqlCache = createCache(DEFAULT_CACHE_CAPACITY, false);
+		cacheWeighBySqlLength = false;
+		cacheConfigured = false;
+	}
+
+	public static ClockCacheMBean getCacheStats() {
+		return parsedSqlCache;
+	}
+
+	private static ClockCache<String, SQLParsedResult> createCache(long capacity, boolean weighBySqlLength) {
+		ClockCache<String, SQLParsedResult> cache = new ClockCache<String, SQLParsedResult>(capacity,
+		      weighBySqlLength ? new ClockCache.Weigher<String, SQLParsedResult>() {
+			      @Override
+			      public int weigh(String sql, SQLParsedResult result) {
+				      return sql.length();
+			      }
+		      } : null);
+		cache.registerMBean(CACHE_MBEAN_NAME);
+
+		return cache;
+	}
+
 	public static SQLParsedResult parseWithCache(String sql) throws ShardParseException {
-		SQLParsedResult result = parsedSqlCache.get(sql);
+		ClockCache<String, SQLParsedResult> cache = parsedSqlCache;
+		SQLParsedResult result = cache.get(sql);
 
 		if (null == result) {
 			result = parseInternal(sql);
-			parsedSqlCache.put(sql, result);
+			SQLParsedResult old = cache.putIfAbsent(sql, result);
+			if (old != null) {
+				result = old;
+			}
 		}
 
 		return result;
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.shard.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>
+ * 改写后SQL的模板
+ * </p>
+ * 对于同一个SQL和同一个逻辑表，改写后的SQL只有物理表名不同。模板用占位符代替物理表名改写一次，按占位符把结果切分成若干文本片段，
+ * 之后每个物理表的SQL只需要把片段和物理表名拼接起来，不需要再遍历AST。
+ */
+public class SQLRewriteTemplate {
+
+	// 用于改写时代替物理表名，不会出现在正常的SQL中
+	public static final String TABLE_PLACEHOLDER = "\u0000__zebra_physical_table__\u0000";
+
+	private final String[] segments;
+
+	private final int segmentsLength;
+
+	private final Set<Integer> variantRefIndexes;
+
+	public SQLRewriteTemplate(String sql, Set<Integer> variantRefIndexes) {
+		List<String> segmentList = new ArrayList<String>();
+		int length = 0;
+		int start = 0;
+		int index;
+		while ((index = sql.indexOf(TABLE_PLACEHOLDER, start)) >= 0) {
+			segmentList.add(sql.substring(start, index));
+			length += index - start;
+			start = index + TABLE_PLACEHOLDER.length();
+		}
+		segmentList.add(sql.substring(start));
+		length += sql.length() - start;
+
+		this.segments = segmentList.toArray(new String[segmentList.size()]);
+		this.segmentsLength = length;
+		this.variantRefIndexes = Collections.unmodifiableSet(variantRefIndexes);
+	}
+
+	/**
+	 * 生成物理表对应的SQL
+	 *
+	 * @param physicalTable
+	 * @return
+	 */
+	public String instantiate(String physicalTable) {
+		if (segments.length == 1) {
+			return segments[0];
+		}
+
+		StringBuilder sb = new StringBuilder(segmentsLength + (segments.length - 1) * physicalTable.length());
+		sb.append(segments[0]);
+		for (int i = 1; i < segments.length; i++) {
+			sb.append(physicalTable).append(segments[i]);
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * @return 改写时收集到的所有参数下标
+	 */
+	public Set<Integer> getVariantRefIndexes() {
+		return variantRefIndexes;
+	}
+}
@@ -25,8 +25,8 @@ import com.dianping.zebra.shard.config.TableShardDimensionConfig;
 import com.dianping.zebra.shard.router.rule.ShardEvalContext;
 import com.dianping.zebra.shard.router.rule.ShardEvalResult;
 import com.dianping.zebra.shard.router.rule.ShardEvalContext.ColumnValue;
-import com.dianping.zebra.shard.router.rule.engine.GroovyRuleEngine;
 import com.dianping.zebra.shard.router.rule.engine.RuleEngine;
+import com.dianping.zebra.shard.router.rule.engine.RuleEngineCompiler;
 import com.dianping.zebra.shard.router.rule.tableset.TableSets;
 import com.dianping.zebra.shard.router.rule.tableset.TableSetsManager;
 import com.dianping.zebra.shard.router.rule.tableset.DefaultTableSetsManager;
@@ -65,9 +65,9 @@ public class DefaultDimensionRule extends AbstractDimensionRule {
 		if(dbRuleStr != null && (dbRuleStr.contains(shardByMonthPrefix) || dbRuleStr.contains(shardByLongPrefix))) {
 			this.isRange = true;
 		}
-		this.dbRuleEngine = new GroovyRuleEngine(dbRuleStr);
+		this.dbRuleEngine = RuleEngineCompiler.compile(dbRuleStr);
 		if(tbRuleStr != null && tbRuleStr.length() > 0) {
-			this.tableRuleEngine = new GroovyRuleEngine(dimensionConfig.getTbRule());
+			this.tableRuleEngine = RuleEngineCompiler.compile(dimensionConfig.getTbRule());
 		}
 
 		this.initShardColumn(dimensionConfig.getDbRule(), dimensionConfig.getTbRule());
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.shard.router.rule.engine;
+
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * 由<tt>RuleEngineCompiler</tt>编译得到的规则引擎，直接以Java代码计算规则，不经过Groovy的动态方法调用
+ * </p>
+ * 规则只能引用一个分片列。列值不是<tt>Integer</tt>、<tt>Long</tt>、<tt>Short</tt>、<tt>Byte</tt>而规则需要对其做整数运算时，
+ * 交给Groovy引擎计算，保证结果以及抛出的异常与原来一致。
+ */
+public class CompiledRuleEngine implements RuleEngine {
+
+	private final String rule;
+
+	private final String column;
+
+	private final Expr expr;
+
+	private final ShardCall shardCall;
+
+	private final boolean integralInput;
+
+	private final RuleEngineBase base = new RuleEngineBase();
+
+	private volatile GroovyRuleEngine fallback;
+
+	CompiledRuleEngine(String rule, String column, Expr expr, ShardCall shardCall, boolean integralInput) {
+		this.rule = rule;
+		this.column = column;
+		this.expr = expr;
+		this.shardCall = shardCall;
+		this.integralInput = integralInput;
+	}
+
+	@Override
+	public Object eval(Map<String, Object> valMap) {
+		Object value = valMap.get(column);
+
+		if (integralInput && !isIntegral(value)) {
+			return getFallback().eval(valMap);
+		}
+
+		if (shardCall != null) {
+			return shardCall.call(base, value);
+		}
+
+		long result = expr.eval(value);
+		if (expr.isLong(value)) {
+			return result;
+		} else {
+			return (int) result;
+		}
+	}
+
+	public String getRule() {
+		return rule;
+	}
+
+	private GroovyRuleEngine getFallback() {
+		GroovyRuleEngine engine = fallback;
+		if (engine == null) {
+			synchronized (this) {
+				engine = fallback;
+				if (engine == null) {
+					engine = new GroovyRuleEngine(rule);
+					fallback = engine;
+				}
+			}
+		}
+		return engine;
+	}
+
+	static boolean isIntegral(Object value) {
+		return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+	}
+
+	/**
+	 * 整数表达式，结果以<tt>long</tt>返回，<tt>isLong</tt>给出Groovy中对应的结果类型
+	 */
+	abstract static class Expr {
+
+		abstract long eval(Object value);
+
+		abstract boolean isLong(Object value);
+	}
+
+	static class ColumnExpr extends Expr {
+
+		@Override
+		long eval(Object value) {
+			return ((Number) value).longValue();
+		}
+
+		@Override
+		boolean isLong(Object value) {
+			return value instanceof Long;
+		}
+	}
+
+	static class LiteralExpr extends Expr {
+
+		private final long literal;
+
+		LiteralExpr(long literal) {
+			this.literal = literal;
+		}
+
+		@Override
+		long eval(Object value) {
+			return literal;
+		}
+
+		@Override
+		boolean isLong(Object value) {
+			return literal > Integer.MAX_VALUE;
+		}
+
+		long getLiteral() {
+			return literal;
+		}
+	}
+
+	static class Crc32Expr extends Expr {
+
+		private static final Charset UTF8 = Charset.forName("utf-8");
+
+		@Override
+		long eval(Object value) {
+			// 与RuleEngineBase.crc32(Object)相同
+			CRC32 crc32 = new CRC32();
+			crc32.update(String.valueOf(value).getBytes(UTF8));
+			return crc32.getValue();
+		}
+
+		@Override
+		boolean isLong(Object value) {
+			return true;
+		}
+	}
+
+	/**
+	 * <tt>intValue()</tt>，<tt>longValue()</tt>以及<tt>toLong()</tt>
+	 */
+	static class ConvertExpr extends Expr {
+
+		private final Expr child;
+
+		private final boolean toLong;
+
+		ConvertExpr(Expr child, boolean toLong) {
+			this.child = child;
+			this.toLong = toLong;
+		}
+
+		@Override
+		long eval(Object value) {
+			long result = child.eval(value);
+			return toLong ? result : (int) result;
+		}
+
+		@Override
+		boolean isLong(Object value) {
+			return toLong;
+		}
+	}
+
+	/**
+	 * <tt>%</tt>以及<tt>intdiv()</tt>，除数为正整数，与Java的取余和整除语义一致
+	 */
+	static class ArithmeticExpr extends Expr {
+
+		private final Expr left;
+
+		private final Expr right;
+
+		private final boolean mod;
+
+		ArithmeticExpr(Expr left, Expr right, boolean mod) {
+			this.left = left;
+			this.right = right;
+			this.mod = mod;
+		}
+
+		@Override
+		long eval(Object value) {
+			long l = left.eval(value);
+			long r = right.eval(value);
+			return mod ? l % r : l / r;
+		}
+
+		@Override
+		boolean isLong(Object value) {
+			return left.isLong(value) || right.isLong(value);
+		}
+	}
+
+	/**
+	 * <tt>shardByHash</tt>，<tt>shardByLong</tt>以及<tt>shardByMonth</tt>
+	 */
+	abstract static class ShardCall {
+
+		abstract Object call(RuleEngineBase base, Object value);
+	}
+
+	static class ShardByHashCall extends ShardCall {
+
+		private final Expr shardValue;
+
+		private final int dbNumber;
+
+		private final int tableNumberPerDb;
+
+		private final boolean useDefaultOrder;
+
+		ShardByHashCall(Expr shardValue, int dbNumber, int tableNumberPerDb, boolean useDefaultOrder) {
+			this.shardValue = shardValue;
+			this.dbNumber = dbNumber;
+			this.tableNumberPerDb = tableNumberPerDb;
+			this.useDefaultOrder = useDefaultOrder;
+		}
+
+		@Override
+		Object call(RuleEngineBase base, Object value) {
+			return base.shardByHash(shardValue.eval(value), dbNumber, tableNumberPerDb, useDefaultOrder);
+		}
+	}
+
+	static class ShardByLongCall extends ShardCall {
+
+		private final long start;
+
+		private final long end;
+
+		private final int[] args;
+
+		private final boolean useDefaultOrder;
+
+		ShardByLongCall(long start, long end, int[] args, boolean useDefaultOrder) {
+			this.start = start;
+			this.end = end;
+			this.args = args;
+			this.useDefaultOrder = useDefaultOrder;
+		}
+
+		@Override
+		Object call(RuleEngineBase base, Object value) {
+			return base.shardByLong(value, start, end, args[0], args[1], args[2], args[3], args[4], useDefaultOrder);
+		}
+	}
+
+	static class ShardByMonthCall extends ShardCall {
+
+		private final String dateFormat;
+
+		private final String inclusiveStartTime;
+
+		private final String inclusiveEndTime;
+
+		private final int[] args;
+
+		private final boolean useDefaultOrder;
+
+		ShardByMonthCall(String dateFormat, String inclusiveStartTime, String inclusiveEndTime, int[] args,
+		      boolean useDefaultOrder) {
+			this.dateFormat = dateFormat;
+			this.inclusiveStartTime = inclusiveStartTime;
+			this.inclusiveEndTime = inclusiveEndTime;
+			this.args = args;
+			this.useDefaultOrder = useDefaultOrder;
+		}
+
+		@Override
+		Object call(RuleEngineBase base, Object value) {
+			return base.shardByMonth(value, dateFormat, inclusiveStartTime, inclusiveEndTime, args[0], args[1], args[2],
+			      args[3], args[4], useDefaultOrder);
+		}
+	}
+}
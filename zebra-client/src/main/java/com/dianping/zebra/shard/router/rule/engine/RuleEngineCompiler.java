@@ -0,0 +1,433 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.shard.router.rule.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.dianping.zebra.shard.router.rule.engine.CompiledRuleEngine.ArithmeticExpr;
+import com.dianping.zebra.shard.router.rule.engine.CompiledRuleEngine.ColumnExpr;
+import com.dianping.zebra.shard.router.rule.engine.CompiledRuleEngine.ConvertExpr;
+import com.dianping.zebra.shard.router.rule.engine.CompiledRuleEngine.Crc32Expr;
+import com.dianping.zebra.shard.router.rule.engine.CompiledRuleEngine.Expr;
+import com.dianping.zebra.shard.router.rule.engine.CompiledRuleEngine.LiteralExpr;
+import com.dianping.zebra.shard.router.rule.engine.CompiledRuleEngine.ShardByHashCall;
+import com.dianping.zebra.shard.router.rule.engine.CompiledRuleEngine.ShardByLongCall;
+import com.dianping.zebra.shard.router.rule.engine.CompiledRuleEngine.ShardByMonthCall;
+import com.dianping.zebra.shard.router.rule.engine.CompiledRuleEngine.ShardCall;
+
+/**
+ * <p>
+ * 分片规则编译器，将常见形式的规则编译为<tt>CompiledRuleEngine</tt>，其余规则仍然使用<tt>GroovyRuleEngine</tt>
+ * </p>
+ * 支持的规则形式：
+ * <ul>
+ * <li>对一个分片列做<tt>%</tt>、<tt>intdiv()</tt>、<tt>intValue()</tt>、<tt>longValue()</tt>、<tt>toLong()</tt>运算，
+ * 比如<tt>#id# % 8</tt>、<tt>(#id#.longValue() % 32).intdiv(8)</tt></li>
+ * <li><tt>crc32(#col#)</tt>，以及除数只含因子2和5(商为有限小数)并立即取整的除法，比如<tt>(crc32(#bid#)/10).toLong()%10</tt></li>
+ * <li>参数都是常量的<tt>shardByHash</tt>、<tt>shardByLong</tt>、<tt>shardByMonth</tt></li>
+ * </ul>
+ * 除数必须是正整数常量，因此整数运算不会溢出，结果与Groovy完全一致。
+ */
+public final class RuleEngineCompiler {
+
+	private static final String SHARD_BY_HASH = "shardByHash";
+
+	private static final String SHARD_BY_LONG = "shardByLong";
+
+	private static final String SHARD_BY_MONTH = "shardByMonth";
+
+	private static final String CRC32 = "crc32";
+
+	private RuleEngineCompiler() {
+	}
+
+	/**
+	 * 编译规则，无法编译时返回<tt>GroovyRuleEngine</tt>
+	 *
+	 * @param rule
+	 * @return
+	 */
+	public static RuleEngine compile(String rule) {
+		CompiledRuleEngine engine = tryCompile(rule);
+
+		return engine != null ? engine : new GroovyRuleEngine(rule);
+	}
+
+	/**
+	 * @param rule
+	 * @return 编译后的规则引擎，无法编译时返回null
+	 */
+	public static CompiledRuleEngine tryCompile(String rule) {
+		if (rule == null) {
+			return null;
+		}
+
+		try {
+			return new Parser(rule).parse();
+		} catch (UnsupportedRuleException e) {
+			return null;
+		}
+	}
+
+	private static class Parser {
+
+		private final String rule;
+
+		private int pos;
+
+		private String column;
+
+		private boolean integralInput;
+
+		Parser(String rule) {
+			this.rule = rule;
+		}
+
+		CompiledRuleEngine parse() {
+			skipWhitespace();
+			ShardCall shardCall = null;
+			Expr expr = null;
+
+			if (peekIdentifier(SHARD_BY_HASH) || peekIdentifier(SHARD_BY_LONG) || peekIdentifier(SHARD_BY_MONTH)) {
+				shardCall = parseShardCall();
+			} else {
+				Operand operand = parseExpr();
+				if (operand.decimal) {
+					throw new UnsupportedRuleException();
+				}
+				if (operand.expr instanceof ColumnExpr) {
+					// 规则只有分片列本身时Groovy返回列值原来的对象
+					throw new UnsupportedRuleException();
+				}
+				expr = operand.expr;
+			}
+
+			skipWhitespace();
+			if (pos != rule.length() || column == null) {
+				throw new UnsupportedRuleException();
+			}
+
+			return new CompiledRuleEngine(rule, column, expr, shardCall, integralInput);
+		}
+
+		private ShardCall parseShardCall() {
+			String name = parseIdentifier();
+			expect('(');
+
+			Expr shardValue = null;
+			if (SHARD_BY_HASH.equals(name)) {
+				Operand operand = parseExpr();
+				if (operand.decimal) {
+					throw new UnsupportedRuleException();
+				}
+				shardValue = operand.expr;
+			} else {
+				// shardByLong以及shardByMonth的第一个参数可能是范围条件的集合，原样传入
+				parseColumn();
+			}
+
+			List<Object> args = new ArrayList<Object>();
+			while (true) {
+				skipWhitespace();
+				if (tryConsume(')')) {
+					break;
+				}
+				expect(',');
+				args.add(parseConstant());
+			}
+
+			boolean useDefaultOrder = true;
+			if (!args.isEmpty() && args.get(args.size() - 1) instanceof Boolean) {
+				useDefaultOrder = (Boolean) args.remove(args.size() - 1);
+			}
+
+			if (SHARD_BY_HASH.equals(name)) {
+				if (args.size() != 2) {
+					throw new UnsupportedRuleException();
+				}
+				return new ShardByHashCall(shardValue, toInt(args.get(0)), toInt(args.get(1)), useDefaultOrder);
+			} else if (SHARD_BY_LONG.equals(name)) {
+				if (args.size() != 7) {
+					throw new UnsupportedRuleException();
+				}
+				return new ShardByLongCall(toLong(args.get(0)), toLong(args.get(1)), toInts(args, 2), useDefaultOrder);
+			} else {
+				if (args.size() != 8) {
+					throw new UnsupportedRuleException();
+				}
+				return new ShardByMonthCall(toStr(args.get(0)), toStr(args.get(1)), toStr(args.get(2)), toInts(args, 3),
+				      useDefaultOrder);
+			}
+		}
+
+		// expr := unary (('%' | '/') literal)*
+		private Operand parseExpr() {
+			Operand left = parseUnary();
+
+			while (true) {
+				skipWhitespace();
+				if (tryConsume('%')) {
+					if (left.decimal) {
+						throw new UnsupportedRuleException();
+					}
+					left = new Operand(new ArithmeticExpr(left.expr, parseDivisor(), true), false);
+				} else if (pos < rule.length() && rule.charAt(pos) == '/' && !left.decimal) {
+					pos++;
+					LiteralExpr divisor = parseDivisor();
+					// Groovy中整数相除的结果是BigDecimal，只有商为有限小数时取整的结果才与整除一致
+					if (!isTerminating(divisor.getLiteral())) {
+						throw new UnsupportedRuleException();
+					}
+					left = new Operand(new ArithmeticExpr(left.expr, divisor, false), true);
+				} else {
+					return left;
+				}
+			}
+		}
+
+		// unary := primary ('.intValue()' | '.longValue()' | '.toLong()' | '.intdiv(' literal ')')*
+		private Operand parseUnary() {
+			Operand operand = parsePrimary();
+
+			while (true) {
+				skipWhitespace();
+				if (!tryConsume('.')) {
+					return operand;
+				}
+
+				String method = parseIdentifier();
+				expect('(');
+				if ("intValue".equals(method)) {
+					expect(')');
+					operand = new Operand(new ConvertExpr(operand.expr, false), false);
+				} else if ("longValue".equals(method) || "toLong".equals(method)) {
+					expect(')');
+					operand = new Operand(new ConvertExpr(operand.expr, true), false);
+				} else if ("intdiv".equals(method) && !operand.decimal) {
+					LiteralExpr divisor = parseDivisor();
+					expect(')');
+					operand = new Operand(new ArithmeticExpr(operand.expr, divisor, false), false);
+				} else {
+					throw new UnsupportedRuleException();
+				}
+			}
+		}
+
+		// primary := '#col#' | 'crc32(#col#)' | '(' expr ')'
+		private Operand parsePrimary() {
+			skipWhitespace();
+
+			if (tryConsume('(')) {
+				Operand operand = parseExpr();
+				expect(')');
+				return operand;
+			} else if (peekIdentifier(CRC32)) {
+				parseIdentifier();
+				expect('(');
+				parseColumn();
+				expect(')');
+				return new Operand(new Crc32Expr(), false);
+			} else {
+				parseColumn();
+				integralInput = true;
+				return new Operand(new ColumnExpr(), false);
+			}
+		}
+
+		private void parseColumn() {
+			skipWhitespace();
+			expect('#');
+			int end = rule.indexOf('#', pos);
+			if (end <= pos) {
+				throw new UnsupportedRuleException();
+			}
+
+			String name = rule.substring(pos, end);
+			if (column != null && !column.equals(name)) {
+				// 引用了多个分片列
+				throw new UnsupportedRuleException();
+			}
+			column = name;
+			pos = end + 1;
+		}
+
+		private LiteralExpr parseDivisor() {
+			skipWhitespace();
+			int start = pos;
+			while (pos < rule.length() && Character.isDigit(rule.charAt(pos))) {
+				pos++;
+			}
+			// 以0开头的整数在Groovy中是八进制
+			if (start == pos || pos - start > 18 || rule.charAt(start) == '0') {
+				throw new UnsupportedRuleException();
+			}
+
+			long literal = Long.parseLong(rule.substring(start, pos));
+			if (literal <= 0) {
+				throw new UnsupportedRuleException();
+			}
+			return new LiteralExpr(literal);
+		}
+
+		private Object parseConstant() {
+			skipWhitespace();
+			if (pos >= rule.length()) {
+				throw new UnsupportedRuleException();
+			}
+
+			char c = rule.charAt(pos);
+			if (c == '\'' || c == '"') {
+				int end = rule.indexOf(c, pos + 1);
+				if (end < 0) {
+					throw new UnsupportedRuleException();
+				}
+				String str = rule.substring(pos + 1, end);
+				if (str.indexOf('\\') >= 0 || str.indexOf('$') >= 0) {
+					throw new UnsupportedRuleException();
+				}
+				pos = end + 1;
+				return str;
+			} else if (c == '-' || Character.isDigit(c)) {
+				int start = pos++;
+				while (pos < rule.length() && Character.isDigit(rule.charAt(pos))) {
+					pos++;
+				}
+				String literal = rule.substring(c == '-' ? start + 1 : start, pos);
+				if (literal.length() > 1 && literal.charAt(0) == '0') {
+					throw new UnsupportedRuleException();
+				}
+				try {
+					return Long.parseLong(rule.substring(start, pos));
+				} catch (NumberFormatException e) {
+					throw new UnsupportedRuleException();
+				}
+			} else {
+				String identifier = parseIdentifier();
+				if ("true".equals(identifier)) {
+					return Boolean.TRUE;
+				} else if ("false".equals(identifier)) {
+					return Boolean.FALSE;
+				}
+				throw new UnsupportedRuleException();
+			}
+		}
+
+		private String parseIdentifier() {
+			skipWhitespace();
+			int start = pos;
+			while (pos < rule.length() && Character.isJavaIdentifierPart(rule.charAt(pos))) {
+				pos++;
+			}
+			if (start == pos) {
+				throw new UnsupportedRuleException();
+			}
+			return rule.substring(start, pos);
+		}
+
+		private boolean peekIdentifier(String identifier) {
+			int end = pos + identifier.length();
+			return rule.startsWith(identifier, pos)
+			      && (end >= rule.length() || !Character.isJavaIdentifierPart(rule.charAt(end)));
+		}
+
+		private void expect(char c) {
+			if (!tryConsume(c)) {
+				throw new UnsupportedRuleException();
+			}
+		}
+
+		private boolean tryConsume(char c) {
+			skipWhitespace();
+			if (pos < rule.length() && rule.charAt(pos) == c) {
+				pos++;
+				return true;
+			}
+			return false;
+		}
+
+		private void skipWhitespace() {
+			while (pos < rule.length() && Character.isWhitespace(rule.charAt(pos))) {
+				pos++;
+			}
+		}
+	}
+
+	private static boolean isTerminating(long divisor) {
+		while (divisor % 2 == 0) {
+			divisor /= 2;
+		}
+		while (divisor % 5 == 0) {
+			divisor /= 5;
+		}
+		return divisor == 1;
+	}
+
+	private static int[] toInts(List<Object> args, int from) {
+		int[] result = new int[args.size() - from];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = toInt(args.get(from + i));
+		}
+		return result;
+	}
+
+	private static int toInt(Object arg) {
+		long value = toLong(arg);
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			throw new UnsupportedRuleException();
+		}
+		return (int) value;
+	}
+
+	private static long toLong(Object arg) {
+		if (!(arg instanceof Long)) {
+			throw new UnsupportedRuleException();
+		}
+		return (Long) arg;
+	}
+
+	private static String toStr(Object arg) {
+		if (!(arg instanceof String)) {
+			throw new UnsupportedRuleException();
+		}
+		return (String) arg;
+	}
+
+	private static class Operand {
+
+		private final Expr expr;
+
+		// Groovy中结果为BigDecimal，只允许紧跟取整
+		private final boolean decimal;
+
+		Operand(Expr expr, boolean decimal) {
+			this.expr = expr;
+			this.decimal = decimal;
+		}
+	}
+
+	private static class UnsupportedRuleException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		UnsupportedRuleException() {
+			super(null, null, false, false);
+		}
+	}
+}
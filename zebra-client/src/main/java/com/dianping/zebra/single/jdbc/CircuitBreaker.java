@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.single.jdbc;
+
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.dianping.zebra.util.JDBCUtils;
+
+/**
+ * <p>
+ * 单个DataSource的熔断器，统计获取连接以及执行语句的结果
+ * </p>
+ * <tt>CLOSED</tt>状态下按滑动窗口统计失败率和慢调用率，失败（或慢调用）次数不少于<tt>minimumCalls</tt>且比例超过阈值时进入
+ * <tt>OPEN</tt>状态，不再获取连接。经过<tt>openDurationMillis</tt>后进入<tt>HALF_OPEN</tt>状态，只放行
+ * <tt>halfOpenTrialCalls</tt>个试探请求：全部成功则回到<tt>CLOSED</tt>，任何一个失败则重新进入<tt>OPEN</tt>。
+ * <tt>windowMillis</tt>为0时关闭熔断。
+ * <p>
+ * 只有获取连接失败、连接异常（SQLState为08开头）以及主库只读异常计为失败，SQL本身的错误不计入。
+ * 成功只由语句的执行结果上报，借出连接本身不计为一次调用。
+ * </p>
+ */
+public class CircuitBreaker {
+
+	public static final String STATE_PROPERTY_NAME = "circuitBreakerState";
+
+	private static final int BUCKET_COUNT = 10;
+
+	private final long windowMillis;
+
+	private final long bucketMillis;
+
+	private final long minimumCalls;
+
+	private final Bucket[] buckets;
+
+	private final StateListener listener;
+
+	private final AtomicReference<State> state = new AtomicReference<State>(State.CLOSED);
+
+	private final AtomicInteger trialPermits = new AtomicInteger();
+
+	private final AtomicInteger trialSuccesses = new AtomicInteger();
+
+	private volatile long openUntil;
+
+	private volatile double failureRateThreshold = 0.5;
+
+	private volatile double slowCallRateThreshold = 0.5;
+
+	private volatile long slowCallDurationMillis = 5000;
+
+	private volatile long openDurationMillis = 5000;
+
+	private volatile int halfOpenTrialCalls = 3;
+
+	public CircuitBreaker(long windowMillis, long minimumCalls, StateListener listener) {
+		this.windowMillis = windowMillis;
+		this.bucketMillis = Math.max(windowMillis / BUCKET_COUNT, 1);
+		this.minimumCalls = Math.max(minimumCalls, 1);
+		this.listener = listener;
+		this.buckets = new Bucket[BUCKET_COUNT];
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets[i] = new Bucket();
+		}
+	}
+
+	public boolean isEnabled() {
+		return windowMillis > 0;
+	}
+
+	public State getState() {
+		return state.get();
+	}
+
+	/**
+	 * 是否可以选择该DataSource，不占用试探名额
+	 */
+	public boolean isAvailable() {
+		switch (state.get()) {
+		case OPEN:
+			return System.currentTimeMillis() >= openUntil;
+		case HALF_OPEN:
+			return trialPermits.get() > 0;
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * 获取连接前调用，<tt>HALF_OPEN</tt>状态下占用一个试探名额
+	 */
+	public boolean tryAcquirePermission() {
+		if (!isEnabled()) {
+			return true;
+		}
+
+		while (true) {
+			State current = state.get();
+			if (current == State.CLOSED) {
+				return true;
+			} else if (current == State.OPEN) {
+				if (System.currentTimeMillis() < openUntil) {
+					return false;
+				}
+				halfOpen();
+			} else {
+				int permits = trialPermits.get();
+				if (permits <= 0) {
+					return false;
+				}
+				if (trialPermits.compareAndSet(permits, permits - 1)) {
+					return true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * 连接没有执行任何语句就归还时调用，<tt>HALF_OPEN</tt>状态下退还试探名额
+	 */
+	public void releasePermission() {
+		if (!isEnabled() || state.get() != State.HALF_OPEN) {
+			return;
+		}
+
+		while (true) {
+			int permits = trialPermits.get();
+			if (permits + trialSuccesses.get() >= halfOpenTrialCalls || trialPermits.compareAndSet(permits, permits + 1)) {
+				return;
+			}
+		}
+	}
+
+	public void onSuccess(long costMillis) {
+		if (!isEnabled()) {
+			return;
+		}
+
+		State current = state.get();
+		if (current == State.CLOSED) {
+			record(false, costMillis >= slowCallDurationMillis);
+		} else if (current == State.HALF_OPEN && trialSuccesses.incrementAndGet() >= halfOpenTrialCalls) {
+			if (transition(State.HALF_OPEN, State.CLOSED)) {
+				resetBuckets();
+			}
+		}
+	}
+
+	/**
+	 * 获取连接失败，总是计为失败
+	 */
+	public void onConnectionError(SQLException e) {
+		onFailure();
+	}
+
+	/**
+	 * 执行语句失败，只有连接异常和主库只读异常计为失败，超时计为慢调用
+	 */
+	public void onError(SQLException e, long costMillis) {
+		if (!isEnabled()) {
+			return;
+		}
+
+		if (isFailure(e)) {
+			onFailure();
+		} else if (e instanceof SQLTimeoutException) {
+			onSuccess(Math.max(costMillis, slowCallDurationMillis));
+		} else {
+			onSuccess(costMillis);
+		}
+	}
+
+	private void onFailure() {
+		if (!isEnabled()) {
+			return;
+		}
+
+		State current = state.get();
+		if (current == State.CLOSED) {
+			record(true, false);
+		} else if (current == State.HALF_OPEN) {
+			open(State.HALF_OPEN);
+		}
+	}
+
+	static boolean isFailure(SQLException e) {
+		if (e instanceof SQLTransientConnectionException || e instanceof SQLNonTransientConnectionException
+		      || JDBCUtils.isReadOnlyException(e)) {
+			return true;
+		}
+		String sqlState = e.getSQLState();
+		return sqlState != null && sqlState.startsWith("08");
+	}
+
+	private void record(boolean failure, boolean slow) {
+		long now = System.currentTimeMillis();
+		long epoch = now / bucketMillis;
+		Bucket bucket = buckets[(int) (epoch % BUCKET_COUNT)];
+		bucket.record(epoch, failure, slow);
+
+		if (failure || slow) {
+			long calls = 0, failures = 0, slowCalls = 0;
+			for (Bucket b : buckets) {
+				if (epoch - b.epoch < BUCKET_COUNT) {
+					calls += b.calls.get();
+					failures += b.failures.get();
+					slowCalls += b.slowCalls.get();
+				}
+			}
+
+			if ((failures >= minimumCalls && failures >= calls * failureRateThreshold)
+			      || (slowCalls >= minimumCalls && slowCalls >= calls * slowCallRateThreshold)) {
+				open(State.CLOSED);
+			}
+		}
+	}
+
+	/**
+	 * 熔断到期后只有一个线程进入<tt>HALF_OPEN</tt>：试探名额在发布新状态前重置，之后看到过期<tt>OPEN</tt>的线程不再重置
+	 */
+	private synchronized void halfOpen() {
+		if (state.get() != State.OPEN || System.currentTimeMillis() < openUntil) {
+			return;
+		}
+
+		trialPermits.set(halfOpenTrialCalls);
+		trialSuccesses.set(0);
+		transition(State.OPEN, State.HALF_OPEN);
+	}
+
+	private void open(State from) {
+		openUntil = System.currentTimeMillis() + openDurationMillis;
+		transition(from, State.OPEN);
+	}
+
+	private boolean transition(State from, State to) {
+		if (state.compareAndSet(from, to)) {
+			if (listener != null) {
+				listener.stateChanged(this, from, to);
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private void resetBuckets() {
+		for (Bucket bucket : buckets) {
+			bucket.reset(-BUCKET_COUNT);
+		}
+	}
+
+	public void setFailureRateThreshold(double failureRateThreshold) {
+		this.failureRateThreshold = failureRateThreshold;
+	}
+
+	public void setSlowCallRateThreshold(double slowCallRateThreshold) {
+		this.slowCallRateThreshold = slowCallRateThreshold;
+	}
+
+	public void setSlowCallDurationMillis(long slowCallDurationMillis) {
+		this.slowCallDurationMillis = slowCallDurationMillis;
+	}
+
+	public void setOpenDurationMillis(long openDurationMillis) {
+		this.openDurationMillis = openDurationMillis;
+	}
+
+	public void setHalfOpenTrialCalls(int halfOpenTrialCalls) {
+		this.halfOpenTrialCalls = Math.max(halfOpenTrialCalls, 1);
+	}
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	public interface StateListener {
+		void stateChanged(CircuitBreaker breaker, State from, State to);
+	}
+
+	private static class Bucket {
+
+		private volatile long epoch = -BUCKET_COUNT;
+
+		private final AtomicInteger calls = new AtomicInteger();
+
+		private final AtomicInteger failures = new AtomicInteger();
+
+		private final AtomicInteger slowCalls = new AtomicInteger();
+
+		void record(long epoch, boolean failure, boolean slow) {
+			if (this.epoch != epoch) {
+				synchronized (this) {
+					if (this.epoch != epoch) {
+						reset(epoch);
+					}
+				}
+			}
+
+			calls.incrementAndGet();
+			if (failure) {
+				failures.incrementAndGet();
+			}
+			if (slow) {
+				slowCalls.incrementAndGet();
+			}
+		}
+
+		synchronized void reset(long epoch) {
+			calls.set(0);
+			failures.set(0);
+			slowCalls.set(0);
+			this.epoch = epoch;
+		}
+	}
+}
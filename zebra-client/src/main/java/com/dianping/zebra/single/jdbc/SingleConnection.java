@@ -20,6 +20,8 @@ package com.dianping.zebra.single.jdbc;
 
 import com.dianping.zebra.filter.DefaultJdbcFilterChain;
 import com.dianping.zebra.filter.JdbcFilter;
+import com.dianping.zebra.filter.JdbcFilterPipeline;
+import com.dianping.zebra.filter.JdbcFilterPipeline.Hook;
 import com.dianping.zebra.filter.SQLProcessContext;
 import com.dianping.zebra.group.config.datasource.entity.DataSourceConfig;
 
@@ -28,6 +30,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 
@@ -44,6 +47,11 @@ public class SingleConnection implements Connection {
 
 	private final List<JdbcFilter> filters;
 
+	private final AtomicBoolean released = new AtomicBoolean(false);
+
+	// 是否有语句向熔断器上报过结果，没有时归还连接要退还试探名额
+	private volatile boolean statementReported = false;
+
 	public SingleConnection(SingleDataSource dataSource, final DataSourceConfig config, Connection conn,
 			List<JdbcFilter> filters) {
 		this.dsId = config.getId();
@@ -52,6 +60,10 @@ public class SingleConnection implements Connection {
 		this.filters = filters;
 	}
 
+	void onStatementReported() {
+		this.statementReported = true;
+	}
+
 	public String getDataSourceId() {
 		return dsId;
 	}
@@ -66,13 +78,23 @@ public class SingleConnection implements Connection {
 	}
 
 	private void closeOrigin() throws SQLException {
-		conn.close();
+		try {
+			conn.close();
+		} finally {
+			if (released.compareAndSet(false, true)) {
+				dataSource.releaseConnection();
+				if (!statementReported) {
+					dataSource.getCircuitBreaker().releasePermission();
+				}
+			}
+		}
 	}
 
 	@Override
 	public void close() throws SQLException {
-		if (filters != null && filters.size() > 0) {
-			JdbcFilter chain = new DefaultJdbcFilterChain(filters) {
+		List<JdbcFilter> hookFilters = JdbcFilterPipeline.filters(filters, Hook.CLOSE_SINGLE_CONNECTION);
+		if (hookFilters.size() > 0) {
+			JdbcFilter chain = new DefaultJdbcFilterChain(hookFilters) {
 				@Override
 				public void closeSingleConnection(SingleConnection source, JdbcFilter chain) throws SQLException {
 					if (index < filters.size()) {
@@ -331,8 +353,9 @@ public class SingleConnection implements Connection {
 	}
 
 	protected String processSQL(final String sql, boolean isPreparedStmt) throws SQLException {
-		if (filters != null && filters.size() > 0) {
-			JdbcFilter chain = new DefaultJdbcFilterChain(filters) {
+		List<JdbcFilter> hookFilters = JdbcFilterPipeline.filters(filters, Hook.PROCESS_SQL);
+		if (hookFilters.size() > 0) {
+			JdbcFilter chain = new DefaultJdbcFilterChain(hookFilters) {
 				@Override
 				public String processSQL(DataSourceConfig dsConfig, SQLProcessContext ctx, JdbcFilter chain)
 						throws SQLException {
@@ -18,8 +18,10 @@
  */
 package com.dianping.zebra.single.jdbc;
 
+import java.beans.PropertyChangeEvent;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
@@ -36,8 +38,12 @@ import com.dianping.zebra.exception.ZebraConfigException;
 import com.dianping.zebra.filter.DefaultJdbcFilterChain;
 import com.dianping.zebra.filter.FilterManagerFactory;
 import com.dianping.zebra.filter.JdbcFilter;
+import com.dianping.zebra.filter.JdbcFilterPipeline;
+import com.dianping.zebra.filter.JdbcFilterPipeline.Hook;
+import com.dianping.zebra.group.config.datasource.entity.Any;
 import com.dianping.zebra.group.config.datasource.entity.DataSourceConfig;
 import com.dianping.zebra.group.monitor.SingleDataSourceMBean;
+import com.dianping.zebra.group.router.DataSourceLatencyStats;
 import com.dianping.zebra.group.util.DataSourceState;
 import com.dianping.zebra.single.pool.DataSourcePool;
 import com.dianping.zebra.single.pool.DataSourcePoolFactory;
@@ -52,6 +58,8 @@ public class SingleDataSource extends C3p0DataSourceAdapter implements DataSourc
 
 	protected static final Logger LOGGER = LoggerFactory.getLogger(SingleDataSource.class);
 
+	private static final int DEFAULT_MIN_POOL_SIZE = 5;
+
 	protected static final Pattern JDBC_URL_PATTERN = Pattern.compile("jdbc:mysql://([^:]+:\\d+)/([^\\?]+).*");
 
 	protected String datasourceId;
@@ -75,14 +83,20 @@ public class SingleDataSource extends C3p0DataSourceAdapter implements DataSourc
 
 	protected volatile AtomicInteger closeAttmpet = new AtomicInteger(1);
 
-	protected volatile CountPunisher punisher;
+	protected volatile CircuitBreaker circuitBreaker;
+
+	private DataSourceLatencyStats latencyStats;
+
+	// 已借出但还没有归还的连接数，数据源被替换后据此判断是否可以关闭
+	private final AtomicInteger inFlightConnections = new AtomicInteger();
 
 	public SingleDataSource() {
 		this.config = new DataSourceConfig();
 		this.config.setCanRead(true);
 		this.config.setCanWrite(true);
 		this.config.setActive(true);
-		this.punisher = new CountPunisher(this, config.getTimeWindow(), config.getPunishLimit());
+		this.circuitBreaker = new CircuitBreaker(config.getTimeWindow(), config.getPunishLimit(),
+		      new CircuitBreakerStateListener());
 		this.forceClose = true;
 	}
 
@@ -90,8 +104,10 @@ public class SingleDataSource extends C3p0DataSourceAdapter implements DataSourc
 	public SingleDataSource(DataSourceConfig config, List<JdbcFilter> filters) {
 		this.datasourceId = config.getId();
 		this.config = config;
-		this.punisher = new CountPunisher(this, config.getTimeWindow(), config.getPunishLimit());
-		this.filters = filters;
+		this.circuitBreaker = new CircuitBreaker(config.getTimeWindow(), config.getPunishLimit(),
+		      new CircuitBreakerStateListener());
+		this.filters = JdbcFilterPipeline.compile(filters);
+		this.latencyStats = DataSourceLatencyStats.acquire(datasourceId);
 		this.poolType = config.getType();
 		this.lazyInit = config.isLazyInit();
 		this.withDefalutValue = true;
@@ -114,7 +130,8 @@ public class SingleDataSource extends C3p0DataSourceAdapter implements DataSourc
 			}
 
 			this.dataSourcePool = DataSourcePoolFactory.buildDataSourcePool(this.config);
-			this.filters = FilterManagerFactory.getFilterManager().loadFilters("cat", configManagerType, serviceConfigs);
+			this.filters = JdbcFilterPipeline.compile(FilterManagerFactory.getFilterManager().loadFilters("cat",
+			      configManagerType, serviceConfigs));
 
 			initDataSourceWithFilters(this.config);
 
@@ -172,8 +189,9 @@ public class SingleDataSource extends C3p0DataSourceAdapter implements DataSourc
 
 	@Override
 	public void close() throws SQLException {
-		if (filters != null && filters.size() > 0) {
-			JdbcFilter chain = new DefaultJdbcFilterChain(filters) {
+		List<JdbcFilter> hookFilters = JdbcFilterPipeline.filters(filters, Hook.CLOSE_SINGLE_DATASOURCE);
+		if (hookFilters.size() > 0) {
+			JdbcFilter chain = new DefaultJdbcFilterChain(hookFilters) {
 				@Override
 				public void closeSingleDataSource(SingleDataSource source, JdbcFilter chain) throws SQLException {
 					if (index < filters.size()) {
@@ -189,9 +207,24 @@ public class SingleDataSource extends C3p0DataSourceAdapter implements DataSourc
 		}
 	}
 
+	/**
+	 * 不再等待借出的连接归还，立即关闭连接池
+	 */
+	public void forceClose() throws SQLException {
+		this.forceClose = true;
+		close();
+	}
+
 	public void closeOrigin() throws SQLException {
 		checkNull();
 		this.dataSourcePool.close(this, forceClose);
+
+		synchronized (this) {
+			if (latencyStats != null) {
+				latencyStats.release();
+				latencyStats = null;
+			}
+		}
 	}
 
 	public synchronized DataSourceConfig getConfig() {
@@ -205,8 +238,9 @@ public class SingleDataSource extends C3p0DataSourceAdapter implements DataSourc
 
 	@Override
 	public Connection getConnection(final String username, final String password) throws SQLException {
-		if (filters != null && filters.size() > 0) {
-			JdbcFilter chain = new DefaultJdbcFilterChain(filters) {
+		List<JdbcFilter> hookFilters = JdbcFilterPipeline.filters(filters, Hook.GET_SINGLE_CONNECTION);
+		if (hookFilters.size() > 0) {
+			JdbcFilter chain = new DefaultJdbcFilterChain(hookFilters) {
 				@Override
 				public SingleConnection getSingleConnection(SingleDataSource source, JdbcFilter chain) throws SQLException {
 					if (index < filters.size()) {
@@ -225,11 +259,22 @@ public class SingleDataSource extends C3p0DataSourceAdapter implements DataSourc
 	private SingleConnection getConnectionOrigin(String username, String password) throws SQLException {
 		checkState();
 		checkNull();
+		if (!circuitBreaker.tryAcquirePermission()) {
+			throw new SQLException(String.format("dataSource [%s] is not available, circuit breaker is %s",
+			      datasourceId, circuitBreaker.getState()));
+		}
+
+		// 等待连接池的请求也计入借出数，避免数据源在等待期间被关闭
+		inFlightConnections.incrementAndGet();
 		Connection conn = null;
 		try {
 			conn = this.dataSourcePool.getInnerDataSourcePool().getConnection();
 		} catch (SQLException e) {
-			punisher.countAndPunish(e);
+			inFlightConnections.decrementAndGet();
+			circuitBreaker.onConnectionError(e);
+			throw e;
+		} catch (RuntimeException e) {
+			inFlightConnections.decrementAndGet();
 			throw e;
 		}
 
@@ -240,6 +285,81 @@ public class SingleDataSource extends C3p0DataSourceAdapter implements DataSourc
 		return new SingleConnection(this, this.config, conn, this.filters);
 	}
 
+	/**
+	 * 直接从连接池借出物理连接，不经过filter和熔断器，供复制延迟探测、预热等内部请求使用
+	 */
+	public Connection getRawConnection() throws SQLException {
+		checkNull();
+		Connection conn = this.dataSourcePool.getInnerDataSourcePool().getConnection();
+
+		if (state == DataSourceState.INITIAL) {
+			state = DataSourceState.UP;
+		}
+
+		return conn;
+	}
+
+	void releaseConnection() {
+		inFlightConnections.decrementAndGet();
+	}
+
+	@Override
+	public int getInFlightConnections() {
+		return inFlightConnections.get();
+	}
+
+	/**
+	 * 预热连接池：同时借出<tt>minPoolSize</tt>个连接后再归还，使连接池在对外服务前就持有这些物理连接；
+	 * 直接使用连接池，不经过filter和熔断器
+	 *
+	 * @return 预热的连接数
+	 */
+	public int warmUp() throws SQLException {
+		int minPoolSize = getMinPoolSize();
+		List<Connection> connections = new ArrayList<Connection>(minPoolSize);
+
+		try {
+			for (int i = 0; i < minPoolSize; i++) {
+				connections.add(this.getRawConnection());
+			}
+			LOGGER.info(String.format("dataSource [%s] warm up %d connections", datasourceId, minPoolSize));
+			return minPoolSize;
+		} finally {
+			for (Connection conn : connections) {
+				try {
+					conn.close();
+				} catch (SQLException e) {
+					LOGGER.warn(String.format("dataSource [%s] fail to release warm up connection", datasourceId), e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 配置无法解析时不预热
+	 */
+	int getMinPoolSize() {
+		for (Any any : config.getProperties()) {
+			if ("minPoolSize".equalsIgnoreCase(any.getName())) {
+				String value = any.getValue();
+				if (value == null) {
+					return 0;
+				}
+
+				value = value.trim();
+				try {
+					return Math.max(Integer.parseInt(value.startsWith("@I_") ? value.substring(3) : value), 0);
+				} catch (NumberFormatException e) {
+					LOGGER.warn(String.format("dataSource [%s] has invalid minPoolSize [%s], skip warm up", datasourceId,
+					      value));
+					return 0;
+				}
+			}
+		}
+
+		return DEFAULT_MIN_POOL_SIZE;
+	}
+
 	@Override
 	public String getCurrentState() {
 		return state.toString();
@@ -282,8 +402,12 @@ public class SingleDataSource extends C3p0DataSourceAdapter implements DataSourc
 		}
 	}
 
-	public CountPunisher getPunisher() {
-		return this.punisher;
+	public CircuitBreaker getCircuitBreaker() {
+		return this.circuitBreaker;
+	}
+
+	public DataSourceLatencyStats getLatencyStats() {
+		return this.latencyStats;
 	}
 
 	@Override
@@ -292,8 +416,9 @@ public class SingleDataSource extends C3p0DataSourceAdapter implements DataSourc
 	}
 
 	private DataSource initDataSourceWithFilters(final DataSourceConfig value) {
-		if (filters != null && filters.size() > 0) {
-			JdbcFilter chain = new DefaultJdbcFilterChain(filters) {
+		List<JdbcFilter> hookFilters = JdbcFilterPipeline.filters(filters, Hook.INIT_SINGLE_DATASOURCE);
+		if (hookFilters.size() > 0) {
+			JdbcFilter chain = new DefaultJdbcFilterChain(hookFilters) {
 				@Override
 				public DataSource initSingleDataSource(SingleDataSource source, JdbcFilter chain) {
 					if (index < filters.size()) {
@@ -342,7 +467,7 @@ public class SingleDataSource extends C3p0DataSourceAdapter implements DataSourc
 	}
 
 	public boolean isDown() {
-		return this.state == DataSourceState.DOWN;
+		return this.state == DataSourceState.DOWN || !this.circuitBreaker.isAvailable();
 	}
 
 	@Override
@@ -385,6 +510,37 @@ public class SingleDataSource extends C3p0DataSourceAdapter implements DataSourc
 		this.state = state;
 	}
 
+	private void configChanged(final PropertyChangeEvent evt) {
+		List<JdbcFilter> hookFilters = JdbcFilterPipeline.filters(filters, Hook.CONFIG_CHANGED);
+		if (hookFilters.size() > 0) {
+			JdbcFilter chain = new DefaultJdbcFilterChain(hookFilters) {
+				@Override
+				public void configChanged(PropertyChangeEvent evt, JdbcFilter chain) {
+					if (index < filters.size()) {
+						filters.get(index++).configChanged(evt, chain);
+					}
+				}
+			};
+			chain.configChanged(evt, chain);
+		}
+	}
+
+	/**
+	 * 熔断器状态变化时通过<tt>JdbcFilter.configChanged</tt>通知filter
+	 */
+	private class CircuitBreakerStateListener implements CircuitBreaker.StateListener {
+		@Override
+		public void stateChanged(CircuitBreaker breaker, CircuitBreaker.State from, CircuitBreaker.State to) {
+			LOGGER.warn(String.format("dataSource [%s] circuit breaker changed from %s to %s", datasourceId, from, to));
+
+			try {
+				configChanged(new PropertyChangeEvent(SingleDataSource.this, CircuitBreaker.STATE_PROPERTY_NAME, from, to));
+			} catch (RuntimeException e) {
+				LOGGER.warn("fail to notify circuit breaker state change", e);
+			}
+		}
+	}
+
 	public synchronized void setLazyInit(boolean lazyInit) {
 		this.lazyInit = lazyInit;
 	}
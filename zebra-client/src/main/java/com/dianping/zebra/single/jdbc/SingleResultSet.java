@@ -38,11 +38,14 @@ import java.sql.Statement;
 import java.sql.Time;
 import java.sql.Timestamp;
 import java.util.Calendar;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import com.dianping.zebra.filter.DefaultJdbcFilterChain;
 import com.dianping.zebra.filter.JdbcFilter;
+import com.dianping.zebra.filter.JdbcFilterPipeline;
+import com.dianping.zebra.filter.JdbcFilterPipeline.Hook;
 
 /**
  * 
@@ -61,6 +64,9 @@ public class SingleResultSet implements ResultSet {
 
 	private Object info;
 
+	// 各个filter按自己的key存放数据，不共用info
+	private Map<String, Object> attributes;
+
 	public Object getInfo() {
 		return info;
 	}
@@ -69,6 +75,23 @@ public class SingleResultSet implements ResultSet {
 		this.info = info;
 	}
 
+	public Object getAttribute(String key) {
+		return attributes == null ? null : attributes.get(key);
+	}
+
+	public void setAttribute(String key, Object value) {
+		if (value == null) {
+			if (attributes != null) {
+				attributes.remove(key);
+			}
+		} else {
+			if (attributes == null) {
+				attributes = new HashMap<String, Object>(4);
+			}
+			attributes.put(key, value);
+		}
+	}
+
 	public int getRowCount() {
 		return rowCount;
 	}
@@ -106,8 +129,9 @@ public class SingleResultSet implements ResultSet {
 	@Override
 	public void close() throws SQLException {
 		if (!closed) {
-			if (filters != null && filters.size() > 0) {
-				JdbcFilter chain = new DefaultJdbcFilterChain(filters) {
+			List<JdbcFilter> hookFilters = JdbcFilterPipeline.filters(filters, Hook.CLOSE_SINGLE_RESULTSET);
+			if (hookFilters.size() > 0) {
+				JdbcFilter chain = new DefaultJdbcFilterChain(hookFilters) {
 					@Override
 					public void closeSingleResultSet(SingleResultSet source, JdbcFilter chain) throws SQLException {
 						if (index < filters.size()) {
@@ -28,9 +28,12 @@ import java.util.List;
 
 import com.dianping.zebra.filter.DefaultJdbcFilterChain;
 import com.dianping.zebra.filter.JdbcFilter;
+import com.dianping.zebra.filter.JdbcFilterPipeline;
+import com.dianping.zebra.filter.JdbcFilterPipeline.Hook;
 import com.dianping.zebra.filter.JdbcOperationCallback;
 import com.dianping.zebra.filter.SQLProcessContext;
 import com.dianping.zebra.group.config.datasource.entity.DataSourceConfig;
+import com.dianping.zebra.group.router.DataSourceLatencyStats;
 import com.dianping.zebra.util.SqlType;
 import com.dianping.zebra.util.SqlUtils;
 
@@ -49,11 +52,19 @@ public class SingleStatement implements Statement {
 
 	protected boolean closed;
 
+	private final DataSourceLatencyStats latencyStats;
+
+	private final CircuitBreaker circuitBreaker;
+
 	public SingleStatement(String dsId, SingleConnection singleConnection, Statement innnerStatement,
 			List<JdbcFilter> filters) throws SQLException {
 		this.singleConnection = singleConnection;
 		this.innerStatement = innnerStatement;
 		this.filters = filters;
+		SingleDataSource dataSource = singleConnection != null ? singleConnection.getDataSource() : null;
+		this.latencyStats = dataSource != null ? dataSource.getLatencyStats() : null;
+		this.circuitBreaker = (dataSource != null && dataSource.getCircuitBreaker().isEnabled()) ? dataSource
+				.getCircuitBreaker() : null;
 	}
 
 	@Override
@@ -182,8 +193,9 @@ public class SingleStatement implements Statement {
 	}
 
 	protected String processSQL(final String sql, boolean isPreparedStmt) throws SQLException {
-		if (filters != null && filters.size() > 0) {
-			JdbcFilter chain = new DefaultJdbcFilterChain(filters) {
+		List<JdbcFilter> hookFilters = JdbcFilterPipeline.filters(filters, Hook.PROCESS_SQL);
+		if (hookFilters.size() > 0) {
+			JdbcFilter chain = new DefaultJdbcFilterChain(hookFilters) {
 				@Override
 				public String processSQL(DataSourceConfig dsConfig, SQLProcessContext ctx, JdbcFilter chain)
 						throws SQLException {
@@ -205,8 +217,9 @@ public class SingleStatement implements Statement {
 	@SuppressWarnings({ "unchecked", "hiding" })
 	protected <T> T executeWithFilter(final JdbcOperationCallback<T> callback, final String sql, Object params,
 			boolean isBatch) throws SQLException {
-		if (filters != null && filters.size() > 0) {
-			JdbcFilter chain = new DefaultJdbcFilterChain(filters) {
+		List<JdbcFilter> hookFilters = JdbcFilterPipeline.filters(filters, Hook.EXECUTE_SINGLE_STATEMENT);
+		if (hookFilters.size() > 0) {
+			JdbcFilter chain = new DefaultJdbcFilterChain(hookFilters) {
 				@Override
 				public <T> T executeSingleStatement(SingleStatement source, SingleConnection conn, String sql,
 						List<String> batchedSql, boolean isBatched, boolean autoCommit, Object params, JdbcFilter chain)
@@ -228,7 +241,39 @@ public class SingleStatement implements Statement {
 	}
 
 	private <T> T executeWithFilterOrigin(JdbcOperationCallback<T> callback, Connection conn) throws SQLException {
-		return callback.doAction(conn);
+		if (latencyStats == null && circuitBreaker == null) {
+			return callback.doAction(conn);
+		}
+
+		long start = System.nanoTime();
+		if (latencyStats != null) {
+			latencyStats.start();
+		}
+		boolean success = false;
+		try {
+			T result = callback.doAction(conn);
+			success = true;
+			if (circuitBreaker != null) {
+				circuitBreaker.onSuccess((System.nanoTime() - start) / 1000000);
+			}
+			return result;
+		} catch (SQLException e) {
+			if (circuitBreaker != null) {
+				circuitBreaker.onError(e, (System.nanoTime() - start) / 1000000);
+			}
+			throw e;
+		} finally {
+			if (circuitBreaker != null) {
+				singleConnection.onStatementReported();
+			}
+			if (latencyStats != null) {
+				if (success) {
+					latencyStats.finish(System.nanoTime() - start);
+				} else {
+					latencyStats.finishWithError(System.nanoTime() - start);
+				}
+			}
+		}
 	}
 
 	@Override
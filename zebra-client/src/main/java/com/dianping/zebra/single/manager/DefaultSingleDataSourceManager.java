@@ -26,23 +26,39 @@ import java.util.concurrent.TimeUnit;
 import com.dianping.zebra.exception.ZebraException;
 import com.dianping.zebra.filter.JdbcFilter;
 import com.dianping.zebra.group.config.datasource.entity.DataSourceConfig;
+import com.dianping.zebra.log.Logger;
+import com.dianping.zebra.log.LoggerFactory;
 import com.dianping.zebra.single.jdbc.SingleDataSource;
 
+/**
+ * <p>
+ * 数据源的创建和延迟关闭
+ * </p>
+ * 被替换的数据源不再接收新请求，等借出的连接（<tt>getInFlightConnections()</tt>）全部归还后再关闭连接池；
+ * 超过<tt>DRAIN_TIMEOUT_MILLIS</tt>仍未归还时强制关闭。
+ */
 public class DefaultSingleDataSourceManager implements SingleDataSourceManager {
 
+	private static final Logger LOGGER = LoggerFactory.getLogger(DefaultSingleDataSourceManager.class);
+
+	public static final long DRAIN_TIMEOUT_MILLIS = 60 * 1000L;
+
+	private static final long CHECK_INTERVAL_MILLIS = 100;
+
 	private Thread dataSourceMonitor;
 
-	private BlockingQueue<SingleDataSource> toBeClosedDataSource = new LinkedBlockingQueue<SingleDataSource>();
+	private BlockingQueue<RetiredDataSource> toBeClosedDataSource = new LinkedBlockingQueue<RetiredDataSource>();
 
 	@Override
-	public synchronized SingleDataSource createDataSource(DataSourceConfig config, List<JdbcFilter> filters) {
+	public SingleDataSource createDataSource(DataSourceConfig config, List<JdbcFilter> filters) {
 		return new SingleDataSource(config, filters);
 	}
 
 	@Override
 	public synchronized void destoryDataSource(SingleDataSource dataSource) {
 		if (dataSource != null) {
-			this.toBeClosedDataSource.offer(dataSource);
+			this.toBeClosedDataSource.offer(new RetiredDataSource(dataSource, System.currentTimeMillis()
+			      + DRAIN_TIMEOUT_MILLIS));
 		}
 	}
 
@@ -64,26 +80,54 @@ public class DefaultSingleDataSourceManager implements SingleDataSourceManager {
 		}
 	}
 
+	static class RetiredDataSource {
+		final SingleDataSource dataSource;
+
+		final long deadline;
+
+		RetiredDataSource(SingleDataSource dataSource, long deadline) {
+			this.dataSource = dataSource;
+			this.deadline = deadline;
+		}
+	}
+
 	class CloseDataSourceTask implements Runnable {
 		@Override
 		public void run() {
 			while (!Thread.currentThread().isInterrupted()) {
-				SingleDataSource dataSource = null;
+				RetiredDataSource retired = null;
 				try {
-					dataSource = toBeClosedDataSource.take();
-					dataSource.close();
-				} catch (ZebraException e) {
-					if (dataSource != null) {
-						try {
-							TimeUnit.MILLISECONDS.sleep(100);
-						} catch (InterruptedException e1) {
-						}
+					retired = toBeClosedDataSource.take();
+					SingleDataSource dataSource = retired.dataSource;
 
-						toBeClosedDataSource.offer(dataSource);
+					if (System.currentTimeMillis() >= retired.deadline) {
+						LOGGER.warn(String.format("dataSource [%s] still has %d in-flight connections after %d ms, force close",
+						      dataSource.getId(), dataSource.getInFlightConnections(), DRAIN_TIMEOUT_MILLIS));
+						dataSource.forceClose();
+					} else if (dataSource.getInFlightConnections() > 0) {
+						retry(retired);
+					} else {
+						dataSource.close();
+					}
+				} catch (ZebraException e) {
+					if (retired != null) {
+						retry(retired);
 					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
 				} catch (Exception ignore) {
 				}
 			}
 		}
+
+		private void retry(RetiredDataSource retired) {
+			try {
+				TimeUnit.MILLISECONDS.sleep(CHECK_INTERVAL_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			toBeClosedDataSource.offer(retired);
+		}
 	}
 }
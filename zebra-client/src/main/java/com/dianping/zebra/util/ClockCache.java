@@ -0,0 +1,363 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.dianping.zebra.log.Logger;
+import com.dianping.zebra.log.LoggerFactory;
+
+/**
+ * <p>
+ * 基于CLOCK算法的并发缓存
+ * </p>
+ * 读操作只访问<tt>ConcurrentHashMap</tt>并设置访问标记，不加锁也不修改任何结构；写操作在总权重超过容量时才加锁淘汰。
+ * 淘汰时从环形队列头部开始扫描，访问标记为true的条目清除标记后放回队尾，标记为false的条目被淘汰。<br>
+ * 覆盖已有的key时直接替换原条目的值，不再进入环形队列；删除的条目只做标记，环形队列中失效的条目超过有效条目数时统一清理。<br>
+ * 每个条目的权重默认为1，也可以通过<tt>Weigher</tt>按照条目大小计算，命中、未命中以及淘汰次数可以通过JMX查看。
+ */
+public class ClockCache<K, V> implements ClockCacheMBean {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ClockCache.class);
+
+	private final ConcurrentMap<K, Node<K, V>> data;
+
+	private final Queue<Node<K, V>> clock = new ConcurrentLinkedQueue<Node<K, V>>();
+
+	private final ReentrantLock evictionLock = new ReentrantLock();
+
+	private final long maxWeight;
+
+	private final Weigher<K, V> weigher;
+
+	private final AtomicLong weightedSize = new AtomicLong();
+
+	// 环形队列中已经删除但还没有被扫描到的条目数
+	private final AtomicInteger deadCount = new AtomicInteger();
+
+	private final StripedCounter hitCount = new StripedCounter();
+
+	private final StripedCounter missCount = new StripedCounter();
+
+	private final StripedCounter evictionCount = new StripedCounter();
+
+	public ClockCache(long maxWeight) {
+		this(maxWeight, null);
+	}
+
+	public ClockCache(long maxWeight, Weigher<K, V> weigher) {
+		if (maxWeight <= 0) {
+			throw new IllegalArgumentException("maxWeight must be positive.");
+		}
+
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+		this.data = new ConcurrentHashMap<K, Node<K, V>>(16, 0.75f, Runtime.getRuntime().availableProcessors());
+	}
+
+	public V get(K key) {
+		Node<K, V> node = data.get(key);
+
+		if (node == null) {
+			missCount.increment();
+			return null;
+		}
+
+		// 已经被标记时不再写，避免热点条目所在的缓存行被反复失效
+		if (!node.referenced) {
+			node.referenced = true;
+		}
+		hitCount.increment();
+
+		return node.value;
+	}
+
+	public void put(K key, V value) {
+		int weight = weigh(key, value);
+		if (weight > maxWeight) {
+			return;
+		}
+
+		while (true) {
+			Node<K, V> node = data.get(key);
+
+			if (node == null) {
+				node = new Node<K, V>(key, value, weight);
+				if (data.putIfAbsent(key, node) == null) {
+					added(node);
+					return;
+				}
+			} else if (replace(node, value, weight)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * 只有在key不存在时才放入
+	 *
+	 * @return 已经存在的值，如果不存在则返回null
+	 */
+	public V putIfAbsent(K key, V value) {
+		int weight = weigh(key, value);
+		if (weight > maxWeight) {
+			return null;
+		}
+
+		Node<K, V> node = new Node<K, V>(key, value, weight);
+		Node<K, V> old = data.putIfAbsent(key, node);
+		if (old != null) {
+			return old.value;
+		}
+
+		added(node);
+		return null;
+	}
+
+	// 单个条目超过容量时不缓存
+	private int weigh(K key, V value) {
+		return weigher == null ? 1 : Math.max(1, weigher.weigh(key, value));
+	}
+
+	private void added(Node<K, V> node) {
+		weightedSize.addAndGet(node.weight);
+		clock.offer(node);
+
+		if (weightedSize.get() > maxWeight) {
+			evict();
+		}
+	}
+
+	// 在原条目上替换值，条目在环形队列中的位置不变
+	private boolean replace(Node<K, V> node, V value, int weight) {
+		synchronized (node) {
+			if (node.dead) {
+				return false;
+			}
+
+			weightedSize.addAndGet(weight - node.weight);
+			node.value = value;
+			node.weight = weight;
+			node.referenced = true;
+		}
+
+		if (weightedSize.get() > maxWeight) {
+			evict();
+		}
+		return true;
+	}
+
+	public void remove(K key) {
+		Node<K, V> node = data.remove(key);
+
+		if (node != null) {
+			removed(node);
+
+			if (deadCount.get() > data.size()) {
+				purge();
+			}
+		}
+	}
+
+	private void removed(Node<K, V> node) {
+		synchronized (node) {
+			node.dead = true;
+			weightedSize.addAndGet(-node.weight);
+		}
+		deadCount.incrementAndGet();
+	}
+
+	public void clear() {
+		evictionLock.lock();
+		try {
+			for (Node<K, V> node : data.values()) {
+				if (data.remove(node.key, node)) {
+					removed(node);
+				}
+			}
+			purgeDeadNodes();
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	private void evict() {
+		// 其他线程正在淘汰时直接返回，由该线程负责把总权重降到容量以内
+		if (!evictionLock.tryLock()) {
+			return;
+		}
+
+		try {
+			while (weightedSize.get() > maxWeight) {
+				Node<K, V> node = clock.poll();
+				if (node == null) {
+					break;
+				}
+
+				if (node.dead) {
+					deadCount.decrementAndGet();
+					continue;
+				}
+
+				if (node.referenced) {
+					node.referenced = false;
+					clock.offer(node);
+				} else if (data.remove(node.key, node)) {
+					removed(node);
+					deadCount.decrementAndGet();
+					evictionCount.increment();
+				}
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	private void purge() {
+		if (!evictionLock.tryLock()) {
+			return;
+		}
+
+		try {
+			purgeDeadNodes();
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	private void purgeDeadNodes() {
+		Iterator<Node<K, V>> iterator = clock.iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().dead) {
+				iterator.remove();
+				deadCount.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * 注册到平台<tt>MBeanServer</tt>，注册失败只记录日志
+	 *
+	 * @param name
+	 *           JMX对象名，比如<tt>com.dianping.zebra:type=ClockCache,name=parsedSql</tt>
+	 */
+	public void registerMBean(String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(name);
+
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+			server.registerMBean(this, objectName);
+		} catch (Exception e) {
+			LOGGER.warn("register cache mbean [" + name + "] failed.", e);
+		}
+	}
+
+	/**
+	 * 环形队列的长度，包含还没有清理的失效条目
+	 */
+	int getClockLength() {
+		return clock.size();
+	}
+
+	@Override
+	public int getSize() {
+		return data.size();
+	}
+
+	@Override
+	public long getWeightedSize() {
+		return weightedSize.get();
+	}
+
+	@Override
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+
+	@Override
+	public long getHitCount() {
+		return hitCount.sum();
+	}
+
+	@Override
+	public long getMissCount() {
+		return missCount.sum();
+	}
+
+	@Override
+	public long getEvictionCount() {
+		return evictionCount.sum();
+	}
+
+	@Override
+	public double getHitRate() {
+		long hit = hitCount.sum();
+		long total = hit + missCount.sum();
+
+		return total == 0 ? 1.0 : (double) hit / total;
+	}
+
+	@Override
+	public void resetStats() {
+		hitCount.reset();
+		missCount.reset();
+		evictionCount.reset();
+	}
+
+	/**
+	 * 计算条目的权重
+	 */
+	public interface Weigher<K, V> {
+
+		int weigh(K key, V value);
+	}
+
+	private static class Node<K, V> {
+
+		private final K key;
+
+		private volatile V value;
+
+		private int weight;
+
+		private volatile boolean referenced;
+
+		private volatile boolean dead;
+
+		public Node(K key, V value, int weight) {
+			this.key = key;
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+}
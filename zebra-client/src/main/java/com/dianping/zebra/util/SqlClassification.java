@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.util;
+
+/**
+ * <p>
+ * SQL的分类结果：SQL类型以及是否带有强制走写库的hint
+ * </p>
+ * 所有可能的结果在类加载时创建，分类时不产生新的对象。
+ */
+public final class SqlClassification {
+
+	private static final SqlClassification[] READ_WRITE = new SqlClassification[SqlType.values().length];
+
+	private static final SqlClassification[] FORCE_WRITE = new SqlClassification[SqlType.values().length];
+
+	static {
+		for (SqlType sqlType : SqlType.values()) {
+			READ_WRITE[sqlType.ordinal()] = new SqlClassification(sqlType, false);
+			FORCE_WRITE[sqlType.ordinal()] = new SqlClassification(sqlType, true);
+		}
+	}
+
+	private final SqlType sqlType;
+
+	private final boolean forceWrite;
+
+	private SqlClassification(SqlType sqlType, boolean forceWrite) {
+		this.sqlType = sqlType;
+		this.forceWrite = forceWrite;
+	}
+
+	public static SqlClassification valueOf(SqlType sqlType, boolean forceWrite) {
+		return forceWrite ? FORCE_WRITE[sqlType.ordinal()] : READ_WRITE[sqlType.ordinal()];
+	}
+
+	public SqlType getSqlType() {
+		return sqlType;
+	}
+
+	public boolean isForceWrite() {
+		return forceWrite;
+	}
+
+	@Override
+	public String toString() {
+		return "SqlClassification [sqlType=" + sqlType + ", forceWrite=" + forceWrite + "]";
+	}
+}
@@ -18,6 +18,8 @@
  */
 package com.dianping.zebra.util;
 
+import com.dianping.zebra.Constants;
+
 public final class SqlUtils {
 
 	private static final String SELECT_KEY = "select";
@@ -56,22 +58,71 @@ public final class SqlUtils {
 
 	private static final String ALTER_PATTERN = "alter";
 
+	// 超过该长度的SQL不放入分类缓存
+	private static final int MAX_CACHED_SQL_LENGTH = 16 * 1024;
+
+	private static final ClockCache<String, SqlClassification> CLASSIFICATION_CACHE = new ClockCache<String, SqlClassification>(
+	      1024 * 1024, new ClockCache.Weigher<String, SqlClassification>() {
+		      @Override
+		      public int weigh(String key, SqlClassification value) {
+			      return key.length();
+		      }
+	      });
+
 	public static SqlType getSqlType(String sql) {
+		return classify(sql, false).getSqlType();
+	}
+
+	/**
+	 * 识别SQL类型，同时检查开头的注释中是否带有强制走写库的hint(<tt>Constants.SQL_FORCE_WRITE_HINT</tt>)
+	 *
+	 * @param sql
+	 * @return
+	 */
+	public static SqlClassification classify(String sql) {
+		return classify(sql, true);
+	}
+
+	/**
+	 * 与<tt>classify</tt>相同，结果按照SQL缓存，用于同一条SQL反复执行的<tt>PreparedStatement</tt>
+	 *
+	 * @param sql
+	 * @return
+	 */
+	public static SqlClassification classifyWithCache(String sql) {
+		if (sql == null || sql.length() > MAX_CACHED_SQL_LENGTH) {
+			return classify(sql, true);
+		}
+
+		SqlClassification classification = CLASSIFICATION_CACHE.get(sql);
+		if (classification == null) {
+			classification = classify(sql, true);
+			CLASSIFICATION_CACHE.putIfAbsent(sql, classification);
+		}
+
+		return classification;
+	}
+
+	// 原SQL不做toLowerCase，关键字按照ASCII忽略大小写逐字符比较
+	private static SqlClassification classify(String sql, boolean detectHint) {
 		if (StringUtils.isBlank(sql)) {
-			return SqlType.UNKNOWN_SQL_TYPE;
+			return SqlClassification.valueOf(SqlType.UNKNOWN_SQL_TYPE, false);
 		}
 
 		SqlType sqlType = null;
-		String lowerSql = sql.toLowerCase();
 		boolean inComment = false;
+		boolean forceWrite = false;
 		int begin = 0;
 
 		// skip spaces and hint
-		for (; begin < lowerSql.length(); ++begin) {
-			char currentChar = lowerSql.charAt(begin);
+		for (; begin < sql.length(); ++begin) {
+			char currentChar = sql.charAt(begin);
 			if (!inComment) {
 				if (currentChar == '/') {
 					inComment = true;
+					if (detectHint && !forceWrite && sql.startsWith(Constants.SQL_FORCE_WRITE_HINT, begin)) {
+						forceWrite = true;
+					}
 				} else if (currentChar > ' ') {
 					break;
 				}
@@ -80,63 +131,73 @@ public final class SqlUtils {
 			}
 		}
 
-		if (lowerSql.length() - begin < EXECUTE_KEY.length()) {
-			return SqlType.UNKNOWN_SQL_TYPE;
+		// hint一般在SQL开头，不在开头时再查找剩余部分，与原来contains的行为保持一致
+		if (detectHint && !forceWrite && sql.indexOf(Constants.SQL_FORCE_WRITE_HINT, begin) >= 0) {
+			forceWrite = true;
+		}
+
+		if (sql.length() - begin < EXECUTE_KEY.length()) {
+			return SqlClassification.valueOf(SqlType.UNKNOWN_SQL_TYPE, forceWrite);
 		}
 
 		// capture the first word
-		switch (lowerSql.charAt(begin)) {
+		switch (lowerCharAt(sql, begin)) {
 		case 's':
-			if (lowerSql.charAt(begin + 1) == 'e') {
-				sqlType = selectHandler(lowerSql, begin);
+			if (lowerCharAt(sql, begin + 1) == 'e') {
+				sqlType = selectHandler(sql, begin);
 			} else {
-				sqlType = showHandler(lowerSql, begin);
+				sqlType = showHandler(sql, begin);
 			}
 			break;
 		case 'i':
-			sqlType = insertHandler(lowerSql, begin);
+			sqlType = insertHandler(sql, begin);
 			break;
 		case 'u':
-			sqlType = updateHandler(lowerSql, begin);
+			sqlType = updateHandler(sql, begin);
 			break;
 		case 'd':
-			if (lowerSql.charAt(begin + 1) == 'e') {
-				sqlType = deleteHandler(lowerSql, begin);
+			if (lowerCharAt(sql, begin + 1) == 'e') {
+				sqlType = deleteHandler(sql, begin);
 			} else {
-				sqlType = dropHandler(lowerSql, begin);
+				sqlType = dropHandler(sql, begin);
 			}
 			break;
 		case 'r':
-			sqlType = replaceHandler(lowerSql, begin);
+			sqlType = replaceHandler(sql, begin);
 			break;
 		case 't':
-			sqlType = truncateHandler(lowerSql, begin);
+			sqlType = truncateHandler(sql, begin);
 			break;
 		case 'c':
-			sqlType = createHandler(lowerSql, begin);
+			sqlType = createHandler(sql, begin);
 			break;
 		case 'l':
-			sqlType = loadHandler(lowerSql, begin);
+			sqlType = loadHandler(sql, begin);
 			break;
 		case 'm':
-			sqlType = mergeHandler(lowerSql, begin);
+			sqlType = mergeHandler(sql, begin);
 			break;
 		case 'e':
-			sqlType = explainHandler(lowerSql, begin);
+			sqlType = explainHandler(sql, begin);
 			break;
 		case 'a':
-			sqlType = alterHandler(lowerSql, begin);
+			sqlType = alterHandler(sql, begin);
 			break;
 		default:
-			sqlType = executeHandler(lowerSql, begin);
+			sqlType = executeHandler(sql, begin);
 			break;
 		}
 
-		return sqlType;
+		return SqlClassification.valueOf(sqlType, forceWrite);
+	}
+
+	private static char lowerCharAt(String sql, int index) {
+		char ch = sql.charAt(index);
+		return (ch >= 'A' && ch <= 'Z') ? (char) (ch + ('a' - 'A')) : ch;
 	}
 
-	private static SqlType alterHandler(String lowerSql, int begin) {
-		if (isStartWithKeyWord(lowerSql, begin, ALTER_PATTERN)) {
+	private static SqlType alterHandler(String sql, int begin) {
+		if (isStartWithKeyWord(sql, begin, ALTER_PATTERN)) {
 			return SqlType.ALTER;
 		}
 		return SqlType.UNKNOWN_SQL_TYPE;
@@ -152,7 +213,7 @@ public final class SqlUtils {
 			boolean inCommon = false;
 			begin = begin + SELECT_KEY.length();
 			for (; begin < sql.length(); ++begin) {
-				char ch = sql.charAt(begin);
+				char ch = lowerCharAt(sql, begin);
 				switch (ch) {
 				case 'l':
 					if (!inCommon && !inWord && isKeyWord(sql, begin, LAST_INSERT_PATTERN)) {
@@ -287,7 +348,7 @@ public final class SqlUtils {
 		boolean inWord = false;
 		boolean inCommon = false;
 		for (; begin < sql.length(); ++begin) {
-			char ch = sql.charAt(begin);
+			char ch = lowerCharAt(sql, begin);
 			switch (ch) {
 			case 'c':
 				if (!inCommon && !inWord && isKeyWord(sql, begin, EXECUTE_KEY)) {
@@ -344,7 +405,7 @@ public final class SqlUtils {
 	private static boolean isKeyWord(String sql, int begin, String word) {
 		int end = begin;
 		for (int i = 0; i < word.length(); ++i, ++end) {
-			if (end >= sql.length() || word.charAt(i) != sql.charAt(end)) {
+			if (end >= sql.length() || word.charAt(i) != lowerCharAt(sql, end)) {
 				return false;
 			}
 		}
@@ -370,7 +431,7 @@ public final class SqlUtils {
 		}
 
 		for (int i = UPDATE_PATTERN.length() - 1; i >= 0; --i, --sqlPos) {
-			if (sqlPos <= 0 || sql.charAt(sqlPos) != UPDATE_PATTERN.charAt(i)) {
+			if (sqlPos <= 0 || lowerCharAt(sql, sqlPos) != UPDATE_PATTERN.charAt(i)) {
 				return false;
 			}
 		}
@@ -383,7 +444,7 @@ public final class SqlUtils {
 
 		if (sqlPos > 0) {
 			for (int i = FOR_PATTERN.length() - 1; i >= 0; --i, --sqlPos) {
-				if (sqlPos <= 0 || sql.charAt(sqlPos) != FOR_PATTERN.charAt(i)) {
+				if (sqlPos <= 0 || lowerCharAt(sql, sqlPos) != FOR_PATTERN.charAt(i)) {
 					return false;
 				}
 			}
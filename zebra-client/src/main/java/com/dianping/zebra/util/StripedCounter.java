@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2011-2018, Meituan Dianping. All Rights Reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dianping.zebra.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * 分段计数器，Java 7下<tt>LongAdder</tt>的简化替代
+ * </p>
+ * 按线程id把累加分散到多个槽位，每个槽位独占一条缓存行，读取时求和。
+ */
+public class StripedCounter {
+
+	// 一条缓存行能放下8个long
+	private static final int PADDING = 8;
+
+	private static final int STRIPES = stripes();
+
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+	private static int stripes() {
+		int processors = Math.min(Runtime.getRuntime().availableProcessors(), 16);
+		return Integer.highestOneBit(Math.max(processors, 1) * 2 - 1);
+	}
+
+	public void increment() {
+		add(1);
+	}
+
+	public void add(long x) {
+		cells.getAndAdd(((int) Thread.currentThread().getId() & (STRIPES - 1)) * PADDING, x);
+	}
+
+	public long sum() {
+		long sum = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			sum += cells.get(i * PADDING);
+		}
+		return sum;
+	}
+
+	public void reset() {
+		for (int i = 0; i < STRIPES; i++) {
+			cells.set(i * PADDING, 0);
+		}
+	}
+}
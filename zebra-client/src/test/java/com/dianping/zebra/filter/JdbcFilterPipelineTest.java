@@ -0,0 +1,106 @@
+package com.dianping.zebra.filter;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.zebra.filter.JdbcFilterPipeline.Hook;
+import com.dianping.zebra.group.config.datasource.entity.DataSourceConfig;
+
+public class JdbcFilterPipelineTest {
+
+	@Test
+	public void testFiltersOfHook() {
+		JdbcFilter sqlFilter = new DefaultJdbcFilter() {
+			@Override
+			public String processSQL(DataSourceConfig dsConfig, SQLProcessContext ctx, JdbcFilter chain)
+			      throws SQLException {
+				return "/*a*/" + chain.processSQL(dsConfig, ctx, chain);
+			}
+		};
+		JdbcFilter emptyFilter = new DefaultJdbcFilter();
+		JdbcFilter subFilter = new SubSqlFilter();
+
+		JdbcFilterPipeline pipeline = JdbcFilterPipeline.compile(new LinkedList<JdbcFilter>(Arrays.asList(sqlFilter,
+		      emptyFilter, subFilter)));
+
+		Assert.assertEquals(Arrays.asList(sqlFilter, emptyFilter, subFilter), pipeline);
+		Assert.assertEquals(Arrays.asList(sqlFilter, subFilter), pipeline.getFilters(Hook.PROCESS_SQL));
+		Assert.assertTrue(pipeline.getFilters(Hook.GET_SINGLE_CONNECTION).isEmpty());
+		Assert.assertTrue(pipeline.getFilters(Hook.EXECUTE_SINGLE_STATEMENT).isEmpty());
+		Assert.assertSame(pipeline, JdbcFilterPipeline.compile(pipeline));
+	}
+
+	@Test
+	public void testCompileEmpty() {
+		Assert.assertSame(JdbcFilterPipeline.EMPTY, JdbcFilterPipeline.compile(null));
+		Assert.assertSame(JdbcFilterPipeline.EMPTY, JdbcFilterPipeline.compile(new ArrayList<JdbcFilter>()));
+		Assert.assertTrue(JdbcFilterPipeline.filters(null, Hook.PROCESS_SQL).isEmpty());
+
+		// 不是预编译的列表时所有filter都会执行
+		List<JdbcFilter> filters = Collections.<JdbcFilter> singletonList(new DefaultJdbcFilter());
+		Assert.assertSame(filters, JdbcFilterPipeline.filters(filters, Hook.PROCESS_SQL));
+	}
+
+	@Test
+	public void testChainWithHookFilters() throws SQLException {
+		List<JdbcFilter> filters = new ArrayList<JdbcFilter>();
+		filters.add(new SubSqlFilter());
+		filters.add(new DefaultJdbcFilter());
+		filters.add(new SubSqlFilter());
+		JdbcFilterPipeline pipeline = JdbcFilterPipeline.compile(filters);
+
+		JdbcFilter chain = new DefaultJdbcFilterChain(pipeline.getFilters(Hook.PROCESS_SQL)) {
+			@Override
+			public String processSQL(DataSourceConfig dsConfig, SQLProcessContext ctx, JdbcFilter chain)
+			      throws SQLException {
+				if (index < filters.size()) {
+					return filters.get(index++).processSQL(dsConfig, ctx, chain);
+				} else {
+					return "select 1";
+				}
+			}
+		};
+
+		Assert.assertEquals("/*b*//*b*/select 1", chain.processSQL(null, new SQLProcessContext(false), chain));
+	}
+
+	@Test
+	public void testConditionalFilter() {
+		ConditionalSqlFilter conditional = new ConditionalSqlFilter();
+		JdbcFilter sqlFilter = new SubSqlFilter();
+		JdbcFilterPipeline pipeline = JdbcFilterPipeline.compile(Arrays.<JdbcFilter> asList(conditional, sqlFilter));
+
+		Assert.assertEquals(Arrays.asList(sqlFilter), pipeline.getFilters(Hook.PROCESS_SQL));
+
+		conditional.active = true;
+		Assert.assertEquals(Arrays.asList(conditional, sqlFilter), pipeline.getFilters(Hook.PROCESS_SQL));
+		Assert.assertTrue(pipeline.getFilters(Hook.EXECUTE_SINGLE_STATEMENT).isEmpty());
+	}
+
+	private static class ConditionalSqlFilter extends SqlFilter implements JdbcFilterPipeline.ConditionalFilter {
+		volatile boolean active;
+
+		@Override
+		public boolean isActive(Hook hook) {
+			return active;
+		}
+	}
+
+	private static class SqlFilter extends DefaultJdbcFilter {
+		@Override
+		public String processSQL(DataSourceConfig dsConfig, SQLProcessContext ctx, JdbcFilter chain)
+		      throws SQLException {
+			return "/*b*/" + chain.processSQL(dsConfig, ctx, chain);
+		}
+	}
+
+	private static class SubSqlFilter extends SqlFilter {
+	}
+}
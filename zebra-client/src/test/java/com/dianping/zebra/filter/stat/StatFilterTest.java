@@ -0,0 +1,270 @@
+package com.dianping.zebra.filter.stat;
+
+import java.lang.management.ManagementFactory;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.dianping.zebra.filter.DefaultJdbcFilterChain;
+import com.dianping.zebra.filter.JdbcFilter;
+import com.dianping.zebra.group.config.datasource.entity.DataSourceConfig;
+import com.dianping.zebra.group.util.DaoContextHolder;
+import com.dianping.zebra.single.jdbc.SingleConnection;
+import com.dianping.zebra.single.jdbc.SingleDataSource;
+import com.dianping.zebra.single.jdbc.SingleResultSet;
+import com.dianping.zebra.single.jdbc.SingleStatement;
+
+public class StatFilterTest {
+
+	@Test
+	public void test_histogram_buckets() {
+		Random random = new Random(1);
+		for (int i = 0; i < 10000; i++) {
+			long value = random.nextLong() >>> (23 + random.nextInt(40));
+			int index = LatencyHistogram.bucketIndex(value);
+
+			Assert.assertTrue(index < LatencyHistogram.BUCKETS);
+			Assert.assertTrue(LatencyHistogram.lowerBound(index) <= value);
+			Assert.assertTrue(LatencyHistogram.upperBound(index) >= value);
+			Assert.assertTrue(LatencyHistogram.upperBound(index) - LatencyHistogram.lowerBound(index) <= value / 16);
+		}
+	}
+
+	@Test
+	public void test_histogram_percentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		Assert.assertEquals(0, histogram.getValueAtPercentile(99));
+
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i);
+		}
+
+		Assert.assertEquals(1000, histogram.getCount());
+		Assert.assertEquals(1000, histogram.getMax());
+		Assert.assertEquals(500.5, histogram.getMean(), 0.001);
+		assertNear(500, histogram.getValueAtPercentile(50));
+		assertNear(990, histogram.getValueAtPercentile(99));
+		assertNear(999, histogram.getValueAtPercentile(99.9));
+		Assert.assertEquals(1000, histogram.getValueAtPercentile(100));
+
+		histogram.reset();
+		Assert.assertEquals(0, histogram.getCount());
+		Assert.assertEquals(0, histogram.getMax());
+	}
+
+	@Test
+	public void test_histogram_concurrent_record() throws Exception {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 1; j <= 1000; j++) {
+						histogram.record(j);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		Assert.assertEquals(8000, histogram.getCount());
+		Assert.assertEquals(500.5, histogram.getMean(), 0.001);
+		assertNear(990, histogram.getValueAtPercentile(99));
+	}
+
+	@Test
+	public void test_rolling_histogram_window() {
+		final long[] now = new long[1];
+		RollingLatencyHistogram histogram = new RollingLatencyHistogram(1000) {
+			@Override
+			protected long currentTimeMillis() {
+				return now[0];
+			}
+		};
+
+		for (int i = 0; i < 100; i++) {
+			histogram.record(1000);
+		}
+		now[0] = 500;
+		Assert.assertEquals(100, histogram.getCount());
+		Assert.assertEquals(200.0, histogram.getThroughput(), 0.001);
+
+		// 上一个区间仍在窗口内
+		now[0] = 1500;
+		histogram.record(10);
+		Assert.assertEquals(101, histogram.getCount());
+		assertNear(1000, histogram.getValueAtPercentile(50));
+		Assert.assertEquals(1000, histogram.getMax());
+
+		// 第一个区间滑出窗口
+		now[0] = 2500;
+		Assert.assertEquals(1, histogram.getCount());
+		Assert.assertEquals(10, histogram.getValueAtPercentile(99));
+		Assert.assertEquals(10, histogram.getMax());
+		Assert.assertEquals(1000.0 / 1500, histogram.getThroughput(), 0.001);
+
+		now[0] = 10000;
+		Assert.assertEquals(0, histogram.getCount());
+		Assert.assertEquals(0, histogram.getValueAtPercentile(99));
+		Assert.assertEquals(0.0, histogram.getThroughput(), 0.001);
+	}
+
+	@Test
+	public void test_record_execute() throws Exception {
+		StatFilter filter = new StatFilter();
+		List<JdbcFilter> filters = new ArrayList<JdbcFilter>();
+		filters.add(filter);
+		DataSourceConfig config = new DataSourceConfig();
+		config.setId("stat-ds");
+		SingleConnection conn = new SingleConnection(null, config, null, filters);
+
+		DaoContextHolder.setSqlName("stat.update");
+		try {
+			Assert.assertEquals(3, this.<Integer> execute(filters, conn, 3).intValue());
+			Assert.assertArrayEquals(new int[] { 1, 2 }, this.<int[]> execute(filters, conn, new int[] { 1, 2 }));
+			try {
+				execute(filters, conn, new SQLException("mock"));
+				Assert.fail();
+			} catch (SQLException e) {
+				Assert.assertEquals("mock", e.getMessage());
+			}
+
+			ResultSet rs = Mockito.mock(ResultSet.class);
+			Mockito.when(rs.next()).thenReturn(true, true, false);
+			DaoContextHolder.setSqlName("stat.select");
+			SingleResultSet srs = this.<SingleResultSet> execute(filters, conn, new SingleResultSet(rs, filters));
+			while (srs.next()) {
+			}
+			srs.close();
+		} finally {
+			DaoContextHolder.clearSqlName();
+		}
+
+		SqlStat update = filter.getSqlStat("stat-ds", "stat.update");
+		Assert.assertEquals(3, update.getExecuteCount());
+		Assert.assertEquals(1, update.getErrorCount());
+		Assert.assertEquals(6, update.getRowCount());
+		Assert.assertTrue(update.getThroughput() > 0);
+
+		SqlStat select = filter.getSqlStat("stat-ds", "stat.select");
+		Assert.assertEquals(1, select.getExecuteCount());
+		Assert.assertEquals(2, select.getRowCount());
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("com.dianping.zebra:type=SqlStat,datasource=\"stat-ds\",sql=\"stat.select\"");
+		Assert.assertTrue(server.isRegistered(name));
+		Assert.assertEquals(2L, server.getAttribute(name, "RowCount"));
+
+		update.resetStats();
+		Assert.assertEquals(0, update.getExecuteCount());
+		Assert.assertEquals(0, update.getRowCount());
+	}
+
+	@Test
+	public void test_keep_result_set_info() throws Exception {
+		StatFilter filter = new StatFilter();
+		List<JdbcFilter> filters = new ArrayList<JdbcFilter>();
+		filters.add(filter);
+		DataSourceConfig config = new DataSourceConfig();
+		config.setId("stat-info-ds");
+		SingleConnection conn = new SingleConnection(null, config, null, filters);
+
+		ResultSet rs = Mockito.mock(ResultSet.class);
+		Mockito.when(rs.next()).thenReturn(true, false);
+		SingleResultSet srs = new SingleResultSet(rs, filters);
+		// 其他filter放在info里的数据不能被覆盖
+		Object info = new Object();
+		srs.setInfo(info);
+
+		DaoContextHolder.setSqlName("stat.info");
+		try {
+			Assert.assertSame(srs, this.<SingleResultSet> execute(filters, conn, srs));
+		} finally {
+			DaoContextHolder.clearSqlName();
+		}
+		Assert.assertSame(info, srs.getInfo());
+
+		while (srs.next()) {
+		}
+		srs.close();
+		Assert.assertSame(info, srs.getInfo());
+		Assert.assertEquals(1, filter.getSqlStat("stat-info-ds", "stat.info").getRowCount());
+	}
+
+	@Test
+	public void test_record_connection() throws Exception {
+		StatFilter filter = new StatFilter();
+		List<JdbcFilter> filters = new ArrayList<JdbcFilter>();
+		filters.add(filter);
+		SingleDataSource ds = Mockito.mock(SingleDataSource.class);
+		Mockito.when(ds.getId()).thenReturn("stat-conn-ds");
+
+		getConnection(filters, ds, false);
+		try {
+			getConnection(filters, ds, true);
+			Assert.fail();
+		} catch (SQLException ignore) {
+		}
+
+		DataSourceStat stat = filter.getDataSourceStat("stat-conn-ds");
+		Assert.assertEquals(2, stat.getConnectionCount());
+		Assert.assertEquals(1, stat.getConnectionErrorCount());
+		Assert.assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(
+		      new ObjectName("com.dianping.zebra:type=DataSourceStat,datasource=\"stat-conn-ds\"")));
+	}
+
+	private void assertNear(long expected, long actual) {
+		Assert.assertTrue(actual + " is not near " + expected, Math.abs(actual - expected) <= expected / 16);
+	}
+
+	private void getConnection(List<JdbcFilter> filters, SingleDataSource ds, final boolean fail) throws SQLException {
+		JdbcFilter chain = new DefaultJdbcFilterChain(filters) {
+			@Override
+			public SingleConnection getSingleConnection(SingleDataSource source, JdbcFilter chain) throws SQLException {
+				if (index < filters.size()) {
+					return filters.get(index++).getSingleConnection(source, chain);
+				} else if (fail) {
+					throw new SQLException("mock");
+				} else {
+					return null;
+				}
+			}
+		};
+
+		chain.getSingleConnection(ds, chain);
+	}
+
+	private <T> T execute(List<JdbcFilter> filters, SingleConnection conn, final Object result) throws SQLException {
+		JdbcFilter chain = new DefaultJdbcFilterChain(filters) {
+			@Override
+			@SuppressWarnings("unchecked")
+			public <R> R executeSingleStatement(SingleStatement source, SingleConnection conn, String sql,
+			      List<String> batchedSql, boolean isBatched, boolean autoCommit, Object params, JdbcFilter chain)
+			      throws SQLException {
+				if (index < filters.size()) {
+					return filters.get(index++).executeSingleStatement(source, conn, sql, batchedSql, isBatched,
+					      autoCommit, params, chain);
+				} else if (result instanceof SQLException) {
+					throw (SQLException) result;
+				} else {
+					return (R) result;
+				}
+			}
+		};
+
+		return chain.executeSingleStatement(null, conn, "select * from test", null, false, true, null, chain);
+	}
+}
@@ -6,15 +6,25 @@ package com.dianping.zebra.filter.wall;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import com.dianping.zebra.Constants;
 import com.dianping.zebra.config.ServiceConfigBuilder;
 import com.dianping.zebra.filter.DefaultJdbcFilterChain;
 import com.dianping.zebra.filter.JdbcFilter;
+import com.dianping.zebra.filter.JdbcFilterPipeline;
+import com.dianping.zebra.filter.JdbcFilterPipeline.Hook;
 import com.dianping.zebra.filter.SQLProcessContext;
 import com.dianping.zebra.group.config.DefaultSystemConfigManager;
+import com.dianping.zebra.group.config.system.entity.SqlFlowControl;
+import com.dianping.zebra.group.config.system.entity.SystemConfig;
+import com.dianping.zebra.group.config.system.transform.DefaultSaxParser;
+import com.dianping.zebra.single.jdbc.SingleConnection;
+import com.dianping.zebra.single.jdbc.SingleStatement;
 import org.junit.Test;
 
 import com.dianping.zebra.group.config.datasource.entity.DataSourceConfig;
@@ -127,6 +137,200 @@ public class WallFilterTest {
 		Assert.assertTrue(filter.getFlowControl().containsKey("12344321"));
 	}
 
+	@Test
+	public void test_parse_flow_limit_config() throws Exception {
+		SystemConfig config = DefaultSaxParser.parse("<system-config><sql-flow-control sql-id=\"a2f07094\" qps=\"100\" "
+		      + "max-concurrency=\"10\" queue-timeout=\"50\" app=\"_global_\" /></system-config>");
+		SqlFlowControl flowControl = config.findSqlFlowControl("a2f07094");
+
+		Assert.assertEquals(100, flowControl.getAllowPercent());
+		Assert.assertEquals(100, flowControl.getQps());
+		Assert.assertEquals(10, flowControl.getMaxConcurrency());
+		Assert.assertEquals(50, flowControl.getQueueTimeout());
+		Assert.assertEquals(config, DefaultSaxParser.parse(config.toString()));
+		Assert.assertEquals(10, DefaultSaxParser.parse(config.toString()).findSqlFlowControl("a2f07094")
+		      .getMaxConcurrency());
+	}
+
+	@Test
+	public void test_flow_limiter_qps() {
+		FlowLimiter limiter = new FlowLimiter(5, 0, 0);
+		for (int i = 0; i < 5; i++) {
+			Assert.assertTrue(limiter.acquire());
+		}
+		Assert.assertFalse(limiter.acquire());
+
+		limiter = new FlowLimiter(5, 0, 500);
+		for (int i = 0; i < 5; i++) {
+			Assert.assertTrue(limiter.acquire());
+		}
+		long start = System.nanoTime();
+		Assert.assertTrue(limiter.acquire());
+		Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100);
+	}
+
+	@Test
+	public void test_flow_limiter_concurrency() throws Exception {
+		FlowLimiter limiter = new FlowLimiter(0, 1, 0);
+		Assert.assertTrue(limiter.acquire());
+		Assert.assertFalse(limiter.acquire());
+		limiter.release();
+		Assert.assertTrue(limiter.acquire());
+
+		final FlowLimiter queued = new FlowLimiter(0, 1, 1000);
+		Assert.assertTrue(queued.acquire());
+		Thread releaser = new Thread() {
+			@Override
+			public void run() {
+				try {
+					TimeUnit.MILLISECONDS.sleep(50);
+				} catch (InterruptedException ignore) {
+				}
+				queued.release();
+			}
+		};
+		releaser.start();
+		Assert.assertTrue(queued.acquire());
+		releaser.join();
+		Assert.assertEquals(1, queued.getConcurrency());
+	}
+
+	@Test
+	public void test_flow_limiter_refund_token() {
+		FlowLimiter limiter = new FlowLimiter(2, 1, 0);
+		Assert.assertTrue(limiter.acquire());
+
+		// 并发已满，拿到的令牌要归还
+		Assert.assertFalse(limiter.acquire());
+		Assert.assertEquals(1, limiter.getConcurrency());
+
+		limiter.release();
+		Assert.assertTrue(limiter.acquire());
+		Assert.assertFalse(limiter.acquire());
+	}
+
+	@Test
+	public void test_execute_hook_only_with_limiters() {
+		WallFilter filter = new MockWallFilter(0);
+		Map<String, Object> configs = ServiceConfigBuilder.newInstance()
+		      .putValue(Constants.CONFIG_SERVICE_NAME_KEY, DefaultSystemConfigManager.DEFAULT_LOCAL_CONFIG).build();
+		filter.setConfigManager(Constants.CONFIG_MANAGER_TYPE_LOCAL, configs);
+		filter.init();
+
+		JdbcFilterPipeline pipeline = JdbcFilterPipeline.compile(Collections.<JdbcFilter> singletonList(filter));
+		Assert.assertTrue(pipeline.getFilters(Hook.EXECUTE_SINGLE_STATEMENT).isEmpty());
+		Assert.assertEquals(1, pipeline.getFilters(Hook.PROCESS_SQL).size());
+
+		Map<String, SqlFlowControl> original = filter.getFlowControl();
+		Map<String, SqlFlowControl> flowControl = new HashMap<String, SqlFlowControl>(original);
+		flowControl.put("test-write-1", new SqlFlowControl("test-write-1").setQps(1));
+		filter.refreshFlowControl(flowControl);
+		Assert.assertEquals(1, pipeline.getFilters(Hook.EXECUTE_SINGLE_STATEMENT).size());
+
+		filter.refreshFlowControl(original);
+		Assert.assertTrue(pipeline.getFilters(Hook.EXECUTE_SINGLE_STATEMENT).isEmpty());
+	}
+
+	@Test
+	public void test_sql_limited_by_flow_control() throws SQLException {
+		WallFilter filter = new MockWallFilter(0);
+		Map<String, Object> configs = ServiceConfigBuilder.newInstance()
+		      .putValue(Constants.CONFIG_SERVICE_NAME_KEY, DefaultSystemConfigManager.DEFAULT_LOCAL_CONFIG).build();
+		filter.setConfigManager(Constants.CONFIG_MANAGER_TYPE_LOCAL, configs);
+		filter.init();
+		Assert.assertTrue(filter.getFlowLimiters().isEmpty());
+
+		Map<String, SqlFlowControl> flowControl = new HashMap<String, SqlFlowControl>(filter.getFlowControl());
+		flowControl.put("a2f07094", new SqlFlowControl("a2f07094").setMaxConcurrency(1));
+		flowControl.put("test-write-1", new SqlFlowControl("test-write-1").setQps(1));
+		filter.refreshFlowControl(flowControl);
+		Assert.assertEquals(2, filter.getFlowLimiters().size());
+
+		FlowLimiter sqlLimiter = filter.getFlowLimiters().get("a2f07094");
+		filter.refreshFlowControl(flowControl);
+		Assert.assertSame(sqlLimiter, filter.getFlowLimiters().get("a2f07094"));
+
+		DataSourceConfig config = new DataSourceConfig();
+		config.setId("test-write-1");
+		final SingleConnection conn = new SingleConnection(null, config, null, null);
+		final List<JdbcFilter> filters = new ArrayList<JdbcFilter>();
+		filters.add(filter);
+
+		DaoContextHolder.setSqlName("test1");
+		try {
+			Assert.assertEquals(1, execute(filters, conn).intValue());
+			Assert.assertEquals(0, sqlLimiter.getConcurrency());
+
+			// 数据源的QPS用完
+			try {
+				execute(filters, conn);
+				Assert.fail();
+			} catch (SQLException e) {
+				Assert.assertEquals("SQL.FlowControl", e.getSQLState());
+			}
+			Assert.assertEquals(0, sqlLimiter.getConcurrency());
+		} finally {
+			DaoContextHolder.clearSqlName();
+		}
+	}
+
+	@Test
+	public void test_refund_sql_token_when_data_source_limited() throws SQLException {
+		WallFilter filter = new MockWallFilter(0);
+		Map<String, Object> configs = ServiceConfigBuilder.newInstance()
+		      .putValue(Constants.CONFIG_SERVICE_NAME_KEY, DefaultSystemConfigManager.DEFAULT_LOCAL_CONFIG).build();
+		filter.setConfigManager(Constants.CONFIG_MANAGER_TYPE_LOCAL, configs);
+		filter.init();
+
+		Map<String, SqlFlowControl> flowControl = new HashMap<String, SqlFlowControl>(filter.getFlowControl());
+		flowControl.put("a2f07094", new SqlFlowControl("a2f07094").setQps(2));
+		flowControl.put("test-write-1", new SqlFlowControl("test-write-1").setQps(1));
+		filter.refreshFlowControl(flowControl);
+		FlowLimiter sqlLimiter = filter.getFlowLimiters().get("a2f07094");
+
+		DataSourceConfig config = new DataSourceConfig();
+		config.setId("test-write-1");
+		SingleConnection conn = new SingleConnection(null, config, null, null);
+		List<JdbcFilter> filters = new ArrayList<JdbcFilter>();
+		filters.add(filter);
+
+		DaoContextHolder.setSqlName("test1");
+		try {
+			Assert.assertEquals(1, execute(filters, conn).intValue());
+			try {
+				execute(filters, conn);
+				Assert.fail();
+			} catch (SQLException e) {
+				Assert.assertEquals("SQL.FlowControl", e.getSQLState());
+			}
+		} finally {
+			DaoContextHolder.clearSqlName();
+		}
+
+		// 被数据源限流拒绝的执行归还了SQL的令牌
+		Assert.assertTrue(sqlLimiter.acquire());
+		Assert.assertFalse(sqlLimiter.acquire());
+	}
+
+	private Integer execute(List<JdbcFilter> filters, SingleConnection conn) throws SQLException {
+		JdbcFilter chain = new DefaultJdbcFilterChain(filters) {
+			@Override
+			@SuppressWarnings("unchecked")
+			public <T> T executeSingleStatement(SingleStatement source, SingleConnection conn, String sql,
+			      List<String> batchedSql, boolean isBatched, boolean autoCommit, Object params, JdbcFilter chain)
+			      throws SQLException {
+				if (index < filters.size()) {
+					return filters.get(index++).executeSingleStatement(source, conn, sql, batchedSql, isBatched,
+					      autoCommit, params, chain);
+				} else {
+					return (T) Integer.valueOf(1);
+				}
+			}
+		};
+
+		return chain.executeSingleStatement(null, conn, "select * from test", null, false, true, null, chain);
+	}
+
 	public class MockWallFilter extends WallFilter {
 		private int flowPercent;
 
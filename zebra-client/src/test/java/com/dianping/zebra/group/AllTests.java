@@ -3,7 +3,9 @@ package com.dianping.zebra.group;
 import com.dianping.zebra.config.LocalConfigServiceTest;
 import com.dianping.zebra.filter.DefaultFilterManagerTest;
 import com.dianping.zebra.filter.FilterChainTest;
+import com.dianping.zebra.filter.JdbcFilterPipelineTest;
 import com.dianping.zebra.filter.mock.FinalSqlTest;
+import com.dianping.zebra.filter.stat.StatFilterTest;
 import com.dianping.zebra.filter.wall.SqlFlowIdGenerator;
 import com.dianping.zebra.filter.wall.WallFilterTest;
 import com.dianping.zebra.group.config.DataSourceConfigManagerTest;
@@ -11,12 +13,15 @@ import com.dianping.zebra.group.config.HidePasswordVisitorTest;
 import com.dianping.zebra.group.config.SystemConfigManagerTest;
 import com.dianping.zebra.group.datasources.FailoverDataSourceTest;
 import com.dianping.zebra.group.datasources.LoadBalancedDataSourceTest;
+import com.dianping.zebra.group.datasources.ReplicationLagMonitorTest;
 import com.dianping.zebra.group.jdbc.*;
 import com.dianping.zebra.group.router.*;
+import com.dianping.zebra.group.router.region.IpPrefixTableTest;
 import com.dianping.zebra.group.router.region.LocalRegionManagerTest;
 import com.dianping.zebra.group.util.AppPropertiesUtilsTest;
 import com.dianping.zebra.group.util.SmoothReloadTest;
 import com.dianping.zebra.group.util.SqlUtilsTest;
+import com.dianping.zebra.util.ClockCacheTest;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
@@ -33,6 +38,7 @@ import org.junit.runners.Suite.SuiteClasses;
 		//datasources
 		FailoverDataSourceTest.class,
 		LoadBalancedDataSourceTest.class,
+		ReplicationLagMonitorTest.class,
 
 		//filter
 		DefaultFilterManagerTest.class,
@@ -40,6 +46,8 @@ import org.junit.runners.Suite.SuiteClasses;
 		WallFilterTest.class,
 		SqlFlowIdGenerator.class,
 		FinalSqlTest.class,
+		JdbcFilterPipelineTest.class,
+		StatFilterTest.class,
 
 		//jdbc
 		GroupDataSourceC3P0FieldTest.class,
@@ -47,6 +55,7 @@ import org.junit.runners.Suite.SuiteClasses;
 		DPGroupPreparedStatementTest.class,
 		DPGroupStatementTest.class,
 		GroupDataSourceTest.class,
+		HedgedQueryTest.class,
 
 		//router
 		CustomizedReadWriteStrategyWrapperTest.class,
@@ -55,13 +64,16 @@ import org.junit.runners.Suite.SuiteClasses;
 		ReadWriteStrategyServiceLoaderTest.class,
 		IdcAwareRouterTest.class,
 		LocalRegionManagerTest.class,
+		IpPrefixTableTest.class,
 		RegionAwareRouterTest.class,
 		CenterAwareRouterTest.class,
+		LatencyAwareRouterTest.class,
 
 		//util
 		AppPropertiesUtilsTest.class,
 		SmoothReloadTest.class,
-		SqlUtilsTest.class
+		SqlUtilsTest.class,
+		ClockCacheTest.class
 })
 public class AllTests {
 
@@ -8,10 +8,27 @@ import com.dianping.zebra.group.config.DataSourceConfigManager;
 import com.dianping.zebra.group.config.DataSourceConfigManagerFactory;
 import com.dianping.zebra.group.config.SystemConfigManager;
 import com.dianping.zebra.group.config.SystemConfigManagerFactory;
+import com.dianping.zebra.group.config.datasource.entity.DataSourceConfig;
 import com.dianping.zebra.group.exception.SlaveDsDisConnectedException;
+import com.dianping.zebra.group.config.system.entity.SystemConfig;
+import com.dianping.zebra.single.jdbc.CircuitBreaker;
+import com.dianping.zebra.single.jdbc.SingleConnection;
+import com.dianping.zebra.single.jdbc.SingleDataSource;
+import org.junit.Assert;
 import org.junit.Test;
 
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class LoadBalancedDataSourceTest {
 
@@ -32,4 +49,203 @@ public class LoadBalancedDataSourceTest {
 
 		ds.init();
 	}
+
+	@Test
+	public void test_refresh_warm_up_and_drain() throws Exception {
+		Map<String, Object> configs = ServiceConfigBuilder.newInstance()
+		      .putValue(Constants.CONFIG_SERVICE_NAME_KEY, "sample.ds.router").build();
+		ConfigService configService = ConfigServiceFactory.getConfigService(Constants.CONFIG_MANAGER_TYPE_LOCAL, configs);
+
+		Map<String, DataSourceConfig> oldConfigs = new HashMap<String, DataSourceConfig>();
+		oldConfigs.put("swap-n1", newConfig("swap-n1", 1));
+		oldConfigs.put("swap-n2", newConfig("swap-n2", 1));
+
+		LoadBalancedDataSource ds = new LoadBalancedDataSource(oldConfigs, null, SystemConfigManagerFactory
+		      .getConfigManger(Constants.CONFIG_MANAGER_TYPE_LOCAL, configService).getSystemConfig(),
+		      Constants.CONFIG_MANAGER_TYPE_LOCAL, configService, "WeightRouter");
+		ds.init();
+
+		try {
+			SingleDataSource oldDataSource = ds.getDataSources().get("swap-n1");
+			Connection conn = oldDataSource.getConnection();
+			Assert.assertEquals(1, oldDataSource.getInFlightConnections());
+
+			Map<String, DataSourceConfig> newConfigs = new HashMap<String, DataSourceConfig>();
+			newConfigs.put("swap-n1", newConfig("swap-n1", 2));
+			newConfigs.put("swap-n2", newConfig("swap-n2", 1));
+
+			Assert.assertEquals(5, ds.refresh(newConfigs));
+			SingleDataSource newDataSource = ds.getDataSources().get("swap-n1");
+			Assert.assertNotSame(oldDataSource, newDataSource);
+			Assert.assertTrue(newDataSource.getNumConnections() >= 5);
+
+			// 借出的连接没有归还前不关闭旧数据源
+			Thread.sleep(300);
+			Assert.assertFalse(oldDataSource.isClosed());
+			Assert.assertTrue(conn.createStatement().executeQuery("SELECT 1").next());
+
+			conn.close();
+			conn.close();
+			Assert.assertEquals(0, oldDataSource.getInFlightConnections());
+
+			for (int i = 0; i < 50 && !oldDataSource.isClosed(); i++) {
+				Thread.sleep(100);
+			}
+			Assert.assertTrue(oldDataSource.isClosed());
+		} finally {
+			ds.close();
+		}
+	}
+
+	@Test
+	public void test_get_connection_during_refresh() throws Exception {
+		Map<String, Object> configs = ServiceConfigBuilder.newInstance()
+		      .putValue(Constants.CONFIG_SERVICE_NAME_KEY, "sample.ds.router").build();
+		ConfigService configService = ConfigServiceFactory.getConfigService(Constants.CONFIG_MANAGER_TYPE_LOCAL, configs);
+
+		final Map<String, DataSourceConfig> configsA = new HashMap<String, DataSourceConfig>();
+		configsA.put("refresh-a", newConfig("refresh-a", 1));
+		final Map<String, DataSourceConfig> configsB = new HashMap<String, DataSourceConfig>();
+		configsB.put("refresh-b", newConfig("refresh-b", 1));
+
+		final LoadBalancedDataSource ds = new LoadBalancedDataSource(configsA, null, SystemConfigManagerFactory
+		      .getConfigManger(Constants.CONFIG_MANAGER_TYPE_LOCAL, configService).getSystemConfig(),
+		      Constants.CONFIG_MANAGER_TYPE_LOCAL, configService, "WeightRouter");
+		ds.init();
+
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicInteger acquired = new AtomicInteger();
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		Thread[] readers = new Thread[4];
+		for (int i = 0; i < readers.length; i++) {
+			readers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while (running.get()) {
+						try {
+							Connection conn = ds.getConnection();
+							try {
+								Assert.assertTrue(conn.createStatement().executeQuery("SELECT 1").next());
+							} finally {
+								conn.close();
+							}
+							acquired.incrementAndGet();
+						} catch (Throwable t) {
+							errors.add(t);
+						}
+					}
+				}
+			});
+			readers[i].start();
+		}
+
+		try {
+			// 每次刷新都替换掉全部数据源，旧路由选中的数据源在新视图里都不存在
+			for (int i = 0; i < 20; i++) {
+				ds.refresh(new HashMap<String, DataSourceConfig>(i % 2 == 0 ? configsB : configsA));
+			}
+		} finally {
+			running.set(false);
+			for (Thread reader : readers) {
+				reader.join(10000);
+			}
+			ds.close();
+		}
+
+		Assert.assertTrue(errors.toString(), errors.isEmpty());
+		Assert.assertTrue(acquired.get() > 0);
+	}
+
+	@Test
+	public void test_retry_keeps_exclude_data_sources() throws Exception {
+		LoadBalancedDataSource ds = newRetryDataSource();
+		try {
+			for (int i = 0; i < 50; i++) {
+				Connection conn = ds.getConnection(Collections.singleton("retry-a"));
+				try {
+					// retry-b获取连接失败，重试时也不能选中调用方排除的retry-a
+					Assert.assertEquals("retry-c", ((SingleConnection) conn).getDataSourceId());
+				} finally {
+					conn.close();
+				}
+			}
+		} finally {
+			ds.close();
+		}
+	}
+
+	@Test
+	public void test_retry_excludes_lagging_data_sources() throws Exception {
+		LoadBalancedDataSource ds = newRetryDataSource();
+		final Set<String> laggingIds = Collections.synchronizedSet(new HashSet<String>());
+		try {
+			ds.startReplicationLagMonitor(1000, 60 * 1000, new ReplicationLagMonitor.LagDetector() {
+				@Override
+				public long getLagMillis(Connection conn, int queryTimeoutSeconds) throws SQLException {
+					String url = conn.getMetaData().getURL();
+					String id = url.substring("jdbc:h2:mem:".length(), url.indexOf(';') > 0 ? url.indexOf(';') : url
+					      .length());
+					return laggingIds.contains(id) ? 5000 : 0;
+				}
+			});
+
+			laggingIds.add("retry-a");
+			ds.getReplicationLagMonitor().check();
+			for (int i = 0; i < 50; i++) {
+				Connection conn = ds.getConnection();
+				try {
+					// retry-b获取连接失败，重试时也不能选中延迟过大的retry-a
+					Assert.assertEquals("retry-c", ((SingleConnection) conn).getDataSourceId());
+				} finally {
+					conn.close();
+				}
+			}
+
+			// 所有从库都延迟时仍然可以选中
+			laggingIds.add("retry-c");
+			ds.getReplicationLagMonitor().check();
+			for (int i = 0; i < 10; i++) {
+				ds.getConnection().close();
+			}
+		} finally {
+			ds.close();
+		}
+	}
+
+	private LoadBalancedDataSource newRetryDataSource() throws Exception {
+		Map<String, Object> configs = ServiceConfigBuilder.newInstance()
+		      .putValue(Constants.CONFIG_SERVICE_NAME_KEY, "sample.ds.router").build();
+		ConfigService configService = ConfigServiceFactory.getConfigService(Constants.CONFIG_MANAGER_TYPE_LOCAL, configs);
+
+		Map<String, DataSourceConfig> dataSourceConfigs = new HashMap<String, DataSourceConfig>();
+		dataSourceConfigs.put("retry-a", newConfig("retry-a", 1));
+		dataSourceConfigs.put("retry-b", newConfig("retry-b", 1));
+		dataSourceConfigs.put("retry-c", newConfig("retry-c", 1));
+
+		LoadBalancedDataSource ds = new LoadBalancedDataSource(dataSourceConfigs, null,
+		      new SystemConfig().setRetryTimes(1), Constants.CONFIG_MANAGER_TYPE_LOCAL, configService, "WeightRouter");
+		ds.init();
+
+		// retry-b可以被选中，但获取连接总是失败
+		Field field = SingleDataSource.class.getDeclaredField("circuitBreaker");
+		field.setAccessible(true);
+		field.set(ds.getDataSources().get("retry-b"), new CircuitBreaker(0, 1, null) {
+			@Override
+			public boolean tryAcquirePermission() {
+				return false;
+			}
+		});
+		return ds;
+	}
+
+	private DataSourceConfig newConfig(String id, int weight) throws SQLException {
+		DataSourceConfig config = new DataSourceConfig();
+		config.setId(id);
+		config.setJdbcUrl("jdbc:h2:mem:" + id + ";DB_CLOSE_DELAY=-1");
+		config.setDriverClass("org.h2.Driver");
+		config.setActive(true);
+		config.setCanRead(true);
+		config.setWeight(weight);
+		return config;
+	}
 }
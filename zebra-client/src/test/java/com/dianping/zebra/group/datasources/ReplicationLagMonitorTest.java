@@ -0,0 +1,164 @@
+package com.dianping.zebra.group.datasources;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dianping.zebra.Constants;
+import com.dianping.zebra.config.ConfigService;
+import com.dianping.zebra.config.ConfigServiceFactory;
+import com.dianping.zebra.config.ServiceConfigBuilder;
+import com.dianping.zebra.group.config.SystemConfigManagerFactory;
+import com.dianping.zebra.group.config.datasource.entity.DataSourceConfig;
+import com.dianping.zebra.single.jdbc.SingleConnection;
+
+public class ReplicationLagMonitorTest {
+
+	private LoadBalancedDataSource dataSource;
+
+	private final Map<String, Long> mockLags = new ConcurrentHashMap<String, Long>();
+
+	@Before
+	public void setUp() {
+		Map<String, DataSourceConfig> configs = new HashMap<String, DataSourceConfig>();
+		configs.put("lag-n1", newConfig("lag-n1"));
+		configs.put("lag-n2", newConfig("lag-n2"));
+
+		Map<String, Object> serviceConfigs = ServiceConfigBuilder.newInstance()
+		      .putValue(Constants.CONFIG_SERVICE_NAME_KEY, "sample.ds.router").build();
+		ConfigService configService = ConfigServiceFactory.getConfigService(Constants.CONFIG_MANAGER_TYPE_LOCAL,
+		      serviceConfigs);
+
+		dataSource = new LoadBalancedDataSource(configs, null, SystemConfigManagerFactory.getConfigManger(
+		      Constants.CONFIG_MANAGER_TYPE_LOCAL, configService).getSystemConfig(),
+		      Constants.CONFIG_MANAGER_TYPE_LOCAL, configService, Constants.ROUTER_STRATEGY_CENTER_AWARE_ROUTER);
+		dataSource.init();
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		dataSource.close();
+	}
+
+	@Test
+	public void testExcludeLaggingSlave() throws SQLException {
+		dataSource.startReplicationLagMonitor(1000, 60 * 1000, new ReplicationLagMonitor.LagDetector() {
+			@Override
+			public long getLagMillis(Connection conn, int queryTimeoutSeconds) throws SQLException {
+				// 探测直接使用连接池的物理连接
+				Assert.assertFalse(conn instanceof SingleConnection);
+				Assert.assertEquals(60, queryTimeoutSeconds);
+				String url = conn.getMetaData().getURL();
+				Long lag = mockLags.get(url.substring("jdbc:h2:mem:".length(), url.indexOf(';') > 0 ? url.indexOf(';')
+				      : url.length()));
+				return lag == null ? ReplicationLagMonitor.UNKNOWN_LAG : lag;
+			}
+		});
+		ReplicationLagMonitor monitor = dataSource.getReplicationLagMonitor();
+		Assert.assertEquals(60, monitor.getQueryTimeoutSeconds());
+
+		mockLags.put("lag-n1", 5000L);
+		mockLags.put("lag-n2", 10L);
+		monitor.check();
+		Assert.assertEquals(5000L, monitor.getLagMillis("lag-n1"));
+		Assert.assertEquals(1, monitor.getLaggingDataSources().size());
+		Assert.assertEquals("lag-n2", selectDataSources(100));
+
+		// 复制停止的从库同样被排除，无法采样的从库不排除
+		mockLags.put("lag-n2", ReplicationLagMonitor.REPLICATION_STOPPED);
+		mockLags.remove("lag-n1");
+		monitor.check();
+		Assert.assertEquals(ReplicationLagMonitor.UNKNOWN_LAG, monitor.getLagMillis("lag-n1"));
+		Assert.assertEquals("lag-n1", selectDataSources(100));
+
+		// 所有从库都超过阈值时不排除
+		mockLags.put("lag-n1", 5000L);
+		monitor.check();
+		Assert.assertEquals(2, monitor.getLaggingDataSources().size());
+		Assert.assertEquals("lag-n1,lag-n2", selectDataSources(200));
+	}
+
+	@Test
+	public void testHeartbeatDetector() throws SQLException {
+		Connection conn = DriverManager.getConnection("jdbc:h2:mem:lag-heartbeat;DB_CLOSE_DELAY=-1");
+		try {
+			Statement stmt = conn.createStatement();
+			stmt.execute("CREATE TABLE heartbeat (ts TIMESTAMP)");
+			stmt.execute("INSERT INTO heartbeat VALUES ('" + new Timestamp(System.currentTimeMillis() - 5000) + "')");
+
+			Assert.assertEquals("SELECT TIMESTAMPDIFF(MICROSECOND, (SELECT ts FROM heartbeat), NOW(3))",
+			      new RecordingHeartbeatDetector("SELECT ts FROM heartbeat;").mysqlSql);
+
+			// H2不支持MICROSECOND，换成等价的毫秒差
+			ReplicationLagMonitor.LagDetector detector = new ReplicationLagMonitor.HeartbeatLagDetector(
+			      "SELECT ts FROM heartbeat") {
+				@Override
+				protected String buildLagSql(String heartbeatSql) {
+					return "SELECT DATEDIFF('MS', (" + heartbeatSql + "), NOW()) * 1000";
+				}
+			};
+			long lag = detector.getLagMillis(conn, 1);
+			Assert.assertTrue(String.valueOf(lag), lag >= 5000 && lag < 60000);
+
+			stmt.execute("DELETE FROM heartbeat");
+			Assert.assertEquals(ReplicationLagMonitor.UNKNOWN_LAG, detector.getLagMillis(conn, 1));
+		} finally {
+			conn.close();
+		}
+	}
+
+	private static class RecordingHeartbeatDetector extends ReplicationLagMonitor.HeartbeatLagDetector {
+
+		private String mysqlSql;
+
+		public RecordingHeartbeatDetector(String heartbeatSql) {
+			super(heartbeatSql);
+		}
+
+		@Override
+		protected String buildLagSql(String heartbeatSql) {
+			String sql = super.buildLagSql(heartbeatSql);
+			this.mysqlSql = sql;
+			return sql;
+		}
+	}
+
+	private String selectDataSources(int times) throws SQLException {
+		Set<String> ids = new HashSet<String>();
+		for (int i = 0; i < times; i++) {
+			SingleConnection conn = (SingleConnection) dataSource.getConnection();
+			ids.add(conn.getDataSourceId());
+			conn.close();
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for (String id : new TreeSet<String>(ids)) {
+			sb.append(sb.length() > 0 ? "," : "").append(id);
+		}
+		return sb.toString();
+	}
+
+	private DataSourceConfig newConfig(String id) {
+		DataSourceConfig config = new DataSourceConfig();
+		config.setId(id);
+		config.setJdbcUrl("jdbc:h2:mem:" + id + ";DB_CLOSE_DELAY=-1");
+		config.setDriverClass("org.h2.Driver");
+		config.setActive(true);
+		config.setCanRead(true);
+		config.setWeight(1);
+		return config;
+	}
+}
@@ -0,0 +1,270 @@
+package com.dianping.zebra.group.jdbc;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.h2.command.Command;
+import org.h2.engine.Session;
+import org.h2.jdbc.JdbcConnection;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.dianping.zebra.Constants;
+import com.dianping.zebra.config.ConfigService;
+import com.dianping.zebra.config.ConfigServiceFactory;
+import com.dianping.zebra.config.ServiceConfigBuilder;
+import com.dianping.zebra.group.config.SystemConfigManagerFactory;
+import com.dianping.zebra.group.config.datasource.entity.DataSourceConfig;
+import com.dianping.zebra.group.datasources.HedgedReadPolicy;
+import com.dianping.zebra.group.datasources.LoadBalancedDataSource;
+import com.dianping.zebra.group.router.LocalContextReadWriteStrategy;
+import com.dianping.zebra.group.router.RouterType;
+import com.dianping.zebra.group.router.ZebraForceMasterHelper;
+import com.dianping.zebra.group.util.DaoContextHolder;
+
+public class HedgedQueryTest {
+
+	private static final long STALL_MILLIS = 2000;
+
+	private static volatile Thread stalledThread;
+
+	private static volatile String hedgedSqlName;
+
+	private static volatile boolean hedgedForceMaster;
+
+	private LoadBalancedDataSource dataSource;
+
+	/**
+	 * 模拟卡住的从库，被<tt>Statement.cancel</tt>取消时立即返回
+	 */
+	public static int stalledNodeId(Connection conn) throws Exception {
+		stalledThread = Thread.currentThread();
+		Command command = ((Session) ((JdbcConnection) conn).getSession()).getCurrentCommand();
+		Field cancel = Command.class.getDeclaredField("cancel");
+		cancel.setAccessible(true);
+
+		long deadline = System.currentTimeMillis() + STALL_MILLIS;
+		while (System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+			if ((Boolean) cancel.get(command)) {
+				throw new SQLException("query is cancelled", "57014");
+			}
+		}
+		return 1;
+	}
+
+	public static int nodeId() {
+		hedgedSqlName = DaoContextHolder.getSqlName();
+		hedgedForceMaster = LocalContextReadWriteStrategy.getReadFromMaster();
+		return 2;
+	}
+
+	@Before
+	public void setUp() throws SQLException {
+		createNodeIdAlias("hedge-n1", "stalledNodeId");
+		createNodeIdAlias("hedge-n2", "nodeId");
+
+		Map<String, DataSourceConfig> configs = new HashMap<String, DataSourceConfig>();
+		configs.put("hedge-n1", newConfig("hedge-n1"));
+		configs.put("hedge-n2", newConfig("hedge-n2"));
+
+		Map<String, Object> serviceConfigs = ServiceConfigBuilder.newInstance()
+		      .putValue(Constants.CONFIG_SERVICE_NAME_KEY, "sample.ds.router").build();
+		ConfigService configService = ConfigServiceFactory.getConfigService(Constants.CONFIG_MANAGER_TYPE_LOCAL,
+		      serviceConfigs);
+
+		dataSource = new LoadBalancedDataSource(configs, null, SystemConfigManagerFactory.getConfigManger(
+		      Constants.CONFIG_MANAGER_TYPE_LOCAL, configService).getSystemConfig(),
+		      Constants.CONFIG_MANAGER_TYPE_LOCAL, configService, Constants.ROUTER_STRATEGY_CENTER_AWARE_ROUTER);
+		dataSource.init();
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		dataSource.close();
+	}
+
+	@Test
+	public void testHedgeStalledSlave() throws SQLException {
+		dataSource.setHedgedReadPolicy(new HedgedReadPolicy(50, null));
+
+		for (int i = 0; i < 6; i++) {
+			GroupConnection conn = new GroupConnection(dataSource, null, null, RouterType.SLAVE_ONLY, null);
+			try {
+				long start = System.currentTimeMillis();
+				Statement stmt = conn.createStatement();
+				ResultSet rs = stmt.executeQuery("SELECT NODE_ID()");
+				Assert.assertTrue(rs.next());
+				Assert.assertEquals(2, rs.getInt(1));
+
+				PreparedStatement pstmt = conn.prepareStatement("SELECT NODE_ID() + ?");
+				pstmt.setInt(1, 10);
+				rs = pstmt.executeQuery();
+				Assert.assertTrue(rs.next());
+				Assert.assertEquals(12, rs.getInt(1));
+				Assert.assertTrue(System.currentTimeMillis() - start < STALL_MILLIS);
+			} finally {
+				conn.close();
+			}
+		}
+	}
+
+	@Test
+	public void testPrimaryOnCallerThreadAndContextPropagated() throws SQLException {
+		dataSource.setHedgedReadPolicy(new HedgedReadPolicy(50, null));
+
+		DaoContextHolder.setSqlName("hedged.select");
+		ZebraForceMasterHelper.forceMasterInLocalContext();
+		try {
+			for (int i = 0; i < 20; i++) {
+				stalledThread = null;
+				hedgedSqlName = null;
+				hedgedForceMaster = false;
+
+				GroupConnection conn = new GroupConnection(dataSource, null, null, RouterType.SLAVE_ONLY, null);
+				try {
+					ResultSet rs = conn.createStatement().executeQuery("SELECT NODE_ID()");
+					Assert.assertTrue(rs.next());
+					Assert.assertEquals(2, rs.getInt(1));
+				} finally {
+					conn.close();
+				}
+
+				if (stalledThread != null) {
+					// 主查询落到卡住的从库上，对冲查询在对冲线程上执行并带上调用线程的上下文
+					Assert.assertSame(Thread.currentThread(), stalledThread);
+					Assert.assertEquals("hedged.select", hedgedSqlName);
+					Assert.assertTrue(hedgedForceMaster);
+					return;
+				}
+			}
+			Assert.fail("primary query never routed to the stalled slave");
+		} finally {
+			DaoContextHolder.clearSqlName();
+			ZebraForceMasterHelper.clearLocalContext();
+		}
+	}
+
+	@Test
+	public void testHedgeUsesCatalog() throws SQLException {
+		dataSource.setHedgedReadPolicy(new HedgedReadPolicy(50, null));
+		final String[] hedgedCatalog = new String[1];
+		LoadBalancedDataSource spy = Mockito.spy(dataSource);
+		Mockito.doAnswer(new Answer<Connection>() {
+			@Override
+			@SuppressWarnings("unchecked")
+			public Connection answer(InvocationOnMock invocation) throws Throwable {
+				Connection conn = (Connection) invocation.callRealMethod();
+				Set<String> excludeDataSourceIds = (Set<String>) invocation.getArguments()[0];
+				// 对冲查询的连接：记录创建语句时连接上的catalog
+				return excludeDataSourceIds.isEmpty() ? conn : recordCatalog(conn, hedgedCatalog);
+			}
+		}).when(spy).getConnection(Mockito.anySetOf(String.class));
+
+		for (int i = 0; i < 20 && hedgedCatalog[0] == null; i++) {
+			GroupConnection conn = new GroupConnection(spy, null, null, RouterType.SLAVE_ONLY, null);
+			try {
+				conn.setCatalog("hedged_catalog");
+				ResultSet rs = conn.createStatement().executeQuery("SELECT NODE_ID()");
+				Assert.assertTrue(rs.next());
+			} finally {
+				conn.close();
+			}
+		}
+
+		Assert.assertEquals("hedged_catalog", hedgedCatalog[0]);
+	}
+
+	private static Connection recordCatalog(final Connection target, final String[] catalogAtStatement) {
+		return (Connection) Proxy.newProxyInstance(HedgedQueryTest.class.getClassLoader(),
+		      new Class<?>[] { Connection.class }, new InvocationHandler() {
+			      private String catalog;
+
+			      @Override
+			      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				      if (method.getName().equals("setCatalog")) {
+					      catalog = (String) args[0];
+				      } else if (method.getName().equals("createStatement")
+				            || method.getName().equals("prepareStatement")) {
+					      catalogAtStatement[0] = String.valueOf(catalog);
+				      }
+
+				      try {
+					      return method.invoke(target, args);
+				      } catch (InvocationTargetException e) {
+					      throw e.getTargetException();
+				      }
+			      }
+		      });
+	}
+
+	@Test
+	public void testSqlNames() {
+		HedgedReadPolicy policy = new HedgedReadPolicy(50, "hedged.select, other.select");
+		Assert.assertFalse(policy.shouldHedge());
+
+		DaoContextHolder.setSqlName("hedged.select");
+		try {
+			Assert.assertTrue(policy.shouldHedge());
+			DaoContextHolder.setSqlName("normal.select");
+			Assert.assertFalse(policy.shouldHedge());
+		} finally {
+			DaoContextHolder.clearSqlName();
+		}
+
+		Assert.assertTrue(new HedgedReadPolicy(50, null).shouldHedge());
+	}
+
+	@Test
+	public void testPercentileDelay() {
+		HedgedReadPolicy policy = new HedgedReadPolicy(0, null);
+		for (int i = 1; i < HedgedReadPolicy.MIN_SAMPLES; i++) {
+			policy.record(i);
+		}
+		Assert.assertEquals(-1, policy.getDelayMillis());
+
+		policy = new HedgedReadPolicy(0, null);
+		for (int i = 1; i <= 100; i++) {
+			policy.record(i);
+		}
+		Assert.assertEquals(95, policy.getDelayMillis());
+	}
+
+	private void createNodeIdAlias(String id, String method) throws SQLException {
+		Connection conn = DriverManager.getConnection("jdbc:h2:mem:" + id + ";DB_CLOSE_DELAY=-1");
+		try {
+			conn.createStatement().execute(
+			      "CREATE ALIAS IF NOT EXISTS NODE_ID FOR \"" + HedgedQueryTest.class.getName() + "." + method + "\"");
+		} finally {
+			conn.close();
+		}
+	}
+
+	private DataSourceConfig newConfig(String id) {
+		DataSourceConfig config = new DataSourceConfig();
+		config.setId(id);
+		config.setJdbcUrl("jdbc:h2:mem:" + id + ";DB_CLOSE_DELAY=-1");
+		config.setDriverClass("org.h2.Driver");
+		config.setActive(true);
+		config.setCanRead(true);
+		config.setWeight(1);
+		return config;
+	}
+}
@@ -0,0 +1,161 @@
+package com.dianping.zebra.group.router;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.zebra.group.config.datasource.entity.DataSourceConfig;
+
+public class LatencyAwareRouterTest {
+
+	@Test
+	public void testAvoidSlowDataSource() {
+		Map<String, DataSourceConfig> configs = new HashMap<String, DataSourceConfig>();
+		configs.put("latency-fast", newConfig("latency-fast", 1));
+		configs.put("latency-slow", newConfig("latency-slow", 1));
+		configs.put("latency-backup", newConfig("latency-backup", 0));
+
+		DataSourceLatencyStats slow = DataSourceLatencyStats.acquire("latency-slow");
+		DataSourceLatencyStats fast = DataSourceLatencyStats.acquire("latency-fast");
+		try {
+			slow.start();
+			slow.finish(200 * 1000 * 1000L);
+			fast.start();
+			fast.finish(1000 * 1000L);
+			fast.start();
+
+			LatencyAwareRouter router = new LatencyAwareRouter(configs);
+			for (int i = 0; i < 1000; i++) {
+				Assert.assertEquals("latency-fast", router.select(new RouterContext()).getId());
+			}
+
+			RouterContext context = new RouterContext();
+			context.addExcludeTarget("latency-fast");
+			Assert.assertEquals("latency-slow", router.select(context).getId());
+
+			context.addExcludeTarget("latency-slow");
+			Assert.assertNull(router.select(context));
+
+			fast.finish(1000 * 1000L);
+		} finally {
+			slow.release();
+			fast.release();
+		}
+	}
+
+	@Test
+	public void testUseStatsAfterRefresh() {
+		Map<String, DataSourceConfig> configs = new HashMap<String, DataSourceConfig>();
+		configs.put("latency-r1", newConfig("latency-r1", 1));
+		configs.put("latency-r2", newConfig("latency-r2", 1));
+		LatencyAwareRouter router = new LatencyAwareRouter(configs);
+
+		// 路由不创建统计
+		router.select(new RouterContext());
+		Assert.assertFalse(DataSourceLatencyStats.contains("latency-r1"));
+
+		// 数据源刷新后换了新的统计对象，路由使用新的统计
+		DataSourceLatencyStats old = DataSourceLatencyStats.acquire("latency-r1");
+		old.release();
+		DataSourceLatencyStats slow = DataSourceLatencyStats.acquire("latency-r1");
+		try {
+			Assert.assertNotSame(old, slow);
+			slow.start();
+			slow.finish(200 * 1000 * 1000L);
+			for (int i = 0; i < 1000; i++) {
+				Assert.assertEquals("latency-r2", router.select(new RouterContext()).getId());
+			}
+		} finally {
+			slow.release();
+		}
+	}
+
+	@Test
+	public void testSelectByWeightWithoutStats() {
+		Map<String, DataSourceConfig> configs = new HashMap<String, DataSourceConfig>();
+		configs.put("latency-n1", newConfig("latency-n1", 1));
+		configs.put("latency-n2", newConfig("latency-n2", 1));
+		configs.put("latency-n3", newConfig("latency-n3", 1));
+
+		LatencyAwareRouter router = new LatencyAwareRouter(configs);
+		Set<String> targets = new HashSet<String>();
+		for (int i = 0; i < 1000; i++) {
+			targets.add(router.select(new RouterContext()).getId());
+		}
+
+		Assert.assertEquals(configs.keySet(), targets);
+	}
+
+	@Test
+	public void testLatencyDecay() {
+		DataSourceLatencyStats stats = new DataSourceLatencyStats("latency-decay");
+		long now = System.nanoTime();
+		stats.record(now, 100);
+		Assert.assertEquals(100, stats.getEwmaNanos(now), 0.001);
+
+		// 比当前值小的样本按时间加权
+		stats.record(now, 50);
+		Assert.assertEquals(100, stats.getEwmaNanos(now), 0.001);
+		stats.record(now + DataSourceLatencyStats.DECAY_NANOS, 50);
+		Assert.assertEquals(100 * Math.exp(-1) + 50 * (1 - Math.exp(-1)),
+		      stats.getEwmaNanos(now + DataSourceLatencyStats.DECAY_NANOS), 0.001);
+
+		// 比当前值大的样本直接生效
+		stats.record(now + DataSourceLatencyStats.DECAY_NANOS, 1000);
+		Assert.assertEquals(1000, stats.getEwmaNanos(now + DataSourceLatencyStats.DECAY_NANOS), 0.001);
+
+		Assert.assertTrue(stats.getEwmaNanos(now + 10 * DataSourceLatencyStats.DECAY_NANOS) < 1);
+	}
+
+	@Test
+	public void testFailureOnlyPenalizes() {
+		DataSourceLatencyStats stats = new DataSourceLatencyStats("latency-failure");
+		stats.start();
+		stats.finish(100 * 1000 * 1000L);
+		double ewma = stats.getEwmaNanos(System.nanoTime());
+
+		// 快速失败不会拉低延迟
+		stats.start();
+		stats.finishWithError(1000L);
+		Assert.assertTrue(stats.getEwmaNanos(System.nanoTime()) > ewma / 2);
+		Assert.assertEquals(0, stats.getInFlight());
+
+		// 慢的失败直接计入
+		stats.start();
+		stats.finishWithError(1000 * 1000 * 1000L);
+		Assert.assertTrue(stats.getEwmaNanos(System.nanoTime()) > 500 * 1000 * 1000L);
+		Assert.assertEquals(0, stats.getInFlight());
+	}
+
+	@Test
+	public void testReleaseRemovesStats() {
+		DataSourceLatencyStats first = DataSourceLatencyStats.acquire("latency-release");
+		DataSourceLatencyStats second = DataSourceLatencyStats.acquire("latency-release");
+		Assert.assertSame(first, second);
+
+		first.release();
+		Assert.assertTrue(DataSourceLatencyStats.contains("latency-release"));
+		second.release();
+		Assert.assertFalse(DataSourceLatencyStats.contains("latency-release"));
+
+		// 多余的release不影响新的统计
+		second.release();
+		DataSourceLatencyStats third = DataSourceLatencyStats.acquire("latency-release");
+		Assert.assertNotSame(first, third);
+		first.release();
+		Assert.assertTrue(DataSourceLatencyStats.contains("latency-release"));
+		third.release();
+		Assert.assertFalse(DataSourceLatencyStats.contains("latency-release"));
+	}
+
+	private DataSourceConfig newConfig(String id, int weight) {
+		DataSourceConfig config = new DataSourceConfig();
+		config.setId(id);
+		config.setWeight(weight);
+		return config;
+	}
+}
@@ -0,0 +1,56 @@
+package com.dianping.zebra.group.router.region;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IpPrefixTableTest {
+
+	@Test
+	public void testLongestPrefixMatch() {
+		IpPrefixTable table = IpPrefixTable.newBuilder()
+		      .add("10", new IpPrefixTable.Entry("region1", "idc1", null))
+		      .add("10.1.2", new IpPrefixTable.Entry("region1", "idc2", null))
+		      .add("10.1.2.128/25", new IpPrefixTable.Entry("region1", "idc3", null))
+		      .add("192.168.0.0/16", new IpPrefixTable.Entry("region2", "idc4", null)).build();
+
+		Assert.assertEquals(4, table.size());
+		Assert.assertEquals("idc1", table.lookup("10.0.0.1").getIdc());
+		Assert.assertEquals("idc1", table.lookup("10.1.3.1").getIdc());
+		Assert.assertEquals("idc2", table.lookup("10.1.2.1").getIdc());
+		Assert.assertEquals("idc2", table.lookup("10.1.2.127").getIdc());
+		Assert.assertEquals("idc3", table.lookup("10.1.2.128").getIdc());
+		Assert.assertEquals("idc3", table.lookup("10.1.2.255").getIdc());
+		Assert.assertEquals("idc4", table.lookup("192.168.255.255").getIdc());
+		Assert.assertEquals("region2", table.lookup("192.168.1.1").getRegion());
+
+		Assert.assertNull(table.lookup("192.169.1.1"));
+		Assert.assertNull(table.lookup("11.1.1.1"));
+	}
+
+	@Test
+	public void testIllegalAddress() {
+		IpPrefixTable table = IpPrefixTable.newBuilder().add("0.0.0.0/0", new IpPrefixTable.Entry("all", "all", null))
+		      .build();
+
+		Assert.assertEquals("all", table.lookup("255.255.255.255").getIdc());
+		Assert.assertNull(table.lookup("db.example.com"));
+		Assert.assertNull(table.lookup("10.1.1.256"));
+		Assert.assertNull(table.lookup("10.1.1.1.1"));
+		Assert.assertNull(table.lookup("10..1.1"));
+		Assert.assertNull(table.lookup("::1"));
+		Assert.assertNull(table.lookup(""));
+	}
+
+	@Test
+	public void testParseIpv4() {
+		Assert.assertEquals(0xC0A80101L, IpPrefixTable.parseIpv4("192.168.1.1", 0, 11));
+		Assert.assertEquals(0xC0A80000L, IpPrefixTable.parseIpv4("192.168", 0, 7));
+		Assert.assertEquals(0xFFFFFFFFL, IpPrefixTable.parseIpv4("255.255.255.255", 0, 15));
+		Assert.assertEquals(-1L, IpPrefixTable.parseIpv4("192.168.", 0, 8));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testIllegalNet() {
+		IpPrefixTable.newBuilder().add("10.1/33", new IpPrefixTable.Entry("region1", "idc1", null));
+	}
+}
@@ -1,5 +1,6 @@
 package com.dianping.zebra.group.util;
 
+import com.dianping.zebra.util.SqlClassification;
 import com.dianping.zebra.util.SqlType;
 import com.dianping.zebra.util.SqlUtils;
 import com.dianping.zebra.util.StringUtils;
@@ -360,4 +361,45 @@ public class SqlUtilsTest {
 		Assert.assertEquals(SqlUtils.isStartWithKeyWord("select1" ,0, "select"), false);
 		Assert.assertEquals(SqlUtils.isStartWithKeyWord("select1 " ,0, "select"), false);
 	}
+	@Test
+	public void testUpperCase() {
+		Assert.assertEquals(SqlType.SELECT, SqlUtils.getSqlType("/*comment*/SELECT * FROM xx"));
+		Assert.assertEquals(SqlType.SELECT_FOR_UPDATE, SqlUtils.getSqlType("SELECT * FROM xx FOR UPDATE"));
+		Assert.assertEquals(SqlType.SELECT_FOR_IDENTITY, SqlUtils.getSqlType("Select LAST_INSERT_ID()"));
+		Assert.assertEquals(SqlType.INSERT, SqlUtils.getSqlType("INSERT INTO xx VALUES (1)"));
+		Assert.assertEquals(SqlType.DELETE, SqlUtils.getSqlType("Delete FROM xx"));
+		Assert.assertEquals(SqlType.EXECUTE, SqlUtils.getSqlType("{CALL proc()}"));
+	}
+
+	@Test
+	public void testClassifyForceWriteHint() {
+		SqlClassification classification = SqlUtils.classify("/*+zebra:w*/select * from xx");
+		Assert.assertEquals(SqlType.SELECT, classification.getSqlType());
+		Assert.assertTrue(classification.isForceWrite());
+
+		classification = SqlUtils.classify("  /*app*/ /*+zebra:w*/ SELECT * from xx");
+		Assert.assertEquals(SqlType.SELECT, classification.getSqlType());
+		Assert.assertTrue(classification.isForceWrite());
+
+		classification = SqlUtils.classify("select * from xx /*+zebra:w*/");
+		Assert.assertEquals(SqlType.SELECT, classification.getSqlType());
+		Assert.assertTrue(classification.isForceWrite());
+
+		classification = SqlUtils.classify("/*+zebra:r*/select * from xx");
+		Assert.assertEquals(SqlType.SELECT, classification.getSqlType());
+		Assert.assertFalse(classification.isForceWrite());
+
+		Assert.assertFalse(SqlUtils.classify(null).isForceWrite());
+		Assert.assertEquals(SqlType.UNKNOWN_SQL_TYPE, SqlUtils.classify(" ").getSqlType());
+	}
+
+	@Test
+	public void testClassifyWithCache() {
+		String sql = "/*+zebra:w*/select * from cache_test where id = ?";
+
+		SqlClassification classification = SqlUtils.classifyWithCache(sql);
+		Assert.assertSame(classification, SqlUtils.classifyWithCache(sql));
+		Assert.assertSame(SqlUtils.classify(sql), classification);
+		Assert.assertEquals(SqlType.UPDATE, SqlUtils.classifyWithCache("update cache_test set a = ?").getSqlType());
+	}
 }
@@ -1,5 +1,7 @@
 package com.dianping.zebra.shard;
 
+import com.dianping.zebra.shard.idgen.MySqlIdGeneratorTest;
+import com.dianping.zebra.shard.idgen.SnowFlakeIdGeneratorTest;
 import com.dianping.zebra.shard.jdbc.*;
 import com.dianping.zebra.shard.router.dimension.DefaultDimensionRuleTest;
 import com.dianping.zebra.shard.router.rule.DefaultTableSetsManagerTest;
@@ -12,9 +14,15 @@ import com.dianping.zebra.shard.config.XmlDataSourceRouterConfigLoaderTest;
 import com.dianping.zebra.shard.jdbc.merge.DistinctTest;
 import com.dianping.zebra.shard.jdbc.merge.LimitTest;
 import com.dianping.zebra.shard.jdbc.parallel.SQLThreadPoolExecutorTest;
+import com.dianping.zebra.shard.jdbc.parallel.ShardSQLExecutorTest;
 import com.dianping.zebra.shard.jdbc.specification.ConnectionTest;
 import com.dianping.zebra.shard.jdbc.specification.DataSourceTest;
 import com.dianping.zebra.shard.jdbc.specification.StatementTest;
+import com.dianping.zebra.shard.merge.RowDataTest;
+import com.dianping.zebra.shard.merge.ShardResultSetAdaptorTest;
+import com.dianping.zebra.shard.merge.groupby.GroupByStreamMergerTest;
+import com.dianping.zebra.shard.merge.orderby.OrderByComparatorTest;
+import com.dianping.zebra.shard.merge.orderby.OrderByTopNMergerTest;
 import com.dianping.zebra.shard.parser.SQLHintTest;
 import com.dianping.zebra.shard.parser.SQLParserResultTest;
 import com.dianping.zebra.shard.parser.SQLRewriteTest;
@@ -23,6 +31,7 @@ import com.dianping.zebra.shard.router.XmlDataSourceRouterFactoryTest;
 import com.dianping.zebra.shard.router.rule.GroovyRuleEngineTest;
 import com.dianping.zebra.shard.router.rule.SimpleDataSourceProviderTest;
 import com.dianping.zebra.shard.router.rule.engine.RuleEngineBaseTest;
+import com.dianping.zebra.shard.router.rule.engine.RuleEngineCompilerTest;
 import com.dianping.zebra.shard.util.ShardColumnValueUtilTest;
 
 @RunWith(Suite.class)
@@ -59,13 +68,24 @@ import com.dianping.zebra.shard.util.ShardColumnValueUtilTest;
         MultiShardKeyRepeatTest.class,
         ShardDefaultStrategyTest.class,
         ShardConcurrencyTest.class,
+        DataSourceRepositoryTest.class,
 
         //jdbc.parallel
         SQLThreadPoolExecutorTest.class,
+        ShardSQLExecutorTest.class,
+
+        //idgen
+        MySqlIdGeneratorTest.class,
+        SnowFlakeIdGeneratorTest.class,
 
         //merge
         LimitTest.class,
         DistinctTest.class,
+        GroupByStreamMergerTest.class,
+        RowDataTest.class,
+        ShardResultSetAdaptorTest.class,
+        OrderByComparatorTest.class,
+        OrderByTopNMergerTest.class,
 
         //parser
         SQLParserResultTest.class,
@@ -78,6 +98,7 @@ import com.dianping.zebra.shard.util.ShardColumnValueUtilTest;
         SimpleDataSourceProviderTest.class,
         XmlDataSourceRouterFactoryTest.class,
         RuleEngineBaseTest.class,
+        RuleEngineCompilerTest.class,
         DefaultDimensionRuleTest.class,
         DefaultTableSetsManagerTest.class,
 
@@ -0,0 +1,155 @@
+package com.dianping.zebra.shard.idgen;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dianping.zebra.shard.idgen.impl.MySqlIdGenerator;
+
+public class MySqlIdGeneratorTest {
+
+	private JdbcDataSource dataSource;
+
+	@Before
+	public void setUp() throws SQLException {
+		dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:idgen;DB_CLOSE_DELAY=-1");
+
+		execute("CREATE TABLE IF NOT EXISTS ShardId (Name VARCHAR(64) PRIMARY KEY, Value BIGINT NOT NULL)");
+		execute("DELETE FROM ShardId");
+		execute("INSERT INTO ShardId (Name, Value) VALUES ('order', 0)");
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		execute("DROP TABLE ShardId");
+	}
+
+	@Test
+	public void testNextIdWithoutSegment() throws SQLException {
+		MySqlIdGenerator generator = new MySqlIdGenerator(dataSource);
+		generator.init();
+
+		Assert.assertEquals(0, generator.nextId("order"));
+		Assert.assertEquals(1, generator.nextId("order"));
+		Assert.assertEquals(2, queryValue());
+	}
+
+	@Test
+	public void testNextIdWithSegment() throws SQLException {
+		MySqlIdGenerator generator = new MySqlIdGenerator(dataSource);
+		generator.setSegmentEnabled(true);
+		generator.setDefaultIncreaseStep(100);
+		generator.init();
+
+		for (int i = 0; i < 1000; i++) {
+			Assert.assertEquals(i, generator.nextId("order"));
+		}
+
+		// 第一个号段用完之前不调整，之后号段在segmentDuration内用完时大小加倍，依次为100、100、200、400、800
+		Assert.assertTrue(queryValue() >= 1600);
+		generator.close();
+	}
+
+	@Test
+	public void testFirstPrefetchKeepsStep() throws Exception {
+		MySqlIdGenerator generator = new MySqlIdGenerator(dataSource);
+		generator.setSegmentEnabled(true);
+		generator.setDefaultIncreaseStep(100);
+		generator.init();
+
+		for (int i = 0; i < 20; i++) {
+			Assert.assertEquals(i, generator.nextId("order"));
+		}
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (queryValue() < 200 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(200, queryValue());
+		generator.close();
+	}
+
+	@Test
+	public void testNextIdAfterClose() throws SQLException {
+		MySqlIdGenerator generator = new MySqlIdGenerator(dataSource);
+		generator.setSegmentEnabled(true);
+		generator.setDefaultIncreaseStep(10);
+		generator.init();
+		generator.close();
+
+		for (int i = 0; i < 100; i++) {
+			Assert.assertEquals(i, generator.nextId("order"));
+		}
+	}
+
+	@Test
+	public void testNextIdWithSegmentConcurrently() throws Exception {
+		final MySqlIdGenerator generator = new MySqlIdGenerator(dataSource);
+		generator.setSegmentEnabled(true);
+		generator.setDefaultIncreaseStep(10);
+		generator.init();
+
+		final Set<Long> ids = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		for (int i = 0; i < 8; i++) {
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					for (int j = 0; j < 500; j++) {
+						Assert.assertTrue(ids.add(generator.nextId("order")));
+					}
+					return null;
+				}
+			}));
+		}
+		for (Future<Void> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+		generator.close();
+
+		Assert.assertEquals(4000, ids.size());
+		for (long id : ids) {
+			Assert.assertTrue(id >= 0 && id < queryValue());
+		}
+	}
+
+	private long queryValue() throws SQLException {
+		Connection conn = dataSource.getConnection();
+		try {
+			Statement stmt = conn.createStatement();
+			ResultSet rs = stmt.executeQuery("SELECT Value FROM ShardId WHERE Name = 'order'");
+			rs.next();
+			return rs.getLong(1);
+		} finally {
+			conn.close();
+		}
+	}
+
+	private void execute(String sql) throws SQLException {
+		Connection conn = dataSource.getConnection();
+		try {
+			conn.createStatement().execute(sql);
+		} finally {
+			conn.close();
+		}
+	}
+}
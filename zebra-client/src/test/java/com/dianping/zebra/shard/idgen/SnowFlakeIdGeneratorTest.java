@@ -0,0 +1,176 @@
+package com.dianping.zebra.shard.idgen;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.zebra.shard.exception.ShardIdGenException;
+import com.dianping.zebra.shard.idgen.impl.SnowFlakeIdGenerator;
+
+public class SnowFlakeIdGeneratorTest {
+
+	private static final long EPOCH = 1514736000000L;
+
+	@Test
+	public void testNextIdIncreasing() {
+		SnowFlakeIdGenerator generator = newGenerator(null);
+
+		long last = -1;
+		for (int i = 0; i < 100000; i++) {
+			long id = generator.nextId();
+			Assert.assertTrue(id > last);
+			last = id;
+		}
+	}
+
+	@Test
+	public void testNextIdConcurrently() throws InterruptedException {
+		final SnowFlakeIdGenerator generator = newGenerator(null);
+		final Set<Long> ids = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+		run(8, 20000, new Runnable() {
+			@Override
+			public void run() {
+				ids.add(generator.nextId());
+			}
+		});
+
+		Assert.assertEquals(8 * 20000, ids.size());
+	}
+
+	@Test
+	public void testNextBatch() {
+		MockTimeService timeService = new MockTimeService(EPOCH + 1000);
+		SnowFlakeIdGenerator generator = newGenerator(timeService);
+		generator.setMachineId(3);
+
+		long first = generator.nextId();
+		IdRange range = generator.nextBatch("any", 100);
+		Assert.assertEquals(100, range.size());
+		Assert.assertEquals(first + 1, range.getMinValue());
+		Assert.assertEquals(first + 1, range.next());
+		Assert.assertEquals(range.getMaxValue(), generator.nextId());
+
+		// 同一毫秒剩余的序列号不够时使用下一毫秒
+		range = generator.nextBatch("any", 4096);
+		Assert.assertEquals(4096, range.size());
+		Assert.assertEquals(1001, range.getMinValue() >>> 22);
+		Assert.assertEquals(3, (range.getMinValue() >>> 12) & 1023);
+		Assert.assertEquals(0, range.getMinValue() & 4095);
+
+		Assert.assertEquals(1000, generator.nextBatch("any").size());
+	}
+
+	@Test
+	public void testBorrowAndRollback() {
+		MockTimeService timeService = new MockTimeService(EPOCH + 1000);
+		SnowFlakeIdGenerator generator = newGenerator(timeService);
+		generator.setMaxBorrowMillis(2);
+
+		for (int i = 0; i < 4096 * 2; i++) {
+			generator.nextId();
+		}
+		// 借用了两毫秒
+		Assert.assertEquals(1002, generator.nextId() >>> 22);
+
+		// 回拨不超过借用上限时沿用上次的时间戳
+		timeService.time = EPOCH + 1000;
+		long id = generator.nextId();
+		Assert.assertEquals(1002, id >>> 22);
+
+		timeService.time = EPOCH + 990;
+		try {
+			generator.nextId();
+			Assert.fail();
+		} catch (ShardIdGenException e) {
+			Assert.assertTrue(e.getMessage().startsWith("Time move backwards"));
+		}
+
+		timeService.time = EPOCH + 1010;
+		Assert.assertEquals(1010, generator.nextId() >>> 22);
+	}
+
+	@Test
+	public void testConcurrentIdsUniqueAndMonotonicPerThread() throws InterruptedException {
+		final SnowFlakeIdGenerator generator = newGenerator(null);
+		final Set<Long> ids = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+		final AtomicInteger violations = new AtomicInteger();
+		final ThreadLocal<long[]> last = new ThreadLocal<long[]>() {
+			@Override
+			protected long[] initialValue() {
+				return new long[] { -1 };
+			}
+		};
+
+		run(8, 20000, new Runnable() {
+			private final AtomicInteger counter = new AtomicInteger();
+
+			@Override
+			public void run() {
+				long[] previous = last.get();
+				// 单个id和批量id交替获取，同一个线程拿到的id必须严格递增
+				if (counter.incrementAndGet() % 100 == 0) {
+					IdRange range = generator.nextBatch("any", 10);
+					long id;
+					while ((id = range.next()) >= 0) {
+						check(id, previous);
+					}
+				} else {
+					check(generator.nextId(), previous);
+				}
+			}
+
+			private void check(long id, long[] previous) {
+				if (id <= previous[0] || !ids.add(id)) {
+					violations.incrementAndGet();
+				}
+				previous[0] = id;
+			}
+		});
+
+		Assert.assertEquals(0, violations.get());
+		Assert.assertEquals(8 * 20000 - 8 * 20000 / 100 + 8 * 20000 / 100 * 10, ids.size());
+	}
+
+	private SnowFlakeIdGenerator newGenerator(IdTimeService timeService) {
+		SnowFlakeIdGenerator generator = new SnowFlakeIdGenerator();
+		generator.setTimeService(timeService);
+		generator.init();
+		return generator;
+	}
+
+	private void run(int threads, final int times, final Runnable runnable) throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(threads);
+		for (int i = 0; i < threads; i++) {
+			new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < times; j++) {
+						runnable.run();
+					}
+					latch.countDown();
+				}
+			}.start();
+		}
+		latch.await();
+	}
+
+	private static class MockTimeService implements IdTimeService {
+
+		private volatile long time;
+
+		public MockTimeService(long time) {
+			this.time = time;
+		}
+
+		@Override
+		public long getCurrentTimeMillis() {
+			return time;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package com.dianping.zebra.shard.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.zebra.Constants;
+import com.dianping.zebra.group.jdbc.GroupDataSource;
+import com.dianping.zebra.group.monitor.SingleDataSourceMBean;
+import com.dianping.zebra.shard.config.ShardDataSourceCustomConfig;
+import com.dianping.zebra.shard.router.rule.RouterRule;
+import com.dianping.zebra.shard.router.builder.XmlResourceRouterBuilder;
+
+public class DataSourceRepositoryTest {
+
+	private DataSourceRepository repository = new DataSourceRepository();
+
+	@After
+	public void tearDown() throws SQLException {
+		repository.close();
+	}
+
+	@Test
+	public void testParallelInitAndWarmUp() throws SQLException {
+		ShardDataSourceCustomConfig customConfig = newCustomConfig();
+		customConfig.setInitConcurrency(2);
+		customConfig.setWarmUpPool(true);
+
+		repository.init(buildRouterRule("mockdb-config/testInit/router-init.xml"), customConfig);
+
+		for (String jdbcRef : new String[] { "concurrency-gds0", "concurrency-gds1" }) {
+			GroupDataSource dataSource = (GroupDataSource) repository.getDataSource(jdbcRef);
+			Assert.assertNotNull(dataSource);
+
+			SingleDataSourceMBean master = dataSource.getWriteSingleDataSourceMBean();
+			Assert.assertTrue(master.getNumConnections() >= 3);
+
+			Connection conn = dataSource.getConnection();
+			Assert.assertTrue(conn.createStatement().executeQuery("SELECT 1").next());
+			conn.close();
+		}
+	}
+
+	@Test
+	public void testParallelInitFail() throws SQLException {
+		ShardDataSourceCustomConfig customConfig = newCustomConfig();
+		customConfig.setInitConcurrency(3);
+
+		try {
+			repository.init(buildRouterRule("mockdb-config/testInit/router-init-error.xml"), customConfig);
+			Assert.fail();
+		} catch (RuntimeException e) {
+			Assert.assertNull(repository.getDataSource("concurrency-gds0"));
+			Assert.assertNull(repository.getDataSource("unknown-gds"));
+		}
+	}
+
+	private ShardDataSourceCustomConfig newCustomConfig() {
+		Properties properties = new Properties();
+		properties.setProperty("minPoolSize", "3");
+		properties.setProperty("maxPoolSize", "5");
+
+		ShardDataSourceCustomConfig customConfig = new ShardDataSourceCustomConfig();
+		customConfig.setConfigManagerType(Constants.CONFIG_MANAGER_TYPE_LOCAL);
+		customConfig.setDsConfigProperties(properties);
+		return customConfig;
+	}
+
+	private RouterRule buildRouterRule(String routerFile) {
+		return new XmlResourceRouterBuilder(routerFile).build().getRouterRule();
+	}
+}
@@ -4,6 +4,10 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
 import javax.sql.DataSource;
 
@@ -60,4 +64,53 @@ public class MultiDBPreparedStatementLifeCycleOrderbyTest extends MultiDBBaseTes
         }
     }
 
+    @Test
+    public void testOrderbyStreamMergeWithLimit() throws SQLException {
+        DataSource ds = (DataSource) context.getBean("zebraDS");
+        Connection conn = null;
+        try {
+            conn = ds.getConnection();
+            PreparedStatement stmt1 = conn.prepareStatement("select name, score from test order by score desc, name");
+            ResultSet rs1 = stmt1.executeQuery();
+            List<Object[]> allRows = new ArrayList<Object[]>();
+            while (rs1.next()) {
+                allRows.add(new Object[] { rs1.getString("name"), rs1.getInt("score") });
+            }
+            Assert.assertTrue(allRows.size() > 6);
+
+            List<Object[]> expected = new ArrayList<Object[]>(allRows);
+            Collections.sort(expected, new Comparator<Object[]>() {
+                @Override
+                public int compare(Object[] o1, Object[] o2) {
+                    int res = ((Integer) o2[1]).compareTo((Integer) o1[1]);
+                    return res != 0 ? res : ((String) o1[0]).compareTo((String) o2[0]);
+                }
+            });
+            for (int i = 0; i < allRows.size(); i++) {
+                Assert.assertEquals(expected.get(i)[1], allRows.get(i)[1]);
+                Assert.assertEquals(expected.get(i)[0], allRows.get(i)[0]);
+            }
+
+            PreparedStatement stmt2 = conn
+                  .prepareStatement("select name, score from test order by score desc, name limit ?, ?");
+            stmt2.setInt(1, 2);
+            stmt2.setInt(2, 4);
+            ResultSet rs2 = stmt2.executeQuery();
+            int index = 2;
+            while (rs2.next()) {
+                Assert.assertEquals(expected.get(index)[0], rs2.getString(1));
+                Assert.assertEquals(expected.get(index)[1], rs2.getInt(2));
+                index++;
+            }
+            Assert.assertEquals(6, index);
+        } catch (Exception e) {
+            e.printStackTrace();
+            Assert.fail();
+        } finally {
+            if (conn != null) {
+                conn.close();
+            }
+        }
+    }
+
 }
@@ -15,6 +15,7 @@
  */
 package com.dianping.zebra.shard.jdbc;
 
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
@@ -934,4 +935,101 @@ public class MultiDBPreparedStatementLifeCycleTest extends MultiDBBaseTestCase {
             }
         }
     }
+
+    @Test
+    public void testBatchInsert() throws Exception {
+        DataSource ds = (DataSource) context.getBean("zebraDS");
+        Connection conn = null;
+        try {
+            conn = ds.getConnection();
+            PreparedStatement stmt = conn
+                    .prepareStatement("insert into test(id,name,score,type,classid) values (?, ?, ?, ?,?)");
+            int[] ids = new int[] { 50, 52, 58, 51 };
+            for (int id : ids) {
+                stmt.setInt(1, id);
+                stmt.setString(2, "testbatch" + id);
+                stmt.setInt(3, id);
+                stmt.setString(4, "fff");
+                stmt.setInt(5, id);
+                stmt.addBatch();
+            }
+            int[] counts = stmt.executeBatch();
+            Assert.assertEquals("[1, 1, 1, 1]", Arrays.toString(counts));
+
+            Connection conn2 = DriverManager.getConnection(getDBBaseUrl() + "id1;DB_CLOSE_DELAY=-1");
+            Statement stmt2 = conn2.createStatement();
+            ResultSet rs = stmt2.executeQuery("select id from test_2 where name like 'testbatch%' order by id");
+            List<Integer> rows = new ArrayList<Integer>();
+            while (rs.next()) {
+                rows.add(rs.getInt("id"));
+            }
+            Assert.assertEquals(Arrays.asList(50, 58), rows);
+
+            Assert.assertEquals(0, stmt.executeBatch().length);
+        } finally {
+            if (conn != null) {
+                conn.close();
+            }
+        }
+    }
+
+    @Test
+    public void testBatchFailureReportsUpdateCounts() throws Exception {
+        DataSource ds = (DataSource) context.getBean("zebraDS");
+        Connection conn = null;
+        try {
+            conn = ds.getConnection();
+            PreparedStatement stmt = conn
+                    .prepareStatement("insert into test(id,name,score,type,classid) values (?, ?, ?, ?,?)");
+            int[] ids = new int[] { 80, 81, 82, 83 };
+            for (int id : ids) {
+                stmt.setInt(1, id);
+                stmt.setString(2, "testbatchfail" + id);
+                stmt.setString(3, id == 81 ? "not a number" : String.valueOf(id));
+                stmt.setString(4, "fff");
+                stmt.setInt(5, id);
+                stmt.addBatch();
+            }
+
+            try {
+                stmt.executeBatch();
+                Assert.fail();
+            } catch (BatchUpdateException e) {
+                int[] counts = e.getUpdateCounts();
+                Assert.assertEquals(4, counts.length);
+                Assert.assertEquals(Statement.EXECUTE_FAILED, counts[1]);
+                Assert.assertEquals(1, counts[0]);
+                Assert.assertEquals(1, counts[2]);
+                Assert.assertEquals(1, counts[3]);
+            }
+        } finally {
+            if (conn != null) {
+                conn.close();
+            }
+        }
+    }
+
+    @Test
+    public void testBatchUpdate() throws Exception {
+        DataSource ds = (DataSource) context.getBean("zebraDS");
+        Connection conn = null;
+        try {
+            conn = ds.getConnection();
+            PreparedStatement stmt = conn.prepareStatement("update test set name='testupdate' where name=?");
+            stmt.setString(1, "leo6");
+            stmt.addBatch();
+            stmt.setString(1, "notexists");
+            stmt.addBatch();
+            stmt.setString(1, "leo0");
+            stmt.addBatch();
+
+            // leo0 is in test_0 and test_1, the counts of both tables are merged
+            int[] counts = stmt.executeBatch();
+            Assert.assertEquals("[2, 0, 3]", Arrays.toString(counts));
+        } finally {
+            if (conn != null) {
+                conn.close();
+            }
+        }
+    }
 }
@@ -0,0 +1,307 @@
+package com.dianping.zebra.shard.jdbc.parallel;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.zebra.group.router.LocalContextReadWriteStrategy;
+import com.dianping.zebra.group.router.ZebraForceMasterHelper;
+import com.dianping.zebra.group.util.DaoContextHolder;
+import com.dianping.zebra.shard.jdbc.parallel.MockCallable.MockType;
+
+public class ShardSQLExecutorTest {
+
+	private ShardSQLExecutor executor;
+
+	@After
+	public void tearDown() {
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testInvokeAll() throws Exception {
+		executor = new ShardSQLExecutor("test-", 2, 4, 100, 1000L, 0);
+
+		ShardSQLExecutor.Batch<Integer> batch = executor.newBatch();
+		batch.add("db0", new MockCallable(MockType.NORMAL, 100L, 1));
+		batch.add("db1", new MockCallable(MockType.NORMAL, 50L, 2));
+		batch.add("db2", new MockCallable(MockType.NORMAL, 10L, 3));
+		batch.add("db3", new MockCallable(MockType.NORMAL, 80L, 4));
+
+		List<Future<Integer>> futures = batch.invokeAll();
+		Assert.assertEquals(4, futures.size());
+		for (int i = 0; i < futures.size(); i++) {
+			Assert.assertEquals(i + 1, futures.get(i).get().intValue());
+		}
+	}
+
+	@Test
+	public void testTakeInCompletionOrder() throws Exception {
+		executor = new ShardSQLExecutor("test-", 2, 2, 100, 1000L, 0);
+
+		ShardSQLExecutor.Batch<Integer> batch = executor.newBatch();
+		batch.add("db0", new MockCallable(MockType.NORMAL, 300L, 1));
+		batch.add("db1", new MockCallable(MockType.NORMAL, 10L, 2));
+
+		Assert.assertEquals(2, batch.take().get().intValue());
+		Assert.assertEquals(1, batch.take().get().intValue());
+		Assert.assertNull(batch.take());
+	}
+
+	@Test
+	public void testExecuteTimeOut() {
+		executor = new ShardSQLExecutor("test-", 2, 2, 100, 200L, 0);
+
+		ShardSQLExecutor.Batch<Integer> batch = executor.newBatch();
+		batch.add("db0", new MockCallable(MockType.NORMAL, 10L, 1));
+		batch.add("db1", new MockCallable(MockType.TIMEOUT, 0L, 1));
+
+		try {
+			batch.invokeAll();
+			Assert.fail();
+		} catch (SQLException e) {
+			Assert.assertEquals("One of your sql's execution time is beyond 200 milliseconds.", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testFairAcrossBatches() throws Exception {
+		executor = new ShardSQLExecutor("test-", 1, 1, 100, 5000L, 0);
+
+		ShardSQLExecutor.Batch<Integer> scan = executor.newBatch();
+		for (int i = 0; i < 10; i++) {
+			scan.add("db" + i, new MockCallable(MockType.NORMAL, 50L, 1));
+		}
+		scan.submit();
+
+		long start = System.currentTimeMillis();
+		ShardSQLExecutor.Batch<Integer> point = executor.newBatch();
+		point.add("db0", new MockCallable(MockType.NORMAL, 10L, 1));
+		point.invokeAll();
+
+		// 不需要等待scan的10个任务全部执行完
+		Assert.assertTrue(System.currentTimeMillis() - start < 300);
+		Assert.assertEquals(10, scan.invokeAll().size());
+	}
+
+	@Test
+	public void testDatabaseConcurrency() throws Exception {
+		executor = new ShardSQLExecutor("test-", 4, 4, 100, 5000L, 1);
+
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		ShardSQLExecutor.Batch<Integer> batch = executor.newBatch();
+		for (int i = 0; i < 4; i++) {
+			batch.add("db0", new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					int current = running.incrementAndGet();
+					synchronized (maxRunning) {
+						maxRunning.set(Math.max(maxRunning.get(), current));
+					}
+					TimeUnit.MILLISECONDS.sleep(30);
+					running.decrementAndGet();
+					return 1;
+				}
+			});
+		}
+		batch.add("db1", new MockCallable(MockType.NORMAL, 10L, 1));
+
+		Assert.assertEquals(5, batch.invokeAll().size());
+		Assert.assertEquals(1, maxRunning.get());
+	}
+
+	@Test
+	public void testBlockedTasksDoNotSpawnWorkers() throws Exception {
+		executor = new ShardSQLExecutor("test-", 8, 8, 100, 5000L, 1);
+
+		final AtomicInteger maxWorkers = new AtomicInteger();
+		ShardSQLExecutor.Batch<Integer> batch = executor.newBatch();
+		for (int i = 0; i < 20; i++) {
+			batch.add("db0", new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					int workers = executor.getActiveWorkerCount();
+					synchronized (maxWorkers) {
+						maxWorkers.set(Math.max(maxWorkers.get(), workers));
+					}
+					TimeUnit.MILLISECONDS.sleep(5);
+					return 1;
+				}
+			});
+		}
+
+		Assert.assertEquals(20, batch.invokeAll().size());
+		// 同一个库只能执行一个任务，其他任务不会启动新的工作线程
+		Assert.assertEquals(1, maxWorkers.get());
+	}
+
+	@Test
+	public void testTakeRestoresInterrupt() throws Exception {
+		executor = new ShardSQLExecutor("test-", 1, 1, 100, 5000L, 0);
+
+		ShardSQLExecutor.Batch<Integer> batch = executor.newBatch();
+		batch.add("db0", new MockCallable(MockType.NORMAL, 1000L, 1));
+
+		Thread.currentThread().interrupt();
+		try {
+			batch.take();
+			Assert.fail();
+		} catch (SQLException e) {
+			Assert.assertTrue(e.getCause() instanceof InterruptedException);
+		}
+		Assert.assertTrue(Thread.interrupted());
+	}
+
+	@Test
+	public void testAdmissionControl() throws Exception {
+		executor = new ShardSQLExecutor("test-", 1, 1, 1, 300L, 0);
+
+		ShardSQLExecutor.Batch<Integer> running = executor.newBatch();
+		running.add("db0", new MockCallable(MockType.NORMAL, 1000L, 1));
+		running.submit();
+		TimeUnit.MILLISECONDS.sleep(50);
+
+		ShardSQLExecutor.Batch<Integer> queued = executor.newBatch();
+		queued.add("db1", new MockCallable(MockType.NORMAL, 10L, 1));
+		queued.submit();
+
+		ShardSQLExecutor.Batch<Integer> rejected = executor.newBatch();
+		rejected.add("db2", new MockCallable(MockType.NORMAL, 10L, 1));
+		try {
+			rejected.submit();
+			Assert.fail();
+		} catch (SQLException e) {
+			Assert.assertTrue(e.getMessage().startsWith("Error! Do not have enough thread"));
+		}
+
+		running.cancel();
+		queued.cancel();
+		Assert.assertEquals(0, executor.getPendingTaskCount());
+	}
+
+	@Test
+	public void testWorkerThreadsBounded() throws Exception {
+		executor = new ShardSQLExecutor("test-bounded-", 2, 2, 1000, 5000L, 0);
+
+		final Set<String> threadNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		final Callable<Integer> callable = new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				threadNames.add(Thread.currentThread().getName());
+				return 1;
+			}
+		};
+
+		ExecutorService callers = Executors.newFixedThreadPool(8);
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		for (int i = 0; i < 8; i++) {
+			futures.add(callers.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					for (int j = 0; j < 200; j++) {
+						ShardSQLExecutor.Batch<Integer> batch = executor.newBatch();
+						batch.add("db0", callable);
+						batch.add("db1", callable);
+						Assert.assertEquals(2, batch.invokeAll().size());
+					}
+					return null;
+				}
+			}));
+		}
+		for (Future<Void> future : futures) {
+			future.get();
+		}
+		callers.shutdown();
+
+		// 工作线程刚退出时提交的Worker排队等待，不会临时创建线程池之外的线程
+		Assert.assertTrue(threadNames.toString(), threadNames.size() <= 2);
+	}
+
+	@Test
+	public void testVirtualThreads() throws Exception {
+		executor = new ShardSQLExecutor("test-", 1, 1, 100, 5000L, 2, true);
+
+		boolean supported;
+		try {
+			Thread.class.getMethod("ofVirtual");
+			supported = true;
+		} catch (NoSuchMethodException e) {
+			supported = false;
+		}
+		Assert.assertEquals(supported, executor.isVirtualThreads());
+
+		// 虚拟线程没有配置每个库的并发时使用默认值
+		ShardSQLExecutor defaults = new ShardSQLExecutor("test-", 1, 1, 100, 5000L, 0, true);
+		try {
+			Assert.assertEquals(supported ? ShardSQLExecutor.DEFAULT_VIRTUAL_DATABASE_CONCURRENCY : 0,
+			      defaults.getDatabaseConcurrency());
+		} finally {
+			defaults.shutdown();
+		}
+
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		ShardSQLExecutor.Batch<Integer> batch = executor.newBatch();
+		for (int i = 0; i < 8; i++) {
+			batch.add("db" + (i % 2), new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					int current = running.incrementAndGet();
+					synchronized (maxRunning) {
+						maxRunning.set(Math.max(maxRunning.get(), current));
+					}
+					TimeUnit.MILLISECONDS.sleep(30);
+					running.decrementAndGet();
+					return 1;
+				}
+			});
+		}
+
+		Assert.assertEquals(8, batch.invokeAll().size());
+		// 平台线程池只有1个线程，虚拟线程时每个库最多2个并发
+		Assert.assertEquals(supported ? 4 : 1, maxRunning.get());
+	}
+
+	@Test
+	public void testPropagateContext() throws Exception {
+		executor = new ShardSQLExecutor("test-", 1, 1, 100, 1000L, 0);
+
+		Callable<String> context = new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return DaoContextHolder.getSqlName() + ":" + LocalContextReadWriteStrategy.getReadFromMaster();
+			}
+		};
+
+		DaoContextHolder.setSqlName("test.select");
+		ZebraForceMasterHelper.forceMasterInLocalContext();
+		try {
+			ShardSQLExecutor.Batch<String> batch = executor.newBatch();
+			batch.add("db0", context);
+			Assert.assertEquals("test.select:true", batch.invokeAll().get(0).get());
+		} finally {
+			DaoContextHolder.clearSqlName();
+			ZebraForceMasterHelper.clearLocalContext();
+		}
+
+		ShardSQLExecutor.Batch<String> batch = executor.newBatch();
+		batch.add("db0", context);
+		Assert.assertEquals("null:false", batch.invokeAll().get(0).get());
+	}
+}
@@ -47,7 +47,9 @@ public class ConnectionTest extends BaseTestCase {
 				"getRealConnection", "setRealConnection", "setActualConnections", "getUsername", "setUsername",
 				"getPassword", "setPassword", "getRouter", "setRouter", "close", "commit", "createStatement",
 				"getAutoCommit", "getMetaData", "getTransactionIsolation", "isClosed", "isReadOnly", "prepareStatement",
-				"rollback", "setAutoCommit", "setReadOnly", "setTransactionIsolation", "resetConcurrentConnectionIndexes" };
+				"rollback", "setAutoCommit", "setReadOnly", "setTransactionIsolation", "resetConcurrentConnectionIndexes",
+				"setParallelExecutors", "getParallelExecutor", "setStreamingUnorderedQuery",
+				"setMergeSpillConfig" };
 	}
 
 	protected Object getTestObj() {
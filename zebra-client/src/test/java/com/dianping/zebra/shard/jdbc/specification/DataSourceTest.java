@@ -88,7 +88,10 @@ public class DataSourceTest extends BaseTestCase {
 				"setExtraJdbcUrlParams", "setDefaultDatasource", "getRuleName", "setLazyInit", "setRouterStrategy",
 				"setFilter", "setRouterType", "setRewriteConfigCheck", "setConcurrencyLevel", "setForbidNoShardKeyWrite",
 				"setReadWriteSplitPool", "setReadParallelCorePoolSize", "setReadParallelMaxPoolSize", "setReadParallelWorkQueueSize",
-				"setReadParallelExecuteTimeOut", "setOptimizeShardKeyInSql", "setConfigManagerType"};
+				"setReadParallelExecuteTimeOut", "setParallelDatabaseConcurrency", "setParallelVirtualThreads",
+				"setStreamingUnorderedQuery", "setOptimizeShardKeyInSql", "setConfigManagerType", "setMergeMaxInMemoryBytes",
+				"setMergeSpillDirectory", "setParsedSqlCacheCapacity", "setParsedSqlCacheWeighBySqlLength",
+				"setInitConcurrency", "setInitTimeout", "setWarmUpPool"};
 	}
 
 	protected Object getTestObj() {
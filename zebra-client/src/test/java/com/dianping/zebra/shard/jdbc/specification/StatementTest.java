@@ -54,7 +54,8 @@ public class StatementTest extends BaseTestCase {
 				"setAutoCommit", "getRouter", "setRouter", "checkClosed", "addBatch", "clearBatch", "close", "execute",
 				"executeQuery", "executeUpdate", "getConnection", "getMoreResults", "getResultSet",
 				"getResultSetConcurrency", "getResultSetHoldability", "getResultSetType", "getUpdateCount", "isClosed","" +
-				"getGeneratedKeys","setConcurrencyLevel"};
+				"getGeneratedKeys","setConcurrencyLevel", "setStreamingUnorderedQuery",
+				"getMergeSpillConfig", "setMergeSpillConfig"};
 	}
 
 	protected Object getTestObj() {
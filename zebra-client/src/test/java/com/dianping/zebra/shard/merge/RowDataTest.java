@@ -0,0 +1,117 @@
+package com.dianping.zebra.shard.merge;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+import org.junit.Test;
+
+import junit.framework.Assert;
+
+public class RowDataTest {
+
+	private RowDataMeta meta = new RowDataMeta(new String[] { "id", "score", "name" }, new int[] { 1, 2, 3 },
+	      new byte[] { RowDataMeta.KIND_INT, RowDataMeta.KIND_SHORT, RowDataMeta.KIND_OBJECT });
+
+	private RowData createRow(int id, Object score, String name) {
+		RowData row = new RowData(null, meta);
+		row.setValueAt(0, id);
+		row.setValueAt(1, score);
+		row.setValueAt(2, name);
+		return row;
+	}
+
+	@Test
+	public void testGetValue() throws SQLException {
+		RowData row = createRow(1, (short) 10, null);
+
+		Assert.assertTrue(row.isIntegralAt(0));
+		Assert.assertEquals(1L, row.getPrimitiveAt(0));
+		Assert.assertEquals(Integer.valueOf(1), row.getValue(1));
+		Assert.assertEquals(Short.valueOf((short) 10), row.getValue("SCORE"));
+		Assert.assertTrue(row.isWasNull("name"));
+		Assert.assertNull(row.getValue(3));
+		Assert.assertEquals(3, row.getIndexByName("name"));
+	}
+
+	@Test
+	public void testSetValueWithDifferentType() {
+		RowData row = createRow(1, (short) 10, "a");
+
+		// short相加之后为Integer
+		row.setValueAt(1, 20);
+
+		Assert.assertFalse(row.isPrimitiveAt(1));
+		Assert.assertEquals(Integer.valueOf(20), row.getValueAt(1));
+		Assert.assertEquals(Integer.valueOf(20), new RowData(row).getValueAt(1));
+	}
+
+	@Test
+	public void testEqualsAndHashCode() {
+		RowData row1 = createRow(1, (short) 10, "a");
+		RowData row2 = createRow(1, (short) 10, "a");
+		RowData row3 = createRow(1, (short) 11, "a");
+
+		Assert.assertEquals(row1, row2);
+		Assert.assertEquals(row1.hashCode(), row2.hashCode());
+		Assert.assertFalse(row1.equals(row3));
+
+		row2.setValueAt(1, null);
+		Assert.assertFalse(row1.equals(row2));
+	}
+
+	@Test
+	public void testDecimalAndTemporalStoredAsLong() {
+		RowDataMeta meta = new RowDataMeta(new String[] { "amount", "created", "day" }, new int[] { 1, 2, 3 },
+		      new byte[] { RowDataMeta.KIND_DECIMAL, RowDataMeta.KIND_TIMESTAMP, RowDataMeta.KIND_DATE }, new int[] {
+		            2, 0, 0 });
+		Timestamp created = Timestamp.valueOf("1960-05-06 07:08:09.123456789");
+		java.sql.Date day = java.sql.Date.valueOf("2018-01-02");
+
+		RowData row = new RowData(null, meta);
+		row.setValueAt(0, new BigDecimal("-12.34"));
+		row.setValueAt(1, created);
+		row.setValueAt(2, day);
+
+		Assert.assertTrue(row.isPrimitiveAt(0));
+		Assert.assertEquals(-1234L, row.getPrimitiveAt(0));
+		Assert.assertTrue(row.isPrimitiveAt(1));
+		Assert.assertTrue(row.isPrimitiveAt(2));
+		Assert.assertEquals(new BigDecimal("-12.34"), row.getValueAt(0));
+		Assert.assertEquals(created, row.getValueAt(1));
+		Assert.assertEquals(created.hashCode(), row.getValueAt(1).hashCode());
+		Assert.assertEquals(day, row.getValueAt(2));
+
+		// 小数位数与列信息不一致时保存原始对象
+		row.setValueAt(0, new BigDecimal("1.5"));
+		Assert.assertFalse(row.isPrimitiveAt(0));
+		Assert.assertEquals(new BigDecimal("1.5"), row.getValueAt(0));
+	}
+
+	@Test
+	public void testPrimitiveAccessors() {
+		RowData row = createRow(7, (short) 10, "a");
+
+		Assert.assertTrue(row.isNumericAt(0));
+		Assert.assertEquals(7L, row.getLongAt(0));
+		Assert.assertEquals(10.0, row.getDoubleAt(1));
+		Assert.assertFalse(row.isNumericAt(2));
+	}
+
+	@Test
+	public void testColumnDataCached() throws SQLException {
+		RowData row = createRow(1, (short) 10, "a");
+
+		Assert.assertSame(row.get("id"), row.get(1));
+		Assert.assertSame(row.getColumnDatas(), row.getColumnDatas());
+
+		row.setValueAt(0, 2);
+		Assert.assertEquals(Integer.valueOf(2), row.get("id").getValue());
+		Assert.assertEquals(Integer.valueOf(2), row.getColumnDatas().get(0).getValue());
+	}
+
+	@Test(expected = SQLException.class)
+	public void testNoColumn() throws SQLException {
+		createRow(1, (short) 10, "a").get("unknown");
+	}
+}
@@ -0,0 +1,78 @@
+package com.dianping.zebra.shard.merge;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.Assert;
+
+public class ShardResultSetAdaptorTest {
+
+	private Connection conn;
+
+	@Before
+	public void setUp() throws SQLException {
+		conn = DriverManager.getConnection("jdbc:h2:mem:adaptor_ut;DB_CLOSE_DELAY=-1");
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		conn.close();
+	}
+
+	private ResultSet query(int from, int to) throws SQLException {
+		return conn.createStatement().executeQuery("SELECT X FROM SYSTEM_RANGE(" + from + ", " + to + ")");
+	}
+
+	@Test
+	public void testInterleaved() throws SQLException {
+		List<ResultSet> resultSets = new ArrayList<ResultSet>();
+		resultSets.add(query(1, 3));
+		resultSets.add(query(11, 11));
+		resultSets.add(query(21, 22));
+
+		ShardResultSetAdaptor adaptor = new ShardResultSetAdaptor();
+		adaptor.setResultSets(resultSets);
+		adaptor.setInterleaved(true);
+		adaptor.procLimit();
+
+		List<Integer> values = new ArrayList<Integer>();
+		while (adaptor.next()) {
+			values.add(adaptor.getInt(1));
+		}
+
+		Assert.assertEquals("[1, 11, 21, 2, 22, 3]", values.toString());
+	}
+
+	@Test
+	public void testInterleavedLimit() throws SQLException {
+		List<ResultSet> resultSets = new ArrayList<ResultSet>();
+		resultSets.add(query(1, 100));
+		resultSets.add(query(11, 11));
+		resultSets.add(query(21, 100));
+
+		ShardResultSetAdaptor adaptor = new ShardResultSetAdaptor();
+		adaptor.setResultSets(resultSets);
+		adaptor.setInterleaved(true);
+		adaptor.setSkip(1);
+		adaptor.setMax(3);
+		adaptor.procLimit();
+
+		List<Integer> values = new ArrayList<Integer>();
+		while (adaptor.next()) {
+			values.add(adaptor.getInt(1));
+		}
+
+		Assert.assertEquals("[11, 21, 2]", values.toString());
+		// 读满limit后其余的查询被取消并关闭
+		Assert.assertTrue(resultSets.get(0).isClosed());
+		Assert.assertTrue(resultSets.get(2).isClosed());
+	}
+}
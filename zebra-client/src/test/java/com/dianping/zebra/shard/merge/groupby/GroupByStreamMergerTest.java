@@ -0,0 +1,177 @@
+package com.dianping.zebra.shard.merge.groupby;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dianping.zebra.shard.merge.MergeContext;
+import com.dianping.zebra.shard.merge.MergeSpillConfig;
+import com.dianping.zebra.shard.merge.RowData;
+import com.dianping.zebra.shard.merge.orderby.ExternalSortStream;
+import com.dianping.zebra.shard.parser.SQLParser;
+
+import junit.framework.Assert;
+
+public class GroupByStreamMergerTest {
+
+	private static final String SQL = "select type, count(*) as c, sum(score) as s, max(score) as m from test group by type";
+
+	private static final String ID_SQL = "select id, sum(score) as s from test group by id order by s desc";
+
+	private Connection conn;
+
+	private List<Statement> stmts = new ArrayList<Statement>();
+
+	@Before
+	public void setUp() throws Exception {
+		Class.forName("org.h2.Driver");
+		conn = DriverManager.getConnection("jdbc:h2:mem:groupby_stream;DB_CLOSE_DELAY=-1");
+		Statement stmt = conn.createStatement();
+		for (int table = 0; table < 4; table++) {
+			stmt.execute("create table test_" + table + " (id int, type varchar(16), score int)");
+			for (int i = 0; i < 50; i++) {
+				stmt.execute("insert into test_" + table + " values (" + i + ", 't" + (i % 10) + "', " + (i + table)
+				      + ")");
+			}
+		}
+		stmt.close();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (Statement stmt : stmts) {
+			stmt.close();
+		}
+		Statement stmt = conn.createStatement();
+		stmt.execute("drop all objects");
+		stmt.close();
+		conn.close();
+	}
+
+	@Test
+	public void testGroupByInMemory() throws Exception {
+		GroupByStreamMerger merger = new GroupByStreamMerger(query(SQL), mergeContext(SQL), config(1024 * 1024));
+		Map<String, long[]> groups = drain(merger);
+
+		Assert.assertFalse(merger.isSpilled());
+		assertGroups(groups);
+	}
+
+	@Test
+	public void testGroupBySpillToDisk() throws Exception {
+		GroupByStreamMerger merger = new GroupByStreamMerger(query(SQL), mergeContext(SQL), config(1024));
+		Map<String, long[]> groups = drain(merger);
+
+		Assert.assertTrue(merger.isSpilled());
+		assertGroups(groups);
+	}
+
+	@Test
+	public void testGroupByRepartition() throws Exception {
+		// 50个分组落到16个分区，至少有一个分区读回时还要再拆分
+		GroupByStreamMerger merger = new GroupByStreamMerger(query(ID_SQL), mergeContext(ID_SQL), config(1));
+		Map<Integer, Long> sums = new HashMap<Integer, Long>();
+		try {
+			RowData row;
+			while ((row = merger.next()) != null) {
+				Assert.assertNull(sums.put(((Number) row.get("id").getValue()).intValue(),
+				      ((Number) row.get("s").getValue()).longValue()));
+			}
+		} finally {
+			merger.close();
+		}
+
+		Assert.assertTrue(merger.getMaxSpillLevel() >= 1);
+		Assert.assertEquals(50, sums.size());
+		for (int id = 0; id < 50; id++) {
+			Assert.assertEquals(Long.valueOf(4 * id + 6), sums.get(id));
+		}
+	}
+
+	@Test
+	public void testGroupByOrderBySpillToDisk() throws Exception {
+		MergeContext mergeContext = mergeContext(ID_SQL);
+		MergeSpillConfig config = config(1024);
+		ExternalSortStream stream = new ExternalSortStream(new GroupByStreamMerger(query(ID_SQL), mergeContext,
+		      config), mergeContext.getOrderByComparator(), config);
+		List<Long> sums = new ArrayList<Long>();
+		try {
+			RowData row;
+			while ((row = stream.next()) != null) {
+				sums.add(((Number) row.get("s").getValue()).longValue());
+			}
+		} finally {
+			stream.close();
+		}
+
+		Assert.assertTrue(stream.isSpilled());
+		Assert.assertEquals(50, sums.size());
+		for (int i = 0; i < 50; i++) {
+			Assert.assertEquals(4 * (49 - i) + 6, sums.get(i).longValue());
+		}
+	}
+
+	private void assertGroups(Map<String, long[]> groups) {
+		Assert.assertEquals(10, groups.size());
+		for (int type = 0; type < 10; type++) {
+			long count = 0, sum = 0, max = Long.MIN_VALUE;
+			for (int table = 0; table < 4; table++) {
+				for (int i = type; i < 50; i += 10) {
+					count++;
+					sum += i + table;
+					max = Math.max(max, i + table);
+				}
+			}
+
+			long[] actual = groups.get("t" + type);
+			Assert.assertEquals(count, actual[0]);
+			Assert.assertEquals(sum, actual[1]);
+			Assert.assertEquals(max, actual[2]);
+		}
+	}
+
+	private Map<String, long[]> drain(GroupByStreamMerger merger) throws SQLException {
+		Map<String, long[]> groups = new HashMap<String, long[]>();
+		try {
+			RowData row;
+			while ((row = merger.next()) != null) {
+				String type = (String) row.get("type").getValue();
+				Assert.assertNull(groups.put(type, new long[] { ((Number) row.get("c").getValue()).longValue(),
+				      ((Number) row.get("s").getValue()).longValue(), ((Number) row.get("m").getValue()).longValue() }));
+			}
+		} finally {
+			merger.close();
+		}
+
+		return groups;
+	}
+
+	private MergeSpillConfig config(long maxInMemoryBytes) {
+		return new MergeSpillConfig(maxInMemoryBytes, null);
+	}
+
+	private MergeContext mergeContext(String sql) throws Exception {
+		return SQLParser.parseWithoutCache(sql).getMergeContext();
+	}
+
+	private List<ResultSet> query(String sql) throws SQLException {
+		List<ResultSet> resultSets = new ArrayList<ResultSet>();
+		for (int table = 0; table < 4; table++) {
+			Statement stmt = conn.createStatement();
+			stmts.add(stmt);
+			resultSets.add(stmt.executeQuery(sql.replace("from test", "from test_" + table)));
+		}
+
+		return resultSets;
+	}
+}
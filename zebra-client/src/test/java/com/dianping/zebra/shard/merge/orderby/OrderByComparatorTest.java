@@ -0,0 +1,78 @@
+package com.dianping.zebra.shard.merge.orderby;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.dianping.zebra.shard.merge.MergeContext;
+import com.dianping.zebra.shard.merge.RowData;
+import com.dianping.zebra.shard.merge.RowDataMeta;
+import com.dianping.zebra.shard.parser.SQLParser;
+
+import junit.framework.Assert;
+
+public class OrderByComparatorTest {
+
+	private RowDataMeta meta = new RowDataMeta(new String[] { "id", "n", "score" }, new int[] { 1, 2, 3 }, new byte[] {
+	      RowDataMeta.KIND_LONG, RowDataMeta.KIND_OBJECT, RowDataMeta.KIND_DOUBLE });
+
+	private RowData createRow(long id, String name, Double score) {
+		RowData row = new RowData(null, meta);
+		row.setValueAt(0, id);
+		row.setValueAt(1, name);
+		row.setValueAt(2, score);
+		return row;
+	}
+
+	@Test
+	public void testCompare() throws Exception {
+		MergeContext mergeContext = SQLParser.parseWithoutCache(
+		      "select id, name as n, score from test order by score desc, name, id").getMergeContext();
+		OrderByComparator comparator = mergeContext.getOrderByComparator();
+
+		Assert.assertSame(comparator, mergeContext.getOrderByComparator());
+
+		List<RowData> rows = new ArrayList<RowData>();
+		rows.add(createRow(3, "b", 1.0));
+		rows.add(createRow(2, "a", 1.0));
+		rows.add(createRow(1, "a", 1.0));
+		rows.add(createRow(4, null, 1.0));
+		rows.add(createRow(5, "c", 2.5));
+
+		new OrderByDataMerger().process(rows, mergeContext);
+
+		long[] expected = new long[] { 5, 4, 1, 2, 3 };
+		for (int i = 0; i < expected.length; i++) {
+			Assert.assertEquals(expected[i], rows.get(i).getPrimitiveAt(0));
+		}
+	}
+
+	@Test
+	public void testCompareDecimalAndTimestamp() throws Exception {
+		RowDataMeta meta = new RowDataMeta(new String[] { "amount", "created" }, new int[] { 1, 2 }, new byte[] {
+		      RowDataMeta.KIND_DECIMAL, RowDataMeta.KIND_TIMESTAMP }, new int[] { 2, 0 });
+		MergeContext mergeContext = SQLParser.parseWithoutCache(
+		      "select amount, created from test order by amount, created desc").getMergeContext();
+
+		String[][] values = new String[][] { { "1.50", "1969-12-31 23:59:59.9" }, { "-3.00", "2018-01-01 00:00:00" },
+		      { "1.50", "1970-01-01 00:00:00.000000001" }, { "1.50", "1950-01-01 00:00:00" } };
+		List<RowData> rows = new ArrayList<RowData>();
+		for (String[] value : values) {
+			RowData row = new RowData(null, meta);
+			row.setValueAt(0, new BigDecimal(value[0]));
+			row.setValueAt(1, Timestamp.valueOf(value[1]));
+			Assert.assertTrue(row.isPrimitiveAt(0) && row.isPrimitiveAt(1));
+			rows.add(row);
+		}
+
+		new OrderByDataMerger().process(rows, mergeContext);
+
+		int[] expected = new int[] { 1, 2, 0, 3 };
+		for (int i = 0; i < expected.length; i++) {
+			Assert.assertEquals(Timestamp.valueOf(values[expected[i]][1]), rows.get(i).getValueAt(1));
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package com.dianping.zebra.shard.merge.orderby;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.dianping.zebra.shard.merge.MergeContext;
+import com.dianping.zebra.shard.merge.RowData;
+import com.dianping.zebra.shard.merge.RowDataMeta;
+import com.dianping.zebra.shard.parser.SQLParser;
+
+import junit.framework.Assert;
+
+public class OrderByTopNMergerTest {
+
+	private RowDataMeta meta = new RowDataMeta(new String[] { "id", "score" }, new int[] { 1, 2 }, new byte[] {
+	      RowDataMeta.KIND_LONG, RowDataMeta.KIND_INT });
+
+	private RowData createRow(long id, int score) {
+		RowData row = new RowData(null, meta);
+		row.setValueAt(0, id);
+		row.setValueAt(1, score);
+		return row;
+	}
+
+	@Test
+	public void testSameAsFullSort() throws Exception {
+		MergeContext mergeContext = SQLParser.parseWithoutCache("select id, score from test order by score desc")
+		      .getMergeContext();
+
+		List<RowData> rows = new ArrayList<RowData>();
+		for (int i = 0; i < 200; i++) {
+			rows.add(createRow(i, (i * 7) % 13));
+		}
+
+		OrderByTopNMerger topN = new OrderByTopNMerger(15, mergeContext.getOrderByComparator(), false);
+		for (RowData row : rows) {
+			topN.offer(row);
+		}
+		List<RowData> topRows = topN.getSortedRows();
+
+		List<RowData> sortedRows = new OrderByDataMerger().process(new ArrayList<RowData>(rows), mergeContext);
+
+		Assert.assertEquals(15, topRows.size());
+		for (int i = 0; i < topRows.size(); i++) {
+			Assert.assertSame(sortedRows.get(i), topRows.get(i));
+		}
+	}
+
+	@Test
+	public void testDistinct() throws Exception {
+		MergeContext mergeContext = SQLParser.parseWithoutCache("select distinct id, score from test order by score")
+		      .getMergeContext();
+
+		OrderByTopNMerger topN = new OrderByTopNMerger(3, mergeContext.getOrderByComparator(), true);
+		topN.offer(createRow(1, 5));
+		topN.offer(createRow(2, 1));
+		topN.offer(createRow(2, 1));
+		topN.offer(createRow(3, 9));
+		topN.offer(createRow(4, 3));
+		topN.offer(createRow(3, 9));
+
+		List<RowData> topRows = topN.getSortedRows();
+		Assert.assertEquals(3, topRows.size());
+		Assert.assertEquals(2L, topRows.get(0).getPrimitiveAt(0));
+		Assert.assertEquals(4L, topRows.get(1).getPrimitiveAt(0));
+		Assert.assertEquals(1L, topRows.get(2).getPrimitiveAt(0));
+	}
+}
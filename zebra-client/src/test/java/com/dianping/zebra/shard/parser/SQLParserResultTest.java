@@ -33,6 +33,36 @@ public class SQLParserResultTest {
 		System.out.println(System.currentTimeMillis() - begin);
 	}
 
+	@Test
+	public void testConfigCacheOnlyGrows() throws ShardParseException {
+		try {
+			SQLParser.configCache(2000, false);
+			SQLParser.parseWithCache("select a from db");
+			Assert.assertEquals(2000, SQLParser.getCacheStats().getMaxWeight());
+
+			// 使用默认配置或者容量更小的数据源不覆盖已有配置，也不丢弃已缓存的结果
+			SQLParser.configCache(SQLParser.DEFAULT_CACHE_CAPACITY, false);
+			Assert.assertEquals(2000, SQLParser.getCacheStats().getMaxWeight());
+			Assert.assertEquals(1, SQLParser.getCacheStats().getSize());
+
+			// 计算方式不同的配置忽略
+			SQLParser.configCache(100000, true);
+			Assert.assertEquals(2000, SQLParser.getCacheStats().getMaxWeight());
+			Assert.assertFalse(SQLParser.isCacheWeighBySqlLength());
+
+			SQLParser.configCache(5000, false);
+			Assert.assertEquals(5000, SQLParser.getCacheStats().getMaxWeight());
+
+			try {
+				SQLParser.configCache(0, false);
+				Assert.fail();
+			} catch (IllegalArgumentException ignore) {
+			}
+		} finally {
+			SQLParser.resetCache();
+		}
+	}
+
 	@Test
 	public void testTableSetsForSelect1() throws ShardParseException {
 		SQLParsedResult result = SQLParser
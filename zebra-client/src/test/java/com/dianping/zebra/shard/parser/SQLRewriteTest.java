@@ -7,7 +7,9 @@ import com.dianping.zebra.shard.exception.ShardParseException;
 import junit.framework.Assert;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 public class SQLRewriteTest {
 
@@ -166,4 +168,22 @@ public class SQLRewriteTest {
 		Assert.assertNotNull(result.getRouterContext().getSqlhint());
 		Assert.assertEquals("SELECT a\nFROM db0\nWHERE `c` = ?\nFOR UPDATE", newSql);
 	}
+
+	@Test
+	public void testRewriteTemplate() throws ShardParseException {
+		DefaultSQLRewrite rewriter = new DefaultSQLRewrite();
+		SQLParsedResult result = SQLParser
+				.parseWithoutCache("select db.a, b from db where db.c = ? and d in (select d from other) limit 10, 100");
+
+		String newSql1 = rewriter.rewrite(result, "db", "db_1");
+		Set<Integer> variantRefIndexes = new HashSet<Integer>();
+		String newSql2 = rewriter.rewrite(result, "db", "db_22", variantRefIndexes);
+
+		Assert.assertSame(result.getRewriteTemplate("db"), result.getRewriteTemplate("db"));
+		Assert.assertEquals(
+				"SELECT db_1.a, b\nFROM db_1\nWHERE db_1.c = ?\n\tAND d IN (SELECT d\n\t\tFROM other)\nLIMIT 0, 110",
+				newSql1);
+		Assert.assertEquals(newSql1.replace("db_1", "db_22"), newSql2);
+		Assert.assertEquals(1, variantRefIndexes.size());
+	}
 }
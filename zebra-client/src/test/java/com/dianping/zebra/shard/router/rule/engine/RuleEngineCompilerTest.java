@@ -0,0 +1,110 @@
+package com.dianping.zebra.shard.router.rule.engine;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.zebra.shard.router.rule.ShardRange;
+
+public class RuleEngineCompilerTest {
+
+	private static final List<Object> VALUES = Arrays.<Object> asList(0, 1, 7, 9, 25, 31, 1024, 123456789, -13,
+	      Integer.MAX_VALUE, Integer.MIN_VALUE, 10L, 9876543210L, -9876543210L, Long.MAX_VALUE, (short) 17, (byte) 5);
+
+	@Test
+	public void testCompileCommonRules() {
+		String[] rules = new String[] { "#id# % 2", "#id#.intValue() % 2", "#id#.longValue() % 8",
+		      "(#id#.intValue() % 8).intdiv(2)", "(#NoteID#.longValue() % 32).intdiv(8)", "#id#.intdiv(2) % 2",
+		      "(#id# % 10000).intdiv(100) % 10", "crc32(#bid#) % 10", "(crc32(#bid#)/10).toLong()%10",
+		      "(#id#/100).intValue() % 4", "shardByHash(#id#, 2, 4)", "shardByHash(#id#, 2, 4, false)" };
+
+		for (String rule : rules) {
+			Assert.assertNotNull(rule, RuleEngineCompiler.tryCompile(rule));
+		}
+	}
+
+	@Test
+	public void testFallbackToGroovy() {
+		String[] rules = new String[] { "#id#", "#colOne# == null ? SKIP: 0", "(crc32(md5(#id# + #name#))/10).toLong()%4",
+		      "#id# % 0", "#id# % 010", "(#id#/3).toLong() % 4", "#id#/10", "(#id#/10) % 4", "#id# % 2L",
+		      "#id# % #name#", "#id# + 1", "shardByHash(#id#, 2)", "shardByHash(#id#, #name#, 4)" };
+
+		for (String rule : rules) {
+			Assert.assertNull(rule, RuleEngineCompiler.tryCompile(rule));
+		}
+
+		Assert.assertTrue(RuleEngineCompiler.compile("#colOne# == null ? SKIP: 0") instanceof GroovyRuleEngine);
+		Assert.assertTrue(RuleEngineCompiler.compile("#id# % 8") instanceof CompiledRuleEngine);
+	}
+
+	@Test
+	public void testSameResultAsGroovy() {
+		String[] rules = new String[] { "#id# % 2", "#id# % 8", "#id#.intValue() % 2", "#id#.longValue() % 8",
+		      "(#id#.intValue() % 8).intdiv(2)", "(#id#.longValue() % 32).intdiv(8)", "#id#.intdiv(2) % 2",
+		      "(#id# % 10000).intdiv(100) % 10", "crc32(#id#) % 10", "(crc32(#id#)/10).toLong()%10",
+		      "(#id#/100).intValue() % 4", "(#id#/8).longValue() % 3", "#id# % 4294967296",
+		      "shardByHash(#id#, 2, 4)", "shardByHash(#id#, 2, 4, false)" };
+
+		for (String rule : rules) {
+			RuleEngine compiled = RuleEngineCompiler.tryCompile(rule);
+			RuleEngine groovy = new GroovyRuleEngine(rule);
+
+			for (Object value : VALUES) {
+				Map<String, Object> valMap = new HashMap<String, Object>();
+				valMap.put("id", value);
+
+				Object expected = groovy.eval(valMap);
+				Object actual = compiled.eval(valMap);
+
+				Assert.assertEquals(rule + " : " + value, expected, actual);
+				Assert.assertEquals(rule + " : " + value, expected.getClass(), actual.getClass());
+			}
+		}
+	}
+
+	@Test
+	public void testNonIntegralValue() {
+		RuleEngine compiled = RuleEngineCompiler.tryCompile("crc32(#bid#) % 10");
+		RuleEngine groovy = new GroovyRuleEngine("crc32(#bid#) % 10");
+
+		Map<String, Object> valMap = new HashMap<String, Object>();
+		valMap.put("bid", "2127114697");
+		Assert.assertEquals(groovy.eval(valMap), compiled.eval(valMap));
+
+		// 需要整数运算而值不是整数时由Groovy计算
+		compiled = RuleEngineCompiler.tryCompile("#id#.intValue() % 4");
+		groovy = new GroovyRuleEngine("#id#.intValue() % 4");
+		valMap.put("id", 1.5d);
+		Assert.assertEquals(groovy.eval(valMap), compiled.eval(valMap));
+	}
+
+	@Test
+	public void testShardByLongAndMonth() {
+		String longRule = "shardByLong(#uid#, 10001, 90000, 10000, 4, 2, 1, 4, false)";
+		RuleEngine compiled = RuleEngineCompiler.tryCompile(longRule);
+		RuleEngine groovy = new GroovyRuleEngine(longRule);
+		Assert.assertNotNull(compiled);
+
+		Set<ShardRange> ranges = new LinkedHashSet<ShardRange>();
+		ranges.add(new ShardRange(ShardRange.OP_Equal, 35000));
+		Map<String, Object> valMap = new HashMap<String, Object>();
+		valMap.put("uid", ranges);
+		Assert.assertEquals(groovy.eval(valMap), compiled.eval(valMap));
+
+		String monthRule = "shardByMonth(#time#, 'yyyy-MM-dd', '2015-01-15', '2016-12-20', 3, 2, 4, 2, 0)";
+		compiled = RuleEngineCompiler.tryCompile(monthRule);
+		groovy = new GroovyRuleEngine(monthRule);
+		Assert.assertNotNull(compiled);
+
+		ranges = new LinkedHashSet<ShardRange>();
+		ranges.add(new ShardRange(ShardRange.OP_Equal, "2015-06-01"));
+		valMap.put("time", ranges);
+		Assert.assertEquals(groovy.eval(valMap), compiled.eval(valMap));
+	}
+}
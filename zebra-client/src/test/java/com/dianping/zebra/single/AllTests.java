@@ -14,6 +14,7 @@ import org.junit.runners.Suite;
         //dbcp2和dbcp不能同时测试，需要切换jdk版本
         Dbcp2SingleDataSourceFieldTest.class,
         DbcpSingleDataSourceFieldTest.class,
+        CircuitBreakerTest.class,
 
 
 })
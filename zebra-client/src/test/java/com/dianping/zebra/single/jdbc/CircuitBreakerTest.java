@@ -0,0 +1,166 @@
+package com.dianping.zebra.single.jdbc;
+
+import java.sql.SQLException;
+import java.sql.SQLSyntaxErrorException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+	private static final SQLException CONNECTION_ERROR = new SQLException("connection lost", "08S01");
+
+	@Test
+	public void testOpenAndRecover() throws InterruptedException {
+		final List<CircuitBreaker.State> states = new ArrayList<CircuitBreaker.State>();
+		CircuitBreaker breaker = new CircuitBreaker(10000, 3, new CircuitBreaker.StateListener() {
+			@Override
+			public void stateChanged(CircuitBreaker breaker, CircuitBreaker.State from, CircuitBreaker.State to) {
+				states.add(to);
+			}
+		});
+		breaker.setOpenDurationMillis(50);
+		breaker.setHalfOpenTrialCalls(2);
+
+		breaker.onSuccess(1);
+		breaker.onError(CONNECTION_ERROR, 1);
+		breaker.onError(CONNECTION_ERROR, 1);
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+		breaker.onConnectionError(CONNECTION_ERROR);
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		Assert.assertFalse(breaker.isAvailable());
+		Assert.assertFalse(breaker.tryAcquirePermission());
+
+		Thread.sleep(60);
+		Assert.assertTrue(breaker.isAvailable());
+		Assert.assertTrue(breaker.tryAcquirePermission());
+		Assert.assertTrue(breaker.tryAcquirePermission());
+		Assert.assertFalse(breaker.tryAcquirePermission());
+		Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+		breaker.onSuccess(1);
+		breaker.onSuccess(1);
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		Assert.assertTrue(breaker.tryAcquirePermission());
+
+		Assert.assertEquals(3, states.size());
+		Assert.assertEquals(CircuitBreaker.State.OPEN, states.get(0));
+		Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, states.get(1));
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, states.get(2));
+	}
+
+	@Test
+	public void testConcurrentHalfOpenGrantsTrialCallsOnce() throws InterruptedException {
+		for (int round = 0; round < 200; round++) {
+			final CircuitBreaker breaker = new CircuitBreaker(10000, 1, null);
+			breaker.setOpenDurationMillis(1);
+			breaker.setHalfOpenTrialCalls(2);
+			breaker.onConnectionError(CONNECTION_ERROR);
+			Thread.sleep(2);
+
+			final CountDownLatch start = new CountDownLatch(1);
+			final AtomicInteger granted = new AtomicInteger();
+			Thread[] threads = new Thread[8];
+			for (int i = 0; i < threads.length; i++) {
+				threads[i] = new Thread() {
+					@Override
+					public void run() {
+						try {
+							start.await();
+						} catch (InterruptedException e) {
+							return;
+						}
+						if (breaker.tryAcquirePermission()) {
+							granted.incrementAndGet();
+						}
+					}
+				};
+				threads[i].start();
+			}
+			start.countDown();
+			for (Thread thread : threads) {
+				thread.join();
+			}
+
+			// 同时看到熔断到期的线程不能重复发放试探名额
+			Assert.assertEquals(2, granted.get());
+		}
+	}
+
+	@Test
+	public void testFailedTrialReopens() throws InterruptedException {
+		CircuitBreaker breaker = new CircuitBreaker(10000, 1, null);
+		breaker.setOpenDurationMillis(50);
+
+		breaker.onConnectionError(CONNECTION_ERROR);
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+		Thread.sleep(60);
+		Assert.assertTrue(breaker.tryAcquirePermission());
+		breaker.onError(CONNECTION_ERROR, 1);
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		Assert.assertFalse(breaker.tryAcquirePermission());
+	}
+
+	@Test
+	public void testReleaseUnusedTrialPermission() throws InterruptedException {
+		CircuitBreaker breaker = new CircuitBreaker(10000, 1, null);
+		breaker.setOpenDurationMillis(50);
+		breaker.setHalfOpenTrialCalls(2);
+
+		breaker.onConnectionError(CONNECTION_ERROR);
+		Thread.sleep(60);
+		Assert.assertTrue(breaker.tryAcquirePermission());
+		Assert.assertTrue(breaker.tryAcquirePermission());
+		Assert.assertFalse(breaker.tryAcquirePermission());
+
+		// 没有执行语句的连接归还名额，但不计为成功
+		breaker.releasePermission();
+		breaker.releasePermission();
+		breaker.releasePermission();
+		Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		Assert.assertTrue(breaker.tryAcquirePermission());
+		breaker.onSuccess(1);
+		Assert.assertTrue(breaker.tryAcquirePermission());
+		Assert.assertFalse(breaker.tryAcquirePermission());
+		breaker.onSuccess(1);
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void testSqlErrorsAndSlowCalls() {
+		CircuitBreaker breaker = new CircuitBreaker(10000, 2, null);
+		breaker.setSlowCallDurationMillis(100);
+
+		for (int i = 0; i < 10; i++) {
+			breaker.onError(new SQLSyntaxErrorException("bad sql", "42000"), 1);
+		}
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+		breaker.onError(new SQLTimeoutException("timeout"), 1);
+		breaker.onSuccess(200);
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+		for (int i = 0; i < 10; i++) {
+			breaker.onSuccess(200);
+		}
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void testDisabled() {
+		CircuitBreaker breaker = new CircuitBreaker(0, 1, null);
+
+		for (int i = 0; i < 10; i++) {
+			breaker.onConnectionError(CONNECTION_ERROR);
+		}
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		Assert.assertTrue(breaker.tryAcquirePermission());
+	}
+}
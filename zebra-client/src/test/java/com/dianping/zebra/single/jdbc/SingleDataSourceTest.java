@@ -1,8 +1,10 @@
 package com.dianping.zebra.single.jdbc;
 
 import com.dianping.zebra.Constants;
+import com.dianping.zebra.group.config.datasource.entity.Any;
 import com.google.common.collect.Lists;
 import com.mchange.v2.c3p0.ComboPooledDataSource;
+import org.junit.Assert;
 import org.junit.Test;
 
 import java.sql.SQLException;
@@ -54,6 +56,22 @@ public class SingleDataSourceTest extends AbstractSingleDataSourceTest {
         ds.close();
     }
 
+    @Test
+    public void testMinPoolSize() {
+        SingleDataSource ds = new SingleDataSource();
+        Any minPoolSize = new Any().setName("minPoolSize").setValue("@I_5");
+        ds.getConfig().getProperties().add(minPoolSize);
+        Assert.assertEquals(5, ds.getMinPoolSize());
+
+        // 无法解析的配置不预热
+        minPoolSize.setValue("@I_five");
+        Assert.assertEquals(0, ds.getMinPoolSize());
+        minPoolSize.setValue("");
+        Assert.assertEquals(0, ds.getMinPoolSize());
+        minPoolSize.setValue(" 3 ");
+        Assert.assertEquals(3, ds.getMinPoolSize());
+    }
+
     @Test
     public void test() {
         assertField(SingleDataSource.class, ComboPooledDataSource.class, new ArrayList<String>());
@@ -0,0 +1,93 @@
+package com.dianping.zebra.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ClockCacheTest {
+
+	@Test
+	public void testEvictUnreferencedFirst() {
+		ClockCache<String, Integer> cache = new ClockCache<String, Integer>(3);
+		cache.put("a", 1);
+		cache.put("b", 2);
+		cache.put("c", 3);
+
+		Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+		cache.put("d", 4);
+
+		Assert.assertEquals(3, cache.getSize());
+		Assert.assertEquals(1, cache.getEvictionCount());
+		Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+		Assert.assertNull(cache.get("b"));
+		Assert.assertEquals(Integer.valueOf(4), cache.get("d"));
+	}
+
+	@Test
+	public void testWeigher() {
+		ClockCache<String, String> cache = new ClockCache<String, String>(10, new ClockCache.Weigher<String, String>() {
+			@Override
+			public int weigh(String key, String value) {
+				return key.length();
+			}
+		});
+		cache.put("12345", "a");
+		cache.put("1234", "b");
+		cache.put("123", "c");
+
+		Assert.assertTrue(cache.getWeightedSize() <= 10);
+		Assert.assertEquals(2, cache.getSize());
+
+		// 超过容量的条目不缓存
+		cache.put("12345678901", "d");
+		Assert.assertNull(cache.get("12345678901"));
+	}
+
+	@Test
+	public void testPutIfAbsentAndStats() {
+		ClockCache<String, Integer> cache = new ClockCache<String, Integer>(10);
+		Assert.assertNull(cache.putIfAbsent("a", 1));
+		Assert.assertEquals(Integer.valueOf(1), cache.putIfAbsent("a", 2));
+		Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+		Assert.assertNull(cache.get("b"));
+
+		Assert.assertEquals(1, cache.getHitCount());
+		Assert.assertEquals(1, cache.getMissCount());
+		Assert.assertEquals(0.5, cache.getHitRate(), 0.0001);
+
+		cache.remove("a");
+		Assert.assertEquals(0, cache.getWeightedSize());
+	}
+
+	@Test
+	public void testPutExistingKeyReusesSlot() {
+		ClockCache<String, String> cache = new ClockCache<String, String>(100, new ClockCache.Weigher<String, String>() {
+			@Override
+			public int weigh(String key, String value) {
+				return value.length();
+			}
+		});
+		for (int i = 0; i < 1000; i++) {
+			cache.put("a", i % 2 == 0 ? "x" : "xyz");
+		}
+
+		Assert.assertEquals(1, cache.getSize());
+		Assert.assertEquals(3, cache.getWeightedSize());
+		Assert.assertEquals("xyz", cache.get("a"));
+		Assert.assertEquals(1, cache.getClockLength());
+	}
+
+	@Test
+	public void testRemoveDoesNotGrowClock() {
+		ClockCache<Integer, Integer> cache = new ClockCache<Integer, Integer>(100);
+		cache.put(-1, -1);
+		for (int i = 0; i < 1000; i++) {
+			cache.put(i, i);
+			cache.remove(i);
+		}
+
+		Assert.assertEquals(1, cache.getSize());
+		Assert.assertEquals(1, cache.getWeightedSize());
+		Assert.assertTrue(cache.getClockLength() <= 3);
+		Assert.assertEquals(Integer.valueOf(-1), cache.get(-1));
+	}
+}